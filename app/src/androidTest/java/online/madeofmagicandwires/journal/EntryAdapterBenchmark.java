@@ -0,0 +1,326 @@
+package online.madeofmagicandwires.journal;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of the entries list: the per-row cost of binding a row in EntryAdapter,
+ * the time taken to compare two versions of a 10,000 entry list, and the frame times of scrolling
+ * through it.
+ *
+ * Results are written to logcat under the {@link #TAG} tag, e.g.
+ * <code>adb logcat -s EntryAdapterBenchmark</code>
+ */
+@RunWith(AndroidJUnit4.class)
+public class EntryAdapterBenchmark {
+
+    private static final String TAG = "EntryAdapterBenchmark";
+
+    /** number of entries in the list **/
+    private static final int ROWS = 10000;
+    /** number of rows bound per bind measurement **/
+    private static final int BOUND_ROWS = 1000;
+    /** number of passes over the bound rows per measurement **/
+    private static final int PASSES = 20;
+    /** number of comparisons per diff measurement **/
+    private static final int DIFFS = 10;
+    /** number of frames the list is scrolled for, and how far it scrolls per frame **/
+    private static final int SCROLL_FRAMES = 600;
+    private static final int SCROLL_PIXELS_PER_FRAME = 60;
+
+    private Instrumentation instrumentation;
+    private Context context;
+    private List<EntryRow> rows;
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = InstrumentationRegistry.getTargetContext();
+        rows = new ArrayList<>(ROWS);
+        long id = 1;
+        for(JournalEntry entry : new JournalGenerator(42).generate(ROWS)) {
+            rows.add(rowOf(entry, id++));
+        }
+    }
+
+    /**
+     * Returns the row the entries list shows of an entry
+     * @param entry the entry
+     * @param id the database id of the entry
+     * @return the row
+     */
+    private static EntryRow rowOf(JournalEntry entry, long id) {
+        String title = entry.getTitle();
+        if(title.length() > EntryDatabase.LIST_TITLE_LENGTH) {
+            title = title.substring(0, EntryDatabase.LIST_TITLE_LENGTH);
+        }
+        return new EntryRow(id, title, EntryDatabase.previewOf(entry.getContent()), entry.getMood(),
+                entry.getTimestamp());
+    }
+
+    /**
+     * Binds the first rows of the list to a single row view, the way the list recycles its rows
+     * @param adapter the adapter holding the rows
+     * @param holder the holder of the row view to bind to
+     * @return the average time per bound row in nanoseconds
+     */
+    private static double bindAll(EntryAdapter adapter, EntryAdapter.EntryViewHolder holder) {
+        long start = System.nanoTime();
+        for(int pass = 0; pass < PASSES; pass++) {
+            for(int position = 0; position < BOUND_ROWS; position++) {
+                adapter.onBindViewHolder(holder, position);
+            }
+        }
+        return (System.nanoTime() - start) / (double) (PASSES * BOUND_ROWS);
+    }
+
+    @Test
+    public void bindViewHolder() throws Exception {
+        final EntryAdapter adapter = new EntryAdapter();
+        final CountDownLatch submitted = new CountDownLatch(1);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // the first version of a list is shown without comparing it to anything
+                adapter.submitList(rows);
+                submitted.countDown();
+            }
+        });
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        EntryAdapter.EntryViewHolder holder = adapter.onCreateViewHolder(new FrameLayout(context), 0);
+
+        // warm up before measuring
+        bindAll(adapter, holder);
+        double cost = bindAll(adapter, holder);
+        Log.i(TAG, String.format(Locale.US, "bind: %.1fus/row", cost / 1000));
+
+        assertEquals(rows.get(BOUND_ROWS - 1).getTitle(), holder.title.getText().toString());
+    }
+
+    /**
+     * Compares two versions of the list the way the adapter does in the background
+     * @param oldRows the version shown
+     * @param newRows the new version
+     * @return the average time per comparison in nanoseconds
+     */
+    private static double diff(final List<EntryRow> oldRows, final List<EntryRow> newRows) {
+        DiffUtil.Callback callback = new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldRows.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newRows.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return EntryRow.DIFF.areItemsTheSame(oldRows.get(oldPosition), newRows.get(newPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return EntryRow.DIFF.areContentsTheSame(oldRows.get(oldPosition), newRows.get(newPosition));
+            }
+        };
+        // warm up before measuring
+        DiffUtil.calculateDiff(callback);
+        long start = System.nanoTime();
+        for(int i = 0; i < DIFFS; i++) {
+            DiffUtil.calculateDiff(callback);
+        }
+        return (System.nanoTime() - start) / (double) DIFFS;
+    }
+
+    @Test
+    public void diff() {
+        List<EntryRow> edited = new ArrayList<>(rows);
+        EntryRow row = edited.get(ROWS / 2);
+        edited.set(ROWS / 2, new EntryRow(row.getDatabaseId(), "edited", row.getPreview(), row.getMood(),
+                row.getTimestamp()));
+        List<EntryRow> inserted = new ArrayList<>(rows);
+        inserted.add(0, new EntryRow(ROWS + 1, "new", null, JournalEntry.MOOD_HAPPY, System.currentTimeMillis()));
+        List<EntryRow> deleted = new ArrayList<>(rows);
+        deleted.remove(ROWS / 2);
+
+        Log.i(TAG, String.format(Locale.US, "diff %d rows, unchanged: %.2fms", ROWS, diff(rows, new ArrayList<>(rows)) / 1e6));
+        Log.i(TAG, String.format(Locale.US, "diff %d rows, one edited: %.2fms", ROWS, diff(rows, edited) / 1e6));
+        Log.i(TAG, String.format(Locale.US, "diff %d rows, one inserted: %.2fms", ROWS, diff(rows, inserted) / 1e6));
+        Log.i(TAG, String.format(Locale.US, "diff %d rows, one deleted: %.2fms", ROWS, diff(rows, deleted) / 1e6));
+    }
+
+    /**
+     * Waits for the next frame to be drawn
+     */
+    private void awaitFrame() throws InterruptedException {
+        final CountDownLatch drawn = new CountDownLatch(1);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        drawn.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(drawn.await(5, TimeUnit.SECONDS));
+        instrumentation.waitForIdleSync();
+    }
+
+    /**
+     * Scrolls the list a fixed distance every frame and records the time between frames
+     * @param list the list to scroll
+     * @return the time between consecutive frames in nanoseconds
+     */
+    private long[] scroll(final RecyclerView list) throws InterruptedException {
+        final long[] intervals = new long[SCROLL_FRAMES];
+        final CountDownLatch done = new CountDownLatch(1);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    private long last = 0;
+                    private int frame = -1;
+
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        if(frame >= 0) {
+                            intervals[frame] = frameTimeNanos - last;
+                        }
+                        last = frameTimeNanos;
+                        frame++;
+                        if(frame == SCROLL_FRAMES) {
+                            done.countDown();
+                            return;
+                        }
+                        list.scrollBy(0, SCROLL_PIXELS_PER_FRAME);
+                        Choreographer.getInstance().postFrameCallback(this);
+                    }
+                });
+            }
+        });
+        assertTrue(done.await(120, TimeUnit.SECONDS));
+        return intervals;
+    }
+
+    /**
+     * Adapter counting the rows it binds
+     */
+    private static class CountingAdapter extends EntryAdapter {
+
+        final AtomicInteger binds = new AtomicInteger();
+
+        @Override
+        public void onBindViewHolder(@NonNull EntryViewHolder holder, int position) {
+            binds.incrementAndGet();
+            super.onBindViewHolder(holder, position);
+        }
+    }
+
+    @Test
+    public void scrollFrameTimes() throws Exception {
+        // MainActivity provides the window and theme; its own list is replaced by the benchmarked one
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        final Activity activity = instrumentation.startActivitySync(intent);
+        final CountingAdapter adapter = new CountingAdapter();
+        final RecyclerView[] list = new RecyclerView[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                list[0] = new RecyclerView(activity);
+                list[0].setLayoutManager(new LinearLayoutManager(activity));
+                list[0].setAdapter(adapter);
+                activity.setContentView(list[0]);
+                adapter.submitList(rows);
+            }
+        });
+        awaitFrame();
+        awaitFrame();
+
+        try {
+            long[] intervals = scroll(list[0]);
+            float refreshRate = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+            long frameNanos = (long) (1e9 / refreshRate);
+            int janky = 0;
+            for(long interval : intervals) {
+                // a frame that took longer than one refresh period means one was skipped
+                if(interval > frameNanos * 3 / 2) {
+                    janky++;
+                }
+            }
+            long[] sorted = intervals.clone();
+            Arrays.sort(sorted);
+            Log.i(TAG, String.format(Locale.US,
+                    "scroll %d rows, %d frames at %.0fHz: p50 %.2fms, p90 %.2fms, p99 %.2fms, max %.2fms, %d janky",
+                    ROWS, SCROLL_FRAMES, refreshRate,
+                    sorted[sorted.length / 2] / 1e6,
+                    sorted[sorted.length * 9 / 10] / 1e6,
+                    sorted[sorted.length * 99 / 100] / 1e6,
+                    sorted[sorted.length - 1] / 1e6,
+                    janky));
+
+            // editing a single entry only binds its row again
+            final List<EntryRow> edited = new ArrayList<>(rows);
+            final int position = ((LinearLayoutManager) list[0].getLayoutManager()).findFirstVisibleItemPosition();
+            EntryRow row = edited.get(position);
+            edited.set(position, new EntryRow(row.getDatabaseId(), "edited", row.getPreview(), row.getMood(),
+                    row.getTimestamp()));
+            final CountDownLatch changed = new CountDownLatch(1);
+            adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+                    changed.countDown();
+                }
+            });
+            adapter.binds.set(0);
+            final long[] submitted = new long[1];
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    submitted[0] = System.nanoTime();
+                    adapter.submitList(edited);
+                }
+            });
+            assertTrue(changed.await(10, TimeUnit.SECONDS));
+            long commitNanos = System.nanoTime() - submitted[0];
+            awaitFrame();
+            awaitFrame();
+            Log.i(TAG, String.format(Locale.US, "edit one of %d rows: shown after %.2fms, %d rows bound",
+                    ROWS, commitNanos / 1e6, adapter.binds.get()));
+            // the change animation may bind the row to a second view
+            assertTrue(adapter.binds.get() <= 2);
+        } finally {
+            activity.finish();
+        }
+    }
+}
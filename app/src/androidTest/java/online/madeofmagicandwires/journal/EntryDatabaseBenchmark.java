@@ -0,0 +1,659 @@
+package online.madeofmagicandwires.journal;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmarks of EntryDatabase operations on a populated journal.
+ *
+ * Results are written to logcat under the {@link #TAG} tag, e.g.
+ * <code>adb logcat -s EntryDatabaseBenchmark</code>
+ */
+@RunWith(AndroidJUnit4.class)
+public class EntryDatabaseBenchmark {
+
+    private static final String TAG = "EntryDatabaseBenchmark";
+    private static final String DB_NAME = "EntryDatabaseBenchmark.db";
+
+    /** number of rows in the benchmarked journal **/
+    private static final int JOURNAL_SIZE = 50000;
+    /** number of rows in the journal used to benchmark searches **/
+    private static final int SEARCH_JOURNAL_SIZE = 100000;
+    /** number of timed calls per operation **/
+    private static final int ITERATIONS = 500;
+    /** number of rows written by insertAll when benchmarking bulk inserts **/
+    private static final int BULK_INSERT_SIZE = 100000;
+    /** number of rows written one by one when benchmarking bulk inserts; inserting all of them would take minutes **/
+    private static final int SINGLE_INSERT_SIZE = 2000;
+    /** number of rows in the journal exported and imported again **/
+    private static final int EXPORT_JOURNAL_SIZE = 1000000;
+    /** number of entries of the generated journal used to benchmark calendar queries; about 27 years' worth **/
+    private static final int CALENDAR_JOURNAL_SIZE = 30000;
+    /** number of timed calls per calendar query **/
+    private static final int CALENDAR_ITERATIONS = 50;
+    /** number of entries selected when comparing bulk operations with one call per entry **/
+    private static final int BULK_SELECTION_SIZE = 1000;
+    /** number of distinct words in the generated content **/
+    private static final int VOCABULARY_SIZE = 2000;
+    /** number of words per generated entry **/
+    private static final int WORDS_PER_ENTRY = 40;
+    /** lengths in characters of the entries written when benchmarking compression **/
+    private static final int[] COMPRESSION_ENTRY_LENGTHS = new int[]{1000, 8000, 64000, 512000};
+    /** total number of characters written per entry length when benchmarking compression **/
+    private static final int COMPRESSION_CORPUS_LENGTH = 8 * 1024 * 1024;
+
+    private Context context;
+    private EntryDatabase db;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        db = new EntryDatabase(context, DB_NAME);
+        random = new Random(42);
+        populate(db.getWritableDatabase(), 0, JOURNAL_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Fills the entries table with generated rows in a single transaction
+     * @param sqlite database to populate
+     * @param from index of the first row to generate
+     * @param to index after the last row to generate
+     */
+    private void populate(SQLiteDatabase sqlite, int from, int to) {
+        sqlite.beginTransaction();
+        try {
+            for(int i = from; i < to; i++) {
+                StringBuilder content = new StringBuilder();
+                for(int word = 0; word < WORDS_PER_ENTRY; word++) {
+                    content.append("word").append(random.nextInt(VOCABULARY_SIZE)).append(' ');
+                }
+                ContentValues values = new ContentValues();
+                values.put(EntryDatabase.TABLE_COLUMN_TITLE, "Entry " + i);
+                values.put(EntryDatabase.TABLE_COLUMN_CONTENT, content.toString());
+                values.put(EntryDatabase.TABLE_COLUMN_MOOD, JournalEntry.MOOD_HAPPY);
+                values.put(EntryDatabase.TABLE_COLUMN_TIMESTAMP, i * 60000L);
+                sqlite.insert(EntryDatabase.DB_TABLE_NAME, null, values);
+            }
+            sqlite.setTransactionSuccessful();
+        } finally {
+            sqlite.endTransaction();
+        }
+    }
+
+    /**
+     * Generates entries to insert
+     * @param count the number of entries to generate
+     * @return the generated entries, without database ids
+     */
+    private List<JournalEntry> generate(int count) {
+        List<JournalEntry> entries = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            StringBuilder content = new StringBuilder();
+            for(int word = 0; word < WORDS_PER_ENTRY; word++) {
+                content.append("word").append(random.nextInt(VOCABULARY_SIZE)).append(' ');
+            }
+            entries.add(new JournalEntry("Bulk entry " + i, content.toString(), JournalEntry.MOOD_BORED, i * 60000L));
+        }
+        return entries;
+    }
+
+    /**
+     * Reports the throughput of an insert path
+     * @param name name of the measured operation
+     * @param rows number of inserted rows
+     * @param nanos time taken to insert all rows
+     */
+    private void reportThroughput(String name, int rows, long nanos) {
+        Log.i(TAG, String.format(Locale.US, "%s: %d rows in %.1fms, %.0f rows/s",
+                name, rows, nanos / 1000000.0, rows / (nanos / 1000000000.0)));
+    }
+
+    /**
+     * Reports the mean and percentiles of a set of samples
+     * @param name name of the measured operation
+     * @param nanos durations of the individual calls
+     */
+    private void report(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for(long sample : sorted) {
+            total += sample;
+        }
+        Log.i(TAG, String.format(Locale.US,
+                "%s: n=%d mean=%.1fus p50=%.1fus p95=%.1fus max=%.1fus",
+                name,
+                sorted.length,
+                total / (double) sorted.length / 1000,
+                sorted[sorted.length / 2] / 1000.0,
+                sorted[(int) (sorted.length * 0.95)] / 1000.0,
+                sorted[sorted.length - 1] / 1000.0));
+    }
+
+    /**
+     * Times getEntry, insert and delete
+     * @param label label to report the results under
+     * @param closeAfterEachCall whether to close the connection after every call, as EntryDatabase
+     *                           used to do, to compare against keeping it open
+     */
+    private void measureOperations(String label, boolean closeAfterEachCall) {
+        long[] reads = new long[ITERATIONS];
+        long[] inserts = new long[ITERATIONS];
+        long[] deletes = new long[ITERATIONS];
+
+        for(int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            JournalEntry entry = db.getEntry(1 + random.nextInt(JOURNAL_SIZE));
+            if(closeAfterEachCall) {
+                db.close();
+            }
+            reads[i] = System.nanoTime() - start;
+            assertNotNull(entry);
+
+            start = System.nanoTime();
+            long id = db.insert(new JournalEntry("benchmark", "benchmark content", JournalEntry.MOOD_SAD));
+            if(closeAfterEachCall) {
+                db.close();
+            }
+            inserts[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            db.delete(id);
+            if(closeAfterEachCall) {
+                db.close();
+            }
+            deletes[i] = System.nanoTime() - start;
+        }
+
+        report(label + " getEntry", reads);
+        report(label + " insert", inserts);
+        report(label + " delete", deletes);
+    }
+
+    @Test
+    public void search() {
+        populate(db.getWritableDatabase(), JOURNAL_SIZE, SEARCH_JOURNAL_SIZE);
+        SQLiteDatabase sqlite = db.getReadableDatabase();
+
+        long[] fts = new long[50];
+        long[] like = new long[5];
+        for(int i = 0; i < fts.length; i++) {
+            String word = "word" + random.nextInt(VOCABULARY_SIZE);
+            long start = System.nanoTime();
+            List<SearchResult> results = db.search(word + " " + "word" + random.nextInt(VOCABULARY_SIZE), 20);
+            fts[i] = System.nanoTime() - start;
+            assertNotNull(results);
+        }
+        for(int i = 0; i < like.length; i++) {
+            String pattern = "%word" + random.nextInt(VOCABULARY_SIZE) + " %";
+            long start = System.nanoTime();
+            Cursor c = sqlite.query(EntryDatabase.DB_TABLE_NAME, new String[]{EntryDatabase.TABLE_COLUMN_ID},
+                    EntryDatabase.TABLE_COLUMN_TITLE + " LIKE ? OR " + EntryDatabase.TABLE_COLUMN_CONTENT + " LIKE ?",
+                    new String[]{pattern, pattern}, null, null, null, "20");
+            c.getCount();
+            like[i] = System.nanoTime() - start;
+            c.close();
+        }
+        report("search (" + SEARCH_JOURNAL_SIZE + " entries)", fts);
+        report("LIKE scan (" + SEARCH_JOURNAL_SIZE + " entries)", like);
+    }
+
+    @Test
+    public void pagedLoading() {
+        long[] all = new long[20];
+        long[] firstPage = new long[all.length];
+        long[] deepPage = new long[all.length];
+        for(int i = 0; i < all.length; i++) {
+            long start = System.nanoTime();
+            Cursor c = db.selectAll();
+            c.getCount();
+            all[i] = System.nanoTime() - start;
+            c.close();
+
+            start = System.nanoTime();
+            c = db.selectFirstPage(EntryPager.PAGE_SIZE);
+            c.getCount();
+            firstPage[i] = System.nanoTime() - start;
+            c.close();
+
+            // a page near the end of the journal, after the row generated with i = 1000
+            start = System.nanoTime();
+            c = db.selectPage(1000 * 60000L, 1001, EntryPager.PAGE_SIZE);
+            c.getCount();
+            deepPage[i] = System.nanoTime() - start;
+            assertEquals(EntryPager.PAGE_SIZE, c.getCount());
+            c.close();
+        }
+        report("selectAll", all);
+        report("selectFirstPage", firstPage);
+        report("selectPage near end", deepPage);
+    }
+
+    @Test
+    public void bulkInsert() {
+        List<JournalEntry> single = generate(SINGLE_INSERT_SIZE);
+        long start = System.nanoTime();
+        for(JournalEntry entry : single) {
+            db.insert(entry);
+        }
+        reportThroughput("insert per row", SINGLE_INSERT_SIZE, System.nanoTime() - start);
+
+        List<JournalEntry> bulk = generate(BULK_INSERT_SIZE);
+        for(int batchSize : new int[]{100, EntryDatabase.DEFAULT_INSERT_BATCH_SIZE, BULK_INSERT_SIZE}) {
+            start = System.nanoTime();
+            long[] ids = db.insertAll(bulk, batchSize);
+            reportThroughput("insertAll batch=" + batchSize, BULK_INSERT_SIZE, System.nanoTime() - start);
+            assertEquals(BULK_INSERT_SIZE, ids.length);
+        }
+    }
+
+    /**
+     * Exports a database to a file
+     * @param source the database to export
+     * @param file the file to export to
+     * @param format the format to export in
+     * @param heap listener sampling the heap while exporting
+     * @return the number of exported entries
+     */
+    private long exportTo(EntryDatabase source, File file, @EntryExporter.Format int format,
+                          EntryExporter.ProgressListener heap) throws IOException {
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        try {
+            return new EntryExporter(source.getReadableDatabase()).export(channel, format, null, heap);
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void exportImportRoundTrip() throws IOException {
+        populate(db.getWritableDatabase(), JOURNAL_SIZE, EXPORT_JOURNAL_SIZE);
+        final String importedName = "EntryDatabaseBenchmark-imported.db";
+        context.deleteDatabase(importedName);
+
+        final Runtime runtime = Runtime.getRuntime();
+        final long[] peakHeap = new long[1];
+        EntryExporter.ProgressListener heap = new EntryExporter.ProgressListener() {
+            @Override
+            public void onProgress(long done, long total) {
+                peakHeap[0] = Math.max(peakHeap[0], runtime.totalMemory() - runtime.freeMemory());
+            }
+        };
+
+        for(int format : new int[]{EntryExporter.FORMAT_JSON_LINES, EntryExporter.FORMAT_CSV}) {
+            String label = format == EntryExporter.FORMAT_CSV ? "csv" : "jsonl";
+            File exported = new File(context.getCacheDir(), "export." + label);
+            File reexported = new File(context.getCacheDir(), "reexport." + label);
+            EntryDatabase imported = new EntryDatabase(context, importedName);
+            try {
+                System.gc();
+                peakHeap[0] = 0;
+                long start = System.nanoTime();
+                assertEquals(EXPORT_JOURNAL_SIZE, exportTo(db, exported, format, heap));
+                reportThroughput("export " + label, EXPORT_JOURNAL_SIZE, System.nanoTime() - start);
+                Log.i(TAG, String.format(Locale.US, "export %s: %.1fMB file, peak heap %.1fMB", label,
+                        exported.length() / 1048576.0, peakHeap[0] / 1048576.0));
+
+                System.gc();
+                peakHeap[0] = 0;
+                FileChannel in = new FileInputStream(exported).getChannel();
+                start = System.nanoTime();
+                try {
+                    assertEquals(EXPORT_JOURNAL_SIZE,
+                            new EntryImporter(imported).importFrom(in, format, true, null, heap));
+                } finally {
+                    in.close();
+                }
+                reportThroughput("import " + label, EXPORT_JOURNAL_SIZE, System.nanoTime() - start);
+                Log.i(TAG, String.format(Locale.US, "import %s: peak heap %.1fMB", label, peakHeap[0] / 1048576.0));
+
+                // exporting the imported journal gives back the same file
+                exportTo(imported, reexported, format, heap);
+                assertEquals(exported.length(), reexported.length());
+                assertTrue(sameContents(exported, reexported));
+            } finally {
+                imported.close();
+                context.deleteDatabase(importedName);
+                exported.delete();
+                reexported.delete();
+            }
+        }
+    }
+
+    /**
+     * Compares two files byte by byte
+     * @return true if both files hold the same bytes
+     */
+    private static boolean sameContents(File a, File b) throws IOException {
+        FileInputStream inA = new FileInputStream(a);
+        FileInputStream inB = new FileInputStream(b);
+        try {
+            byte[] bufferA = new byte[64 * 1024];
+            byte[] bufferB = new byte[64 * 1024];
+            while(true) {
+                int readA = inA.read(bufferA);
+                int readB = 0;
+                while(readA > 0 && readB < readA) {
+                    int read = inB.read(bufferB, readB, readA - readB);
+                    if(read < 0) {
+                        return false;
+                    }
+                    readB += read;
+                }
+                if(readA < 0) {
+                    return inB.read() < 0;
+                }
+                if(!Arrays.equals(Arrays.copyOf(bufferA, readA), Arrays.copyOf(bufferB, readB))) {
+                    return false;
+                }
+            }
+        } finally {
+            inA.close();
+            inB.close();
+        }
+    }
+
+    /**
+     * Returns the size of a database file after moving everything in the WAL file into it
+     * @param db the database
+     * @param name the name of the database file
+     * @return the size of the file in bytes
+     */
+    private long fileSize(EntryDatabase db, String name) {
+        Cursor c = db.getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null);
+        c.moveToFirst();
+        c.close();
+        return context.getDatabasePath(name).length();
+    }
+
+    @Test
+    public void compression() {
+        Corpus prose = new Corpus(42, VOCABULARY_SIZE * 5);
+
+        for(int length : COMPRESSION_ENTRY_LENGTHS) {
+            List<JournalEntry> corpus = new ArrayList<>();
+            for(int i = 0; i < COMPRESSION_CORPUS_LENGTH / length; i++) {
+                corpus.add(new JournalEntry("Entry " + i, prose.text(length), JournalEntry.MOOD_HAPPY, i * 60000L));
+            }
+            String word = corpus.get(0).getContent().split("\\W+")[1];
+
+            long plainSize = 0;
+            for(boolean compressed : new boolean[]{false, true}) {
+                String label = String.format(Locale.US, "%s %dK entries", compressed ? "compressed" : "plain", length / 1000);
+                String name = "EntryDatabaseBenchmark-compression.db";
+                context.deleteDatabase(name);
+                EntryDatabase target = new EntryDatabase(context, name);
+                try {
+                    target.setCompressionThreshold(compressed ? EntryDatabase.DEFAULT_COMPRESSION_THRESHOLD : Integer.MAX_VALUE);
+                    long[] writes = new long[corpus.size()];
+                    long[] ids = new long[corpus.size()];
+                    for(int i = 0; i < corpus.size(); i++) {
+                        long start = System.nanoTime();
+                        ids[i] = target.insert(corpus.get(i));
+                        writes[i] = System.nanoTime() - start;
+                    }
+
+                    long[] reads = new long[Math.min(ITERATIONS, corpus.size() * 4)];
+                    for(int i = 0; i < reads.length; i++) {
+                        target.getCache().clear();
+                        int index = random.nextInt(corpus.size());
+                        long start = System.nanoTime();
+                        JournalEntry entry = target.getEntry(ids[index]);
+                        reads[i] = System.nanoTime() - start;
+                        assertEquals(corpus.get(index).getContent(), entry.getContent());
+                    }
+
+                    long[] searches = new long[50];
+                    for(int i = 0; i < searches.length; i++) {
+                        long start = System.nanoTime();
+                        List<SearchResult> results = target.search(word, 20);
+                        searches[i] = System.nanoTime() - start;
+                        assertFalse(results.isEmpty());
+                    }
+
+                    long size = fileSize(target, name);
+                    if(!compressed) {
+                        plainSize = size;
+                    }
+                    Log.i(TAG, String.format(Locale.US, "%s: %d entries, %.1fMB file (%.0f%% of plain)",
+                            label, corpus.size(), size / 1048576.0, size * 100.0 / plainSize));
+                    report(label + " insert", writes);
+                    report(label + " getEntry", reads);
+                    report(label + " search", searches);
+                } finally {
+                    target.close();
+                    context.deleteDatabase(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the start of a month of the default time zone
+     * @param monthsAfterStart the number of months after the month the generated journal starts in
+     * @return midnight of the first day of the month, in milliseconds since the epoch
+     */
+    private static long monthStart(int monthsAfterStart) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(JournalGenerator.DEFAULT_START_TIME);
+        int year = calendar.get(Calendar.YEAR);
+        int month = calendar.get(Calendar.MONTH);
+        calendar.clear();
+        calendar.set(year, month + monthsAfterStart, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void calendar() {
+        final String calendarName = "EntryDatabaseBenchmark-calendar.db";
+        context.deleteDatabase(calendarName);
+        EntryDatabase journal = new EntryDatabase(context, calendarName);
+        try {
+            new JournalGenerator(42).populate(journal, CALENDAR_JOURNAL_SIZE);
+            TimeZone zone = TimeZone.getDefault();
+
+            // the oldest month, one in the middle and the latest full month of the journal
+            for(int monthsAfterStart : new int[]{0, 160, 320}) {
+                long from = monthStart(monthsAfterStart);
+                long to = monthStart(monthsAfterStart + 1);
+                long[] entries = new long[CALENDAR_ITERATIONS];
+                long[] days = new long[CALENDAR_ITERATIONS];
+                int rows = 0;
+                EntryCalendar month = null;
+                for(int i = 0; i < CALENDAR_ITERATIONS; i++) {
+                    long start = System.nanoTime();
+                    rows = EntryRow.listOf(journal.selectBetween(from, to, 1000)).size();
+                    entries[i] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    month = journal.getCalendar(EntryCalendar.UNIT_DAY, from, to, zone);
+                    days[i] = System.nanoTime() - start;
+                }
+                assertTrue(rows > 0);
+                assertEquals(rows, month.getTotal());
+                report("selectBetween month " + monthsAfterStart + " (" + rows + " entries)", entries);
+                report("getCalendar days of month " + monthsAfterStart, days);
+            }
+
+            long[] years = new long[CALENDAR_ITERATIONS];
+            EntryCalendar year = null;
+            for(int i = 0; i < CALENDAR_ITERATIONS; i++) {
+                long start = System.nanoTime();
+                year = journal.getCalendar(EntryCalendar.UNIT_MONTH, monthStart(120), monthStart(132), zone);
+                years[i] = System.nanoTime() - start;
+            }
+            assertEquals(12, year.size());
+            report("getCalendar months of a year (" + year.getTotal() + " entries)", years);
+        } finally {
+            journal.close();
+            context.deleteDatabase(calendarName);
+        }
+    }
+
+    /**
+     * Times the list and search queries
+     * @param label label to report the results under
+     */
+    private void measureQueries(String label) {
+        long[] pages = new long[ITERATIONS];
+        long[] searches = new long[ITERATIONS];
+        for(int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            EntryRow.listOf(db.selectPage(random.nextInt(JOURNAL_SIZE) * 60000L, 0, 50));
+            pages[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            db.search("word" + random.nextInt(VOCABULARY_SIZE), 50);
+            searches[i] = System.nanoTime() - start;
+        }
+        report(label + " selectPage", pages);
+        report(label + " search", searches);
+    }
+
+    @Test
+    public void compaction() {
+        measureQueries("before deleting");
+        // deletes every other entry, which leaves the pages they took up half empty
+        long[] deletes = new long[JOURNAL_SIZE / 2];
+        for(int i = 0; i < deletes.length; i++) {
+            long start = System.nanoTime();
+            assertEquals(1, db.delete(1 + 2 * i));
+            deletes[i] = System.nanoTime() - start;
+        }
+        report("delete", deletes);
+        assertEquals(JOURNAL_SIZE / 2, db.countDeleted());
+        measureQueries("before compaction");
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        EntryCompactor compactor = new EntryCompactor(db, executor, 0,
+                EntryCompactor.DEFAULT_PURGE_BATCH_SIZE, EntryCompactor.DEFAULT_VACUUM_THRESHOLD);
+        try {
+            EntryCompactor.Report report = compactor.compact();
+            Log.i(TAG, "compaction: " + report);
+            assertEquals(JOURNAL_SIZE / 2, report.getPurged());
+            assertEquals(0, db.countDeleted());
+            measureQueries("after compaction");
+
+            // a second round only releases the pages freed since, a step at a time
+            for(int i = 0; i < JOURNAL_SIZE / 4; i++) {
+                db.delete(2 + 4 * i);
+            }
+            Log.i(TAG, "incremental compaction: " + compactor.compact());
+            measureQueries("after incremental compaction");
+        } finally {
+            compactor.shutdown();
+        }
+    }
+
+    /**
+     * Returns a selection of entries spread over the journal
+     * @param offset index of the first selected entry, less than the step
+     * @param step the distance between two selected entries
+     * @return the database ids of {@link #BULK_SELECTION_SIZE} entries
+     */
+    private static long[] selection(int offset, int step) {
+        long[] ids = new long[BULK_SELECTION_SIZE];
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + offset + i * step;
+        }
+        return ids;
+    }
+
+    @Test
+    public void bulkOperations() throws IOException {
+        int step = JOURNAL_SIZE / BULK_SELECTION_SIZE;
+        long[] single = selection(0, step);
+        long[] bulk = selection(1, step);
+        File exported = new File(context.getCacheDir(), "selection.jsonl");
+
+        // one transaction per entry, as the list used to do
+        long start = System.nanoTime();
+        for(long id : single) {
+            assertEquals(1, db.updateMoods(new long[]{id}, JournalEntry.MOOD_SAD));
+        }
+        reportThroughput("updateMoods per entry", single.length, System.nanoTime() - start);
+        start = System.nanoTime();
+        FileChannel channel = new FileOutputStream(exported).getChannel();
+        try {
+            for(long id : single) {
+                new EntryExporter(db.getReadableDatabase()).export(channel, EntryExporter.FORMAT_JSON_LINES,
+                        new long[]{id}, null, null);
+            }
+        } finally {
+            channel.close();
+        }
+        reportThroughput("export per entry", single.length, System.nanoTime() - start);
+        start = System.nanoTime();
+        for(long id : single) {
+            assertEquals(1, db.delete(id));
+        }
+        reportThroughput("delete per entry", single.length, System.nanoTime() - start);
+        start = System.nanoTime();
+        for(long id : single) {
+            assertEquals(1, db.restore(id));
+        }
+        reportThroughput("restore per entry", single.length, System.nanoTime() - start);
+
+        // the whole selection in a single transaction
+        start = System.nanoTime();
+        assertEquals(bulk.length, db.updateMoods(bulk, JournalEntry.MOOD_SAD));
+        reportThroughput("updateMoods bulk", bulk.length, System.nanoTime() - start);
+        start = System.nanoTime();
+        channel = new FileOutputStream(exported).getChannel();
+        try {
+            assertEquals(bulk.length, new EntryExporter(db.getReadableDatabase()).export(channel,
+                    EntryExporter.FORMAT_JSON_LINES, bulk, null, null));
+        } finally {
+            channel.close();
+        }
+        reportThroughput("export bulk", bulk.length, System.nanoTime() - start);
+        start = System.nanoTime();
+        assertEquals(bulk.length, db.delete(bulk));
+        reportThroughput("delete bulk", bulk.length, System.nanoTime() - start);
+        start = System.nanoTime();
+        assertEquals(bulk.length, db.restore(bulk));
+        reportThroughput("restore bulk", bulk.length, System.nanoTime() - start);
+
+        exported.delete();
+    }
+
+    @Test
+    public void connectionLifecycle() {
+        measureOperations("close per call", true);
+        measureOperations("persistent connection", false);
+    }
+}
@@ -0,0 +1,110 @@
+package online.madeofmagicandwires.journal;
+
+import android.os.Parcel;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of passing a JournalEntry between activities as a Parcel, for contents
+ * of different lengths, and of the checks InputActivity runs before saving an entry.
+ *
+ * These run on a device rather than in the benchmark module, as JournalEntry depends on the
+ * Android framework and the app's resources.
+ * Results are written to logcat under the {@link #TAG} tag, e.g.
+ * <code>adb logcat -s JournalEntryBenchmark</code>
+ */
+@RunWith(AndroidJUnit4.class)
+public class JournalEntryBenchmark {
+
+    private static final String TAG = "JournalEntryBenchmark";
+
+    /** content lengths to measure, in characters **/
+    private static final int[] CONTENT_LENGTHS = {1000, 8000, 64000, 512000};
+    /** number of entries checked per measurement **/
+    private static final int[] ENTRY_COUNTS = {1000, 10000, 100000};
+    /** number of round trips per measurement **/
+    private static final int ROUND_TRIPS = 50;
+
+    /**
+     * Generates a content of random words
+     * @param random the source of the words
+     * @param length minimum number of characters
+     * @return the content
+     */
+    private static String contentOf(Random random, int length) {
+        StringBuilder content = new StringBuilder(length + 16);
+        while(content.length() < length) {
+            for(int letter = 2 + random.nextInt(8); letter > 0; letter--) {
+                content.append((char) ('a' + random.nextInt(26)));
+            }
+            content.append(random.nextInt(12) == 0 ? ". " : " ");
+        }
+        return content.toString();
+    }
+
+    /**
+     * Writes an entry to a parcel and reads it back, as passing it in an Intent does
+     * @param entry the entry to pass
+     * @return the entry read back
+     */
+    private static JournalEntry roundTrip(JournalEntry entry) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelable(entry, 0);
+            parcel.setDataPosition(0);
+            return parcel.readParcelable(JournalEntry.class.getClassLoader());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void parcel() {
+        Random random = new Random(42);
+        for(int length : CONTENT_LENGTHS) {
+            JournalEntry entry = new JournalEntry("Entry", contentOf(random, length), JournalEntry.MOOD_HAPPY,
+                    System.currentTimeMillis(), 1);
+            // warm up before measuring
+            JournalEntry read = roundTrip(entry);
+            long start = System.nanoTime();
+            for(int i = 0; i < ROUND_TRIPS; i++) {
+                read = roundTrip(entry);
+            }
+            double cost = (System.nanoTime() - start) / (double) ROUND_TRIPS;
+            Log.i(TAG, String.format(Locale.US, "parcel %d chars: %.1fus/round trip", length, cost / 1000));
+            assertEquals(entry.getContent(), read.getContent());
+        }
+    }
+
+    @Test
+    public void validate() {
+        Random random = new Random(42);
+        for(int count : ENTRY_COUNTS) {
+            JournalEntry[] entries = new JournalEntry[count];
+            for(int i = 0; i < count; i++) {
+                // three of every four entries miss part of their data, as drafts would
+                entries[i] = new JournalEntry(i % 4 == 1 ? "" : "Entry " + i,
+                        i % 4 == 2 ? "" : contentOf(random, 20),
+                        i % 4 == 3 ? JournalEntry.MOOD_UNKNOWN : JournalEntry.MOOD_HAPPY);
+            }
+            int incomplete = 0;
+            long start = System.nanoTime();
+            for(JournalEntry entry : entries) {
+                if(entry.isEmpty() && entry.getMissingDataType() != JournalEntry.MISSING_NOTHING) {
+                    incomplete++;
+                }
+            }
+            double cost = (System.nanoTime() - start) / (double) count;
+            Log.i(TAG, String.format(Locale.US, "validate %d entries: %.1fns/entry", count, cost));
+            assertEquals(count / 4 * 3, incomplete);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+/**
+ * Version 10: replaces the index on the timestamp with one that also holds the id, mood and title
+ * of every entry, so date range and calendar queries are answered from the index alone.
+ */
+public class CalendarIndexMigration extends Migration {
+
+    @Override
+    public int getVersion() {
+        return 10;
+    }
+
+    @Override
+    public void onSchema(@NonNull SQLiteDatabase db) {
+        // the id comes right after the timestamp, so ties stay ordered by id as they were before
+        db.execSQL("CREATE INDEX IF NOT EXISTS entries_calendar_idx ON entries(entryDate DESC, _id, mood, title)");
+        db.execSQL("DROP INDEX IF EXISTS entries_entryDate_idx");
+    }
+}
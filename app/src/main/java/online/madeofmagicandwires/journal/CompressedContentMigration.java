@@ -0,0 +1,172 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Version 9: adds the compressedContent column and compresses the contents of existing entries
+ * longer than 4096 characters, keeping only their words in the content column for the full-text index.
+ *
+ * The compression and splitting into words are kept here as they were in this version, rather than
+ * taken from {@link ContentCompression} and {@link EntryDatabase}, which may change in later versions.
+ */
+public class CompressedContentMigration extends Migration {
+
+    /** contents longer than this many characters are compressed, as of this version **/
+    private static final int THRESHOLD = 4096;
+    /** number of characters of a content read at a time, so long contents fit in a CursorWindow **/
+    private static final int READ_LENGTH = 64 * 1024;
+    /** marker byte of a content compressed with {@link Deflater}, as of this version **/
+    private static final byte FORMAT_DEFLATE = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public int getVersion() {
+        return 9;
+    }
+
+    @Override
+    public void onSchema(@NonNull SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE entries ADD COLUMN compressedContent BLOB");
+    }
+
+    @Override
+    public long countRows(@NonNull SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, "entries");
+    }
+
+    @Override
+    public long nextBatchEnd(@NonNull SQLiteDatabase db, long afterKey, int batchSize) {
+        return batchEnd(db, "entries", "_id", afterKey, batchSize);
+    }
+
+    @Override
+    public int migrateRange(@NonNull SQLiteDatabase db, long afterKey, long lastKey) {
+        SQLiteStatement update = db.compileStatement(
+                "UPDATE entries SET content = ?, compressedContent = ? WHERE _id = ?");
+        Cursor c = db.rawQuery("SELECT _id, contentLength FROM entries WHERE _id > ? AND _id <= ?",
+                new String[]{String.valueOf(afterKey), String.valueOf(lastKey)});
+        int migrated = 0;
+        try {
+            while(c.moveToNext()) {
+                migrated++;
+                if(c.getInt(1) <= THRESHOLD) {
+                    continue;
+                }
+                String content = readContent(db, c.getLong(0), c.getInt(1));
+                String terms = searchTermsOf(content);
+                byte[] compressed = compress(content);
+                if(compressed.length + terms.getBytes(UTF_8).length < content.getBytes(UTF_8).length) {
+                    // the full-text triggers take the old content out of the index and add the words
+                    update.bindString(1, terms);
+                    update.bindBlob(2, compressed);
+                    update.bindLong(3, c.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            }
+        } finally {
+            c.close();
+            update.close();
+        }
+        return migrated;
+    }
+
+    /**
+     * Reads the uncompressed content of an entry a part at a time
+     * @param db the database to read from
+     * @param id the id of the entry
+     * @param length the length of the content in characters
+     * @return the content
+     */
+    private static String readContent(SQLiteDatabase db, long id, int length) {
+        StringBuilder content = new StringBuilder(length);
+        String[] args = new String[]{null, String.valueOf(READ_LENGTH), String.valueOf(id)};
+        for(long offset = 1; ; offset += READ_LENGTH) {
+            args[0] = String.valueOf(offset);
+            String part = DatabaseUtils.stringForQuery(db, "SELECT substr(content, ?, ?) FROM entries WHERE _id = ?", args);
+            if(part == null || part.isEmpty()) {
+                return content.toString();
+            }
+            content.append(part);
+        }
+    }
+
+    /**
+     * Compresses a content
+     * @param content the content to compress
+     * @return the marker byte followed by the UTF-8 bytes of the content compressed as a zlib stream
+     */
+    private static byte[] compress(String content) {
+        byte[] utf8 = content.getBytes(UTF_8);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 2 + 16);
+            out.write(FORMAT_DEFLATE);
+            byte[] buffer = new byte[8192];
+            while(!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the distinct words of a content, split and folded the way the simple tokenizer of the
+     * full-text index does
+     * @param content the content of an entry
+     * @return the words separated by spaces, in the order they first occur
+     */
+    private static String searchTermsOf(String content) {
+        StringBuilder terms = new StringBuilder();
+        Set<String> seen = new HashSet<>();
+        int start = -1;
+        for(int i = 0; i <= content.length(); i++) {
+            char ch = i < content.length() ? content.charAt(i) : ' ';
+            // ASCII characters other than letters and digits split words
+            boolean separator = ch < 0x80 && !((ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'z') ||
+                    (ch >= 'A' && ch <= 'Z'));
+            if(!separator && start == -1) {
+                start = i;
+            } else if(separator && start != -1) {
+                String term = content.substring(start, i);
+                // words differing only in the case of ASCII letters are the same word to the index
+                if(seen.add(foldAscii(term))) {
+                    if(terms.length() > 0) {
+                        terms.append(' ');
+                    }
+                    terms.append(term);
+                }
+                start = -1;
+            }
+        }
+        return terms.toString();
+    }
+
+    /**
+     * Lowers the case of the ASCII letters of a word
+     * @param term the word to fold
+     * @return the folded word
+     */
+    private static String foldAscii(String term) {
+        char[] folded = term.toCharArray();
+        for(int i = 0; i < folded.length; i++) {
+            if(folded[i] >= 'A' && folded[i] <= 'Z') {
+                folded[i] += 'a' - 'A';
+            }
+        }
+        return new String(folded);
+    }
+}
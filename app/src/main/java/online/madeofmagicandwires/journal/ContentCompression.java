@@ -0,0 +1,190 @@
+package online.madeofmagicandwires.journal;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the content of long entries, as stored in the {@link EntryDatabase#TABLE_COLUMN_COMPRESSED_CONTENT}
+ * column.
+ *
+ * A compressed content starts with a single marker byte naming the format of the rest, so other
+ * formats can be added later without rewriting existing rows. The only format so far is
+ * {@link #FORMAT_DEFLATE}: the UTF-8 bytes of the content compressed as a zlib stream.
+ *
+ * The full-text index can't read a compressed content, so compressed rows keep the words of the
+ * content in the content column instead; see {@link #searchTermsOf(String)}.
+ */
+public final class ContentCompression {
+
+    /** marker of a content compressed with {@link Deflater} **/
+    public static final byte FORMAT_DEFLATE = 1;
+
+    /** number of bytes inflated or deflated at a time **/
+    private static final int BUFFER_SIZE = 8192;
+    /** kept here rather than shared with the exporter, so this class compiles without the Android framework **/
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ContentCompression() {
+    }
+
+    /**
+     * Compresses a content
+     * @param content the content to compress
+     * @return the marker byte followed by the compressed content
+     */
+    @NonNull
+    public static byte[] compress(@NonNull String content) {
+        return compress(content.getBytes(UTF_8));
+    }
+
+    /**
+     * Compresses the UTF-8 bytes of a content
+     * @param utf8 the bytes to compress
+     * @return the marker byte followed by the compressed bytes
+     */
+    @NonNull
+    static byte[] compress(@NonNull byte[] utf8) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 2 + 16);
+            out.write(FORMAT_DEFLATE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while(!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compresses a content if storing it compressed along with its search terms takes less space
+     * than storing it as it is
+     * @param content the content to compress
+     * @param searchTerms the search terms of the content, as per {@link #searchTermsOf(String)}
+     * @return the marker byte followed by the compressed content, or null if it should be stored as it is
+     */
+    @Nullable
+    public static byte[] compressIfSmaller(@NonNull String content, @NonNull String searchTerms) {
+        byte[] utf8 = content.getBytes(UTF_8);
+        byte[] compressed = compress(utf8);
+        if(compressed.length + searchTerms.getBytes(UTF_8).length < utf8.length) {
+            return compressed;
+        }
+        return null;
+    }
+
+    /**
+     * Decompresses a content
+     * @param compressed the marker byte followed by the compressed content
+     * @return the content
+     * @throws IllegalArgumentException if the marker is unknown or the content is corrupt
+     */
+    @NonNull
+    public static String decompress(@NonNull byte[] compressed) {
+        Inflater inflater = newInflater(compressed[0]);
+        try {
+            inflater.setInput(compressed, 1, compressed.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while(!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("compressed content is truncated");
+                }
+                out.write(buffer, 0, inflated);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("compressed content is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns an inflater for a compressed content
+     * @param marker the first byte of the compressed content
+     * @return a new inflater; the caller should end() it
+     * @throws IllegalArgumentException if the marker is unknown
+     */
+    @NonNull
+    static Inflater newInflater(byte marker) {
+        if(marker != FORMAT_DEFLATE) {
+            throw new IllegalArgumentException("unknown compression format " + marker);
+        }
+        return new Inflater();
+    }
+
+    /**
+     * Returns the words of a content that are indexed for a compressed row, in place of the content.
+     *
+     * Splits the content the same way the full-text index's simple tokenizer does, on ASCII
+     * characters other than letters and digits, and keeps every word once, in the order it first
+     * occurs; words differing only in the case of ASCII letters are the same word to the index.
+     * Searches only look for words and prefixes, never phrases, so they find a compressed row
+     * through its words just as they would through its content.
+     * @param content the content of an entry
+     * @return the distinct words of the content separated by spaces
+     */
+    @NonNull
+    public static String searchTermsOf(@Nullable String content) {
+        if(content == null) {
+            return "";
+        }
+        StringBuilder terms = new StringBuilder();
+        Set<String> seen = new HashSet<>();
+        int start = -1;
+        for(int i = 0; i <= content.length(); i++) {
+            boolean separator = i == content.length() || isSeparator(content.charAt(i));
+            if(!separator && start == -1) {
+                start = i;
+            } else if(separator && start != -1) {
+                String term = content.substring(start, i);
+                if(seen.add(foldAscii(term))) {
+                    if(terms.length() > 0) {
+                        terms.append(' ');
+                    }
+                    terms.append(term);
+                }
+                start = -1;
+            }
+        }
+        return terms.toString();
+    }
+
+    /**
+     * Folds a word the way the simple tokenizer does, only lowering the case of ASCII letters
+     * @param term the word to fold
+     * @return the folded word
+     */
+    private static String foldAscii(String term) {
+        char[] folded = term.toCharArray();
+        for(int i = 0; i < folded.length; i++) {
+            if(folded[i] >= 'A' && folded[i] <= 'Z') {
+                folded[i] += 'a' - 'A';
+            }
+        }
+        return new String(folded);
+    }
+
+    /**
+     * Returns whether the simple tokenizer splits words on a character
+     * @param c the character
+     * @return true for ASCII characters other than letters and digits
+     */
+    private static boolean isSeparator(char c) {
+        return c < 0x80 && !((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'));
+    }
+}
@@ -0,0 +1,55 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+
+/**
+ * Version 8: stores a preview of the first 200 characters and the length of every content, so lists
+ * and long entries don't need to read the whole content, and limits the full-text index triggers to
+ * updates of the indexed columns so filling in the new columns doesn't index every entry again.
+ */
+public class ContentPreviewMigration extends Migration {
+
+    @Override
+    public int getVersion() {
+        return 8;
+    }
+
+    @Override
+    public void onSchema(@NonNull SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE entries ADD COLUMN preview TEXT NOT NULL DEFAULT ''");
+        db.execSQL("ALTER TABLE entries ADD COLUMN contentLength INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("DROP TRIGGER entries_fts_bu");
+        db.execSQL("DROP TRIGGER entries_fts_au");
+        db.execSQL("CREATE TRIGGER entries_fts_bu BEFORE UPDATE OF title, content ON entries BEGIN " +
+                "DELETE FROM entries_fts WHERE docid=old._id; END");
+        db.execSQL("CREATE TRIGGER entries_fts_au AFTER UPDATE OF title, content ON entries BEGIN " +
+                "INSERT INTO entries_fts(docid, title, content) VALUES(new._id, new.title, new.content); END");
+    }
+
+    @Override
+    public long countRows(@NonNull SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, "entries");
+    }
+
+    @Override
+    public long nextBatchEnd(@NonNull SQLiteDatabase db, long afterKey, int batchSize) {
+        return batchEnd(db, "entries", "_id", afterKey, batchSize);
+    }
+
+    @Override
+    public int migrateRange(@NonNull SQLiteDatabase db, long afterKey, long lastKey) {
+        SQLiteStatement update = db.compileStatement(
+                "UPDATE entries SET preview = substr(content, 1, 200), contentLength = length(content) " +
+                "WHERE _id > ? AND _id <= ?");
+        try {
+            update.bindLong(1, afterKey);
+            update.bindLong(2, lastKey);
+            return update.executeUpdateDelete();
+        } finally {
+            update.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package online.madeofmagicandwires.journal;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Number of calls and histogram of latencies of each type of query and write EntryDatabase runs.
+ *
+ * Latencies are counted in buckets of powers of two microseconds, so recording one takes constant
+ * time and memory however many are recorded, and percentiles are known to within a factor of two.
+ * Read the metrics through an immutable {@link Snapshot}.
+ */
+public class DatabaseMetrics {
+
+    /** possible values for the Operation enumerated annotation **/
+    public static final int OP_SELECT_ALL = 0;
+    public static final int OP_SELECT_PAGE = 1;
+    public static final int OP_SELECT_BY_MOOD = 2;
+    public static final int OP_SEARCH = 3;
+    public static final int OP_GET_ENTRY = 4;
+    public static final int OP_GET_PREVIEW = 5;
+    public static final int OP_MOOD_STATISTICS = 6;
+    public static final int OP_INSERT = 7;
+    public static final int OP_INSERT_ALL = 8;
+    public static final int OP_DELETE = 9;
+    public static final int OP_SELECT_BETWEEN = 10;
+    public static final int OP_GET_CALENDAR = 11;
+    public static final int OP_RESTORE = 12;
+    public static final int OP_PURGE = 13;
+    public static final int OP_VACUUM = 14;
+    public static final int OP_DELETE_ALL = 15;
+    public static final int OP_RESTORE_ALL = 16;
+    public static final int OP_UPDATE_MOODS = 17;
+
+    @IntDef({OP_SELECT_ALL, OP_SELECT_PAGE, OP_SELECT_BY_MOOD, OP_SEARCH, OP_GET_ENTRY, OP_GET_PREVIEW,
+            OP_MOOD_STATISTICS, OP_INSERT, OP_INSERT_ALL, OP_DELETE, OP_SELECT_BETWEEN, OP_GET_CALENDAR,
+            OP_RESTORE, OP_PURGE, OP_VACUUM, OP_DELETE_ALL, OP_RESTORE_ALL, OP_UPDATE_MOODS})
+    @Retention(RetentionPolicy.SOURCE)
+
+    /**
+     * Enum-like defining the types of query and write measured
+     */
+    public @interface Operation {}
+
+    /** names of the operations, indexed by their code **/
+    private static final String[] NAMES = new String[]{
+            "selectAll", "selectPage", "selectByMood", "search", "getEntry", "getEntryPreview",
+            "getMoodStatistics", "insert", "insertAll", "delete", "selectBetween", "getCalendar",
+            "restore", "purgeDeleted", "vacuum", "deleteAll", "restoreAll", "updateMoods"};
+
+    /**
+     * number of latency buckets; bucket 0 holds latencies below a microsecond, bucket i those of
+     * 2^(i-1) up to 2^i microseconds and the last bucket everything longer, from over a minute
+     **/
+    static final int BUCKETS = 28;
+
+    private final long[][] histograms = new long[NAMES.length][BUCKETS];
+    private final long[] totalNanos = new long[NAMES.length];
+    private final long[] maxNanos = new long[NAMES.length];
+    /** number of times the metrics were reset, so snapshots from before a reset can be told apart **/
+    private long resets = 0;
+
+    /**
+     * Returns the name of an operation
+     * @param operation the operation
+     * @return the name of the EntryDatabase method running it
+     */
+    @NonNull
+    public static String nameOf(@Operation int operation) {
+        return NAMES[operation];
+    }
+
+    /**
+     * Returns the bucket a latency is counted in
+     * @param nanos the latency in nanoseconds
+     * @return the index of the bucket
+     */
+    static int bucketOf(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Returns the longest latency counted in a bucket
+     * @param bucket the index of the bucket
+     * @return the latency in nanoseconds, or {@link Long#MAX_VALUE} for the last bucket
+     */
+    static long upperBoundOf(int bucket) {
+        return bucket < BUCKETS - 1 ? (1L << bucket) * 1000 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Records a call of an operation
+     * @param operation the operation
+     * @param nanos the time the call took in nanoseconds
+     */
+    public synchronized void record(@Operation int operation, long nanos) {
+        histograms[operation][bucketOf(nanos)]++;
+        totalNanos[operation] += nanos;
+        maxNanos[operation] = Math.max(maxNanos[operation], nanos);
+    }
+
+    /**
+     * Forgets every recorded call
+     */
+    public synchronized void reset() {
+        for(long[] histogram : histograms) {
+            Arrays.fill(histogram, 0);
+        }
+        Arrays.fill(totalNanos, 0);
+        Arrays.fill(maxNanos, 0);
+        resets++;
+    }
+
+    /**
+     * Returns a copy of the metrics recorded so far
+     * @return the snapshot
+     */
+    @NonNull
+    public synchronized Snapshot snapshot() {
+        long[][] histograms = new long[NAMES.length][];
+        for(int i = 0; i < NAMES.length; i++) {
+            histograms[i] = this.histograms[i].clone();
+        }
+        return new Snapshot(histograms, totalNanos.clone(), maxNanos.clone(), resets);
+    }
+
+    /**
+     * The metrics of every operation at some point in time
+     */
+    public static class Snapshot {
+
+        private final long[][] histograms;
+        private final long[] totalNanos;
+        private final long[] maxNanos;
+        private final long resets;
+
+        /**
+         * Standard constructor
+         * @param histograms the number of calls per bucket of each operation
+         * @param totalNanos the total time taken by the calls of each operation
+         * @param maxNanos the longest call of each operation
+         * @param resets the number of times the metrics were reset before the snapshot was taken
+         */
+        Snapshot(long[][] histograms, long[] totalNanos, long[] maxNanos, long resets) {
+            this.histograms = histograms;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.resets = resets;
+        }
+
+        /**
+         * Returns the number of calls of an operation
+         * @param operation the operation
+         * @return the number of recorded calls
+         */
+        public long getCount(@Operation int operation) {
+            long count = 0;
+            for(long calls : histograms[operation]) {
+                count += calls;
+            }
+            return count;
+        }
+
+        /**
+         * Returns the total time taken by the calls of an operation
+         * @param operation the operation
+         * @return the time in nanoseconds
+         */
+        public long getTotalNanos(@Operation int operation) {
+            return totalNanos[operation];
+        }
+
+        /**
+         * Returns the time taken by the longest call of an operation
+         * @param operation the operation
+         * @return the time in nanoseconds
+         */
+        public long getMaxNanos(@Operation int operation) {
+            return maxNanos[operation];
+        }
+
+        /**
+         * Returns an upper bound of the time taken by a given fraction of the calls of an operation,
+         * at most twice the exact percentile
+         * @param operation the operation
+         * @param fraction the fraction of calls, between 0 and 1; 0.99 for the 99th percentile
+         * @return the time in nanoseconds, or 0 if there were no calls
+         */
+        public long getPercentileNanos(@Operation int operation, double fraction) {
+            long count = getCount(operation);
+            if(count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * fraction));
+            long seen = 0;
+            int bucket = 0;
+            while(bucket < BUCKETS - 1) {
+                seen += histograms[operation][bucket];
+                if(seen >= rank) {
+                    break;
+                }
+                bucket++;
+            }
+            return Math.min(upperBoundOf(bucket), maxNanos[operation]);
+        }
+
+        /**
+         * Returns the metrics of the calls recorded since an earlier snapshot of the same metrics.
+         * The longest call isn't known exactly for those calls alone, so it's estimated by the
+         * upper bound of the bucket it falls in, up to the longest call recorded overall.
+         * If the metrics were reset in between, every call of this snapshot came after the earlier one.
+         * @param earlier a snapshot taken before this one
+         * @return the difference between the snapshots
+         */
+        @NonNull
+        public Snapshot since(@NonNull Snapshot earlier) {
+            if(earlier.resets != resets) {
+                return this;
+            }
+            long[][] histograms = new long[NAMES.length][BUCKETS];
+            long[] totalNanos = new long[NAMES.length];
+            long[] maxNanos = new long[NAMES.length];
+            for(int operation = 0; operation < NAMES.length; operation++) {
+                for(int bucket = 0; bucket < BUCKETS; bucket++) {
+                    histograms[operation][bucket] = this.histograms[operation][bucket] -
+                            earlier.histograms[operation][bucket];
+                    if(histograms[operation][bucket] > 0) {
+                        maxNanos[operation] = Math.min(upperBoundOf(bucket), this.maxNanos[operation]);
+                    }
+                }
+                totalNanos[operation] = this.totalNanos[operation] - earlier.totalNanos[operation];
+            }
+            return new Snapshot(histograms, totalNanos, maxNanos, resets);
+        }
+
+        /**
+         * Returns a table of the count, mean and percentiles of every operation that was called
+         * @return the table, one operation per line, times in milliseconds
+         */
+        @Override
+        public String toString() {
+            StringBuilder table = new StringBuilder(String.format(Locale.US,
+                    "%-17s %7s %8s %8s %8s %8s %8s%n", "operation", "count", "mean", "p50", "p90", "p99", "max"));
+            for(int operation = 0; operation < NAMES.length; operation++) {
+                long count = getCount(operation);
+                if(count == 0) {
+                    continue;
+                }
+                table.append(String.format(Locale.US, "%-17s %7d %8.2f %8.2f %8.2f %8.2f %8.2f%n",
+                        NAMES[operation],
+                        count,
+                        totalNanos[operation] / (double) count / 1e6,
+                        getPercentileNanos(operation, 0.5) / 1e6,
+                        getPercentileNanos(operation, 0.9) / 1e6,
+                        getPercentileNanos(operation, 0.99) / 1e6,
+                        maxNanos[operation] / 1e6));
+            }
+            return table.toString();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package online.madeofmagicandwires.journal;
+
+import java.util.Locale;
+
+/**
+ * How much space the database file takes up and how much of it is unused, as read by
+ * {@link EntryDatabase#getStorage()}.
+ *
+ * SQLite keeps the pages freed by deletes in the file to reuse them later; they are only given
+ * back to the file system by a vacuum. Write-ahead log pages that were not checkpointed yet are
+ * counted as part of the file.
+ */
+public class DatabaseStorage {
+
+    private final long pageCount;
+    private final long freePages;
+    private final long pageSize;
+    private final boolean incrementalVacuum;
+
+
+    /**
+     * Standard constructor
+     * @param pageCount the number of pages of the file
+     * @param freePages the number of those pages that are unused
+     * @param pageSize the size of a page, in bytes
+     * @param incrementalVacuum whether the file can be vacuumed a few pages at a time
+     */
+    public DatabaseStorage(long pageCount, long freePages, long pageSize, boolean incrementalVacuum) {
+        this.pageCount = pageCount;
+        this.freePages = freePages;
+        this.pageSize = pageSize;
+        this.incrementalVacuum = incrementalVacuum;
+    }
+
+    public long getPageCount() {
+        return pageCount;
+    }
+
+    public long getFreePages() {
+        return freePages;
+    }
+
+    public long getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns whether the file can be vacuumed a few pages at a time, or needs to be rewritten
+     * as a whole first
+     * @return true if auto_vacuum is set to incremental
+     */
+    public boolean isIncrementalVacuum() {
+        return incrementalVacuum;
+    }
+
+    /**
+     * Returns the size of the file
+     * @return the size in bytes
+     */
+    public long getFileSize() {
+        return pageCount * pageSize;
+    }
+
+    /**
+     * Returns the part of the file that is unused
+     * @return the fraction of free pages, between 0 and 1
+     */
+    public double getFreeRatio() {
+        return pageCount > 0 ? freePages / (double) pageCount : 0;
+    }
+
+    /**
+     * Returns the size of the file and the part of it that is unused
+     * @return e.g. "4.2MB, 31% free"
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%.1fMB, %.0f%% free", getFileSize() / 1048576.0, getFreeRatio() * 100);
+    }
+}
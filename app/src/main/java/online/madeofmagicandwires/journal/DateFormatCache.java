@@ -0,0 +1,109 @@
+package online.madeofmagicandwires.journal;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats absolute dates for a single locale and time zone, remembering the formatted string of
+ * every calendar day it has seen so each day is only formatted once.
+ *
+ * Journal entries are mostly written on the same few days, so binding a list of entries
+ * usually doesn't need to format anything at all. The formatted days are kept in a fixed
+ * direct-mapped table, so looking one up doesn't allocate.
+ *
+ * This class doesn't depend on the Android framework so it can be benchmarked on the JVM.
+ * Not thread-safe; use it from a single thread, such as the UI thread.
+ */
+public class DateFormatCache {
+
+    /** short ISO-8601 date pattern used for absolute dates **/
+    public static final String PATTERN_SHORT_ISO = "yyyy-MM-dd";
+
+    /** number of days remembered; must be a power of two **/
+    private static final int CACHE_SIZE = 1024;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    /** marks an empty slot; no timestamp maps to this day **/
+    private static final long NO_DAY = Long.MIN_VALUE;
+
+    private final Locale locale;
+    private final TimeZone timeZone;
+    private final SimpleDateFormat format;
+    /** reused to pass timestamps to the formatter **/
+    private final Date date = new Date();
+
+    private final long[] days = new long[CACHE_SIZE];
+    private final String[] formatted = new String[CACHE_SIZE];
+
+
+    /**
+     * Standard constructor
+     * @param locale the locale to format dates for
+     * @param timeZone the time zone calendar days are counted in
+     * @param pattern the SimpleDateFormat pattern to format dates with
+     */
+    public DateFormatCache(Locale locale, TimeZone timeZone, String pattern) {
+        this.locale = locale;
+        this.timeZone = (TimeZone) timeZone.clone();
+        this.format = new SimpleDateFormat(pattern, locale);
+        this.format.setTimeZone(this.timeZone);
+        Arrays.fill(days, NO_DAY);
+    }
+
+    /**
+     * Returns the locale this cache formats dates for
+     * @return the locale passed to the constructor
+     */
+    public Locale getLocale() {
+        return locale;
+    }
+
+    /**
+     * Returns the time zone calendar days are counted in
+     * @return a copy of the time zone passed to the constructor
+     */
+    public TimeZone getTimeZone() {
+        return (TimeZone) timeZone.clone();
+    }
+
+    /**
+     * Returns the number of the calendar day a timestamp falls on in this cache's time zone
+     * @param millis milliseconds since the epoch
+     * @return days since the epoch, in local time
+     */
+    private long dayOf(long millis) {
+        long local = millis + timeZone.getOffset(millis);
+        // floor rather than truncate, so days before the epoch don't share day 0
+        long day = local / DAY_IN_MILLIS;
+        if(local % DAY_IN_MILLIS < 0) {
+            day--;
+        }
+        return day;
+    }
+
+    /**
+     * Formats the date a timestamp falls on
+     * @param millis milliseconds since the epoch
+     * @return the formatted date
+     */
+    public String format(long millis) {
+        long day = dayOf(millis);
+        int slot = (int) (day & (CACHE_SIZE - 1));
+        if(days[slot] != day) {
+            date.setTime(millis);
+            formatted[slot] = format.format(date);
+            days[slot] = day;
+        }
+        return formatted[slot];
+    }
+
+    /**
+     * Forgets all formatted days
+     */
+    public void clear() {
+        Arrays.fill(days, NO_DAY);
+        Arrays.fill(formatted, null);
+    }
+}
@@ -0,0 +1,151 @@
+package online.madeofmagicandwires.journal;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.annotation.NonNull;
+import android.text.format.DateUtils;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats entry dates for the entries list, the search results and the entry details.
+ *
+ * Absolute dates are formatted through a {@link DateFormatCache} for the current locale, and
+ * relative dates are remembered for the rest of the minute they were formatted in, so scrolling
+ * back and forth over the same rows doesn't format their dates again.
+ * Everything cached is dropped when the locale, time zone or system clock changes.
+ *
+ * Should only be used from the UI thread.
+ */
+public class DateFormatter {
+
+    /** represents 48 hours counted out to milliseconds */
+    public static final long LONG_TIME_48_HOURS = (2 * 24 * 60 * 60 * 1000);
+
+    /** number of remembered relative dates; must be a power of two **/
+    private static final int RELATIVE_CACHE_SIZE = 256;
+    /** marks an empty slot of the relative dates cache **/
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private static DateFormatter instance = null;
+
+    private DateFormatCache absoluteDates = null;
+
+    /** the minute the remembered relative dates were formatted in **/
+    private long relativeMinute = NO_TIME;
+    private final long[] relativeTimes = new long[RELATIVE_CACHE_SIZE];
+    private final String[] relativeDates = new String[RELATIVE_CACHE_SIZE];
+
+
+    /**
+     * Returns the DateFormatter of the application
+     * @param context any context; only its application context is kept
+     * @return the application's DateFormatter
+     */
+    public static synchronized DateFormatter getInstance(@NonNull Context context) {
+        if(instance == null) {
+            instance = new DateFormatter(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Standard constructor
+     * @param context the application context to listen for locale and time changes on
+     */
+    private DateFormatter(Context context) {
+        Arrays.fill(relativeTimes, NO_TIME);
+
+        IntentFilter changes = new IntentFilter();
+        changes.addAction(Intent.ACTION_LOCALE_CHANGED);
+        changes.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        changes.addAction(Intent.ACTION_TIME_CHANGED);
+        // delivered on the main thread, the same one dates are formatted on
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, changes);
+    }
+
+    /**
+     * Drops all cached formatters and dates
+     */
+    public void invalidate() {
+        absoluteDates = null;
+        relativeMinute = NO_TIME;
+        Arrays.fill(relativeTimes, NO_TIME);
+        Arrays.fill(relativeDates, null);
+    }
+
+    /**
+     * Formats datetime to relative or short ISO-8601 format yyyy-mm-dd
+     * @param context  application or activity context needed for locales
+     * @param datetime milliseconds since the epoch referring to a datetime earlier than the current time.
+     * @param useRelative whether to use a relative time format if possible,
+     *                    or whether to always use the short ISO-8061 format
+     * @return formatted string, such as "x seconds ago" or  "yesterday" if the timestamp is from less than two days ago
+     *         or a short iso 8601 format if it's longer than that or useRelative is set to false
+     */
+    public String format(@NonNull Context context, long datetime, boolean useRelative) {
+        long now = System.currentTimeMillis();
+        if(useRelative && now - datetime < LONG_TIME_48_HOURS) {
+            return formatRelative(datetime, now);
+        }
+        return getAbsoluteDates(context).format(datetime);
+    }
+
+    /**
+     * Formats datetime to relative or short ISO-8601 format yyyy-mm-dd
+     * @param context  application or activity context needed for locales
+     * @param datetime milliseconds since the epoch
+     * @return a formatted string representing the date from the datetime object in the format of yyyy-mm-dd
+     */
+    public String format(@NonNull Context context, long datetime) {
+        return format(context, datetime, true);
+    }
+
+    /**
+     * Returns the absolute dates cache for the locale of the given context, replacing it if the locale changed
+     * @param context context to get the locale from
+     * @return the cache to format absolute dates with
+     */
+    private DateFormatCache getAbsoluteDates(Context context) {
+        Locale locale = context.getResources().getConfiguration().getLocales().get(0);
+        if(absoluteDates == null || !absoluteDates.getLocale().equals(locale)) {
+            absoluteDates = new DateFormatCache(locale, TimeZone.getDefault(), DateFormatCache.PATTERN_SHORT_ISO);
+        }
+        return absoluteDates;
+    }
+
+    /**
+     * Formats a recent datetime relative to now; the result may be up to a minute out of date
+     * @param datetime milliseconds since the epoch
+     * @param now the current time in milliseconds since the epoch
+     * @return the relative time, such as "5 min. ago" or "yesterday"
+     */
+    private String formatRelative(long datetime, long now) {
+        long minute = now / DateUtils.MINUTE_IN_MILLIS;
+        if(minute != relativeMinute) {
+            Arrays.fill(relativeTimes, NO_TIME);
+            Arrays.fill(relativeDates, null);
+            relativeMinute = minute;
+        }
+
+        int slot = (int) (datetime ^ (datetime >>> 32)) & (RELATIVE_CACHE_SIZE - 1);
+        if(relativeTimes[slot] != datetime) {
+            relativeDates[slot] = DateUtils.getRelativeTimeSpanString(
+                    datetime,
+                    now,
+                    DateUtils.MINUTE_IN_MILLIS,
+                    DateUtils.FORMAT_ABBREV_RELATIVE).toString();
+            relativeTimes[slot] = datetime;
+        }
+        return relativeDates[slot];
+    }
+}
@@ -2,6 +2,7 @@ package online.madeofmagicandwires.journal;
 
 
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -12,6 +13,9 @@ import android.widget.Toast;
 
 public class DetailActivity extends JournalActivity {
 
+    /** signal to stop reading the content of the shown entry with, or null if it is not being read **/
+    private CancellationSignal contentSignal = null;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -24,17 +28,73 @@ public class DetailActivity extends JournalActivity {
           getSupportActionBar().setHomeButtonEnabled(true);
         }
 
-        // retrieve data from saved state or intent if the that is not available
-        retrieveJournalEntry(savedInstanceState);
-        if(entry==null) {
-            retrieveJournalEntry(getIntent());
+        // retrieve the entry id from saved state or intent if the that is not available
+        long id = retrieveEntryId(savedInstanceState);
+        if(id == -1) {
+            id = retrieveEntryId(getIntent());
         }
 
-        // bind data to views
+        // bind data to views once the entry has been loaded
+        if(id != -1) {
+            loadEntry(id);
+        }
         updateState();
 
     }
 
+    /**
+     * Stops reading the content of the entry
+     */
+    @Override
+    protected void onDestroy() {
+        if(contentSignal != null) {
+            contentSignal.cancel();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Loads the entry with its preview first, then reads its content in chunks, so entries of
+     * several megabytes are never loaded into memory in one go
+     * @param id the database id of the entry
+     */
+    @Override
+    public void loadEntry(final long id) {
+        if(contentSignal != null) {
+            contentSignal.cancel();
+        }
+        final CancellationSignal signal = new CancellationSignal();
+        contentSignal = signal;
+        repository.getEntryPreview(id, new EntryRepository.Callback<JournalEntry>() {
+            @Override
+            public void onResult(JournalEntry result) {
+                if(result == null || isDestroyed() || signal.isCanceled()) {
+                    return;
+                }
+                entry = result;
+                updateState();
+
+                final TextView entryContent = findViewById(R.id.details_entry_content);
+                entryContent.setText(result.getContent());
+                repository.readContent(id, signal, new EntryRepository.Callback<String>() {
+                    private boolean first = true;
+
+                    @Override
+                    public void onResult(String chunk) {
+                        if(first) {
+                            // replace the preview, keeping the text editable so chunks can be appended
+                            entryContent.setText("", TextView.BufferType.EDITABLE);
+                            first = false;
+                        }
+                        if(chunk != null) {
+                            entryContent.append(chunk);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_details, menu);
@@ -46,7 +106,7 @@ public class DetailActivity extends JournalActivity {
         switch (item.getItemId()) {
             case R.id.details_action_edit:
                 if(entry != null) {
-                    editEntry(this, entry);
+                    editEntry(this, entry.getDatabaseId());
                 } else {
                     Toast toast = Toast.makeText(this, "Something went wrong!", Toast.LENGTH_LONG);
                     toast.show();
@@ -66,47 +126,23 @@ public class DetailActivity extends JournalActivity {
         if(entry != null) {
 
             // Set the mood
-            @JournalEntry.Mood String mood = entry.getMood();
+            @JournalEntry.Mood int mood = entry.getMood();
 
             View root = findViewById(R.id.toolbar_root);
             TextView moodEmoji = findViewById(R.id.details_entry_mood_emoji);
-            switch (mood) {
-                case JournalEntry.MOOD_ANGRY:
-                    root.setBackgroundColor(getColor(R.color.moodAngry));
-                    moodEmoji.setText(R.string.emoji_angry);
-                    moodEmoji.setContentDescription(getString(R.string.mood_angry));
-                    break;
-                case JournalEntry.MOOD_BORED:
-                    root.setBackgroundColor(getColor(R.color.moodBored));
-                    moodEmoji.setText(R.string.emoji_bored);
-                    moodEmoji.setContentDescription(getString(R.string.mood_bored));
-                    break;
-                case JournalEntry.MOOD_HAPPY:
-                    root.setBackgroundColor(getColor(R.color.moodHappy));
-                    moodEmoji.setText(R.string.emoji_happy);
-                    moodEmoji.setContentDescription(getString(R.string.mood_happy));
-                    break;
-                case JournalEntry.MOOD_SAD:
-                    root.setBackgroundColor(getColor(R.color.moodSad));
-                    moodEmoji.setText(R.string.emoji_sad);
-                    moodEmoji.setContentDescription(getString(R.string.mood_sad));
-                    break;
-                case JournalEntry.MOOD_UNKNOWN:
-                    break;
-
-                    default:
-                        break;
+            if(MoodRegistry.isKnown(mood)) {
+                root.setBackgroundColor(getColor(MoodRegistry.getColor(mood)));
+                moodEmoji.setText(MoodRegistry.getEmoji(mood));
+                moodEmoji.setContentDescription(getString(MoodRegistry.getLabel(mood)));
             }
 
             // set title and date
             TextView entryTitle = findViewById(R.id.details_entry_title);
             TextView entryDate = findViewById(R.id.details_entry_date);
             entryTitle.setText(entry.getTitle());
-            entryDate.setText(EntryAdapter.formatDate(this, entry.getTimestamp(), false));
+            entryDate.setText(DateFormatter.getInstance(this).format(this, entry.getTimestamp(), false));
 
-            //set content
-            TextView entryContent = findViewById(R.id.details_entry_content);
-            entryContent.setText(entry.getContent());
+            // the content is set by loadEntry() as it is read
         }
     }
 }
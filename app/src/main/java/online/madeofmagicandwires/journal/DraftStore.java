@@ -0,0 +1,454 @@
+package online.madeofmagicandwires.journal;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the unsaved drafts of InputActivity on disk, so they survive configuration changes and
+ * the app being stopped without having to go through the saved instance state Bundle.
+ *
+ * Edits are handed to {@link #save(long, JournalEntry)} as the user types, on the main thread,
+ * and written on a background thread once no edit has come in for {@link #DEFAULT_DEBOUNCE_MILLIS}, or
+ * at most {@link #MAX_DELAY_MILLIS} after the first unwritten edit; only the latest version of each
+ * draft is written. Each draft is a file of its own, written to a temporary file first and then
+ * renamed over the previous version, so a draft is never left half written.
+ */
+public class DraftStore {
+
+    /**
+     * A draft and the id it is stored under
+     */
+    public static class Draft {
+
+        /** the id of the draft, as returned by {@link #newDraftId()} **/
+        public final long id;
+        /** the draft; its database id is that of the entry being edited, or -1 for a new entry **/
+        public final JournalEntry entry;
+
+        /**
+         * Standard constructor
+         * @param id the id of the draft
+         * @param entry the draft
+         */
+        Draft(long id, @NonNull JournalEntry entry) {
+            this.id = id;
+            this.entry = entry;
+        }
+    }
+
+    private static final String TAG = "DraftStore";
+
+    /** time without edits after which pending drafts are written, in milliseconds **/
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+    /** maximum time an edit stays unwritten while the user keeps typing, in milliseconds **/
+    public static final long MAX_DELAY_MILLIS = 3000;
+    /** name of the directory holding the drafts, in the app's files directory **/
+    static final String DIRECTORY_NAME = "drafts";
+
+    private static final String EXTENSION = ".draft";
+    private static final String TEMP_EXTENSION = ".tmp";
+    /** version of the format drafts are written in **/
+    private static final int FORMAT_VERSION = 1;
+
+    /** singleton instance to be returned if set **/
+    private static DraftStore instance = null;
+
+    private final File directory;
+    private final ScheduledExecutorService executor;
+    private final Handler mainHandler;
+    private final long debounceMillis;
+
+    /** the latest unwritten version of each draft, by draft id; guarded by this **/
+    private final Map<Long, JournalEntry> pending = new HashMap<>();
+    /** the scheduled write of the pending drafts, or null if none is scheduled; guarded by this **/
+    private ScheduledFuture<?> scheduledWrite = null;
+    /** when the oldest pending edit was made, in {@link System#nanoTime()} time; guarded by this **/
+    private long oldestPendingNanos = 0;
+    /** the id last handed out by {@link #newDraftId()}; guarded by this **/
+    private long lastId = 0;
+
+
+    /**
+     * Constructor allowing the directory, background executor and result handler to be provided
+     * @param directory directory to keep the drafts in; created if needed
+     * @param executor executor to read and write drafts on; should be single threaded so writes
+     *                 of the same draft are made in order
+     * @param mainHandler handler to deliver loaded drafts on
+     * @param debounceMillis time without edits after which pending drafts are written
+     */
+    @VisibleForTesting
+    DraftStore(@NonNull File directory, @NonNull ScheduledExecutorService executor, @NonNull Handler mainHandler,
+               long debounceMillis) {
+        this.directory = directory;
+        this.executor = executor;
+        this.mainHandler = mainHandler;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Returns the singleton DraftStore instance
+     * @param context Application/Activity context
+     * @return the singleton DraftStore instance
+     */
+    public static synchronized DraftStore getInstance(@NonNull Context context) {
+        if(instance == null) {
+            instance = new DraftStore(
+                    new File(context.getApplicationContext().getFilesDir(), DIRECTORY_NAME),
+                    Executors.newSingleThreadScheduledExecutor(),
+                    new Handler(Looper.getMainLooper()),
+                    DEFAULT_DEBOUNCE_MILLIS);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns an id for a new draft, different from those of the drafts already stored
+     * @return the id
+     */
+    public synchronized long newDraftId() {
+        // ids are based on the time, so they don't repeat those of drafts stored by earlier runs
+        lastId = Math.max(lastId + 1, System.currentTimeMillis());
+        return lastId;
+    }
+
+    /**
+     * Stores a new version of a draft; it is written in the background once the user stops
+     * editing it for a moment. Call this for every edit, on any thread.
+     * @param draftId the id of the draft
+     * @param entry the draft; it is copied, so it may be edited further
+     */
+    public synchronized void save(long draftId, @NonNull JournalEntry entry) {
+        pending.put(draftId, new JournalEntry(entry));
+        long now = System.nanoTime();
+        if(scheduledWrite == null) {
+            oldestPendingNanos = now;
+        } else if(now - oldestPendingNanos + TimeUnit.MILLISECONDS.toNanos(debounceMillis) >
+                TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS)) {
+            // the scheduled write already comes as late as it may
+            return;
+        } else if(!scheduledWrite.cancel(false)) {
+            // already started, but it takes the pending drafts only once it gets hold of this lock
+            return;
+        }
+        scheduledWrite = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writePending();
+            }
+        }, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the pending drafts right away, still on the background thread; call this when the
+     * user leaves the screen
+     * @return a future completing once the drafts have been written
+     */
+    public synchronized Future<?> flush() {
+        if(scheduledWrite != null && !scheduledWrite.cancel(false)) {
+            // already started, and will write everything pending
+            return scheduledWrite;
+        }
+        scheduledWrite = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writePending();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        return scheduledWrite;
+    }
+
+    /**
+     * Deletes a draft, e.g. once it has been saved as an entry
+     * @param draftId the id of the draft
+     */
+    public synchronized void delete(final long draftId) {
+        pending.remove(draftId);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                fileOf(draftId).delete();
+            }
+        });
+    }
+
+    /**
+     * Deletes every draft of a set of entries, e.g. once they have been deleted, so they aren't
+     * kept around forever nor saved again under the id of a deleted entry
+     * @param entryIds the database ids of the entries
+     */
+    public synchronized void deleteDraftsOf(@NonNull long[] entryIds) {
+        final long[] sorted = EntryDatabase.distinctIds(entryIds);
+        Iterator<JournalEntry> unwritten = pending.values().iterator();
+        while(unwritten.hasNext()) {
+            if(Arrays.binarySearch(sorted, unwritten.next().getDatabaseId()) >= 0) {
+                unwritten.remove();
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = directory.listFiles();
+                if(files == null) {
+                    return;
+                }
+                for(File file : files) {
+                    if(idOf(file) == -1) {
+                        continue;
+                    }
+                    JournalEntry entry = read(file);
+                    if(entry != null && Arrays.binarySearch(sorted, entry.getDatabaseId()) >= 0) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads a draft in the background
+     * @param draftId the id of the draft
+     * @param callback callback receiving the draft on the main thread, or null if there is no such draft
+     */
+    public void load(final long draftId, @NonNull final EntryRepository.Callback<Draft> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                JournalEntry entry = pendingVersionOf(draftId);
+                if(entry == null) {
+                    entry = read(fileOf(draftId));
+                }
+                post(callback, entry != null ? new Draft(draftId, entry) : null);
+            }
+        });
+    }
+
+    /**
+     * Finds the most recent draft of an entry in the background, to restore it when the entry is
+     * edited again
+     * @param entryId the database id of the entry, or -1 for a draft of a new entry
+     * @param callback callback receiving the draft on the main thread, or null if there is none
+     */
+    public void findLatest(final long entryId, @NonNull final EntryRepository.Callback<Draft> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Draft latest = null;
+                for(Map.Entry<Long, JournalEntry> draft : pendingDrafts().entrySet()) {
+                    if(draft.getValue().getDatabaseId() == entryId && (latest == null || draft.getKey() > latest.id)) {
+                        latest = new Draft(draft.getKey(), draft.getValue());
+                    }
+                }
+                File[] files = directory.listFiles();
+                if(files != null) {
+                    for(File file : files) {
+                        long id = idOf(file);
+                        if(id == -1 || (latest != null && id <= latest.id)) {
+                            continue;
+                        }
+                        JournalEntry entry = read(file);
+                        if(entry != null && entry.getDatabaseId() == entryId) {
+                            latest = new Draft(id, entry);
+                        }
+                    }
+                }
+                post(callback, latest);
+            }
+        });
+    }
+
+    /**
+     * Posts a result to a callback on the main thread
+     * @param callback the callback
+     * @param draft the result
+     */
+    private void post(@NonNull final EntryRepository.Callback<Draft> callback, @Nullable final Draft draft) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(draft);
+            }
+        });
+    }
+
+    /**
+     * Returns the unwritten version of a draft
+     * @param draftId the id of the draft
+     * @return a copy of the draft, or null if it has no unwritten edits
+     */
+    @Nullable
+    private synchronized JournalEntry pendingVersionOf(long draftId) {
+        JournalEntry entry = pending.get(draftId);
+        return entry != null ? new JournalEntry(entry) : null;
+    }
+
+    /**
+     * Returns the unwritten versions of all drafts
+     * @return copies of the drafts, by draft id
+     */
+    private synchronized Map<Long, JournalEntry> pendingDrafts() {
+        Map<Long, JournalEntry> drafts = new HashMap<>();
+        for(Map.Entry<Long, JournalEntry> draft : pending.entrySet()) {
+            drafts.put(draft.getKey(), new JournalEntry(draft.getValue()));
+        }
+        return drafts;
+    }
+
+    /**
+     * Writes the latest version of every pending draft; runs on the background thread
+     */
+    private void writePending() {
+        Map<Long, JournalEntry> drafts;
+        synchronized(this) {
+            drafts = new HashMap<>(pending);
+            pending.clear();
+            scheduledWrite = null;
+        }
+        for(Map.Entry<Long, JournalEntry> draft : drafts.entrySet()) {
+            try {
+                write(draft.getKey(), draft.getValue());
+            } catch (IOException e) {
+                Log.w(TAG, "could not write draft " + draft.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes a draft to its file, replacing the previous version only once it has been written
+     * completely
+     * @param draftId the id of the draft
+     * @param entry the draft
+     * @throws IOException if the draft could not be written
+     */
+    @VisibleForTesting
+    void write(long draftId, @NonNull JournalEntry entry) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+        File file = fileOf(draftId);
+        File temp = new File(directory, draftId + TEMP_EXTENSION);
+        FileOutputStream stream = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(entry.getDatabaseId());
+            out.writeInt(entry.getMood());
+            out.writeLong(entry.getTimestamp());
+            writeString(out, entry.getTitle());
+            writeString(out, entry.getContent());
+            out.flush();
+            // make sure the draft is on disk before it replaces the previous version
+            stream.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if(!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("could not replace " + file);
+        }
+    }
+
+    /**
+     * Reads a draft from its file
+     * @param file the file of the draft
+     * @return the draft, or null if it doesn't exist or can't be read
+     */
+    @Nullable
+    private static JournalEntry read(@NonNull File file) {
+        if(!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if(in.readInt() != FORMAT_VERSION) {
+                    return null;
+                }
+                long entryId = in.readLong();
+                int mood = in.readInt();
+                long timestamp = in.readLong();
+                String title = readString(in);
+                String content = readString(in);
+                return new JournalEntry(title, content, mood, timestamp, entryId);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "could not read draft " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a string as its length in bytes followed by its UTF-8 bytes; unlike
+     * {@link DataOutputStream#writeUTF(String)} this works for strings of any length
+     * @param out the stream to write to
+     * @param value the string to write; null is written as an empty string
+     * @throws IOException if the string could not be written
+     */
+    private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(EntryExporter.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}
+     * @param in the stream to read from
+     * @return the string
+     * @throws IOException if the string could not be read
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, EntryExporter.UTF_8);
+    }
+
+    /**
+     * Returns the file a draft is stored in
+     * @param draftId the id of the draft
+     * @return the file
+     */
+    private File fileOf(long draftId) {
+        return new File(directory, draftId + EXTENSION);
+    }
+
+    /**
+     * Returns the id of the draft stored in a file
+     * @param file a file in the drafts directory
+     * @return the id of the draft, or -1 if the file isn't a draft
+     */
+    private static long idOf(@NonNull File file) {
+        String name = file.getName();
+        if(!name.endsWith(EXTENSION)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
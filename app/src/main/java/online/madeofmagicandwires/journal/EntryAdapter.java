@@ -2,168 +2,349 @@ package online.madeofmagicandwires.journal;
 
 
 import android.content.Context;
-import android.database.Cursor;
 import android.support.annotation.LayoutRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
-import android.text.format.DateUtils;
+import android.support.annotation.VisibleForTesting;
+import android.support.v7.recyclerview.extensions.AsyncDifferConfig;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.ResourceCursorAdapter;
+import android.view.ViewGroup;
 import android.widget.TextView;
-import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
-import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_MOOD;
-import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_TIMESTAMP;
-import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_TITLE;
-import static online.madeofmagicandwires.journal.JournalEntry.MOOD_ANGRY;
-import static online.madeofmagicandwires.journal.JournalEntry.MOOD_BORED;
-import static online.madeofmagicandwires.journal.JournalEntry.MOOD_HAPPY;
-import static online.madeofmagicandwires.journal.JournalEntry.MOOD_SAD;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
-public class EntryAdapter extends ResourceCursorAdapter {
+
+/**
+ * Adapter showing the entries list in a RecyclerView.
+ *
+ * Each new version of the list is compared with the one being shown on a background thread, so
+ * inserting, editing or deleting an entry only binds the row of that entry again, and the
+ * RecyclerView can animate the change.
+ *
+ * Rows can be selected by the database ids of their entries, so the selection stays put as rows
+ * move around between versions of the list. Selected rows are shown activated.
+ */
+public class EntryAdapter extends ListAdapter<EntryRow, EntryAdapter.EntryViewHolder> {
 
     /** The default layout to inflate **/
     public static final @LayoutRes int DEFAULT_LAYOUT = R.layout.entry_row;
-    /** represents 48 hours counted out to milliseconds */
-    private static final long LONG_TIME_48_HOURS = (2 * 24 * 60 * 60 * 1000);
 
+    /** payload of a change that only needs the dates of the rows to be formatted again **/
+    private static final Object PAYLOAD_DATE = new Object();
+    /** payload of a change that only needs the selection of a row to be shown again **/
+    private static final Object PAYLOAD_SELECTION = new Object();
 
     /**
-     * Standard constructor.
-     *
-     * @param context The context where the ListView associated with this adapter is running
-     * @param layout  Resource identifier of a layout file that defines the views
-     *                for this list item.  Unless you override them later, this will
-     *                define both the item views and the drop down views.
-     * @param c       The cursor from which to get the data.
-     * @param flags   Flags used to determine the behavior of the adapter,
-     *                as per {@link android.widget.CursorAdapter#CursorAdapter(Context, Cursor, int)}.
+     * Listener receiving clicks on the rows of the entries list
      */
-    public EntryAdapter(@NonNull  Context context, @LayoutRes int layout, @NonNull Cursor c, int flags) {
-        super(context, layout, c, flags);
+    public interface OnEntryClickListener {
+
+        /**
+         * Called when a row is clicked
+         * @param view the row that was clicked
+         * @param id the database id of the entry shown by the row
+         */
+        void onEntryClick(@NonNull View view, long id);
+
+        /**
+         * Called when a row is long clicked
+         * @param view the row that was clicked
+         * @param id the database id of the entry shown by the row
+         * @return true if the listener consumed the long click, false otherwise
+         */
+        boolean onEntryLongClick(@NonNull View view, long id);
     }
 
     /**
-     * Constructor with default behavior as per
-     * {@link android.widget.CursorAdapter#CursorAdapter(Context, Cursor, boolean)}; it is recommended
-     * you not use this, but instead {@link android.widget.ResourceCursorAdapter#ResourceCursorAdapter(Context, int, Cursor, int)}.
-     * When using this constructor, {@link #FLAG_REGISTER_CONTENT_OBSERVER}
-     * will always be set.
-     *
-     * @param context     The context where the ListView associated with this adapter is running
-     * @param layout      resource identifier of a layout file that defines the views
-     *                    for this list item.  Unless you override them later, this will
-     *                    define both the item views and the drop down views.
-     * @param c           The cursor from which to get the data.
-     * @param autoRequery If true the adapter will call requery() on the
-     *                    cursor whenever it changes so the most recent
+     * Holds the views of a row, so they are only looked up once when the row is created
      */
-    public EntryAdapter(Context context, int layout, Cursor c, boolean autoRequery) {
-        super(context, layout, c, autoRequery);
+    static class EntryViewHolder extends RecyclerView.ViewHolder {
+        final TextView title;
+        final TextView mood;
+        final TextView date;
+        final TextView moodEmoji;
+        final TextView preview;
+
+        EntryViewHolder(View root) {
+            super(root);
+            title = root.findViewById(R.id.entryTitle);
+            mood  = root.findViewById(R.id.entryMood);
+            date  = root.findViewById(R.id.entryDate);
+            moodEmoji = root.findViewById(R.id.entryMoodEmoji);
+            preview = root.findViewById(R.id.entryPreview);
+        }
     }
 
-    public EntryAdapter(Context context, Cursor c, boolean autoRequery) {
-        super(context, DEFAULT_LAYOUT, c, autoRequery);
+    private final @LayoutRes int layout;
+    private OnEntryClickListener listener = null;
+    /** database ids of the selected entries **/
+    private final Set<Long> selection = new HashSet<>();
+
+
+    /**
+     * Constructor using {@link #DEFAULT_LAYOUT} for the rows
+     */
+    public EntryAdapter() {
+        this(DEFAULT_LAYOUT);
     }
 
+    /**
+     * Standard constructor
+     * @param layout resource identifier of the layout of a row
+     */
+    public EntryAdapter(@LayoutRes int layout) {
+        this(layout, null);
+    }
 
     /**
-     * constructor that does not require a layout resource id but uses {@link #DEFAULT_LAYOUT} instead
-     * @param context activity context
-     * @param c       ResourceCursor
-     * @param flags   Flags
+     * Constructor allowing the executor the versions of the list are compared on to be provided
+     * @param layout resource identifier of the layout of a row
+     * @param diffExecutor executor to compare the versions of the list on, or null for the
+     *                     executor shared by all RecyclerView adapters
      */
-    public EntryAdapter(@NonNull Context context, @NonNull Cursor c, int flags) {
-        this(context, DEFAULT_LAYOUT, c, flags);
+    @VisibleForTesting
+    EntryAdapter(@LayoutRes int layout, @Nullable Executor diffExecutor) {
+        super(differConfig(diffExecutor));
+        this.layout = layout;
+        setHasStableIds(true);
     }
 
+    /**
+     * Configures how versions of the list are compared
+     * @param diffExecutor executor to compare the versions of the list on, or null for the default one
+     * @return the configuration
+     */
+    private static AsyncDifferConfig<EntryRow> differConfig(@Nullable Executor diffExecutor) {
+        AsyncDifferConfig.Builder<EntryRow> builder = new AsyncDifferConfig.Builder<>(EntryRow.DIFF);
+        if(diffExecutor != null) {
+            builder.setBackgroundThreadExecutor(diffExecutor);
+        }
+        return builder.build();
+    }
 
+    /**
+     * Sets the listener receiving clicks on the rows
+     * @param listener the listener, or null to ignore clicks
+     */
+    public void setOnEntryClickListener(@Nullable OnEntryClickListener listener) {
+        this.listener = listener;
+    }
 
+    /**
+     * Returns the row shown at a position
+     * @param position the position of the row
+     * @return the row
+     */
+    public EntryRow getRow(int position) {
+        return getItem(position);
+    }
 
     /**
-     * Bind an existing view to the data pointed to by cursor
-     *
-     * @param root    Existing view, returned earlier by newView
-     * @param context Interface to application's global information
-     * @param c  The cursor from which to get the data. The cursor is already
+     * Returns the database id of the entry at a position, so rows keep their views across versions of the list
+     * @param position the position of the row
+     * @return the database id of the entry
      */
     @Override
-    public void bindView(View root, Context context, Cursor c) {
-        // create entry from Cursor data
-        String entryTitle =  c.getString(c.getColumnIndex(TABLE_COLUMN_TITLE));
-        String entryMood =   c.getString(c.getColumnIndex(TABLE_COLUMN_MOOD));
-        Timestamp entryDateTime =  Timestamp.valueOf(c.getString(c.getColumnIndex(TABLE_COLUMN_TIMESTAMP)));
-
-        // retrieve respective field views
-        TextView title = root.findViewById(R.id.entryTitle);
-        TextView mood  = root.findViewById(R.id.entryMood);
-        TextView date  = root.findViewById(R.id.entryDate);
-        TextView moodEmoji = root.findViewById(R.id.entryMoodEmoji);
-
-
-        //bind fields to data
-        title.setText(entryTitle);
-        mood.setText(entryMood);
-        moodEmoji.setText(getMoodEmoji(entryMood));
-        date.setText(formatDate(context, entryDateTime));
-
-    }
-
-    public static @StringRes int getMoodEmoji(@NonNull @JournalEntry.Mood String mood) {
-        switch (mood) {
-            case MOOD_ANGRY:
-                return R.string.emoji_angry;
-            case MOOD_BORED:
-                return R.string.emoji_bored;
-            case MOOD_HAPPY:
-                return R.string.emoji_happy;
-            case MOOD_SAD:
-                return R.string.emoji_sad;
-            default:
-                return -1;
+    public long getItemId(int position) {
+        return getItem(position).getDatabaseId();
+    }
+
+    /**
+     * Returns whether an entry is selected
+     * @param id the database id of the entry
+     * @return true if it's selected
+     */
+    public boolean isSelected(long id) {
+        return selection.contains(id);
+    }
+
+    /**
+     * Selects an entry if it isn't selected, or deselects it if it is
+     * @param id the database id of the entry
+     * @return true if the entry is selected now
+     */
+    public boolean toggleSelected(long id) {
+        boolean selected = !selection.remove(id);
+        if(selected) {
+            selection.add(id);
         }
+        notifySelectionChanged(id);
+        return selected;
+    }
 
+    /**
+     * Selects a set of entries, in addition to those selected already
+     * @param ids the database ids of the entries
+     */
+    public void select(@NonNull long[] ids) {
+        for(long id : ids) {
+            if(selection.add(id)) {
+                notifySelectionChanged(id);
+            }
+        }
     }
 
     /**
-     * Formats datetime to relative or short ISO-8601 format yyyy-mm-dd
-     * @param context  application or activity context needed for locales
-     * @param datetime a sql timestamp referring to a datetime earlier than the current time.
-     * @param useRelative whether to use a relative time format if possible,
-     *                    or whether to always use the short ISO-8061 format
-     * @return formatted string, such as "x seconds ago" or  "yesterday" if the timestamp is from less than two days ago
-     *         or a short iso 8601 format if it's longer than that or useRelative is set to false
+     * Deselects all entries
      */
-    public static String formatDate(Context context, @NonNull Timestamp datetime, boolean useRelative) {
-        String formatted;
-        long now = System.currentTimeMillis();
-        long timeSince = now - datetime.getTime();
+    public void clearSelection() {
+        Long[] selected = selection.toArray(new Long[0]);
+        selection.clear();
+        for(long id : selected) {
+            notifySelectionChanged(id);
+        }
+    }
 
-        //             equals 48 hours as a long
-        if(useRelative && timeSince < LONG_TIME_48_HOURS) {
-             formatted = (String) DateUtils.getRelativeTimeSpanString(
-                     datetime.getTime(),
-                     now,
-                     DateUtils.MINUTE_IN_MILLIS,
-                     DateUtils.FORMAT_ABBREV_RELATIVE);
-        } else {
-            SimpleDateFormat shortIsoFormat = new SimpleDateFormat("yyyy-MM-dd",
-                    context.getResources().getConfiguration().getLocales().get(0));
-            formatted = shortIsoFormat.format(datetime);
+    /**
+     * Returns the number of selected entries
+     * @return the number of entries selected, including any that are no longer shown
+     */
+    public int getSelectedCount() {
+        return selection.size();
+    }
+
+    /**
+     * Returns the selected entries
+     * @return the database ids of the selected entries, in no particular order
+     */
+    @NonNull
+    public long[] getSelectedIds() {
+        long[] ids = new long[selection.size()];
+        int i = 0;
+        for(long id : selection) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Shows the selection of an entry again, if it's shown at all
+     * @param id the database id of the entry
+     */
+    private void notifySelectionChanged(long id) {
+        List<EntryRow> rows = getCurrentList();
+        for(int position = 0; position < rows.size(); position++) {
+            if(rows.get(position).getDatabaseId() == id) {
+                notifyItemChanged(position, PAYLOAD_SELECTION);
+                return;
+            }
         }
-        return formatted;
     }
 
     /**
-     * Formats datetime to relative or short ISO-8601 format yyyy-mm-dd
-     * @param context  application or activity context needed for locales
-     * @param datetime a sql timestamp object
-     * @return a formatted string representing the date from the datetime object in the format of yyyy-mm-dd
+     * Formats the dates of the shown rows again, so relative dates stay current, without binding
+     * anything else
+     */
+    public void refreshDates() {
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_DATE);
+    }
+
+    /**
+     * Inflates a new row and forwards its clicks to the listener
+     * @param parent the RecyclerView the row is added to
+     * @param viewType the type of the row; there is only one
+     * @return the holder of the new row
+     */
+    @NonNull
+    @Override
+    public EntryViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View root = LayoutInflater.from(parent.getContext()).inflate(layout, parent, false);
+        final EntryViewHolder holder = new EntryViewHolder(root);
+        root.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if(listener != null && position != RecyclerView.NO_POSITION) {
+                    listener.onEntryClick(v, getItemId(position));
+                }
+            }
+        });
+        root.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                int position = holder.getAdapterPosition();
+                return listener != null && position != RecyclerView.NO_POSITION &&
+                        listener.onEntryLongClick(v, getItemId(position));
+            }
+        });
+        return holder;
+    }
+
+    /**
+     * Binds a row to the entry at a position
+     * @param holder the holder of the row
+     * @param position the position of the entry
      */
-    public static String formatDate(Context context, @NonNull Timestamp datetime) {
-        return formatDate(context, datetime, true);
+    @Override
+    public void onBindViewHolder(@NonNull EntryViewHolder holder, int position) {
+        EntryRow row = getItem(position);
+        @JournalEntry.Mood int entryMood = row.getMood();
+
+        holder.title.setText(row.getTitle());
+        if(holder.preview != null) {
+            holder.preview.setText(row.getPreview());
+        }
+        setTextOrClear(holder.mood, MoodRegistry.getLabel(entryMood));
+        setTextOrClear(holder.moodEmoji, MoodRegistry.getEmoji(entryMood));
+        bindDate(holder, row);
+        holder.itemView.setActivated(selection.contains(row.getDatabaseId()));
+    }
+
+    /**
+     * Binds a row, or only its date or selection if that is all that changed
+     * @param holder the holder of the row
+     * @param position the position of the entry
+     * @param payloads the payloads of the changes to the row since it was last bound
+     */
+    @Override
+    public void onBindViewHolder(@NonNull EntryViewHolder holder, int position, @NonNull List<Object> payloads) {
+        for(Object payload : payloads) {
+            if(payload != PAYLOAD_DATE && payload != PAYLOAD_SELECTION) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+        }
+        if(payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        EntryRow row = getItem(position);
+        if(payloads.contains(PAYLOAD_DATE)) {
+            bindDate(holder, row);
+        }
+        if(payloads.contains(PAYLOAD_SELECTION)) {
+            holder.itemView.setActivated(selection.contains(row.getDatabaseId()));
+        }
+    }
+
+    /**
+     * Shows the date of an entry in a row
+     * @param holder the holder of the row
+     * @param row the entry
+     */
+    private static void bindDate(@NonNull EntryViewHolder holder, @NonNull EntryRow row) {
+        Context context = holder.itemView.getContext();
+        holder.date.setText(DateFormatter.getInstance(context).format(context, row.getTimestamp()));
+    }
+
+    /**
+     * Sets the text of a view to a string resource, or clears it if there is none
+     * @param view the view to set the text of
+     * @param text the string resource, or 0 to clear the text
+     */
+    static void setTextOrClear(@NonNull TextView view, @StringRes int text) {
+        if(text != 0) {
+            view.setText(text);
+        } else {
+            view.setText(null);
+        }
     }
 
 
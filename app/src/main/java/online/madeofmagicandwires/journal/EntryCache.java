@@ -0,0 +1,153 @@
+package online.madeofmagicandwires.journal;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+/**
+ * Least recently used cache of the JournalEntries loaded by {@link EntryDatabase#getEntry(long)},
+ * keyed by their database id.
+ *
+ * The cache is bounded by the approximate memory taken up by the entries rather than their number,
+ * so a few very long entries can't push out everything else.
+ * Entries are copied on the way in and out, so callers editing an entry they got from the cache
+ * don't change the cached copy.
+ *
+ * Writes go through the cache: {@link #update(JournalEntry)} and {@link #remove(long)} are called
+ * by EntryDatabase after every successful insert or delete.
+ */
+public class EntryCache {
+
+    /** default maximum size of the cached entries, in bytes **/
+    public static final int DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+    /** estimated memory taken up by a JournalEntry besides its strings, in bytes **/
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final LruCache<Long, JournalEntry> entries;
+    /** incremented on every write, so loads that raced with a write can be discarded **/
+    private long writes = 0;
+
+
+    /**
+     * Standard constructor
+     * @param maxSize maximum size of the cached entries, in bytes
+     */
+    public EntryCache(int maxSize) {
+        entries = new LruCache<Long, JournalEntry>(maxSize) {
+            @Override
+            protected int sizeOf(Long id, JournalEntry entry) {
+                return sizeOf(entry);
+            }
+        };
+    }
+
+    /**
+     * Returns the approximate memory taken up by an entry
+     * @param entry the entry to weigh
+     * @return the size of the entry in bytes
+     */
+    static int sizeOf(@NonNull JournalEntry entry) {
+        int chars = 0;
+        if(entry.getTitle() != null) {
+            chars += entry.getTitle().length();
+        }
+        if(entry.getContent() != null) {
+            chars += entry.getContent().length();
+        }
+        return ENTRY_OVERHEAD + chars * 2;
+    }
+
+    /**
+     * Returns a copy of a cached entry
+     * @param id the database id of the entry
+     * @return a copy of the entry, or null if it isn't cached
+     */
+    @Nullable
+    public synchronized JournalEntry get(long id) {
+        JournalEntry entry = entries.get(id);
+        return entry != null ? new JournalEntry(entry) : null;
+    }
+
+    /**
+     * Marks the start of loading an entry from the database after a cache miss
+     * @return a token to pass to {@link #putLoaded(JournalEntry, long)}
+     */
+    public synchronized long beginLoad() {
+        return writes;
+    }
+
+    /**
+     * Caches an entry loaded from the database, unless an entry was written while it was being loaded,
+     * in which case the loaded entry may already be out of date
+     * @param entry the loaded entry
+     * @param token the token returned by {@link #beginLoad()} before the entry was loaded
+     */
+    public synchronized void putLoaded(@NonNull JournalEntry entry, long token) {
+        if(token == writes) {
+            entries.put(entry.getDatabaseId(), new JournalEntry(entry));
+        }
+    }
+
+    /**
+     * Updates the cached copy of an entry after it was written to the database
+     * @param entry the written entry, with its database id set
+     */
+    public synchronized void update(@NonNull JournalEntry entry) {
+        writes++;
+        entries.put(entry.getDatabaseId(), new JournalEntry(entry));
+    }
+
+    /**
+     * Removes an entry after it was deleted from the database
+     * @param id the database id of the deleted entry
+     */
+    public synchronized void remove(long id) {
+        writes++;
+        entries.remove(id);
+    }
+
+    /**
+     * Removes all entries, after rows were changed in ways the cache can't follow
+     */
+    public synchronized void clear() {
+        writes++;
+        entries.evictAll();
+    }
+
+    /**
+     * Returns the number of times {@link #get(long)} returned a cached entry
+     * @return the number of cache hits
+     */
+    public synchronized int hitCount() {
+        return entries.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get(long)} found no cached entry
+     * @return the number of cache misses
+     */
+    public synchronized int missCount() {
+        return entries.missCount();
+    }
+
+    /**
+     * Returns the approximate memory taken up by the cached entries
+     * @return the size of the cache in bytes
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the maximum memory the cached entries may take up
+     * @return the maximum size of the cache in bytes
+     */
+    public int maxSize() {
+        return entries.maxSize();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return entries.toString();
+    }
+}
@@ -0,0 +1,221 @@
+package online.madeofmagicandwires.journal;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Number of entries per mood on each day or in each month of a stretch of time, to show a
+ * calendar with.
+ *
+ * Unlike {@link MoodStatistics}, days and months are those of a given time zone, so they start at
+ * local midnight and are 23 or 25 hours long when daylight saving time starts or ends. Entries are
+ * counted from their timestamps, which {@link EntryDatabase#getCalendar(int, long, long, TimeZone)}
+ * reads from its covering index.
+ */
+public class EntryCalendar {
+
+    /** possible values for the Unit enumerated annotation **/
+    public static final int UNIT_DAY = 0;
+    public static final int UNIT_MONTH = 1;
+
+    @IntDef({UNIT_DAY, UNIT_MONTH})
+    @Retention(RetentionPolicy.SOURCE)
+
+    /**
+     * Enum-like defining the length of a single cell of the calendar
+     */
+    public @interface Unit {}
+
+    /** number of counts per cell: one per known mood and one for unknown moods **/
+    private static final int SLOTS = MoodRegistry.getMoods().length + 1;
+
+    private final @Unit int unit;
+    /** the start of every cell followed by the end of the last one, in milliseconds since the epoch **/
+    private final long[] bounds;
+    private final int[][] counts;
+
+
+    /**
+     * Standard constructor; creates a calendar without any entries counted yet
+     * @param unit the length of a cell
+     * @param from the first instant to count entries from, in milliseconds since the epoch
+     * @param to the instant to count entries until, exclusive
+     * @param zone the time zone the days and months are in
+     * @throws IllegalArgumentException if to is not after from
+     */
+    public EntryCalendar(@Unit int unit, long from, long to, @NonNull TimeZone zone) {
+        if(to <= from) {
+            throw new IllegalArgumentException("Empty range; " + to + " is not after " + from);
+        }
+        this.unit = unit;
+        this.bounds = boundsOf(unit, from, to, zone);
+        this.counts = new int[bounds.length - 1][SLOTS];
+    }
+
+    /**
+     * Returns the starts of the days or months a stretch of time falls in
+     * @param unit the length of a cell
+     * @param from the first instant of the stretch
+     * @param to the instant the stretch ends at, exclusive
+     * @param zone the time zone of the days and months
+     * @return the start of every cell followed by the end of the last one
+     */
+    private static long[] boundsOf(@Unit int unit, long from, long to, @NonNull TimeZone zone) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(from);
+        int year = calendar.get(Calendar.YEAR);
+        int month = calendar.get(Calendar.MONTH);
+        int day = unit == UNIT_MONTH ? 1 : calendar.get(Calendar.DAY_OF_MONTH);
+
+        List<Long> bounds = new ArrayList<>();
+        long bound;
+        int i = 0;
+        do {
+            // every bound is set from the date rather than added to the last one, so a midnight
+            // skipped by daylight saving time doesn't shift the days after it
+            calendar.clear();
+            if(unit == UNIT_MONTH) {
+                calendar.set(year, month + i, day);
+            } else {
+                calendar.set(year, month, day + i);
+            }
+            bound = calendar.getTimeInMillis();
+            bounds.add(bound);
+            i++;
+        } while(bound < to);
+
+        long[] array = new long[bounds.size()];
+        for(i = 0; i < array.length; i++) {
+            array[i] = bounds.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Returns the index of the count of a mood
+     * @param mood the mood code
+     * @return the index into the counts
+     */
+    private static int slotOf(int mood) {
+        return MoodRegistry.isKnown(mood) ? mood : SLOTS - 1;
+    }
+
+    /**
+     * Counts an entry in the cell it falls in; entries outside of the calendar are ignored
+     * @param timestamp the timestamp of the entry, in milliseconds since the epoch
+     * @param mood the mood of the entry
+     */
+    public void add(long timestamp, @JournalEntry.Mood int mood) {
+        int cell = indexOf(timestamp);
+        if(cell >= 0) {
+            counts[cell][slotOf(mood)]++;
+        }
+    }
+
+    /**
+     * Returns the cell an instant falls in
+     * @param timestamp milliseconds since the epoch
+     * @return the index of the cell, or -1 if the instant is outside of the calendar
+     */
+    public int indexOf(long timestamp) {
+        int index = Arrays.binarySearch(bounds, timestamp);
+        // not a bound itself, so it falls in the cell starting at the bound before it
+        if(index < 0) {
+            index = -index - 2;
+        }
+        return index < size() ? index : -1;
+    }
+
+    /**
+     * Returns the length of the cells
+     * @return whether the cells are days or months
+     */
+    public @Unit int getUnit() {
+        return unit;
+    }
+
+    /**
+     * Returns the number of cells
+     * @return the number of days or months in the calendar
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    /**
+     * Returns the start of the first cell, which is at or before the start of the requested range
+     * @return midnight of the first day, in milliseconds since the epoch
+     */
+    public long getStart() {
+        return bounds[0];
+    }
+
+    /**
+     * Returns the end of the last cell, which is at or after the end of the requested range
+     * @return midnight after the last day, in milliseconds since the epoch
+     */
+    public long getEnd() {
+        return bounds[bounds.length - 1];
+    }
+
+    /**
+     * Returns the start of a cell
+     * @param cell the index of the cell
+     * @return midnight of its first day, in milliseconds since the epoch
+     */
+    public long getStart(int cell) {
+        return bounds[cell];
+    }
+
+    /**
+     * Returns the end of a cell, which is the start of the next one
+     * @param cell the index of the cell
+     * @return midnight after its last day, in milliseconds since the epoch
+     */
+    public long getEnd(int cell) {
+        return bounds[cell + 1];
+    }
+
+    /**
+     * Returns the number of entries with a mood in a cell
+     * @param cell the index of the cell
+     * @param mood the mood code; every unknown mood is counted together
+     * @return the number of entries
+     */
+    public int getCount(int cell, @JournalEntry.Mood int mood) {
+        return counts[cell][slotOf(mood)];
+    }
+
+    /**
+     * Returns the number of entries in a cell
+     * @param cell the index of the cell
+     * @return the number of entries of any mood
+     */
+    public int getCount(int cell) {
+        int total = 0;
+        for(int count : counts[cell]) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of entries in the calendar
+     * @return the number of entries of any mood in any cell
+     */
+    public int getTotal() {
+        int total = 0;
+        for(int cell = 0; cell < counts.length; cell++) {
+            total += getCount(cell);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,311 @@
+package online.madeofmagicandwires.journal;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Purges deleted entries once they can no longer be restored, and gives the space they took up
+ * back to the file system.
+ *
+ * {@link EntryDatabase#delete(long)} keeps deleted entries as tombstones, so the delete can be undone
+ * for {@link #DEFAULT_UNDO_WINDOW_MILLIS}. The compactor runs on a background thread of its own once
+ * the undo window of the latest delete has passed. It purges expired tombstones in batches, each a
+ * short transaction of its own, so saves and list queries aren't held up; once the unused pages
+ * make up more than a threshold of the file, it releases them a few at a time in the same way.
+ * Files created before incremental vacuuming was turned on are rewritten once by a full vacuum
+ * first, see {@link EntryDatabase#vacuum(int)}.
+ */
+public class EntryCompactor {
+
+    private static final String TAG = "EntryCompactor";
+
+    /** how long a deleted entry can be restored for, in milliseconds **/
+    public static final long DEFAULT_UNDO_WINDOW_MILLIS = 30 * 1000;
+    /** default number of deleted entries purged per transaction **/
+    public static final int DEFAULT_PURGE_BATCH_SIZE = 100;
+    /** default fraction of unused pages above which the file is vacuumed **/
+    public static final double DEFAULT_VACUUM_THRESHOLD = 0.25;
+    /** files with fewer unused pages than this aren't worth vacuuming, however small they are **/
+    static final long MIN_VACUUM_PAGES = 64;
+    /** number of pages released per incremental vacuum step **/
+    static final int VACUUM_STEP_PAGES = 256;
+
+    /**
+     * What a single compaction did, along with the state of the database before and after it
+     */
+    public static class Report {
+
+        private final int purged;
+        private final boolean vacuumed;
+        private final DatabaseStorage before;
+        private final DatabaseStorage after;
+        private final DatabaseMetrics.Snapshot metricsBefore;
+        private final DatabaseMetrics.Snapshot metricsAfter;
+        private final long nanos;
+
+        /**
+         * Standard constructor
+         * @param purged the number of deleted entries purged
+         * @param vacuumed whether unused pages were released
+         * @param before the storage of the database before the compaction
+         * @param after the storage of the database after the compaction
+         * @param metricsBefore the query latencies recorded up to the compaction
+         * @param metricsAfter the query latencies recorded up to the end of the compaction
+         * @param nanos the time the compaction took, in nanoseconds
+         */
+        Report(int purged, boolean vacuumed, @NonNull DatabaseStorage before, @NonNull DatabaseStorage after,
+               @NonNull DatabaseMetrics.Snapshot metricsBefore, @NonNull DatabaseMetrics.Snapshot metricsAfter,
+               long nanos) {
+            this.purged = purged;
+            this.vacuumed = vacuumed;
+            this.before = before;
+            this.after = after;
+            this.metricsBefore = metricsBefore;
+            this.metricsAfter = metricsAfter;
+            this.nanos = nanos;
+        }
+
+        public int getPurged() {
+            return purged;
+        }
+
+        @NonNull
+        public DatabaseStorage getBefore() {
+            return before;
+        }
+
+        @NonNull
+        public DatabaseStorage getAfter() {
+            return after;
+        }
+
+        /**
+         * Returns whether the file was vacuumed
+         * @return true if pages were released
+         */
+        public boolean isVacuumed() {
+            return vacuumed;
+        }
+
+        /**
+         * Returns the query latencies recorded before the compaction started
+         * @return the metrics before the compaction
+         */
+        @NonNull
+        public DatabaseMetrics.Snapshot getMetricsBefore() {
+            return metricsBefore;
+        }
+
+        /**
+         * Returns the query latencies recorded up to the end of the compaction; subtract them from
+         * a later snapshot to get the latencies of the compacted file,
+         * see {@link DatabaseMetrics.Snapshot#since(DatabaseMetrics.Snapshot)}
+         * @return the metrics after the compaction
+         */
+        @NonNull
+        public DatabaseMetrics.Snapshot getMetricsAfter() {
+            return metricsAfter;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Returns a summary of the compaction
+         * @return e.g. "purged 12 entries, 4.2MB, 31% free -> 2.9MB, 0% free in 35.1ms"
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "purged %d entries, %s -> %s in %.1fms",
+                    purged, before, after, nanos / 1e6);
+        }
+    }
+
+    private final EntryDatabase db;
+    private final ScheduledExecutorService executor;
+    private final long undoWindowMillis;
+    private final int batchSize;
+    private final double vacuumThreshold;
+
+    /** the scheduled compaction, or null if none is scheduled; guarded by this **/
+    private ScheduledFuture<?> scheduled = null;
+    private volatile Report lastReport = null;
+
+
+    /**
+     * Constructor using the default undo window, batch size and vacuum threshold, compacting on
+     * a background thread of its own
+     * @param db the database to compact
+     */
+    public EntryCompactor(@NonNull EntryDatabase db) {
+        this(db, newExecutor(), DEFAULT_UNDO_WINDOW_MILLIS, DEFAULT_PURGE_BATCH_SIZE, DEFAULT_VACUUM_THRESHOLD);
+    }
+
+    /**
+     * Constructor allowing the executor and limits to be provided
+     * @param db the database to compact
+     * @param executor executor to run scheduled compactions on
+     * @param undoWindowMillis how long a deleted entry is kept before it's purged, in milliseconds
+     * @param batchSize number of deleted entries purged per transaction
+     * @param vacuumThreshold fraction of unused pages above which the file is vacuumed
+     */
+    @VisibleForTesting
+    EntryCompactor(@NonNull EntryDatabase db, @NonNull ScheduledExecutorService executor,
+                   long undoWindowMillis, int batchSize, double vacuumThreshold) {
+        this.db = db;
+        this.executor = executor;
+        this.undoWindowMillis = undoWindowMillis;
+        this.batchSize = batchSize;
+        this.vacuumThreshold = vacuumThreshold;
+    }
+
+    /**
+     * Creates the executor compactions run on, which drops scheduled compactions once shut down
+     * @return a single threaded executor
+     */
+    private static ScheduledExecutorService newExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+
+    /**
+     * Returns how long a deleted entry can be restored for
+     * @return the undo window in milliseconds
+     */
+    public long getUndoWindowMillis() {
+        return undoWindowMillis;
+    }
+
+    /**
+     * Schedules a compaction for when the undo window of an entry deleted now has passed,
+     * replacing any compaction scheduled earlier; to be called after every delete
+     */
+    public synchronized void schedule() {
+        if(executor.isShutdown()) {
+            return;
+        }
+        // one that is already running finishes, and the new one takes care of what it missed
+        if(scheduled != null) {
+            scheduled.cancel(false);
+        }
+        scheduled = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    // the next delete schedules another attempt
+                    Log.w(TAG, "compaction failed", e);
+                }
+            }
+        }, undoWindowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Purges the deleted entries whose undo window has passed and vacuums the file if enough of it
+     * is unused; blocks until done
+     * @return what the compaction did
+     */
+    @WorkerThread
+    @NonNull
+    public Report compact() {
+        return compact(System.currentTimeMillis());
+    }
+
+    /**
+     * Purges the deleted entries whose undo window has passed at a given time and vacuums the file
+     * if enough of it is unused
+     * @param now the current time, in milliseconds since the epoch
+     * @return what the compaction did
+     */
+    @VisibleForTesting
+    @NonNull
+    Report compact(long now) {
+        long start = System.nanoTime();
+        DatabaseMetrics.Snapshot metricsBefore = db.getMetrics().snapshot();
+        DatabaseStorage before = db.getStorage();
+
+        int purged = 0;
+        int batch;
+        do {
+            batch = db.purgeDeleted(now - undoWindowMillis, batchSize);
+            purged += batch;
+        } while(batch == batchSize);
+
+        DatabaseStorage storage = db.getStorage();
+        boolean vacuumed = needsVacuum(storage);
+        if(vacuumed) {
+            if(!storage.isIncrementalVacuum()) {
+                // only files upgraded from before incremental vacuuming need to be rewritten, once
+                db.vacuum(VACUUM_STEP_PAGES);
+            } else {
+                while(storage.getFreePages() > 0 && db.vacuum(VACUUM_STEP_PAGES) > 0) {
+                    storage = db.getStorage();
+                }
+            }
+        }
+
+        Report report = new Report(purged, vacuumed, before, db.getStorage(), metricsBefore,
+                db.getMetrics().snapshot(), System.nanoTime() - start);
+        lastReport = report;
+        if(purged > 0 || report.isVacuumed()) {
+            Log.i(TAG, report.toString());
+        }
+        return report;
+    }
+
+    /**
+     * Returns whether enough of the file is unused to vacuum it
+     * @param storage the storage of the database
+     * @return true if the unused pages pass the threshold
+     */
+    boolean needsVacuum(@NonNull DatabaseStorage storage) {
+        return storage.getFreePages() >= MIN_VACUUM_PAGES && storage.getFreeRatio() >= vacuumThreshold;
+    }
+
+    /**
+     * Returns the report of the latest compaction
+     * @return the report, or null if nothing was compacted yet
+     */
+    @Nullable
+    public Report getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Drops any scheduled compaction and stops the background thread once a running one has finished
+     */
+    public synchronized void shutdown() {
+        if(scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for a running compaction to finish after {@link #shutdown()}
+     * @param timeoutMillis maximum time to wait, in milliseconds
+     * @return true if no compaction is running anymore
+     */
+    @WorkerThread
+    public boolean awaitTermination(long timeoutMillis) {
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
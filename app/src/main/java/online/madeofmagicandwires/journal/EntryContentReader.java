@@ -0,0 +1,261 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the content of a single entry a chunk at a time, so entries larger than a CursorWindow
+ * can be read, and never more than a chunk has to be held besides what the caller keeps.
+ *
+ * Every chunk of a plain content is a range of its characters, selected with substr() on the text
+ * column. SQLite still has to load the whole value and count the characters up to the offset for
+ * every chunk, so reading a content takes length / chunk loads of it; chunks are kept large to keep
+ * that to a few dozen for the largest entries. Casting the content to a BLOB to select bytes instead
+ * would copy the whole value on every chunk as well.
+ *
+ * Compressed contents are read a range of the compressed bytes at a time instead, inflated no more
+ * than a chunk at a time; characters split between two chunks are put back together by the decoder.
+ */
+public class EntryContentReader extends Reader {
+
+    /** default number of bytes read from the database at a time; well below the size of a CursorWindow **/
+    public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+
+    private final SQLiteDatabase db;
+    private final long id;
+    private final String[] args;
+    private final int chunkSize;
+    /** number of characters of a plain content read at a time, which take up at most chunkSize bytes **/
+    private final int textChunkLength;
+    /** the column the chunks are read from, or null until the first chunk is read **/
+    private String source = null;
+    /** inflater of a compressed content, or null if the content isn't compressed **/
+    private Inflater inflater = null;
+    private final CharsetDecoder decoder = EntryExporter.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** 1-based offset of the next chunk as substr() counts: characters of a plain content, bytes of a compressed one **/
+    private long offset = 1;
+    /** bytes read but not decoded yet, e.g. the first half of a character **/
+    private ByteBuffer bytes = ByteBuffer.allocate(0);
+    /** decoded characters not returned yet **/
+    private final CharBuffer chars;
+    private boolean endOfContent = false;
+    private boolean flushed = false;
+
+
+    /**
+     * Standard constructor
+     * @param db the database to read from
+     * @param id the database id of the entry to read the content of
+     */
+    public EntryContentReader(@NonNull SQLiteDatabase db, long id) {
+        this(db, id, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor allowing a different chunk size to be used
+     * @param db the database to read from
+     * @param id the database id of the entry to read the content of
+     * @param chunkSize number of bytes to read from the database at a time
+     */
+    public EntryContentReader(@NonNull SQLiteDatabase db, long id, int chunkSize) {
+        if(chunkSize < 4) {
+            throw new IllegalArgumentException("chunkSize must hold at least one character, was " + chunkSize);
+        }
+        this.db = db;
+        this.id = id;
+        this.chunkSize = chunkSize;
+        // a character takes up to four UTF-8 bytes
+        this.textChunkLength = chunkSize / 4;
+        this.args = new String[]{null, String.valueOf(textChunkLength), String.valueOf(id)};
+        // a chunk never decodes to more characters than it has bytes, plus those of a split character
+        this.chars = CharBuffer.allocate(chunkSize + 4);
+        this.chars.flip();
+    }
+
+    /**
+     * Reads the whole content of an entry
+     * @param db the database to read from
+     * @param id the database id of the entry
+     * @param lengthHint the expected length of the content in characters, to size the result with
+     * @return the content, or an empty string if there is no such entry
+     */
+    @NonNull
+    public static String readFully(@NonNull SQLiteDatabase db, long id, int lengthHint) {
+        StringBuilder content = new StringBuilder(Math.max(lengthHint, 16));
+        EntryContentReader reader = new EntryContentReader(db, id);
+        char[] buffer = new char[8192];
+        int read;
+        while((read = reader.read(buffer, 0, buffer.length)) != -1) {
+            content.append(buffer, 0, read);
+        }
+        reader.close();
+        return content.toString();
+    }
+
+    /**
+     * Finds out whether the content is compressed, and where to read it from
+     */
+    private void open() {
+        source = EntryDatabase.TABLE_COLUMN_CONTENT;
+        Cursor c = db.rawQuery("SELECT substr(" + EntryDatabase.TABLE_COLUMN_COMPRESSED_CONTENT + ", 1, 1) FROM " +
+                EntryDatabase.DB_TABLE_NAME + " WHERE " + EntryDatabase.TABLE_COLUMN_ID + " = ?",
+                new String[]{String.valueOf(id)});
+        try {
+            if(c.moveToFirst() && !c.isNull(0)) {
+                inflater = ContentCompression.newInflater(c.getBlob(0)[0]);
+                source = EntryDatabase.TABLE_COLUMN_COMPRESSED_CONTENT;
+                args[1] = String.valueOf(chunkSize);
+                // skip the marker
+                offset = 2;
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Selects the next range of the content
+     * @return a cursor holding the range, if the entry exists; the caller should close it
+     */
+    private Cursor queryChunk() {
+        args[0] = String.valueOf(offset);
+        return db.rawQuery("SELECT substr(" + source + ", ?, ?) FROM " +
+                EntryDatabase.DB_TABLE_NAME + " WHERE " + EntryDatabase.TABLE_COLUMN_ID + " = ?", args);
+    }
+
+    /**
+     * Reads the next range of characters of a plain content from the database
+     * @return up to {@link #textChunkLength} characters, or null if there are none left
+     */
+    private String readText() {
+        String text = null;
+        Cursor c = queryChunk();
+        try {
+            if(c.moveToFirst() && !c.isNull(0)) {
+                text = c.getString(0);
+            }
+        } finally {
+            c.close();
+        }
+        // substr() counts characters, where a Java string counts surrogates twice
+        int length = text != null ? text.codePointCount(0, text.length()) : 0;
+        offset += length;
+        if(length < textChunkLength) {
+            endOfContent = true;
+        }
+        return text;
+    }
+
+    /**
+     * Reads the next range of compressed bytes from the database
+     * @return up to {@link #chunkSize} bytes, or null if there are none left
+     */
+    private byte[] readChunk() {
+        byte[] chunk = null;
+        Cursor c = queryChunk();
+        try {
+            if(c.moveToFirst() && !c.isNull(0)) {
+                chunk = c.getBlob(0);
+                offset += chunk.length;
+            }
+        } finally {
+            c.close();
+        }
+        return chunk;
+    }
+
+    /**
+     * Inflates the next UTF-8 bytes of a compressed content
+     * @return up to {@link #chunkSize} bytes
+     */
+    private byte[] nextBytes() {
+        byte[] inflated = new byte[chunkSize];
+        try {
+            int length = 0;
+            while(length == 0 && !inflater.finished()) {
+                if(inflater.needsDictionary()) {
+                    throw new IllegalStateException("compressed content of entry " + id + " needs a dictionary");
+                } else if(inflater.needsInput()) {
+                    byte[] chunk = readChunk();
+                    if(chunk == null || chunk.length == 0) {
+                        throw new IllegalStateException("compressed content of entry " + id + " is truncated");
+                    }
+                    inflater.setInput(chunk);
+                }
+                length = inflater.inflate(inflated);
+            }
+            if(inflater.finished()) {
+                endOfContent = true;
+                inflater.end();
+            }
+            return length < inflated.length ? Arrays.copyOf(inflated, length) : inflated;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("compressed content of entry " + id + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Decodes the next chunk of the content into {@link #chars}
+     */
+    private void fill() {
+        chars.compact();
+        if(source == null) {
+            open();
+        }
+        if(!endOfContent && inflater == null) {
+            // plain contents are read as text already, leaving nothing to decode
+            String text = readText();
+            if(text != null) {
+                chars.put(text);
+            }
+        } else if(!endOfContent) {
+            byte[] chunk = nextBytes();
+            ByteBuffer joined = ByteBuffer.allocate(bytes.remaining() + chunk.length);
+            joined.put(bytes).put(chunk).flip();
+            bytes = joined;
+        }
+        decoder.decode(bytes, chars, endOfContent);
+        if(endOfContent && !bytes.hasRemaining() && !flushed) {
+            decoder.flush(chars);
+            flushed = true;
+        }
+        chars.flip();
+    }
+
+    @Override
+    public int read(@NonNull char[] buffer, int offset, int length) {
+        if(length == 0) {
+            return 0;
+        }
+        while(!chars.hasRemaining()) {
+            if(flushed) {
+                return -1;
+            }
+            fill();
+        }
+        int read = Math.min(length, chars.remaining());
+        chars.get(buffer, offset, read);
+        return read;
+    }
+
+    @Override
+    public void close() {
+        // no cursor is held open between chunks, only the inflater
+        if(inflater != null) {
+            inflater.end();
+        }
+    }
+}
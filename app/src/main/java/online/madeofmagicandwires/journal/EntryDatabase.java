@@ -7,21 +7,40 @@ import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
-import java.sql.Timestamp;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class EntryDatabase extends SQLiteOpenHelper {
 
+    private static final String TAG = "EntryDatabase";
+
     /**
      * Constant members relating to the database and table values to be used
      * to avoid sanitation and typos
      **/
     public static final String DB_NAME = "JournalEntryDatabase.db";
-    public static final int DB_VERSION = 3;
+    public static final int DB_VERSION = 12;
     public static final String DB_TABLE_NAME = "entries";
 
     public static final String TABLE_COLUMN_ID = "_id";
@@ -29,13 +48,186 @@ public class EntryDatabase extends SQLiteOpenHelper {
     public static final String TABLE_COLUMN_CONTENT = "content";
     public static final String TABLE_COLUMN_MOOD = "mood";
     public static final String TABLE_COLUMN_TIMESTAMP = "entryDate";
+    /** the first {@link #PREVIEW_LENGTH} characters of the content, shown in the list **/
+    public static final String TABLE_COLUMN_PREVIEW = "preview";
+    /** the length of the content in characters, so it is known without reading the content **/
+    public static final String TABLE_COLUMN_CONTENT_LENGTH = "contentLength";
+    /**
+     * the content compressed as described by {@link ContentCompression}, or null if it is stored as it is;
+     * when set, the content column only holds the words of the content, for the full-text index
+     **/
+    public static final String TABLE_COLUMN_COMPRESSED_CONTENT = "compressedContent";
+    /**
+     * the date the entry was written on in the time zone it was saved in, see
+     * {@link MoodStatistics#localDayOf(long, TimeZone)}; the statistics are counted by it
+     **/
+    public static final String TABLE_COLUMN_LOCAL_DAY = "localDay";
+
+    /** number of characters of the content stored as its preview **/
+    public static final int PREVIEW_LENGTH = 200;
+    /** number of characters of a title read for the list and search results, more than a row can show **/
+    public static final int LIST_TITLE_LENGTH = 100;
+    /**
+     * contents of up to this many characters are read by {@link #getEntry(long)} in a single query;
+     * even at 4 bytes per character they fit in a CursorWindow. Longer contents are read in chunks
+     * by an {@link EntryContentReader}.
+     **/
+    public static final int INLINE_CONTENT_LENGTH = 256 * 1024;
+    /** contents longer than this many characters are compressed, unless that doesn't save any space **/
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 4096;
+
+    /**
+     * index ordering entries by latest posted, so sorting and range queries don't scan the table.
+     * It also holds the mood and title of every entry, so the queries of a calendar are answered
+     * from the index alone and only read the entries of the days they show.
+     **/
+    public static final String INDEX_CALENDAR = "entries_calendar_idx";
+    /**
+     * index ordering the entries of each mood by latest posted, so listing a single mood is a range
+     * of the index rather than a scan of the table
+     **/
+    public static final String INDEX_MOOD = "entries_mood_idx";
+
+    /**
+     * Order of entries in the list; latest posted first.
+     * Ties are broken by ascending id, which is the order in which rows with the same timestamp
+     * are stored in {@link #INDEX_CALENDAR}, so the index can be walked without sorting.
+     */
+    public static final String ORDER_LATEST = TABLE_COLUMN_TIMESTAMP + " DESC, " + TABLE_COLUMN_ID + " ASC";
+
+    /** full-text index over the title and content of all entries, kept in sync by triggers **/
+    public static final String FTS_TABLE_NAME = "entries_fts";
+    /** number of tokens in a search result snippet **/
+    private static final int SNIPPET_TOKENS = 12;
+    /** weight of a match in the title and content columns when ranking search results **/
+    private static final double[] RANK_WEIGHTS = new double[]{2.0, 1.0};
+
+    /**
+     * summary table holding the number of entries per day and mood, kept up to date by triggers
+     * so statistics don't need to scan the entries
+     **/
+    public static final String STATS_TABLE_NAME = "mood_stats";
+    /** the local date, in days since the epoch, as stored in {@link #TABLE_COLUMN_LOCAL_DAY} **/
+    public static final String STATS_COLUMN_DAY = "day";
+    public static final String STATS_COLUMN_MOOD = "mood";
+    public static final String STATS_COLUMN_COUNT = "count";
+
+    /**
+     * table keeping deleted entries, with the same columns as the entries table plus the time
+     * they were deleted, until they can no longer be restored. Being out of the entries table,
+     * they are left out of every query, the full-text index and the statistics.
+     **/
+    public static final String TOMBSTONE_TABLE_NAME = "deleted_entries";
+    /** the time the entry was deleted, in milliseconds since the epoch **/
+    public static final String TOMBSTONE_COLUMN_DELETED_AT = "deletedAt";
+    /** index of the tombstones by the time they were deleted, so expired ones are found without a scan **/
+    public static final String INDEX_DELETED_AT = "deleted_entries_deletedAt_idx";
+
+    /** columns of an entry as stored, copied as they are between the entries and tombstone tables **/
+    private static final String STORED_COLUMNS = TABLE_COLUMN_ID + ", " + TABLE_COLUMN_TITLE + ", " +
+            TABLE_COLUMN_CONTENT + ", " + TABLE_COLUMN_MOOD + ", " + TABLE_COLUMN_TIMESTAMP + ", " +
+            TABLE_COLUMN_PREVIEW + ", " + TABLE_COLUMN_CONTENT_LENGTH + ", " + TABLE_COLUMN_COMPRESSED_CONTENT + ", " +
+            TABLE_COLUMN_LOCAL_DAY;
+
+    /** title truncated to what the list can show, so rows stay small however long the title is **/
+    private static final String LIST_TITLE =
+            "substr(" + TABLE_COLUMN_TITLE + ", 1, " + LIST_TITLE_LENGTH + ") AS " + TABLE_COLUMN_TITLE;
+
+    /** columns needed to show entries in the list **/
+    private static final String[] LIST_COLUMNS = new String[]{
+            LIST_TITLE, TABLE_COLUMN_PREVIEW, TABLE_COLUMN_MOOD, TABLE_COLUMN_TIMESTAMP, TABLE_COLUMN_ID};
+
+    /** columns needed to show entries in a calendar, all of which are held by {@link #INDEX_CALENDAR} **/
+    private static final String[] CALENDAR_COLUMNS = new String[]{
+            LIST_TITLE, TABLE_COLUMN_MOOD, TABLE_COLUMN_TIMESTAMP, TABLE_COLUMN_ID};
+
+    /**
+     * expression of the content if it can be read in a single query, or null if it is compressed
+     * or too long and has to be read some other way
+     **/
+    static final String INLINE_CONTENT = "CASE WHEN " + TABLE_COLUMN_COMPRESSED_CONTENT + " IS NULL AND " +
+            TABLE_COLUMN_CONTENT_LENGTH + " <= " + INLINE_CONTENT_LENGTH + " THEN " + TABLE_COLUMN_CONTENT + " END";
+
+    /**
+     * columns read by {@link #getEntry(long)}; contents that are too long to be read at once are
+     * left out, compressed or not
+     **/
+    private static final String[] ENTRY_COLUMNS = new String[]{
+            TABLE_COLUMN_ID, TABLE_COLUMN_TITLE, TABLE_COLUMN_MOOD, TABLE_COLUMN_TIMESTAMP, TABLE_COLUMN_CONTENT_LENGTH,
+            INLINE_CONTENT + " AS " + TABLE_COLUMN_CONTENT,
+            "CASE WHEN length(" + TABLE_COLUMN_COMPRESSED_CONTENT + ") <= " + INLINE_CONTENT_LENGTH +
+                    " THEN " + TABLE_COLUMN_COMPRESSED_CONTENT + " END"};
+
+    /** value of PRAGMA auto_vacuum when unused pages can be released a few at a time **/
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * maximum number of ids bound to a single IN list by the bulk operations; SQLite versions
+     * before 3.32 allow at most 999 values to be bound to a statement
+     **/
+    public static final int IN_LIST_CHUNK_SIZE = 500;
+
+    /** default number of rows inserted per transaction by {@link #insertAll(Collection)} **/
+    public static final int DEFAULT_INSERT_BATCH_SIZE = 1000;
+    /** default time after which a query or write is logged as slow, in milliseconds **/
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 100;
 
     /** singleton instances to be returned if set **/
     private static EntryDatabase instance = null;
 
+    /** brings databases created by older versions of the app up to date, one version at a time **/
+    private final MigrationEngine migrations = new MigrationEngine(
+            MigrationEngine.DEFAULT_BATCH_SIZE,
+            new EpochTimestampMigration(),
+            new FullTextSearchMigration(),
+            new MoodCodeMigration(),
+            new MoodStatsMigration(),
+            new ContentPreviewMigration(),
+            new CompressedContentMigration(),
+            new CalendarIndexMigration(),
+            new TombstoneMigration(),
+            new LocalDayMigration());
+
+    /** recently loaded entries, kept up to date by insert and delete **/
+    private final EntryCache cache;
+    /** contents longer than this many characters are compressed when written **/
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    /** time zone the local day of saved entries is found in, or null for the default time zone at the time **/
+    private volatile TimeZone timeZone = null;
+    /** counts and latencies of the queries and writes run so far **/
+    private final DatabaseMetrics metrics = new DatabaseMetrics();
+    /** queries and writes taking at least this many nanoseconds are logged along with their query plan **/
+    private volatile long slowQueryNanos = DEFAULT_SLOW_QUERY_MILLIS * 1000000;
+    /** incremented after every write, so readers can tell whether anything changed since they last read **/
+    private final AtomicLong dataVersion = new AtomicLong();
+
 
     private EntryDatabase(@NonNull Context context) {
-        super(context, DB_NAME, null, DB_VERSION);
+        this(context, DB_NAME);
+    }
+
+    /**
+     * Constructor allowing a different database file to be used
+     * @param context Application/Activity context
+     * @param name name of the database file, or null for an in-memory database
+     */
+    @VisibleForTesting
+    EntryDatabase(@NonNull Context context, @Nullable String name) {
+        this(context, name, EntryCache.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor allowing a different database file and entry cache size to be used
+     * @param context Application/Activity context
+     * @param name name of the database file, or null for an in-memory database
+     * @param cacheSize maximum size of the cached entries, in bytes
+     */
+    @VisibleForTesting
+    EntryDatabase(@NonNull Context context, @Nullable String name, int cacheSize) {
+        super(context, name, null, DB_VERSION);
+        cache = new EntryCache(cacheSize);
+        // lets list queries read from their own connection while an entry is being saved
+        setWriteAheadLoggingEnabled(true);
     }
 
 
@@ -52,12 +244,157 @@ public class EntryDatabase extends SQLiteOpenHelper {
                 TABLE_COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT UNIQUE," +
                 TABLE_COLUMN_TITLE +  " TEXT NOT NULL," +
                 TABLE_COLUMN_CONTENT + " TEXT NOT NULL," +
-                TABLE_COLUMN_MOOD + " TEXT," +
-                TABLE_COLUMN_TIMESTAMP + " TIMESTAMP)");
+                TABLE_COLUMN_MOOD + " INTEGER NOT NULL DEFAULT " + JournalEntry.MOOD_UNKNOWN + "," + // a JournalEntry.Mood code
+                TABLE_COLUMN_TIMESTAMP + " INTEGER NOT NULL," + // milliseconds since the epoch
+                TABLE_COLUMN_PREVIEW + " TEXT NOT NULL DEFAULT ''," +
+                TABLE_COLUMN_CONTENT_LENGTH + " INTEGER NOT NULL DEFAULT 0," +
+                TABLE_COLUMN_COMPRESSED_CONTENT + " BLOB," +
+                TABLE_COLUMN_LOCAL_DAY + " INTEGER)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_CALENDAR + " ON " + DB_TABLE_NAME +
+                "(" + TABLE_COLUMN_TIMESTAMP + " DESC, " + TABLE_COLUMN_ID + ", " +
+                TABLE_COLUMN_MOOD + ", " + TABLE_COLUMN_TITLE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_MOOD + " ON " + DB_TABLE_NAME +
+                "(" + TABLE_COLUMN_MOOD + ", " + TABLE_COLUMN_TIMESTAMP + " DESC)");
+        createSearchIndex(db);
+        createStatsTable(db);
+        createTombstoneTable(db);
+        MigrationEngine.createStateTable(db);
+
+    }
+
+    /**
+     * Creates the full-text index and the triggers keeping it in sync with the entries table.
+     *
+     * The index uses the entries table as its external content, so the text isn't stored twice.
+     * The BEFORE triggers remove a row from the index while its old values can still be read;
+     * updates of other columns than the indexed ones leave the index alone.
+     * with recursive triggers enabled in {@link #onConfigure(SQLiteDatabase)} they also run for rows
+     * replaced by {@link #insert(JournalEntry)}.
+     *
+     * @param db The database.
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(" +
+                "content=\"" + DB_TABLE_NAME + "\", " +
+                TABLE_COLUMN_TITLE + ", " +
+                TABLE_COLUMN_CONTENT + ")");
+        String indexed = TABLE_COLUMN_TITLE + ", " + TABLE_COLUMN_CONTENT;
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_bu BEFORE UPDATE OF " + indexed + " ON " + DB_TABLE_NAME + " BEGIN " +
+                "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid=old." + TABLE_COLUMN_ID + "; END");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_bd BEFORE DELETE ON " + DB_TABLE_NAME + " BEGIN " +
+                "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid=old." + TABLE_COLUMN_ID + "; END");
+        String index = "INSERT INTO " + FTS_TABLE_NAME +
+                "(docid, " + TABLE_COLUMN_TITLE + ", " + TABLE_COLUMN_CONTENT + ") VALUES(" +
+                "new." + TABLE_COLUMN_ID + ", new." + TABLE_COLUMN_TITLE + ", new." + TABLE_COLUMN_CONTENT + "); END";
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_au AFTER UPDATE OF " + indexed + " ON " + DB_TABLE_NAME +
+                " BEGIN " + index);
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_ai AFTER INSERT ON " + DB_TABLE_NAME + " BEGIN " + index);
+    }
+
+    /**
+     * Creates the mood statistics summary table and the triggers keeping it in sync with the entries table.
+     *
+     * Rows are counted in by the insert trigger and out by the delete trigger, which with recursive
+     * triggers enabled also runs for the row replaced by {@link #insert(JournalEntry)}, so an entry
+     * edited into another mood or day moves between rows. Rows whose count drops to 0 are removed.
+     * Entries are counted by their stored local day rather than one worked out from the timestamp,
+     * which would depend on the time zone at the time the trigger runs.
+     *
+     * @param db The database.
+     */
+    private static void createStatsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + STATS_TABLE_NAME + "(" +
+                STATS_COLUMN_DAY + " INTEGER NOT NULL," +
+                STATS_COLUMN_MOOD + " INTEGER NOT NULL," +
+                STATS_COLUMN_COUNT + " INTEGER NOT NULL," +
+                "PRIMARY KEY(" + STATS_COLUMN_DAY + ", " + STATS_COLUMN_MOOD + ")) WITHOUT ROWID");
+
+        String newDay = "new." + TABLE_COLUMN_LOCAL_DAY;
+        String oldDay = "old." + TABLE_COLUMN_LOCAL_DAY;
+        String countIn = "INSERT OR IGNORE INTO " + STATS_TABLE_NAME + " VALUES(" + newDay + ", new." + TABLE_COLUMN_MOOD + ", 0); " +
+                "UPDATE " + STATS_TABLE_NAME + " SET " + STATS_COLUMN_COUNT + " = " + STATS_COLUMN_COUNT + " + 1" +
+                " WHERE " + STATS_COLUMN_DAY + " = " + newDay + " AND " + STATS_COLUMN_MOOD + " = new." + TABLE_COLUMN_MOOD + "; ";
+        String countOut = "UPDATE " + STATS_TABLE_NAME + " SET " + STATS_COLUMN_COUNT + " = " + STATS_COLUMN_COUNT + " - 1" +
+                " WHERE " + STATS_COLUMN_DAY + " = " + oldDay + " AND " + STATS_COLUMN_MOOD + " = old." + TABLE_COLUMN_MOOD + "; " +
+                "DELETE FROM " + STATS_TABLE_NAME +
+                " WHERE " + STATS_COLUMN_DAY + " = " + oldDay + " AND " + STATS_COLUMN_MOOD + " = old." + TABLE_COLUMN_MOOD +
+                " AND " + STATS_COLUMN_COUNT + " <= 0; ";
+        db.execSQL("CREATE TRIGGER " + STATS_TABLE_NAME + "_ai AFTER INSERT ON " + DB_TABLE_NAME +
+                " BEGIN " + countIn + "END");
+        db.execSQL("CREATE TRIGGER " + STATS_TABLE_NAME + "_ad AFTER DELETE ON " + DB_TABLE_NAME +
+                " BEGIN " + countOut + "END");
+        db.execSQL("CREATE TRIGGER " + STATS_TABLE_NAME + "_au AFTER UPDATE OF " +
+                TABLE_COLUMN_MOOD + ", " + TABLE_COLUMN_LOCAL_DAY + " ON " + DB_TABLE_NAME +
+                " BEGIN " + countOut + countIn + "END");
+    }
+
+    /**
+     * Creates the table keeping deleted entries until they can no longer be restored
+     *
+     * @param db The database.
+     */
+    private static void createTombstoneTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TOMBSTONE_TABLE_NAME + "(" +
+                TABLE_COLUMN_ID + " INTEGER PRIMARY KEY," +
+                TABLE_COLUMN_TITLE + " TEXT NOT NULL," +
+                TABLE_COLUMN_CONTENT + " TEXT NOT NULL," +
+                TABLE_COLUMN_MOOD + " INTEGER NOT NULL DEFAULT " + JournalEntry.MOOD_UNKNOWN + "," +
+                TABLE_COLUMN_TIMESTAMP + " INTEGER NOT NULL," +
+                TABLE_COLUMN_PREVIEW + " TEXT NOT NULL DEFAULT ''," +
+                TABLE_COLUMN_CONTENT_LENGTH + " INTEGER NOT NULL DEFAULT 0," +
+                TABLE_COLUMN_COMPRESSED_CONTENT + " BLOB," +
+                TOMBSTONE_COLUMN_DELETED_AT + " INTEGER NOT NULL," +
+                // last, where version 12 added it to existing tables
+                TABLE_COLUMN_LOCAL_DAY + " INTEGER)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_DELETED_AT + " ON " + TOMBSTONE_TABLE_NAME +
+                "(" + TOMBSTONE_COLUMN_DELETED_AT + ")");
+    }
+
+    /**
+     * Called when the database connection is being configured, before it is created or upgraded.
+     *
+     * Enables recursive triggers, without which SQLite does not run delete triggers for rows removed
+     * by a REPLACE conflict resolution; the full-text index relies on them.
+     *
+     * New files get incremental auto_vacuum, so {@link #vacuum(int)} never needs to rewrite them.
+     * The setting only takes effect on a write-ahead logged file through a VACUUM, which costs
+     * nothing while the file is still empty; this runs outside of the transaction
+     * {@link #onCreate(SQLiteDatabase)} is called in, where a VACUUM isn't allowed.
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.execSQL("PRAGMA recursive_triggers = ON");
+        if(db.getVersion() == 0 && !db.isReadOnly()) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+    }
 
 
+    /**
+     * Finishes any migrations left pending by {@link #onUpgrade(SQLiteDatabase, int, int)}
+     * or by a previous run of the app that was stopped halfway through.
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if(!db.isReadOnly()) {
+            migrations.run(db);
+        }
     }
 
+    /**
+     * Sets a listener to receive the progress of migrations run when the database is opened
+     * @param listener listener receiving progress updates, or null to remove it
+     */
+    public void setMigrationProgressListener(@Nullable MigrationEngine.ProgressListener listener) {
+        migrations.setProgressListener(listener);
+    }
 
     /**
      * Returns the singleton EntryDatabase instance, use this when requiring a EntryDatabase object
@@ -71,39 +408,189 @@ public class EntryDatabase extends SQLiteOpenHelper {
         return instance;
     }
 
+    /**
+     * Closes the connection held by the singleton instance.
+     *
+     * The connection is kept open between operations so the schema and page cache don't need to be
+     * loaded again for every query; call this once the database is no longer needed instead.
+     * A later call to {@link #getInstance(Context)} will open a new connection.
+     */
+    public static synchronized void shutdown() {
+        if(instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Stops returning the given instance from {@link #getInstance(Context)} without closing it,
+     * so it can be closed once whatever still uses it has finished while a later call opens a new one.
+     * @param db the instance to detach
+     * @return whether it was the singleton instance
+     */
+    static synchronized boolean detach(@NonNull EntryDatabase db) {
+        if(instance == db) {
+            instance = null;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Returns all entries in the table ordered by latest posted
      * @return Cursor containing all the data; except the "content" column
      */
     public Cursor selectAll() {
-        // we're not writing in this method so getReadableDatabase instead
-        SQLiteDatabase db = getReadableDatabase();
         // query all rows with all columns EXCEPT content (since we don't use it), ordered by latest added
-        return db.query(
+        return query(DatabaseMetrics.OP_SELECT_ALL,
                 DB_TABLE_NAME,
-                new String[]{TABLE_COLUMN_TITLE, TABLE_COLUMN_MOOD, TABLE_COLUMN_TIMESTAMP, TABLE_COLUMN_ID},
+                LIST_COLUMNS,
                 null,
                 null,
+                ORDER_LATEST,
+                null);
+    }
+
+    /**
+     * Returns the first page of entries ordered by latest posted
+     * @param limit maximum number of entries in the page
+     * @return Cursor containing the same columns as {@link #selectAll()}
+     * @see #selectPage(long, long, int)
+     */
+    public Cursor selectFirstPage(int limit) {
+        return query(DatabaseMetrics.OP_SELECT_PAGE,
+                DB_TABLE_NAME,
+                LIST_COLUMNS,
                 null,
                 null,
-                TABLE_COLUMN_TIMESTAMP + " DESC",
+                ORDER_LATEST,
+                String.valueOf(limit));
+    }
+
+    /**
+     * Returns the page of entries following a given entry, ordered by latest posted.
+     *
+     * Pages are found by their position relative to the last entry of the previous page instead of
+     * by OFFSET, so the index only needs to be walked from that entry on, however far down the list it is.
+     *
+     * @param afterTimestamp the timestamp of the last entry of the previous page
+     * @param afterId the database id of the last entry of the previous page
+     * @param limit maximum number of entries in the page
+     * @return Cursor containing the same columns as {@link #selectAll()}
+     */
+    public Cursor selectPage(long afterTimestamp, long afterId, int limit) {
+        String timestamp = String.valueOf(afterTimestamp);
+        return query(DatabaseMetrics.OP_SELECT_PAGE,
+                DB_TABLE_NAME,
+                LIST_COLUMNS,
+                // the first term bounds the index range, the second skips what was already loaded
+                TABLE_COLUMN_TIMESTAMP + " <= ? AND (" +
+                        TABLE_COLUMN_TIMESTAMP + " < ? OR " + TABLE_COLUMN_ID + " > ?)",
+                new String[]{timestamp, timestamp, String.valueOf(afterId)},
+                ORDER_LATEST,
+                String.valueOf(limit));
+    }
+
+    /**
+     * Returns the first page of entries with a given mood, ordered by latest posted
+     * @param mood the mood of the entries
+     * @param limit maximum number of entries in the page
+     * @return Cursor containing the same columns as {@link #selectAll()}
+     * @see #selectPageByMood(int, long, long, int)
+     */
+    public Cursor selectByMood(@JournalEntry.Mood int mood, int limit) {
+        return query(DatabaseMetrics.OP_SELECT_BY_MOOD,
+                DB_TABLE_NAME,
+                LIST_COLUMNS,
+                TABLE_COLUMN_MOOD + " = ?",
+                new String[]{String.valueOf(mood)},
+                ORDER_LATEST,
+                String.valueOf(limit));
+    }
+
+    /**
+     * Returns the page of entries with a given mood following a given entry, ordered by latest posted.
+     * Walks {@link #INDEX_MOOD} from that entry on, like {@link #selectPage(long, long, int)} does
+     * with {@link #INDEX_CALENDAR}.
+     * @param mood the mood of the entries
+     * @param afterTimestamp the timestamp of the last entry of the previous page
+     * @param afterId the database id of the last entry of the previous page
+     * @param limit maximum number of entries in the page
+     * @return Cursor containing the same columns as {@link #selectAll()}
+     */
+    public Cursor selectPageByMood(@JournalEntry.Mood int mood, long afterTimestamp, long afterId, int limit) {
+        String timestamp = String.valueOf(afterTimestamp);
+        return query(DatabaseMetrics.OP_SELECT_BY_MOOD,
+                DB_TABLE_NAME,
+                LIST_COLUMNS,
+                TABLE_COLUMN_MOOD + " = ? AND " + TABLE_COLUMN_TIMESTAMP + " <= ? AND (" +
+                        TABLE_COLUMN_TIMESTAMP + " < ? OR " + TABLE_COLUMN_ID + " > ?)",
+                new String[]{String.valueOf(mood), timestamp, timestamp, String.valueOf(afterId)},
+                ORDER_LATEST,
+                String.valueOf(limit));
+    }
+
+    /**
+     * Returns the entries posted between two instants, ordered by latest posted.
+     * Only reads the range of {@link #INDEX_CALENDAR} holding those entries, however far back it is.
+     * @param from the first instant, in milliseconds since the epoch
+     * @param to the instant to stop at, exclusive
+     * @param limit maximum number of entries to return
+     * @return Cursor containing the same columns as {@link #selectAll()}, except the preview
+     */
+    public Cursor selectBetween(long from, long to, int limit) {
+        return query(DatabaseMetrics.OP_SELECT_BETWEEN,
+                DB_TABLE_NAME,
+                CALENDAR_COLUMNS,
+                TABLE_COLUMN_TIMESTAMP + " >= ? AND " + TABLE_COLUMN_TIMESTAMP + " < ?",
+                new String[]{String.valueOf(from), String.valueOf(to)},
+                ORDER_LATEST,
+                String.valueOf(limit));
+    }
+
+    /**
+     * Returns the number of entries per mood on each day or in each month of a stretch of time.
+     * Reads the timestamp and mood of the entries in that stretch from {@link #INDEX_CALENDAR}.
+     * @param unit whether to count per day or per month
+     * @param from the first instant to count, in milliseconds since the epoch; the calendar starts
+     *             at the beginning of the day or month it falls in
+     * @param to the instant to count until, exclusive; the calendar ends at the end of the day or
+     *           month before it
+     * @param zone the time zone of the days and months
+     * @return the counts
+     * @throws IllegalArgumentException if to is not after from
+     */
+    public EntryCalendar getCalendar(@EntryCalendar.Unit int unit, long from, long to, @NonNull TimeZone zone) {
+        EntryCalendar calendar = new EntryCalendar(unit, from, to, zone);
+        Cursor c = query(DatabaseMetrics.OP_GET_CALENDAR,
+                DB_TABLE_NAME,
+                new String[]{TABLE_COLUMN_TIMESTAMP, TABLE_COLUMN_MOOD},
+                TABLE_COLUMN_TIMESTAMP + " >= ? AND " + TABLE_COLUMN_TIMESTAMP + " < ?",
+                new String[]{String.valueOf(calendar.getStart()), String.valueOf(calendar.getEnd())},
+                null,
                 null);
+        try {
+            while(c.moveToNext()) {
+                calendar.add(c.getLong(0), c.getInt(1));
+            }
+        } finally {
+            c.close();
+        }
+        return calendar;
     }
 
     /**
      * Returns all data of all entries in thable ordered by latest posted
+     * Compressed contents are left compressed; {@link #selectAllAsList()} decompresses them.
      * @return Cursor containing all the data; to be processed into a List of JournalEntry objects.
      */
     public Cursor selectAllForList() {
-        SQLiteDatabase db = getReadableDatabase();
-        return db.query(
+        return query(DatabaseMetrics.OP_SELECT_ALL,
                 DB_TABLE_NAME,
                 null,
                 null,
                 null,
-                null,
-                null,
-                TABLE_COLUMN_TIMESTAMP + " DESC",
+                ORDER_LATEST,
                 null);
     }
 
@@ -117,56 +604,401 @@ public class EntryDatabase extends SQLiteOpenHelper {
      * @return
      */
     public List<JournalEntry> selectAllAsList() {
-        Cursor c = selectAll();
-        List<JournalEntry> entries = new ArrayList<>();
-        int i;
-        for(i=0;i<c.getCount();i++); {
-;           c.moveToPosition(i);
-            entries.add(new JournalEntry(
-                    c.getString(c.getColumnIndex(TABLE_COLUMN_TITLE)),
-                    c.getString(c.getColumnIndex(TABLE_COLUMN_CONTENT)),
-                    c.getString(c.getColumnIndex(TABLE_COLUMN_MOOD)),
-                    Timestamp.valueOf(c.getString(c.getColumnIndex(TABLE_COLUMN_TIMESTAMP))),
-                    c.getLong(c.getColumnIndex(TABLE_COLUMN_ID))
-                    )
-            );
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor c = query(DatabaseMetrics.OP_SELECT_ALL, DB_TABLE_NAME, ENTRY_COLUMNS, null, null, ORDER_LATEST, null);
+        List<JournalEntry> entries = new ArrayList<>(c.getCount());
+        while(c.moveToNext()) {
+            entries.add(readEntry(db, c));
         }
         c.close();
         return entries;
     }
 
     /**
-     * Returns a single database entry as a JournalEntry object
+     * Turns user input into a full-text query matching entries containing all of its words,
+     * or words starting with them
+     * @param query the text to search for
+     * @return a MATCH expression, or null if the query contains no words
+     */
+    @Nullable
+    static String toMatchExpression(@NonNull String query) {
+        StringBuilder match = new StringBuilder();
+        // dropping everything but letters and digits also drops the FTS query syntax
+        for(String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if(!word.isEmpty()) {
+                if(match.length() > 0) {
+                    match.append(' ');
+                }
+                // lower case so words like "or" and "near" aren't read as operators
+                match.append(word.toLowerCase(Locale.ROOT)).append('*');
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Ranks a search result by how often the query's words occur in it, relative to how often
+     * they occur in all entries, with matches in the title counting double
+     * @param matchInfo the result of matchinfo(entries_fts, 'pcx') for the row
+     * @return the rank of the row; higher is more relevant
+     */
+    private static double rank(byte[] matchInfo) {
+        IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = info.get(0);
+        int columns = info.get(1);
+        double rank = 0;
+        for(int phrase = 0; phrase < phrases; phrase++) {
+            for(int column = 0; column < columns; column++) {
+                int offset = 2 + (phrase * columns + column) * 3;
+                int hitsInRow = info.get(offset);
+                int hitsInAllRows = info.get(offset + 1);
+                if(hitsInAllRows > 0 && column < RANK_WEIGHTS.length) {
+                    rank += RANK_WEIGHTS[column] * hitsInRow / hitsInAllRows;
+                }
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Searches the titles and content of all entries
+     * @param query the words to search for; entries need to contain all of them, or words starting with them
+     * @param limit maximum number of results
+     * @return the best matching entries, most relevant first; the snippets of compressed entries
+     *         are taken from their words rather than their content
+     */
+    public List<SearchResult> search(@NonNull String query, int limit) {
+        final List<SearchResult> results = new ArrayList<>();
+        String match = toMatchExpression(query);
+        if(match == null || limit <= 0) {
+            return results;
+        }
+        long start = System.nanoTime();
+        SQLiteDatabase db = getReadableDatabase();
+
+        // rank every match by its matchinfo, only keeping the best ones
+        PriorityQueue<Map.Entry<Long, Double>> best = new PriorityQueue<>(limit,
+                new Comparator<Map.Entry<Long, Double>>() {
+                    @Override
+                    public int compare(Map.Entry<Long, Double> a, Map.Entry<Long, Double> b) {
+                        return Double.compare(a.getValue(), b.getValue());
+                    }
+                });
+        String rankQuery = "SELECT docid, matchinfo(" + FTS_TABLE_NAME + ", 'pcx') FROM " + FTS_TABLE_NAME +
+                " WHERE " + FTS_TABLE_NAME + " MATCH ?";
+        String[] args = new String[]{match};
+        Cursor c = db.rawQuery(rankQuery, args);
+        try {
+            while(c.moveToNext()) {
+                double rank = rank(c.getBlob(1));
+                if(best.size() < limit) {
+                    best.add(new AbstractMap.SimpleEntry<>(c.getLong(0), rank));
+                } else if(best.peek().getValue() < rank) {
+                    best.poll();
+                    best.add(new AbstractMap.SimpleEntry<>(c.getLong(0), rank));
+                }
+            }
+        } finally {
+            c.close();
+        }
+        if(best.isEmpty()) {
+            record(DatabaseMetrics.OP_SEARCH, start, db, rankQuery, args);
+            return results;
+        }
+
+        // only build snippets for the entries that are returned
+        final Map<Long, Double> ranks = new HashMap<>();
+        StringBuilder ids = new StringBuilder();
+        for(Map.Entry<Long, Double> result : best) {
+            ranks.put(result.getKey(), result.getValue());
+            if(ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(result.getKey());
+        }
+        c = db.rawQuery("SELECT e." + TABLE_COLUMN_ID + ", substr(e." + TABLE_COLUMN_TITLE + ", 1, " + LIST_TITLE_LENGTH + ")" +
+                        ", e." + TABLE_COLUMN_MOOD +
+                        ", e." + TABLE_COLUMN_TIMESTAMP +
+                        ", snippet(" + FTS_TABLE_NAME + ", ?, ?, '\u2026', -1, " + SNIPPET_TOKENS + ")" +
+                        " FROM " + FTS_TABLE_NAME + " JOIN " + DB_TABLE_NAME + " e ON e." + TABLE_COLUMN_ID + " = docid" +
+                        " WHERE " + FTS_TABLE_NAME + " MATCH ? AND docid IN (" + ids + ")",
+                new String[]{String.valueOf(SearchResult.MATCH_START), String.valueOf(SearchResult.MATCH_END), match});
+        try {
+            while(c.moveToNext()) {
+                results.add(new SearchResult(
+                        c.getLong(0),
+                        c.getString(1),
+                        c.getString(4),
+                        c.getInt(2),
+                        c.getLong(3),
+                        ranks.get(c.getLong(0))));
+            }
+        } finally {
+            c.close();
+        }
+
+        Collections.sort(results, new Comparator<SearchResult>() {
+            @Override
+            public int compare(SearchResult a, SearchResult b) {
+                return Double.compare(b.getRank(), a.getRank());
+            }
+        });
+        // ranking every match is what makes a search slow, so its plan is the one logged
+        record(DatabaseMetrics.OP_SEARCH, start, db, rankQuery, args);
+        return results;
+    }
+
+    /**
+     * Returns a single database entry as a JournalEntry object.
+     * Recently loaded entries are returned from the {@link EntryCache} without querying the database.
      * @param id the database id of the object; corresponding to its value under the {@link #TABLE_COLUMN_ID} column
-     * @return JournalEntry object containing all the entry's data in the database
+     * @return JournalEntry object containing all the entry's data in the database, or null if there is no such entry
      */
     public JournalEntry getEntry(long id) {
+        JournalEntry entry = cache.get(id);
+        if(entry != null) {
+            return entry;
+        }
+
+        long token = cache.beginLoad();
+        long start = System.nanoTime();
         SQLiteDatabase db = getReadableDatabase();
-        JournalEntry entry = null;
-        Cursor c =  db.query(DB_TABLE_NAME,
-                null,
-                 TABLE_COLUMN_ID + "=?",
+        String sql = SQLiteQueryBuilder.buildQueryString(false, DB_TABLE_NAME, ENTRY_COLUMNS,
+                TABLE_COLUMN_ID + "=?", null, null, null, null);
+        String[] args = new String[]{String.valueOf(id)};
+        Cursor c =  db.rawQuery(sql, args);
+
+        if (c.moveToFirst()) {
+            entry = readEntry(db, c);
+            cache.putLoaded(entry, token);
+        }
+
+        c.close();
+        // includes decompressing the content or reading it in chunks, but not cache hits
+        record(DatabaseMetrics.OP_GET_ENTRY, start, db, sql, args);
+        return entry;
+    }
+
+    /**
+     * Reads an entry from a cursor over {@link #ENTRY_COLUMNS}, decompressing its content or
+     * reading it in chunks if it is not in the cursor
+     * @param db the database the cursor was queried from
+     * @param c the cursor, positioned at the row of the entry
+     * @return the entry
+     */
+    private static JournalEntry readEntry(SQLiteDatabase db, Cursor c) {
+        String content = c.getString(5);
+        if(content == null && !c.isNull(6)) {
+            content = ContentCompression.decompress(c.getBlob(6));
+        } else if(content == null) {
+            // too long to fit in a CursorWindow
+            content = EntryContentReader.readFully(db, c.getLong(0), c.getInt(4));
+        }
+        return new JournalEntry(
+                c.getString(1),
+                content,
+                c.getInt(2),
+                c.getLong(3),
+                c.getLong(0)
+        );
+    }
+
+    /**
+     * Returns a single entry with its preview in place of its content, reading at most
+     * {@link #PREVIEW_LENGTH} characters of the content however long it is.
+     * Read the full content with {@link #openContentReader(long)}.
+     * @param id the database id of the entry
+     * @return JournalEntry object holding the preview as its content, or null if there is no such entry
+     */
+    @Nullable
+    public JournalEntry getEntryPreview(long id) {
+        Cursor c = query(DatabaseMetrics.OP_GET_PREVIEW,
+                DB_TABLE_NAME,
+                new String[]{TABLE_COLUMN_ID, TABLE_COLUMN_TITLE, TABLE_COLUMN_PREVIEW, TABLE_COLUMN_MOOD, TABLE_COLUMN_TIMESTAMP},
+                TABLE_COLUMN_ID + "=?",
                 new String[]{String.valueOf(id)},
                 null,
-                null,
-                null,
                 null);
-        // Log.d("getEntry", String.valueOf(c.getCount()));
-        Log.d("table", DatabaseUtils.dumpCursorToString(c));
-        Log.d("columnIndex", TABLE_COLUMN_TITLE + ": " + c.getColumnIndex(TABLE_COLUMN_TITLE));
-
-        if (c.getCount() != 0 && c.moveToFirst()) {
-            entry =  new JournalEntry(
-                    c.getString(c.getColumnIndex(TABLE_COLUMN_TITLE)),
-                    c.getString(c.getColumnIndex(TABLE_COLUMN_CONTENT)),
-                    c.getString(c.getColumnIndex(TABLE_COLUMN_MOOD)),
-                    Timestamp.valueOf(c.getString(c.getColumnIndex(TABLE_COLUMN_TIMESTAMP))),
-                    c.getLong(c.getColumnIndex(TABLE_COLUMN_ID))
-            );
+        try {
+            if(c.moveToFirst()) {
+                return new JournalEntry(c.getString(1), c.getString(2), c.getInt(3), c.getLong(4), c.getLong(0));
+            }
+            return null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Opens a reader over the content of an entry, reading it from the database a chunk at a time
+     * @param id the database id of the entry
+     * @return a reader returning the content, which is empty if there is no such entry
+     */
+    public EntryContentReader openContentReader(long id) {
+        return new EntryContentReader(getReadableDatabase(), id);
+    }
+
+    /**
+     * Returns the preview stored for a content
+     * @param content the content of an entry
+     * @return the first {@link #PREVIEW_LENGTH} characters of the content, or an empty string if there is none
+     */
+    @NonNull
+    static String previewOf(@Nullable String content) {
+        if(content == null) {
+            return "";
+        }
+        // count like SQLite does, so a surrogate pair is never split
+        if(content.length() <= PREVIEW_LENGTH || content.codePointCount(0, content.length()) <= PREVIEW_LENGTH) {
+            return content;
         }
+        return content.substring(0, content.offsetByCodePoints(0, PREVIEW_LENGTH));
+    }
+
+    /**
+     * Returns the length stored for a content
+     * @param content the content of an entry
+     * @return the number of characters in the content, counted as SQLite's length() does
+     */
+    static int lengthOf(@Nullable String content) {
+        return content != null ? content.codePointCount(0, content.length()) : 0;
+    }
 
-         db.close();
-         return entry;
+    /**
+     * Returns the number of entries per mood, grouped by day, week or month.
+     * Reads the {@link #STATS_TABLE_NAME} summary table rather than the entries.
+     * @param period how to group the days
+     * @param today the current local date, in days since the epoch, see {@link MoodStatistics#localDayOf(long, TimeZone)}
+     * @return the statistics of all entries
+     */
+    public MoodStatistics getMoodStatistics(@MoodStatistics.Period int period, long today) {
+        MoodStatistics stats = new MoodStatistics(period, today);
+        Cursor c = query(DatabaseMetrics.OP_MOOD_STATISTICS,
+                STATS_TABLE_NAME,
+                new String[]{STATS_COLUMN_DAY, STATS_COLUMN_MOOD, STATS_COLUMN_COUNT},
+                null, null,
+                STATS_COLUMN_DAY + " DESC",
+                null);
+        try {
+            while(c.moveToNext()) {
+                stats.add(c.getLong(0), c.getInt(1), c.getInt(2));
+            }
+        } finally {
+            c.close();
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the cache in front of {@link #getEntry(long)}, e.g. to read its hit and miss counts
+     * @return the entry cache
+     */
+    public EntryCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the counts and latencies of the queries and writes run so far
+     * @return the metrics, which are kept until {@link DatabaseMetrics#reset()} is called
+     */
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the version of the entries, which is incremented every time entries are inserted,
+     * replaced or deleted through this instance. It is kept in memory only, so reading it doesn't
+     * touch the database and may be done from the main thread.
+     * @return the version; the same version means the entries haven't changed
+     */
+    public long getDataVersion() {
+        return dataVersion.get();
+    }
+
+    /**
+     * Sets the time after which a query or write is logged as slow, along with its query plan
+     * @param millis the time in milliseconds; {@link Long#MAX_VALUE} to log nothing
+     */
+    public void setSlowQueryThreshold(long millis) {
+        slowQueryNanos = millis >= Long.MAX_VALUE / 1000000 ? Long.MAX_VALUE : millis * 1000000;
+    }
+
+    /**
+     * Returns the time after which a query or write is logged as slow
+     * @return the time in milliseconds
+     */
+    public long getSlowQueryThreshold() {
+        return slowQueryNanos == Long.MAX_VALUE ? Long.MAX_VALUE : slowQueryNanos / 1000000;
+    }
+
+    /**
+     * Runs a query and fills the first window of its cursor, so the time it takes is measured here
+     * rather than wherever the cursor is first read
+     * @param operation the operation the query is recorded as
+     * @param table the table to query
+     * @param columns the columns to return, or null for all of them
+     * @param selection the WHERE clause, or null for all rows
+     * @param args the values of the ?s in the selection
+     * @param orderBy the ORDER BY clause, or null
+     * @param limit the LIMIT clause, or null
+     * @return the cursor over the result
+     */
+    private Cursor query(@DatabaseMetrics.Operation int operation, String table, @Nullable String[] columns,
+                         @Nullable String selection, @Nullable String[] args,
+                         @Nullable String orderBy, @Nullable String limit) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = getReadableDatabase();
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, columns, selection, null, null, orderBy, limit);
+        Cursor c = db.rawQuery(sql, args);
+        // getCount() fills the first CursorWindow, so the query actually runs here
+        c.getCount();
+        record(operation, start, db, sql, args);
+        return c;
+    }
+
+    /**
+     * Records the time an operation took, and logs it if it was slow
+     * @param operation the operation that ran
+     * @param start the value of {@link System#nanoTime()} when it started
+     * @param db the database it ran on
+     * @param sql the statement that ran, to log the query plan of; null if there is none worth logging
+     * @param args the values of the ?s in the statement
+     */
+    private void record(@DatabaseMetrics.Operation int operation, long start, SQLiteDatabase db,
+                        @Nullable String sql, @Nullable String[] args) {
+        long nanos = System.nanoTime() - start;
+        metrics.record(operation, nanos);
+        if(nanos >= slowQueryNanos) {
+            logSlowQuery(operation, nanos, db, sql, args);
+        }
+    }
+
+    /**
+     * Logs a slow operation along with its statement and query plan; the values bound to the
+     * statement are left out, as they may be part of an entry
+     * @param operation the slow operation
+     * @param nanos the time it took
+     * @param db the database it ran on
+     * @param sql the statement that ran, or null if there is none worth logging
+     * @param args the values of the ?s in the statement
+     */
+    private static void logSlowQuery(@DatabaseMetrics.Operation int operation, long nanos, SQLiteDatabase db,
+                                     @Nullable String sql, @Nullable String[] args) {
+        StringBuilder message = new StringBuilder(String.format(Locale.US, "slow %s: %.1fms",
+                DatabaseMetrics.nameOf(operation), nanos / 1e6));
+        if(sql != null) {
+            message.append('\n').append(sql);
+            Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            try {
+                int detail = plan.getColumnIndex("detail");
+                while(plan.moveToNext()) {
+                    message.append("\n  ").append(plan.getString(detail));
+                }
+            } finally {
+                plan.close();
+            }
+        }
+        Log.w(TAG, message.toString());
     }
 
     /**
@@ -176,67 +1008,568 @@ public class EntryDatabase extends SQLiteOpenHelper {
      */
     public long insert(JournalEntry entry) {
         long returnValue = -2;
+        StoredContent stored = new StoredContent(entry.getContent(), compressionThreshold);
         // put all values into container values
         ContentValues values = new ContentValues();
         values.put(TABLE_COLUMN_TITLE, entry.getTitle());
-        values.put(TABLE_COLUMN_CONTENT, entry.getContent());
+        values.put(TABLE_COLUMN_CONTENT, stored.content);
+        values.put(TABLE_COLUMN_COMPRESSED_CONTENT, stored.compressed);
         values.put(TABLE_COLUMN_MOOD, entry.getMood());
-        values.put(TABLE_COLUMN_TIMESTAMP, entry.getTimestamp().toString());
+        values.put(TABLE_COLUMN_TIMESTAMP, entry.getTimestamp());
+        values.put(TABLE_COLUMN_LOCAL_DAY, MoodStatistics.localDayOf(entry.getTimestamp(), getTimeZone()));
+        values.put(TABLE_COLUMN_PREVIEW, previewOf(entry.getContent()));
+        values.put(TABLE_COLUMN_CONTENT_LENGTH, lengthOf(entry.getContent()));
         // if entry has a Database id, include it
         if(entry.hasDatabaseId()) {
             values.put(TABLE_COLUMN_ID, entry.getDatabaseId());
         }
 
-        Log.d("entry values", values.toString());
-
         // open db and insert or replace the journal entry
+        long start = System.nanoTime();
         SQLiteDatabase db = getWritableDatabase();
         returnValue = db.insertWithOnConflict(
                     DB_TABLE_NAME,
                     null,
                     values,
                     SQLiteDatabase.CONFLICT_REPLACE); // replace existing entry if id is already present
+        record(DatabaseMetrics.OP_INSERT, start, db, null, null);
 
-        Log.d("insert", String.valueOf(returnValue));
+        if(BuildConfig.DEBUG) {
+            Log.d(TAG, "inserted entry " + returnValue);
+        }
 
-        db.close();
+        if(returnValue != -1) {
+            cache.update(new JournalEntry(entry.getTitle(), entry.getContent(), entry.getMood(),
+                    entry.getTimestamp(), returnValue));
+            dataVersion.incrementAndGet();
+        }
         return returnValue;
 
     }
 
 
     /**
-     * Removes a selected entry
+     * Inserts or replaces many journal entries at once, {@link #DEFAULT_INSERT_BATCH_SIZE} per transaction
+     * @param entries journal entries to insert
+     * @return the row IDs of the inserted rows, in the order of the collection
+     * @see #insertAll(Collection, int)
+     */
+    public long[] insertAll(@NonNull Collection<JournalEntry> entries) {
+        return insertAll(entries, DEFAULT_INSERT_BATCH_SIZE);
+    }
+
+    /**
+     * Inserts or replaces many journal entries at once.
+     *
+     * The rows are written with a single compiled statement, committing once every batchSize rows
+     * instead of once per row as {@link #insert(JournalEntry)} does; smaller batches let other
+     * connections see the inserted rows and keep the WAL file small, larger batches are faster.
+     *
+     * @param entries journal entries to insert; entries with a database id replace the existing entry
+     * @param batchSize maximum number of rows inserted per transaction
+     * @return the row IDs of the inserted rows, in the order of the collection
+     * @throws android.database.SQLException if a row could not be inserted; the rows of batches
+     *         committed before it stay inserted
+     */
+    public long[] insertAll(@NonNull Collection<JournalEntry> entries, int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive, was " + batchSize);
+        }
+        long[] ids = new long[entries.size()];
+        long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(
+                "INSERT OR REPLACE INTO " + DB_TABLE_NAME + "(" +
+                        TABLE_COLUMN_ID + "," +
+                        TABLE_COLUMN_TITLE + "," +
+                        TABLE_COLUMN_CONTENT + "," +
+                        TABLE_COLUMN_MOOD + "," +
+                        TABLE_COLUMN_TIMESTAMP + "," +
+                        TABLE_COLUMN_PREVIEW + "," +
+                        TABLE_COLUMN_CONTENT_LENGTH + "," +
+                        TABLE_COLUMN_COMPRESSED_CONTENT + "," +
+                        TABLE_COLUMN_LOCAL_DAY + ") VALUES (?,?,?,?,?,?,?,?,?)");
+        TimeZone zone = getTimeZone();
+        // replaced rows of the open batch, cached only once the batch is committed
+        List<JournalEntry> replaced = new ArrayList<>();
+        try {
+            int i = 0;
+            int inBatch = 0;
+            db.beginTransaction();
+            try {
+                for(JournalEntry entry : entries) {
+                    if(inBatch == batchSize) {
+                        db.setTransactionSuccessful();
+                        db.endTransaction();
+                        updateCache(replaced);
+                        db.beginTransaction();
+                        inBatch = 0;
+                    }
+
+                    if(entry.hasDatabaseId()) {
+                        statement.bindLong(1, entry.getDatabaseId());
+                    } else {
+                        // lets SQLite assign the next id
+                        statement.bindNull(1);
+                    }
+                    bindStringOrNull(statement, 2, entry.getTitle());
+                    StoredContent stored = new StoredContent(entry.getContent(), compressionThreshold);
+                    bindStringOrNull(statement, 3, stored.content);
+                    statement.bindLong(4, entry.getMood());
+                    statement.bindLong(5, entry.getTimestamp());
+                    statement.bindString(6, previewOf(entry.getContent()));
+                    statement.bindLong(7, lengthOf(entry.getContent()));
+                    if(stored.compressed != null) {
+                        statement.bindBlob(8, stored.compressed);
+                    } else {
+                        statement.bindNull(8);
+                    }
+                    statement.bindLong(9, MoodStatistics.localDayOf(entry.getTimestamp(), zone));
+                    ids[i] = statement.executeInsert();
+
+                    // replaced rows may be cached, new rows can't be
+                    if(entry.hasDatabaseId()) {
+                        replaced.add(new JournalEntry(entry.getTitle(), entry.getContent(), entry.getMood(),
+                                entry.getTimestamp(), ids[i]));
+                    }
+                    i++;
+                    inBatch++;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            updateCache(replaced);
+        } finally {
+            statement.close();
+            // batches committed before a failure stay inserted
+            dataVersion.incrementAndGet();
+            record(DatabaseMetrics.OP_INSERT_ALL, start, db, null, null);
+        }
+        return ids;
+    }
+
+    /**
+     * Caches the entries of a committed batch of {@link #insertAll(Collection, int)}
+     * @param committed the replaced entries of the batch; emptied afterwards
+     */
+    private void updateCache(List<JournalEntry> committed) {
+        for(JournalEntry entry : committed) {
+            cache.update(entry);
+        }
+        committed.clear();
+    }
+
+    /**
+     * The values the content of an entry is written as
+     */
+    static class StoredContent {
+
+        /** the value of the content column: the content itself, or its search terms if it is compressed **/
+        final String content;
+        /** the value of the compressed content column, or null if the content is stored as it is **/
+        final byte[] compressed;
+
+        /**
+         * Compresses a content if it is long enough and compressing it saves space
+         * @param content the content of an entry
+         * @param threshold contents longer than this many characters are compressed
+         */
+        StoredContent(@Nullable String content, int threshold) {
+            byte[] compressed = null;
+            String stored = content;
+            if(content != null && content.length() > threshold) {
+                String terms = ContentCompression.searchTermsOf(content);
+                compressed = ContentCompression.compressIfSmaller(content, terms);
+                if(compressed != null) {
+                    stored = terms;
+                }
+            }
+            this.content = stored;
+            this.compressed = compressed;
+        }
+    }
+
+    /**
+     * Sets the length above which contents are compressed when written; contents that were
+     * already written are left as they are
+     * @param threshold number of characters; {@link Integer#MAX_VALUE} to not compress anything
+     */
+    public void setCompressionThreshold(int threshold) {
+        compressionThreshold = threshold;
+    }
+
+    /**
+     * Returns the length above which contents are compressed when written
+     * @return number of characters
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the time zone the local day of saved entries is found in, which the statistics are
+     * counted by; entries that were already saved keep their day
+     * @param zone the time zone, or null to use the default time zone at the time an entry is saved
+     */
+    public void setTimeZone(@Nullable TimeZone zone) {
+        timeZone = zone != null ? (TimeZone) zone.clone() : null;
+    }
+
+    /**
+     * Returns the time zone the local day of an entry saved now is found in
+     * @return the time zone set by {@link #setTimeZone(TimeZone)}, or the default time zone
+     */
+    @NonNull
+    public TimeZone getTimeZone() {
+        TimeZone zone = timeZone;
+        return zone != null ? (TimeZone) zone.clone() : TimeZone.getDefault();
+    }
+
+    /**
+     * Binds a string to a statement, or null if there is none
+     * @param statement the statement to bind the value to
+     * @param index the 1-based index of the parameter to bind
+     * @param value the value to bind
+     */
+    private static void bindStringOrNull(SQLiteStatement statement, int index, @Nullable String value) {
+        if(value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    /**
+     * Removes a selected entry, keeping it as a tombstone so it can be restored until it is purged
      * @param id the database id of the entry to be removed
      * @return the number of rows affected
+     * @see #restore(long)
+     * @see #purgeDeleted(long, int)
      */
     public int delete(long id) {
+        long start = System.nanoTime();
         SQLiteDatabase db = getWritableDatabase();
-        int resultCode = db.delete(
-                DB_TABLE_NAME,
-                TABLE_COLUMN_ID + "=?",
-                new String[] {String.valueOf(id)}
-        );
-        db.close();
+        String[] args = new String[] {String.valueOf(id)};
+        int resultCode;
+        db.beginTransaction();
+        try {
+            // replaces the tombstone of an earlier delete of the same entry, which was saved again since
+            db.execSQL("INSERT OR REPLACE INTO " + TOMBSTONE_TABLE_NAME +
+                            "(" + STORED_COLUMNS + ", " + TOMBSTONE_COLUMN_DELETED_AT + ") " +
+                            "SELECT " + STORED_COLUMNS + ", ? FROM " + DB_TABLE_NAME + " WHERE " + TABLE_COLUMN_ID + "=?",
+                    new Object[]{System.currentTimeMillis(), id});
+            resultCode = db.delete(
+                    DB_TABLE_NAME,
+                    TABLE_COLUMN_ID + "=?",
+                    args
+            );
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        record(DatabaseMetrics.OP_DELETE, start, db,
+                "DELETE FROM " + DB_TABLE_NAME + " WHERE " + TABLE_COLUMN_ID + "=?", args);
+        cache.remove(id);
+        if(resultCode > 0) {
+            dataVersion.incrementAndGet();
+        }
         return resultCode;
     }
 
+    /**
+     * Brings back an entry removed by {@link #delete(long)}, as long as its tombstone wasn't purged.
+     * If the entry was saved again since it was deleted, the saved entry is kept as it is.
+     * @param id the database id of the deleted entry
+     * @return the number of entries restored; 0 if there was nothing to restore
+     */
+    public int restore(long id) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        String[] args = new String[] {String.valueOf(id)};
+        String sql = "INSERT OR IGNORE INTO " + DB_TABLE_NAME + "(" + STORED_COLUMNS + ") " +
+                "SELECT " + STORED_COLUMNS + " FROM " + TOMBSTONE_TABLE_NAME + " WHERE " + TABLE_COLUMN_ID + "=?";
+        int restored;
+        db.beginTransaction();
+        try {
+            // the insert triggers add the entry to the full-text index and statistics again
+            SQLiteStatement statement = db.compileStatement(sql);
+            try {
+                statement.bindLong(1, id);
+                restored = statement.executeUpdateDelete();
+            } finally {
+                statement.close();
+            }
+            db.delete(TOMBSTONE_TABLE_NAME, TABLE_COLUMN_ID + "=?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        record(DatabaseMetrics.OP_RESTORE, start, db, sql, args);
+        if(restored > 0) {
+            dataVersion.incrementAndGet();
+        }
+        return restored;
+    }
+
+    /**
+     * Physically removes a batch of the entries deleted before a given time; purged entries can no
+     * longer be restored. Every batch is a transaction of its own, so keeping batches small keeps
+     * other writes from waiting long.
+     * @param deletedBefore the time up to which deleted entries are purged, in milliseconds since the epoch
+     * @param limit maximum number of entries to purge
+     * @return the number of entries purged; less than limit once none are left
+     */
+    public int purgeDeleted(long deletedBefore, int limit) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        String[] args = new String[]{String.valueOf(deletedBefore), String.valueOf(limit)};
+        String selection = TABLE_COLUMN_ID + " IN (SELECT " + TABLE_COLUMN_ID + " FROM " + TOMBSTONE_TABLE_NAME +
+                " WHERE " + TOMBSTONE_COLUMN_DELETED_AT + " <= ? LIMIT ?)";
+        int purged = db.delete(TOMBSTONE_TABLE_NAME, selection, args);
+        record(DatabaseMetrics.OP_PURGE, start, db,
+                "DELETE FROM " + TOMBSTONE_TABLE_NAME + " WHERE " + selection, args);
+        return purged;
+    }
+
+    /**
+     * Returns the number of deleted entries that were not purged yet
+     * @return the number of tombstones
+     */
+    public long countDeleted() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TOMBSTONE_TABLE_NAME);
+    }
+
+    /**
+     * Returns the size of the database file and how much of it is unused
+     * @return the storage statistics of the main database
+     */
+    public DatabaseStorage getStorage() {
+        SQLiteDatabase db = getReadableDatabase();
+        return new DatabaseStorage(
+                DatabaseUtils.longForQuery(db, "PRAGMA page_count", null),
+                DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null),
+                DatabaseUtils.longForQuery(db, "PRAGMA page_size", null),
+                DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL);
+    }
+
+    /**
+     * Gives unused pages of the database file back to the file system.
+     *
+     * Releases up to maxPages pages, which is quick enough to not hold up other writes for long.
+     * Files created before version 11 have auto_vacuum off, which can only be turned on by
+     * rewriting the whole file; for those, the first call does so with a full VACUUM once, which
+     * holds the write lock until it's done. Files created since are incremental from the start,
+     * see {@link #onConfigure(SQLiteDatabase)}.
+     * Must not be called within a transaction.
+     *
+     * @param maxPages maximum number of pages to release, unless the whole file is rewritten
+     * @return the number of pages the file shrunk by
+     */
+    public long vacuum(int maxPages) {
+        long start = System.nanoTime();
+        SQLiteDatabase db = getWritableDatabase();
+        long before = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        if(DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else {
+            // every step of the statement releases a single page, so it's run through a cursor
+            // to step it until it's done
+            Cursor c = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+            try {
+                c.getCount();
+            } finally {
+                c.close();
+            }
+        }
+        record(DatabaseMetrics.OP_VACUUM, start, db, null, null);
+        return before - DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+    }
+
+    /**
+     * Returns a condition matching a number of values of a column
+     * @param column the column to match
+     * @param count the number of values, each bound to a ? of its own
+     * @return e.g. "_id IN (?,?,?)"
+     */
+    static String inList(@NonNull String column, int count) {
+        StringBuilder condition = new StringBuilder(column).append(" IN (");
+        for(int i = 0; i < count; i++) {
+            condition.append(i == 0 ? "?" : ",?");
+        }
+        return condition.append(')').toString();
+    }
+
+    /**
+     * Returns a chunk of ids as values to bind to an {@link #inList(String, int)} condition
+     * @param ids the ids
+     * @param from index of the first id of the chunk
+     * @param to index after the last id of the chunk
+     * @return the ids of the chunk as strings
+     */
+    static String[] idArgs(@NonNull long[] ids, int from, int to) {
+        String[] args = new String[to - from];
+        for(int i = from; i < to; i++) {
+            args[i - from] = String.valueOf(ids[i]);
+        }
+        return args;
+    }
+
+    /**
+     * Returns a set of ids without duplicates, in ascending order, so they are looked up in the
+     * order of the table and can be split into chunks
+     * @param ids the ids, in any order
+     * @return a sorted copy of the ids with every id only once
+     */
+    static long[] distinctIds(@NonNull long[] ids) {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for(int i = 0; i < sorted.length; i++) {
+            if(i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    /**
+     * Removes a set of entries in a single transaction, keeping them as tombstones so they can be
+     * restored until they are purged. The ids are bound in chunks of {@link #IN_LIST_CHUNK_SIZE},
+     * so each chunk takes two statements instead of two per entry.
+     * @param ids the database ids of the entries to be removed
+     * @return the number of entries removed
+     * @see #restore(long[])
+     */
+    public int delete(@NonNull long[] ids) {
+        long start = System.nanoTime();
+        long[] distinct = distinctIds(ids);
+        SQLiteDatabase db = getWritableDatabase();
+        long deletedAt = System.currentTimeMillis();
+        int deleted = 0;
+        String selection = null;
+        String[] args = null;
+        db.beginTransaction();
+        try {
+            for(int from = 0; from < distinct.length; from += IN_LIST_CHUNK_SIZE) {
+                int to = Math.min(from + IN_LIST_CHUNK_SIZE, distinct.length);
+                selection = inList(TABLE_COLUMN_ID, to - from);
+                args = idArgs(distinct, from, to);
+                Object[] bindArgs = new Object[args.length + 1];
+                bindArgs[0] = deletedAt;
+                System.arraycopy(args, 0, bindArgs, 1, args.length);
+                db.execSQL("INSERT OR REPLACE INTO " + TOMBSTONE_TABLE_NAME +
+                                "(" + STORED_COLUMNS + ", " + TOMBSTONE_COLUMN_DELETED_AT + ") " +
+                                "SELECT " + STORED_COLUMNS + ", ? FROM " + DB_TABLE_NAME + " WHERE " + selection,
+                        bindArgs);
+                deleted += db.delete(DB_TABLE_NAME, selection, args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // the plan of the last chunk is that of every chunk
+        record(DatabaseMetrics.OP_DELETE_ALL, start, db,
+                selection != null ? "DELETE FROM " + DB_TABLE_NAME + " WHERE " + selection : null, args);
+        for(long id : distinct) {
+            cache.remove(id);
+        }
+        if(deleted > 0) {
+            dataVersion.incrementAndGet();
+        }
+        return deleted;
+    }
+
+    /**
+     * Brings back a set of entries removed by {@link #delete(long)} or {@link #delete(long[])} in a
+     * single transaction, leaving out those whose tombstones were purged already
+     * @param ids the database ids of the deleted entries
+     * @return the number of entries restored
+     */
+    public int restore(@NonNull long[] ids) {
+        long start = System.nanoTime();
+        long[] distinct = distinctIds(ids);
+        SQLiteDatabase db = getWritableDatabase();
+        int restored = 0;
+        String sql = null;
+        String[] args = null;
+        db.beginTransaction();
+        try {
+            for(int from = 0; from < distinct.length; from += IN_LIST_CHUNK_SIZE) {
+                int to = Math.min(from + IN_LIST_CHUNK_SIZE, distinct.length);
+                String selection = inList(TABLE_COLUMN_ID, to - from);
+                args = idArgs(distinct, from, to);
+                sql = "INSERT OR IGNORE INTO " + DB_TABLE_NAME + "(" + STORED_COLUMNS + ") " +
+                        "SELECT " + STORED_COLUMNS + " FROM " + TOMBSTONE_TABLE_NAME + " WHERE " + selection;
+                SQLiteStatement statement = db.compileStatement(sql);
+                try {
+                    statement.bindAllArgsAsStrings(args);
+                    restored += statement.executeUpdateDelete();
+                } finally {
+                    statement.close();
+                }
+                db.delete(TOMBSTONE_TABLE_NAME, selection, args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        record(DatabaseMetrics.OP_RESTORE_ALL, start, db, sql, args);
+        if(restored > 0) {
+            dataVersion.incrementAndGet();
+        }
+        return restored;
+    }
+
+    /**
+     * Sets the mood of a set of entries in a single transaction; the statistics are kept up to
+     * date by the triggers of every changed entry
+     * @param ids the database ids of the entries
+     * @param mood the new mood
+     * @return the number of entries whose mood changed; entries that had the mood already are left as they are
+     */
+    public int updateMoods(@NonNull long[] ids, @JournalEntry.Mood int mood) {
+        long start = System.nanoTime();
+        long[] distinct = distinctIds(ids);
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(TABLE_COLUMN_MOOD, mood);
+        int updated = 0;
+        String selection = null;
+        String[] args = null;
+        db.beginTransaction();
+        try {
+            for(int from = 0; from < distinct.length; from += IN_LIST_CHUNK_SIZE) {
+                int to = Math.min(from + IN_LIST_CHUNK_SIZE, distinct.length);
+                selection = inList(TABLE_COLUMN_ID, to - from) + " AND " + TABLE_COLUMN_MOOD + " != " + mood;
+                args = idArgs(distinct, from, to);
+                updated += db.update(DB_TABLE_NAME, values, selection, args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        record(DatabaseMetrics.OP_UPDATE_MOODS, start, db,
+                selection != null ? "UPDATE " + DB_TABLE_NAME + " SET " + TABLE_COLUMN_MOOD + "=" + mood +
+                        " WHERE " + selection : null, args);
+        // cached entries hold their mood; they're loaded again when needed
+        for(long id : distinct) {
+            cache.remove(id);
+        }
+        if(updated > 0) {
+            dataVersion.incrementAndGet();
+        }
+        return updated;
+    }
+
 
     /**
-     * Called when the database needs to be upgraded. The implementation
-     * should use this method to drop tables, add tables, or do anything else it
-     * needs to upgrade to the new schema version.
+     * Called when the database needs to be upgraded.
      *
-     * <p>
-     * The SQLite ALTER TABLE documentation can be found
-     * <a href="http://sqlite.org/lang_altertable.html">here</a>. If you add new columns
-     * you can use ALTER TABLE to insert them into a live table. If you rename or remove columns
-     * you can use ALTER TABLE to rename the old table, then create the new table and then
-     * populate the new table with the contents of the old table.
-     * </p><p>
-     * This method executes within a transaction.  If an exception is thrown, all changes
-     * will automatically be rolled back.
-     * </p>
+     * Databases older than version 3 are recreated; later versions have their upgrade steps
+     * scheduled here and run by the {@link MigrationEngine} from {@link #onOpen(SQLiteDatabase)},
+     * outside of the single transaction this method executes in.
      *
      * @param db         The database.
      * @param oldVersion The old database version.
@@ -244,9 +1577,11 @@ public class EntryDatabase extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if(oldVersion < newVersion) {
+        if(oldVersion < 3) {
             db.execSQL("DROP TABLE IF EXISTS " + DB_TABLE_NAME);
             this.onCreate(db);
+        } else {
+            migrations.schedule(db, oldVersion, newVersion);
         }
 
     }
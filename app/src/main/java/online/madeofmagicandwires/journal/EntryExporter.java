@@ -0,0 +1,331 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import static online.madeofmagicandwires.journal.EntryDatabase.DB_TABLE_NAME;
+import static online.madeofmagicandwires.journal.EntryDatabase.INLINE_CONTENT;
+import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_CONTENT_LENGTH;
+import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_ID;
+import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_MOOD;
+import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_TIMESTAMP;
+import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_TITLE;
+
+/**
+ * Writes all journal entries, or a selection of them, to a channel as JSON Lines or CSV.
+ *
+ * Rows are streamed from the cursor straight into a buffered writer on top of the channel,
+ * so exporting takes the same amount of memory however large the journal is.
+ * Moods are written by their name rather than their code, see {@link MoodRegistry#getName(int)}.
+ * Read back with {@link EntryImporter}.
+ */
+public class EntryExporter {
+
+    /**
+     * Listener receiving the progress of a running export or import.
+     * Called on the thread doing the export or import.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called regularly while running, and once when done
+         * @param done the number of rows written or read so far
+         * @param total the total number of rows, or -1 if it isn't known
+         */
+        void onProgress(long done, long total);
+    }
+
+    /** one JSON object per line, see <a href="http://jsonlines.org">jsonlines.org</a> **/
+    public static final int FORMAT_JSON_LINES = 0;
+    /** comma separated values with a header row, as described by RFC 4180 **/
+    public static final int FORMAT_CSV = 1;
+
+    @IntDef({FORMAT_JSON_LINES, FORMAT_CSV})
+    @Retention(RetentionPolicy.SOURCE)
+
+    /**
+     * Enum-like defining the formats entries can be exported to
+     */
+    public @interface Format {}
+
+    /** names of the exported fields, in the order of the CSV columns **/
+    public static final String FIELD_ID = "id";
+    public static final String FIELD_TITLE = "title";
+    public static final String FIELD_CONTENT = "content";
+    public static final String FIELD_MOOD = "mood";
+    public static final String FIELD_TIMESTAMP = "timestamp";
+    /** first row of every CSV export, by which {@link EntryImporter} tells CSV from JSON Lines **/
+    static final String CSV_HEADER = FIELD_ID + "," + FIELD_TITLE + "," + FIELD_CONTENT + "," +
+            FIELD_MOOD + "," + FIELD_TIMESTAMP;
+
+    /** number of exported rows between progress updates **/
+    public static final int PROGRESS_INTERVAL = 1000;
+    /** size of the buffer between the encoder and the channel, in characters **/
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** contents too long to fit in a CursorWindow, or compressed, are left out and read in chunks instead **/
+    private static final String[] COLUMNS = new String[]{
+            TABLE_COLUMN_ID, TABLE_COLUMN_TITLE,
+            INLINE_CONTENT,
+            TABLE_COLUMN_MOOD, TABLE_COLUMN_TIMESTAMP, TABLE_COLUMN_CONTENT_LENGTH};
+
+    private final SQLiteDatabase db;
+
+
+    /**
+     * Standard constructor
+     * @param db the database to export entries from
+     */
+    public EntryExporter(@NonNull SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Writes all entries to a channel, ordered by id. The channel is not closed.
+     * @param channel the channel to write the entries to
+     * @param format the format to write the entries in
+     * @param signal signal to cancel the export with; may be null
+     * @param listener listener receiving the progress of the export; may be null
+     * @return the number of exported entries
+     * @throws IOException if the entries could not be written to the channel
+     * @throws android.os.OperationCanceledException if the export was cancelled
+     */
+    public long export(@NonNull WritableByteChannel channel, @Format int format,
+                       @Nullable CancellationSignal signal, @Nullable ProgressListener listener) throws IOException {
+        return export(channel, format, null, signal, listener);
+    }
+
+    /**
+     * Writes a selection of entries to a channel, ordered by id. The channel is not closed.
+     *
+     * The selected entries are read in chunks of {@link EntryDatabase#IN_LIST_CHUNK_SIZE} ids, all
+     * within a single transaction, so the export holds the entries as they were when it started.
+     *
+     * @param channel the channel to write the entries to
+     * @param format the format to write the entries in
+     * @param ids the database ids of the entries to write, or null to write all entries; ids of
+     *            entries that don't exist are left out
+     * @param signal signal to cancel the export with; may be null
+     * @param listener listener receiving the progress of the export; may be null
+     * @return the number of exported entries
+     * @throws IOException if the entries could not be written to the channel
+     * @throws android.os.OperationCanceledException if the export was cancelled
+     */
+    public long export(@NonNull WritableByteChannel channel, @Format int format, @Nullable long[] ids,
+                       @Nullable CancellationSignal signal, @Nullable ProgressListener listener) throws IOException {
+        long[] distinct = ids != null ? EntryDatabase.distinctIds(ids) : null;
+        long total = distinct != null ? distinct.length : DatabaseUtils.queryNumEntries(db, DB_TABLE_NAME);
+        Writer out = new BufferedWriter(Channels.newWriter(channel, UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+
+        long done = 0;
+        try {
+            if(format == FORMAT_CSV) {
+                out.write(CSV_HEADER + "\r\n");
+            }
+            if(distinct == null) {
+                done = writeRows(out, query(null, null, signal), format, signal, listener, done, total);
+            } else {
+                db.beginTransactionNonExclusive();
+                try {
+                    for(int from = 0; from < distinct.length; from += EntryDatabase.IN_LIST_CHUNK_SIZE) {
+                        int to = Math.min(from + EntryDatabase.IN_LIST_CHUNK_SIZE, distinct.length);
+                        Cursor c = query(EntryDatabase.inList(TABLE_COLUMN_ID, to - from),
+                                EntryDatabase.idArgs(distinct, from, to), signal);
+                        done = writeRows(out, c, format, signal, listener, done, total);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } finally {
+            // flushes the encoder into the channel, but leaves the channel itself open
+            out.flush();
+        }
+        if(listener != null) {
+            listener.onProgress(done, total);
+        }
+        return done;
+    }
+
+    /**
+     * Queries the exported columns of a set of entries
+     * @param selection the entries to query, or null for all of them
+     * @param selectionArgs the values of the ?s in the selection
+     * @param signal signal to cancel the query with; may be null
+     * @return the entries, ordered by id
+     */
+    private Cursor query(@Nullable String selection, @Nullable String[] selectionArgs,
+                         @Nullable CancellationSignal signal) {
+        return db.query(false, DB_TABLE_NAME, COLUMNS, selection, selectionArgs, null, null,
+                TABLE_COLUMN_ID + " ASC", null, signal);
+    }
+
+    /**
+     * Writes the rows of a cursor and closes it
+     * @param out writer to write the rows to
+     * @param c the entries to write
+     * @param format the format to write the entries in
+     * @param signal signal to cancel the export with; may be null
+     * @param listener listener receiving the progress of the export; may be null
+     * @param done the number of entries written before these
+     * @param total the total number of entries to write
+     * @return the number of entries written, including those written before these
+     * @throws IOException if the entries could not be written
+     */
+    private long writeRows(Writer out, Cursor c, @Format int format, @Nullable CancellationSignal signal,
+                           @Nullable ProgressListener listener, long done, long total) throws IOException {
+        try {
+            while(c.moveToNext()) {
+                if(signal != null) {
+                    signal.throwIfCanceled();
+                }
+                String content = c.getString(2);
+                if(content == null) {
+                    content = EntryContentReader.readFully(db, c.getLong(0), c.getInt(5));
+                }
+                if(format == FORMAT_CSV) {
+                    writeCsvRow(out, c, content);
+                } else {
+                    writeJsonLine(out, c, content);
+                }
+                done++;
+                if(listener != null && done % PROGRESS_INTERVAL == 0) {
+                    listener.onProgress(done, total);
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return done;
+    }
+
+    /**
+     * Writes the current row of the cursor as a single line holding a JSON object
+     * @param out writer to write the row to
+     * @param c cursor positioned at the row to write
+     * @param content the content of the row
+     */
+    private static void writeJsonLine(Writer out, Cursor c, String content) throws IOException {
+        out.write("{\"" + FIELD_ID + "\":");
+        out.write(Long.toString(c.getLong(0)));
+        out.write(",\"" + FIELD_TITLE + "\":");
+        writeJsonString(out, c.getString(1));
+        out.write(",\"" + FIELD_CONTENT + "\":");
+        writeJsonString(out, content);
+        out.write(",\"" + FIELD_MOOD + "\":");
+        writeJsonString(out, MoodRegistry.getName(c.getInt(3)));
+        out.write(",\"" + FIELD_TIMESTAMP + "\":");
+        out.write(Long.toString(c.getLong(4)));
+        out.write("}\n");
+    }
+
+    /**
+     * Writes a JSON string literal, escaping quotes, backslashes and control characters
+     * @param out writer to write the literal to
+     * @param value the string to write, or null to write a JSON null
+     */
+    private static void writeJsonString(Writer out, @Nullable String value) throws IOException {
+        if(value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        int start = 0;
+        int length = value.length();
+        for(int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            String escaped;
+            if(ch == '"') {
+                escaped = "\\\"";
+            } else if(ch == '\\') {
+                escaped = "\\\\";
+            } else if(ch == '\n') {
+                escaped = "\\n";
+            } else if(ch == '\r') {
+                escaped = "\\r";
+            } else if(ch == '\t') {
+                escaped = "\\t";
+            } else if(ch < 0x20 || ch == 0x2028 || ch == 0x2029) {
+                // control characters, and the line separators JavaScript doesn't allow in strings
+                escaped = String.format(Locale.ROOT, "\\u%04x", (int) ch);
+            } else {
+                continue;
+            }
+            // write the unescaped run before this character in one go
+            out.write(value, start, i - start);
+            out.write(escaped);
+            start = i + 1;
+        }
+        out.write(value, start, length - start);
+        out.write('"');
+    }
+
+    /**
+     * Writes the current row of the cursor as a CSV record
+     * @param out writer to write the row to
+     * @param c cursor positioned at the row to write
+     * @param content the content of the row
+     */
+    private static void writeCsvRow(Writer out, Cursor c, String content) throws IOException {
+        out.write(Long.toString(c.getLong(0)));
+        out.write(',');
+        writeCsvField(out, c.getString(1));
+        out.write(',');
+        writeCsvField(out, content);
+        out.write(',');
+        writeCsvField(out, MoodRegistry.getName(c.getInt(3)));
+        out.write(',');
+        out.write(Long.toString(c.getLong(4)));
+        out.write("\r\n");
+    }
+
+    /**
+     * Writes a CSV field, quoting it if it contains a separator, quote or line break
+     * @param out writer to write the field to
+     * @param value the field to write; null is written as an empty field
+     */
+    private static void writeCsvField(Writer out, @Nullable String value) throws IOException {
+        if(value == null) {
+            return;
+        }
+        boolean quote = false;
+        for(int i = 0; i < value.length() && !quote; i++) {
+            char ch = value.charAt(i);
+            quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+        }
+        if(!quote) {
+            out.write(value);
+            return;
+        }
+
+        out.write('"');
+        int start = 0;
+        for(int i = 0; i < value.length(); i++) {
+            if(value.charAt(i) == '"') {
+                // quotes are escaped by doubling them
+                out.write(value, start, i + 1 - start);
+                out.write('"');
+                start = i + 1;
+            }
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
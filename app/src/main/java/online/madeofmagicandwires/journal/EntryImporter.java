@@ -0,0 +1,318 @@
+package online.madeofmagicandwires.journal;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static online.madeofmagicandwires.journal.EntryExporter.CSV_HEADER;
+import static online.madeofmagicandwires.journal.EntryExporter.FIELD_CONTENT;
+import static online.madeofmagicandwires.journal.EntryExporter.FIELD_ID;
+import static online.madeofmagicandwires.journal.EntryExporter.FIELD_MOOD;
+import static online.madeofmagicandwires.journal.EntryExporter.FIELD_TIMESTAMP;
+import static online.madeofmagicandwires.journal.EntryExporter.FIELD_TITLE;
+import static online.madeofmagicandwires.journal.EntryExporter.FORMAT_CSV;
+import static online.madeofmagicandwires.journal.EntryExporter.FORMAT_JSON_LINES;
+
+/**
+ * Reads journal entries written by {@link EntryExporter} from a channel and inserts them into the database.
+ *
+ * Entries are parsed one record at a time and inserted in batches through
+ * {@link EntryDatabase#insertAll(java.util.Collection)}, so importing takes the same amount of memory
+ * however large the file is. Every batch is committed on its own; when an import fails or is cancelled,
+ * the batches before it stay imported.
+ * The format can be given, or told from the start of the file, see {@link #detectFormat(BufferedReader)}.
+ */
+public class EntryImporter {
+
+    /** number of CSV fields per record **/
+    private static final int CSV_FIELDS = 5;
+    /** number of characters read ahead to tell the format of a file **/
+    private static final int DETECT_LENGTH = 256;
+
+    private final EntryDatabase db;
+    private final int batchSize;
+
+
+    /**
+     * Standard constructor
+     * @param db the database to import entries into
+     */
+    public EntryImporter(@NonNull EntryDatabase db) {
+        this(db, EntryDatabase.DEFAULT_INSERT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor allowing a different number of entries per transaction to be used
+     * @param db the database to import entries into
+     * @param batchSize maximum number of entries inserted per transaction
+     */
+    public EntryImporter(@NonNull EntryDatabase db, int batchSize) {
+        this.db = db;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Reads all entries from a channel and inserts them. The channel is not closed.
+     * @param channel the channel to read the entries from
+     * @param format the format the entries were written in
+     * @param keepIds whether to keep the ids of the imported entries, replacing existing entries
+     *                with the same id, or to add them as new entries
+     * @param signal signal to cancel the import with; may be null
+     * @param listener listener receiving the progress of the import after every batch; may be null
+     * @return the number of imported entries
+     * @throws IOException if the channel could not be read or holds a malformed record
+     * @throws android.os.OperationCanceledException if the import was cancelled
+     */
+    public long importFrom(@NonNull ReadableByteChannel channel, @EntryExporter.Format int format, boolean keepIds,
+                           @Nullable CancellationSignal signal, @Nullable EntryExporter.ProgressListener listener)
+            throws IOException {
+        return importFrom(newReader(channel), format, keepIds, signal, listener);
+    }
+
+    /**
+     * Reads all entries from a channel and inserts them, telling the format they were written in
+     * from the start of the channel. The channel is not closed.
+     * @param channel the channel to read the entries from
+     * @param keepIds whether to keep the ids of the imported entries, replacing existing entries
+     *                with the same id, or to add them as new entries
+     * @param signal signal to cancel the import with; may be null
+     * @param listener listener receiving the progress of the import after every batch; may be null
+     * @return the number of imported entries
+     * @throws IOException if the channel could not be read, is in neither format or holds a malformed record
+     * @throws android.os.OperationCanceledException if the import was cancelled
+     */
+    public long importFrom(@NonNull ReadableByteChannel channel, boolean keepIds,
+                           @Nullable CancellationSignal signal, @Nullable EntryExporter.ProgressListener listener)
+            throws IOException {
+        BufferedReader in = newReader(channel);
+        return importFrom(in, detectFormat(in), keepIds, signal, listener);
+    }
+
+    /**
+     * Returns a buffered reader decoding a channel
+     * @param channel the channel to read
+     * @return the reader
+     */
+    private static BufferedReader newReader(ReadableByteChannel channel) {
+        return new BufferedReader(
+                Channels.newReader(channel, EntryExporter.UTF_8.newDecoder(), EntryExporter.BUFFER_SIZE),
+                EntryExporter.BUFFER_SIZE);
+    }
+
+    /**
+     * Tells the format of a file by its start without consuming it: CSV files start with
+     * {@link EntryExporter#CSV_HEADER}, JSON Lines files with a JSON object. Empty files are taken
+     * to be JSON Lines, holding no entries.
+     * @param in the reader to look at; must support mark
+     * @return the format of the file
+     * @throws IOException if the reader could not be read or the file is in neither format
+     */
+    @EntryExporter.Format
+    static int detectFormat(BufferedReader in) throws IOException {
+        char[] start = new char[DETECT_LENGTH];
+        int length = 0;
+        int read;
+        in.mark(DETECT_LENGTH);
+        while(length < start.length && (read = in.read(start, length, start.length - length)) != -1) {
+            length += read;
+        }
+        in.reset();
+
+        String text = new String(start, 0, length);
+        if(text.startsWith(CSV_HEADER) && (length == CSV_HEADER.length() ||
+                text.charAt(CSV_HEADER.length()) == '\r' || text.charAt(CSV_HEADER.length()) == '\n')) {
+            return FORMAT_CSV;
+        }
+        String trimmed = text.trim();
+        if(trimmed.isEmpty() || trimmed.charAt(0) == '{') {
+            return FORMAT_JSON_LINES;
+        }
+        throw new IOException("Neither CSV nor JSON Lines");
+    }
+
+    /**
+     * Reads all entries from a reader and inserts them
+     * @see #importFrom(ReadableByteChannel, int, boolean, CancellationSignal, EntryExporter.ProgressListener)
+     */
+    private long importFrom(BufferedReader in, @EntryExporter.Format int format, boolean keepIds,
+                            @Nullable CancellationSignal signal, @Nullable EntryExporter.ProgressListener listener)
+            throws IOException {
+        List<JournalEntry> batch = new ArrayList<>(batchSize);
+        long done = 0;
+        long record = 0;
+
+        if(format == FORMAT_CSV) {
+            // skip the header
+            readCsvRecord(in, new ArrayList<String>(CSV_FIELDS));
+        }
+
+        List<String> fields = new ArrayList<>(CSV_FIELDS);
+        while(true) {
+            if(signal != null) {
+                signal.throwIfCanceled();
+            }
+            record++;
+            JournalEntry entry;
+            if(format == FORMAT_CSV) {
+                entry = readCsvEntry(in, fields, record);
+            } else {
+                entry = readJsonEntry(in, record);
+            }
+            if(entry == null) {
+                break;
+            }
+            if(!keepIds) {
+                entry = new JournalEntry(entry.getTitle(), entry.getContent(), entry.getMood(), entry.getTimestamp());
+            }
+
+            batch.add(entry);
+            if(batch.size() == batchSize) {
+                done += insertBatch(batch);
+                if(listener != null) {
+                    listener.onProgress(done, -1);
+                }
+            }
+        }
+        done += insertBatch(batch);
+        if(listener != null) {
+            listener.onProgress(done, done);
+        }
+        return done;
+    }
+
+    /**
+     * Inserts and clears a batch of entries
+     * @param batch the entries to insert
+     * @return the number of inserted entries
+     */
+    private int insertBatch(List<JournalEntry> batch) {
+        int size = batch.size();
+        if(size > 0) {
+            db.insertAll(batch, size);
+            batch.clear();
+        }
+        return size;
+    }
+
+    /**
+     * Reads the next entry from a JSON Lines stream, skipping blank lines
+     * @param in the reader to read from
+     * @param record the number of the record being read, for error messages
+     * @return the entry, or null at the end of the stream
+     * @throws IOException if the line could not be read or isn't a valid entry
+     */
+    @Nullable
+    private static JournalEntry readJsonEntry(BufferedReader in, long record) throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if(line == null) {
+                return null;
+            }
+        } while(line.trim().isEmpty());
+
+        try {
+            JSONObject object = new JSONObject(line);
+            return new JournalEntry(
+                    object.getString(FIELD_TITLE),
+                    object.getString(FIELD_CONTENT),
+                    MoodRegistry.fromName(object.getString(FIELD_MOOD)),
+                    object.getLong(FIELD_TIMESTAMP),
+                    object.optLong(FIELD_ID, -1));
+        } catch (JSONException e) {
+            throw new IOException("Malformed entry at record " + record, e);
+        }
+    }
+
+    /**
+     * Reads the next entry from a CSV stream
+     * @param in the reader to read from
+     * @param fields list to reuse for the fields of the record
+     * @param record the number of the record being read, for error messages
+     * @return the entry, or null at the end of the stream
+     * @throws IOException if the record could not be read or isn't a valid entry
+     */
+    @Nullable
+    private static JournalEntry readCsvEntry(BufferedReader in, List<String> fields, long record) throws IOException {
+        if(!readCsvRecord(in, fields)) {
+            return null;
+        }
+        if(fields.size() != CSV_FIELDS) {
+            throw new IOException("Expected " + CSV_FIELDS + " fields at record " + record + " but found " + fields.size());
+        }
+        try {
+            String id = fields.get(0);
+            return new JournalEntry(
+                    fields.get(1),
+                    fields.get(2),
+                    MoodRegistry.fromName(fields.get(3)),
+                    Long.parseLong(fields.get(4)),
+                    id.isEmpty() ? -1 : Long.parseLong(id));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed entry at record " + record, e);
+        }
+    }
+
+    /**
+     * Reads a single CSV record as described by RFC 4180; quoted fields may contain separators,
+     * doubled quotes and line breaks
+     * @param in the reader to read from
+     * @param fields list the fields of the record are put in; cleared first
+     * @return true if a record was read, false at the end of the stream
+     * @throws IOException if the stream could not be read or ends inside a quoted field
+     */
+    static boolean readCsvRecord(BufferedReader in, List<String> fields) throws IOException {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean any = false;
+        int ch;
+        while((ch = in.read()) != -1) {
+            any = true;
+            if(quoted) {
+                if(ch == '"') {
+                    in.mark(1);
+                    int next = in.read();
+                    if(next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        if(next != -1) {
+                            in.reset();
+                        }
+                    }
+                } else {
+                    field.append((char) ch);
+                }
+            } else if(ch == '"') {
+                quoted = true;
+            } else if(ch == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if(ch == '\r') {
+                // part of a \r\n line break
+            } else if(ch == '\n') {
+                break;
+            } else {
+                field.append((char) ch);
+            }
+        }
+        if(quoted) {
+            throw new IOException("Unterminated quoted field");
+        }
+        if(any) {
+            fields.add(field.toString());
+        }
+        return any;
+    }
+}
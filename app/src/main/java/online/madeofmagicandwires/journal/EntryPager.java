@@ -0,0 +1,146 @@
+package online.madeofmagicandwires.journal;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the entries list one page at a time as the user scrolls down.
+ *
+ * Only the first page is queried when the list is shown, so the time until the list is drawn does
+ * not depend on the size of the journal. Pages are read into {@link EntryRow}s on the background
+ * thread and every version of the list is handed to the {@link EntryAdapter} as a new list, which
+ * compares it to the previous one off the main thread. Refreshing only queries the entries again
+ * if they were written since they were last loaded.
+ */
+public class EntryPager extends RecyclerView.OnScrollListener {
+
+    /** number of entries loaded per page **/
+    public static final int PAGE_SIZE = 50;
+    /** how many rows before the end of the loaded entries the next page is requested **/
+    private static final int PREFETCH_DISTANCE = 15;
+
+    private final EntryRepository repository;
+    private final EntryAdapter adapter;
+
+    /** the rows of the loaded pages, as last handed to the adapter; never modified **/
+    private List<EntryRow> rows = Collections.emptyList();
+    /** incremented on every refresh, so pages requested before it can be discarded **/
+    private int generation = 0;
+    /** the data version the first page was last requested at, or -1 if it hasn't been **/
+    private long loadedVersion = -1;
+    private boolean loading = false;
+    private boolean endReached = false;
+    private boolean closed = false;
+
+
+    /**
+     * Standard constructor
+     * @param repository repository to load pages from
+     * @param adapter adapter to show the loaded pages
+     */
+    public EntryPager(@NonNull EntryRepository repository, @NonNull EntryAdapter adapter) {
+        this.repository = repository;
+        this.adapter = adapter;
+    }
+
+    /**
+     * Reloads the list from the start, keeping as many entries as were loaded before
+     * so the scroll position is not lost; does nothing but update the dates if no entries were
+     * written since the list was last loaded
+     */
+    public void refresh() {
+        // read before querying: a write that lands in between only causes an extra reload later
+        long version = repository.getDataVersion();
+        if(version == loadedVersion) {
+            adapter.refreshDates();
+            return;
+        }
+        loadedVersion = version;
+        final int requestGeneration = ++generation;
+        final int requested = Math.max(PAGE_SIZE, rows.size());
+        loading = true;
+        repository.selectFirstPageRows(requested, new EntryRepository.Callback<List<EntryRow>>() {
+            @Override
+            public void onResult(List<EntryRow> page) {
+                if(closed || requestGeneration != generation) {
+                    return;
+                }
+                loading = false;
+                if(page == null) {
+                    // keeps what was shown; the next refresh tries again
+                    loadedVersion = -1;
+                    return;
+                }
+                endReached = page.size() < requested;
+                show(page);
+            }
+        });
+    }
+
+    /**
+     * Requests the page following the loaded entries, unless it's already being loaded or there are none left
+     */
+    public void loadMore() {
+        if(loading || endReached || closed || rows.isEmpty()) {
+            return;
+        }
+
+        EntryRow last = rows.get(rows.size() - 1);
+        final int requestGeneration = generation;
+        loading = true;
+        repository.selectPageRows(last.getTimestamp(), last.getDatabaseId(), PAGE_SIZE,
+                new EntryRepository.Callback<List<EntryRow>>() {
+            @Override
+            public void onResult(List<EntryRow> page) {
+                if(closed || requestGeneration != generation) {
+                    return;
+                }
+                loading = false;
+                if(page == null) {
+                    return;
+                }
+                endReached = page.size() < PAGE_SIZE;
+                List<EntryRow> next = new ArrayList<>(rows.size() + page.size());
+                next.addAll(rows);
+                next.addAll(page);
+                show(next);
+            }
+        });
+    }
+
+    /**
+     * Hands a new version of the list to the adapter
+     * @param next the rows of all loaded pages; not to be modified afterwards
+     */
+    private void show(@NonNull List<EntryRow> next) {
+        rows = next;
+        adapter.submitList(next);
+    }
+
+    /**
+     * Stops handling results; pages that are still being loaded will be ignored on arrival
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Loads the next page once the user scrolls near the end of the loaded entries
+     */
+    @Override
+    public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+        // the list may be showing something else, such as search results
+        if(view.getAdapter() != adapter || !(view.getLayoutManager() instanceof LinearLayoutManager)) {
+            return;
+        }
+        int lastVisible = ((LinearLayoutManager) view.getLayoutManager()).findLastVisibleItemPosition();
+        if(lastVisible != RecyclerView.NO_POSITION && lastVisible >= rows.size() - PREFETCH_DISTANCE) {
+            loadMore();
+        }
+    }
+}
@@ -0,0 +1,556 @@
+package online.madeofmagicandwires.journal;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Asynchronous access layer in front of {@link EntryDatabase}.
+ *
+ * Every query and write is run on a single background thread, so operations are executed in the
+ * order in which they were requested (a save followed by a refresh will always see the saved entry),
+ * and results are delivered back on the main thread through a {@link Callback}.
+ * Activities should use this instead of calling {@link EntryDatabase} directly.
+ */
+public class EntryRepository {
+
+    /**
+     * Callback receiving the result of an asynchronous operation on the main thread
+     * @param <T> type of the result
+     */
+    public interface Callback<T> {
+
+        /**
+         * Called on the main thread once the operation has finished
+         * @param result the result of the operation, or null if it failed unless documented otherwise
+         */
+        void onResult(T result);
+    }
+
+    private static final String TAG = "EntryRepository";
+
+    /** number of characters of a content posted to the main thread at a time by {@link #readContent} **/
+    static final int CONTENT_CHUNK_LENGTH = 64 * 1024;
+
+    /** maximum time to wait for a running compaction to finish before the database is closed **/
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10 * 1000;
+
+    /** singleton instance to be returned if set **/
+    private static EntryRepository instance = null;
+
+    private final EntryDatabase db;
+    private final ExecutorService executor;
+    private final Handler mainHandler;
+    /** purges deleted entries after their undo window; null to keep them **/
+    private final EntryCompactor compactor;
+
+
+    /**
+     * Constructor allowing the database, background executor and result handler to be provided
+     * @param db the database to wrap
+     * @param executor executor to run database operations on; should be single threaded to keep
+     *                 operations ordered
+     * @param mainHandler handler to deliver results on
+     */
+    @VisibleForTesting
+    EntryRepository(@NonNull EntryDatabase db, @NonNull ExecutorService executor, @NonNull Handler mainHandler) {
+        this(db, executor, mainHandler, null);
+    }
+
+    /**
+     * Constructor allowing the compactor of deleted entries to be provided as well
+     * @param db the database to wrap
+     * @param executor executor to run database operations on; should be single threaded to keep
+     *                 operations ordered
+     * @param mainHandler handler to deliver results on
+     * @param compactor compactor to schedule after every delete, or null to keep deleted entries
+     */
+    @VisibleForTesting
+    EntryRepository(@NonNull EntryDatabase db, @NonNull ExecutorService executor, @NonNull Handler mainHandler,
+                    @Nullable EntryCompactor compactor) {
+        this.db = db;
+        this.executor = executor;
+        this.mainHandler = mainHandler;
+        this.compactor = compactor;
+    }
+
+    /**
+     * Returns the singleton EntryRepository instance, use this when requiring a EntryRepository object
+     * @param context Application/Activity context
+     * @return the singleton EntryRepository instance
+     */
+    public static synchronized EntryRepository getInstance(@NonNull Context context) {
+        if(instance == null) {
+            EntryDatabase db = EntryDatabase.getInstance(context.getApplicationContext());
+            instance = new EntryRepository(
+                    db,
+                    Executors.newSingleThreadExecutor(),
+                    new Handler(Looper.getMainLooper()),
+                    new EntryCompactor(db));
+            // purges what was deleted shortly before the app was last stopped
+            instance.compactor.schedule();
+        }
+        return instance;
+    }
+
+    /**
+     * Closes the database once all pending operations have finished and stops the background thread.
+     * A later call to {@link #getInstance(Context)} will create a new repository on a new connection
+     * right away, rather than reuse the one about to be closed.
+     */
+    public static synchronized void shutdown() {
+        if(instance != null) {
+            final EntryCompactor compactor = instance.compactor;
+            if(compactor != null) {
+                compactor.shutdown();
+            }
+            final EntryDatabase db = instance.db;
+            EntryDatabase.detach(db);
+            instance.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if(compactor != null) {
+                        compactor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS);
+                    }
+                    db.close();
+                }
+            });
+            instance.executor.shutdown();
+            instance = null;
+        }
+    }
+
+    /**
+     * Returns the database wrapped by this repository.
+     * Only to be used from code already running off the main thread.
+     * @return the wrapped EntryDatabase
+     */
+    EntryDatabase getDatabase() {
+        return db;
+    }
+
+    /**
+     * Returns the counts and latencies of the queries and writes run so far.
+     * Reading or resetting them doesn't touch the database, so this may be used from the main thread.
+     * @return the metrics of the wrapped EntryDatabase
+     */
+    public DatabaseMetrics getMetrics() {
+        return db.getMetrics();
+    }
+
+    /**
+     * Returns how long a deleted entry can be restored for
+     * @return the undo window in milliseconds, or 0 if deleted entries are kept until restored
+     */
+    public long getUndoWindowMillis() {
+        return compactor != null ? compactor.getUndoWindowMillis() : 0;
+    }
+
+    /**
+     * Returns what the latest compaction of deleted entries did
+     * @return the report, or null if there was none yet
+     */
+    @Nullable
+    public EntryCompactor.Report getLastCompaction() {
+        return compactor != null ? compactor.getLastReport() : null;
+    }
+
+    /**
+     * Returns the version of the entries, which changes whenever entries are inserted, replaced or deleted.
+     * Reading it doesn't touch the database, so this may be used from the main thread to skip
+     * queries whose results can't have changed.
+     * @return the data version of the wrapped EntryDatabase
+     */
+    public long getDataVersion() {
+        return db.getDataVersion();
+    }
+
+    /**
+     * Runs a task on the background thread and posts its result to the callback, or null if it failed
+     * @param task the operation to run in the background
+     * @param callback callback to receive the result on the main thread, ignored if null
+     * @param <T> type of the result
+     */
+    private <T> void execute(@NonNull Task<T> task, @Nullable Callback<T> callback) {
+        execute(task, null, callback);
+    }
+
+    /**
+     * Runs a task on the background thread and posts its result to the callback
+     * @param task the operation to run in the background
+     * @param failed the result to post if the task throws
+     * @param callback callback to receive the result on the main thread, ignored if null
+     * @param <T> type of the result
+     */
+    private <T> void execute(@NonNull final Task<T> task, @Nullable final T failed, @Nullable final Callback<T> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T outcome;
+                try {
+                    outcome = task.run();
+                } catch (RuntimeException e) {
+                    // e.g. a full disk or a corrupt file; the caller still hears back
+                    Log.e(TAG, "background operation failed", e);
+                    outcome = failed;
+                }
+                final T result = outcome;
+                if(callback != null) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onResult(result);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * A unit of work to be run on the background thread
+     * @param <T> type of the result
+     */
+    private interface Task<T> {
+        T run();
+    }
+
+    /**
+     * Asynchronously retrieves the first page of entries ordered by latest posted, read into rows of
+     * the entries list on the background thread
+     * @param limit maximum number of entries in the page
+     * @param callback receives the rows of the page as per {@link EntryDatabase#selectFirstPage(int)}
+     */
+    public void selectFirstPageRows(final int limit, @NonNull Callback<List<EntryRow>> callback) {
+        execute(new Task<List<EntryRow>>() {
+            @Override
+            public List<EntryRow> run() {
+                return EntryRow.listOf(db.selectFirstPage(limit));
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously retrieves the page of entries following a given entry, read into rows of the
+     * entries list on the background thread
+     * @param afterTimestamp the timestamp of the last entry of the previous page
+     * @param afterId the database id of the last entry of the previous page
+     * @param limit maximum number of entries in the page
+     * @param callback receives the rows of the page as per {@link EntryDatabase#selectPage(long, long, int)}
+     */
+    public void selectPageRows(final long afterTimestamp, final long afterId, final int limit,
+                               @NonNull Callback<List<EntryRow>> callback) {
+        execute(new Task<List<EntryRow>>() {
+            @Override
+            public List<EntryRow> run() {
+                return EntryRow.listOf(db.selectPage(afterTimestamp, afterId, limit));
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously searches the titles and content of all entries
+     * @param query the words to search for
+     * @param limit maximum number of results
+     * @param callback receives the results as per {@link EntryDatabase#search(String, int)}
+     */
+    public void search(@NonNull final String query, final int limit, @NonNull Callback<List<SearchResult>> callback) {
+        execute(new Task<List<SearchResult>>() {
+            @Override
+            public List<SearchResult> run() {
+                return db.search(query, limit);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously retrieves the number of entries per mood, grouped by day, week or month
+     * @param period how to group the days
+     * @param callback receives the statistics as per {@link EntryDatabase#getMoodStatistics(int, long)}
+     */
+    public void getMoodStatistics(@MoodStatistics.Period final int period, @NonNull Callback<MoodStatistics> callback) {
+        execute(new Task<MoodStatistics>() {
+            @Override
+            public MoodStatistics run() {
+                return db.getMoodStatistics(period,
+                        MoodStatistics.localDayOf(System.currentTimeMillis(), db.getTimeZone()));
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously retrieves a single entry
+     * @param id the database id of the entry
+     * @param callback receives the JournalEntry, or null if no such entry exists
+     */
+    public void getEntry(final long id, @NonNull Callback<JournalEntry> callback) {
+        execute(new Task<JournalEntry>() {
+            @Override
+            public JournalEntry run() {
+                return db.getEntry(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously retrieves a single entry with a preview in place of its content
+     * @param id the database id of the entry
+     * @param callback receives the entry as per {@link EntryDatabase#getEntryPreview(long)}, or null
+     */
+    public void getEntryPreview(final long id, @NonNull Callback<JournalEntry> callback) {
+        execute(new Task<JournalEntry>() {
+            @Override
+            public JournalEntry run() {
+                return db.getEntryPreview(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously reads the content of an entry a chunk at a time, so no more than a chunk
+     * has to be held in memory besides what the callback keeps
+     * @param id the database id of the entry
+     * @param signal signal to stop reading with; may be null
+     * @param callback receives every chunk of the content in order, followed by null once the whole
+     *                 content was read or reading it failed; receives nothing more once cancelled
+     */
+    public void readContent(final long id, @Nullable final CancellationSignal signal,
+                            @NonNull final Callback<String> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                EntryContentReader reader = null;
+                try {
+                    reader = db.openContentReader(id);
+                    char[] buffer = new char[CONTENT_CHUNK_LENGTH];
+                    int read;
+                    while(!isCanceled(signal) && (read = reader.read(buffer, 0, buffer.length)) != -1) {
+                        post(new String(buffer, 0, read));
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "could not read the content of entry " + id, e);
+                } finally {
+                    if(reader != null) {
+                        reader.close();
+                    }
+                    post(null);
+                }
+            }
+
+            /**
+             * Posts a chunk to the callback, unless reading has been cancelled by then
+             * @param chunk the chunk to post
+             */
+            private void post(final String chunk) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(!isCanceled(signal)) {
+                            callback.onResult(chunk);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns whether an operation was cancelled
+     * @param signal the signal of the operation; may be null
+     * @return true if the signal was cancelled, false if it wasn't or if there is none
+     */
+    private static boolean isCanceled(@Nullable CancellationSignal signal) {
+        return signal != null && signal.isCanceled();
+    }
+
+    /**
+     * Asynchronously inserts or replaces a journal entry
+     * @param entry journal entry to insert
+     * @param callback receives the row ID of the inserted row, or -1 if an error occurred; may be null
+     */
+    public void insert(@NonNull final JournalEntry entry, @Nullable Callback<Long> callback) {
+        execute(new Task<Long>() {
+            @Override
+            public Long run() {
+                return db.insert(entry);
+            }
+        }, -1L, callback);
+    }
+
+    /**
+     * Asynchronously writes all entries to a channel, closing it once done
+     * @param channel the channel to write the entries to
+     * @param format the format to write the entries in
+     * @param signal signal to cancel the export with; may be null
+     * @param listener listener receiving the progress of the export on the background thread; may be null
+     * @param callback receives the number of exported entries, or -1 if the export failed or was cancelled; may be null
+     */
+    public void export(@NonNull final WritableByteChannel channel, @EntryExporter.Format final int format,
+                       @Nullable final CancellationSignal signal, @Nullable final EntryExporter.ProgressListener listener,
+                       @Nullable Callback<Long> callback) {
+        export(channel, format, null, signal, listener, callback);
+    }
+
+    /**
+     * Asynchronously writes a selection of entries to a channel, closing it once done
+     * @param channel the channel to write the entries to
+     * @param format the format to write the entries in
+     * @param ids the database ids of the entries to write, or null to write all entries
+     * @param signal signal to cancel the export with; may be null
+     * @param listener listener receiving the progress of the export on the background thread; may be null
+     * @param callback receives the number of exported entries, or -1 if the export failed or was cancelled; may be null
+     */
+    public void export(@NonNull final WritableByteChannel channel, @EntryExporter.Format final int format,
+                       @Nullable final long[] ids, @Nullable final CancellationSignal signal,
+                       @Nullable final EntryExporter.ProgressListener listener, @Nullable Callback<Long> callback) {
+        execute(new Task<Long>() {
+            @Override
+            public Long run() {
+                try {
+                    return new EntryExporter(db.getReadableDatabase()).export(channel, format, ids, signal, listener);
+                } catch (IOException | RuntimeException e) {
+                    // besides cancellation, the database may fail mid-way, e.g. when the disk is full
+                    Log.w(TAG, "export failed", e);
+                    return -1L;
+                } finally {
+                    closeQuietly(channel);
+                }
+            }
+        }, -1L, callback);
+    }
+
+    /**
+     * Asynchronously reads entries from a channel and adds them as new entries, closing the channel once done.
+     * Whether they were written as CSV or JSON Lines is told from the content, as file names and MIME types
+     * of picked documents can't be relied on.
+     * @param channel the channel to read the entries from
+     * @param signal signal to cancel the import with; may be null
+     * @param listener listener receiving the progress of the import on the background thread; may be null
+     * @param callback receives the number of imported entries, or -1 if the import failed or was cancelled;
+     *                 entries imported before that stay imported; may be null
+     */
+    public void importFrom(@NonNull final ReadableByteChannel channel, @Nullable final CancellationSignal signal,
+                           @Nullable final EntryExporter.ProgressListener listener, @Nullable Callback<Long> callback) {
+        execute(new Task<Long>() {
+            @Override
+            public Long run() {
+                try {
+                    return new EntryImporter(db).importFrom(channel, false, signal, listener);
+                } catch (IOException | RuntimeException e) {
+                    Log.w(TAG, "import failed", e);
+                    return -1L;
+                } finally {
+                    closeQuietly(channel);
+                }
+            }
+        }, -1L, callback);
+    }
+
+    /**
+     * Closes a channel, ignoring any errors
+     * @param channel the channel to close
+     */
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "could not close channel", e);
+        }
+    }
+
+    /**
+     * Asynchronously removes an entry; it can be restored by {@link #restore(long, Callback)}
+     * until it's purged once its undo window has passed
+     * @param id the database id of the entry to be removed
+     * @param callback receives the number of rows affected; may be null
+     */
+    public void delete(final long id, @Nullable Callback<Integer> callback) {
+        execute(new Task<Integer>() {
+            @Override
+            public Integer run() {
+                int deleted = db.delete(id);
+                if(deleted > 0 && compactor != null) {
+                    compactor.schedule();
+                }
+                return deleted;
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously brings back a removed entry, as long as it wasn't purged yet
+     * @param id the database id of the removed entry
+     * @param callback receives the number of entries restored; may be null
+     */
+    public void restore(final long id, @Nullable Callback<Integer> callback) {
+        execute(new Task<Integer>() {
+            @Override
+            public Integer run() {
+                return db.restore(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously removes a set of entries in a single transaction; they can be restored by
+     * {@link #restore(long[], Callback)} until they're purged once their undo window has passed
+     * @param ids the database ids of the entries to be removed
+     * @param callback receives the number of entries removed; may be null
+     */
+    public void delete(@NonNull final long[] ids, @Nullable Callback<Integer> callback) {
+        execute(new Task<Integer>() {
+            @Override
+            public Integer run() {
+                int deleted = db.delete(ids);
+                if(deleted > 0 && compactor != null) {
+                    compactor.schedule();
+                }
+                return deleted;
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously brings back a set of removed entries in a single transaction, as long as
+     * they weren't purged yet
+     * @param ids the database ids of the removed entries
+     * @param callback receives the number of entries restored; may be null
+     */
+    public void restore(@NonNull final long[] ids, @Nullable Callback<Integer> callback) {
+        execute(new Task<Integer>() {
+            @Override
+            public Integer run() {
+                return db.restore(ids);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously sets the mood of a set of entries in a single transaction
+     * @param ids the database ids of the entries
+     * @param mood the new mood
+     * @param callback receives the number of entries whose mood changed; may be null
+     */
+    public void updateMoods(@NonNull final long[] ids, @JournalEntry.Mood final int mood,
+                            @Nullable Callback<Integer> callback) {
+        execute(new Task<Integer>() {
+            @Override
+            public Integer run() {
+                return db.updateMoods(ids, mood);
+            }
+        }, callback);
+    }
+}
@@ -0,0 +1,148 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_ID;
+import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_MOOD;
+import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_PREVIEW;
+import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_TIMESTAMP;
+import static online.madeofmagicandwires.journal.EntryDatabase.TABLE_COLUMN_TITLE;
+
+/**
+ * What a row of the entries list shows of an entry.
+ *
+ * Rows are read from the list queries on the background thread, so the main thread never touches
+ * a cursor, and are immutable so two versions of the list can be compared off the main thread.
+ */
+public class EntryRow {
+
+    /**
+     * Tells which rows of two versions of the list are the same entry, and which of those changed
+     */
+    public static final DiffUtil.ItemCallback<EntryRow> DIFF = new DiffUtil.ItemCallback<EntryRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull EntryRow oldRow, @NonNull EntryRow newRow) {
+            return oldRow.databaseId == newRow.databaseId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull EntryRow oldRow, @NonNull EntryRow newRow) {
+            return oldRow.equals(newRow);
+        }
+    };
+
+    private final long databaseId;
+    private final String title;
+    private final String preview;
+    private final @JournalEntry.Mood int mood;
+    private final long timestamp;
+
+    /**
+     * Standard constructor
+     * @param databaseId the database id of the entry
+     * @param title the (possibly shortened) title of the entry
+     * @param preview the start of the content of the entry, or null if there is none
+     * @param mood the mood associated with the entry
+     * @param timestamp the timestamp of the entry, in milliseconds since the epoch
+     */
+    public EntryRow(long databaseId, @Nullable String title, @Nullable String preview,
+                    @JournalEntry.Mood int mood, long timestamp) {
+        this.databaseId = databaseId;
+        this.title = title;
+        this.preview = preview;
+        this.mood = mood;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Reads the rows of a list query and closes its cursor
+     * @param c cursor with the columns of {@link EntryDatabase#selectAll()}
+     * @return the rows, in the order of the cursor
+     */
+    @NonNull
+    public static List<EntryRow> listOf(@NonNull Cursor c) {
+        try {
+            List<EntryRow> rows = new ArrayList<>(c.getCount());
+            int idColumn = c.getColumnIndexOrThrow(TABLE_COLUMN_ID);
+            int titleColumn = c.getColumnIndexOrThrow(TABLE_COLUMN_TITLE);
+            // cursors from before previews were stored may not have one
+            int previewColumn = c.getColumnIndex(TABLE_COLUMN_PREVIEW);
+            int moodColumn = c.getColumnIndexOrThrow(TABLE_COLUMN_MOOD);
+            int timestampColumn = c.getColumnIndexOrThrow(TABLE_COLUMN_TIMESTAMP);
+            while(c.moveToNext()) {
+                rows.add(new EntryRow(
+                        c.getLong(idColumn),
+                        c.getString(titleColumn),
+                        previewColumn != -1 ? c.getString(previewColumn) : null,
+                        c.getInt(moodColumn),
+                        c.getLong(timestampColumn)));
+            }
+            return rows;
+        } finally {
+            c.close();
+        }
+    }
+
+    public long getDatabaseId() {
+        return databaseId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    @Nullable
+    public String getPreview() {
+        return preview;
+    }
+
+    public @JournalEntry.Mood int getMood() {
+        return mood;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof EntryRow)) {
+            return false;
+        }
+        EntryRow other = (EntryRow) o;
+        return databaseId == other.databaseId &&
+                mood == other.mood &&
+                timestamp == other.timestamp &&
+                equal(title, other.title) &&
+                equal(preview, other.preview);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = (int) (databaseId ^ (databaseId >>> 32));
+        hash = 31 * hash + (title != null ? title.hashCode() : 0);
+        hash = 31 * hash + (preview != null ? preview.hashCode() : 0);
+        hash = 31 * hash + mood;
+        hash = 31 * hash + (int) (timestamp ^ (timestamp >>> 32));
+        return hash;
+    }
+
+    /**
+     * Compares two strings that may be null
+     * @param a the first string
+     * @param b the second string
+     * @return true if both are null or equal
+     */
+    private static boolean equal(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,47 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+/**
+ * Version 4: stores entryDate as an INTEGER of milliseconds since the epoch instead of the
+ * local time Timestamp.toString() TEXT used by version 3, and indexes it.
+ */
+public class EpochTimestampMigration extends RebuildTableMigration {
+
+    public EpochTimestampMigration() {
+        super("entries");
+    }
+
+    @Override
+    public int getVersion() {
+        return 4;
+    }
+
+    @Override
+    protected String getCreateStatement() {
+        return "CREATE TABLE entries(" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT UNIQUE," +
+                "title TEXT NOT NULL," +
+                "content TEXT NOT NULL," +
+                "mood TEXT," +
+                "entryDate INTEGER NOT NULL)";
+    }
+
+    @Override
+    protected String getColumns() {
+        return "_id, title, content, mood, entryDate";
+    }
+
+    @Override
+    protected String getSelection() {
+        // the 'utc' modifier converts the stored local time to UTC before taking the julian day
+        return "_id, title, content, mood, " +
+                "COALESCE(CAST(ROUND((julianday(entryDate, 'utc') - 2440587.5) * 86400000) AS INTEGER), 0)";
+    }
+
+    @Override
+    protected void onCreateIndices(@NonNull SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX entries_entryDate_idx ON entries(entryDate DESC)");
+    }
+}
@@ -0,0 +1,55 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+
+/**
+ * Version 5: adds the entries_fts full-text index over the titles and content of all entries,
+ * kept in sync by triggers, and indexes the existing entries in batches.
+ */
+public class FullTextSearchMigration extends Migration {
+
+    @Override
+    public int getVersion() {
+        return 5;
+    }
+
+    @Override
+    public void onSchema(@NonNull SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE entries_fts USING fts4(content=\"entries\", title, content)");
+        db.execSQL("CREATE TRIGGER entries_fts_bu BEFORE UPDATE ON entries BEGIN " +
+                "DELETE FROM entries_fts WHERE docid=old._id; END");
+        db.execSQL("CREATE TRIGGER entries_fts_bd BEFORE DELETE ON entries BEGIN " +
+                "DELETE FROM entries_fts WHERE docid=old._id; END");
+        db.execSQL("CREATE TRIGGER entries_fts_au AFTER UPDATE ON entries BEGIN " +
+                "INSERT INTO entries_fts(docid, title, content) VALUES(new._id, new.title, new.content); END");
+        db.execSQL("CREATE TRIGGER entries_fts_ai AFTER INSERT ON entries BEGIN " +
+                "INSERT INTO entries_fts(docid, title, content) VALUES(new._id, new.title, new.content); END");
+    }
+
+    @Override
+    public long countRows(@NonNull SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, "entries");
+    }
+
+    @Override
+    public long nextBatchEnd(@NonNull SQLiteDatabase db, long afterKey, int batchSize) {
+        return batchEnd(db, "entries", "_id", afterKey, batchSize);
+    }
+
+    @Override
+    public int migrateRange(@NonNull SQLiteDatabase db, long afterKey, long lastKey) {
+        SQLiteStatement index = db.compileStatement(
+                "INSERT INTO entries_fts(docid, title, content) " +
+                "SELECT _id, title, content FROM entries WHERE _id > ? AND _id <= ?");
+        try {
+            index.bindLong(1, afterKey);
+            index.bindLong(2, lastKey);
+            return index.executeUpdateDelete();
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -1,19 +1,21 @@
 package online.madeofmagicandwires.journal;
 
 
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.IdRes;
 import android.support.annotation.NonNull;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.widget.Toolbar;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.EditText;
 import android.widget.RadioGroup;
 import android.widget.Toast;
 
-import java.sql.Timestamp;
-
 import static online.madeofmagicandwires.journal.JournalEntry.MISSING_CONTENT;
 import static online.madeofmagicandwires.journal.JournalEntry.MISSING_MOOD;
 import static online.madeofmagicandwires.journal.JournalEntry.MISSING_NOTHING;
@@ -23,6 +25,12 @@ import static online.madeofmagicandwires.journal.JournalEntry.MISSING_TITLE;
 public class InputActivity extends JournalActivity {
 
     private MoodRadioButtonListener moodRadioButtonListenerInstance;
+    /** keeps the entry being edited as a draft, written to disk as it is edited **/
+    private DraftStore drafts;
+    /** the id of the draft of the entry being edited, or -1 until it is known **/
+    private long draftId = -1;
+    /** true while the views are being filled from the entry, so that isn't taken for an edit **/
+    private boolean updatingViews = false;
 
     private class MoodRadioButtonListener implements RadioGroup.OnCheckedChangeListener {
 
@@ -35,10 +43,30 @@ public class InputActivity extends JournalActivity {
          */
         @Override
         public void onCheckedChanged(RadioGroup group, int checkedId) {
-            @JournalEntry.Mood String selectedMood = ((MoodRadioButton) findViewById(checkedId)).getMood();
-            if(!selectedMood.equals(entry.getMood())) {
-                entry.setMood(selectedMood);
+            if(entry == null || checkedId == -1) {
+                return;
             }
+            entry.setMood(((MoodRadioButton) findViewById(checkedId)).getMood());
+            onDraftEdited();
+        }
+    }
+
+    /**
+     * Listener storing the draft whenever the title or content is edited
+     */
+    private class DraftWatcher implements TextWatcher {
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            onDraftEdited();
         }
     }
 
@@ -57,10 +85,17 @@ public class InputActivity extends JournalActivity {
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
         getSupportActionBar().setHomeButtonEnabled(true);
-
-        if(entry == null) {
-            retrieveJournalEntry(getIntent());
-            retrieveJournalEntry(savedInstanceState);
+        DraftWatcher draftWatcher = new DraftWatcher();
+        ((EditText) findViewById(R.id.input_entry_title)).addTextChangedListener(draftWatcher);
+        ((EditText) findViewById(R.id.input_entry_content)).addTextChangedListener(draftWatcher);
+
+        // restore the draft this activity was editing before it was recreated, or the draft left
+        // unsaved the last time this entry was edited, or load the entry to edit, or start a new one
+        drafts = DraftStore.getInstance(this);
+        if(savedInstanceState != null && savedInstanceState.containsKey(DRAFT_ID_BUNDLE_KEY)) {
+            restoreDraft(savedInstanceState.getLong(DRAFT_ID_BUNDLE_KEY));
+        } else {
+            restoreLatestDraft(retrieveEntryId(getIntent()));
         }
 
         // update with data from retrieved journal entry or database
@@ -68,6 +103,83 @@ public class InputActivity extends JournalActivity {
 
     }
 
+    /**
+     * Loads the draft this activity was editing before it was recreated
+     * @param id the id of the draft
+     */
+    private void restoreDraft(long id) {
+        draftId = id;
+        drafts.load(id, new EntryRepository.Callback<DraftStore.Draft>() {
+            @Override
+            public void onResult(DraftStore.Draft draft) {
+                if(isDestroyed()) {
+                    return;
+                }
+                if(draft != null) {
+                    entry = draft.entry;
+                    updateState();
+                } else {
+                    // nothing was edited before the activity was recreated
+                    startEditing(retrieveEntryId(getIntent()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the draft left unsaved the last time an entry was edited, or the entry itself if there is none
+     * @param entryId the database id of the entry, or -1 for a new entry
+     */
+    private void restoreLatestDraft(final long entryId) {
+        drafts.findLatest(entryId, new EntryRepository.Callback<DraftStore.Draft>() {
+            @Override
+            public void onResult(DraftStore.Draft draft) {
+                if(isDestroyed()) {
+                    return;
+                }
+                if(draft != null) {
+                    draftId = draft.id;
+                    entry = draft.entry;
+                    updateState();
+                    Toast.makeText(InputActivity.this, R.string.draft_restored, Toast.LENGTH_SHORT).show();
+                } else {
+                    draftId = drafts.newDraftId();
+                    startEditing(entryId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the entry to edit, or starts a new one
+     * @param entryId the database id of the entry, or -1 for a new entry
+     */
+    private void startEditing(long entryId) {
+        if(entryId != -1) {
+            loadEntry(entryId);
+        } else {
+            entry = new JournalEntry("", "", JournalEntry.MOOD_UNKNOWN);
+            updateState();
+        }
+    }
+
+    /**
+     * Stores the entry as a draft after it has been edited; the draft is written in the background.
+     * A new entry that has been emptied again is no longer kept as a draft.
+     */
+    private void onDraftEdited() {
+        if(updatingViews || entry == null || draftId == -1) {
+            return;
+        }
+        updateEntry();
+        if(!entry.hasDatabaseId() && entry.getTitle().isEmpty() && entry.getContent().isEmpty() &&
+                !MoodRegistry.isKnown(entry.getMood())) {
+            drafts.delete(draftId);
+        } else {
+            drafts.save(draftId, entry);
+        }
+    }
+
 
     /**
      * Updates views with entry data if available.
@@ -75,32 +187,24 @@ public class InputActivity extends JournalActivity {
      */
     @Override
     public void updateState() {
+        if(entry == null) {
+            // still being loaded
+            return;
+        }
         EditText title = findViewById(R.id.input_entry_title);
         EditText content = findViewById(R.id.input_entry_content);
         RadioGroup mood  = findViewById(R.id.input_entry_mood);
 
+        updatingViews = true;
         title.setText(entry.getTitle());
         content.setText(entry.getContent());
 
         moodRadioButtonListenerInstance = new MoodRadioButtonListener();
         mood.setOnCheckedChangeListener(moodRadioButtonListenerInstance);
 
-        switch (entry.getMood()) {
-            case JournalEntry.MOOD_ANGRY:
-                mood.check(R.id.input_entry_mood_angry);
-                break;
-            case JournalEntry.MOOD_BORED:
-                mood.check(R.id.input_entry_mood_bored);
-                break;
-            case JournalEntry.MOOD_HAPPY:
-                mood.check(R.id.input_entry_mood_happy);
-                break;
-            case JournalEntry.MOOD_SAD:
-                mood.check(R.id.input_entry_mood_sad);
-                break;
-            case JournalEntry.MOOD_UNKNOWN:
-                break;
-        }
+        // -1 for an unknown mood clears the selection
+        mood.check(MoodRegistry.getButtonId(entry.getMood()));
+        updatingViews = false;
 
 
     }
@@ -133,6 +237,9 @@ public class InputActivity extends JournalActivity {
                     returnJournalEntry(entry);
                 }
                 return true;
+            case R.id.input_action_discard:
+                confirmDiscard();
+                return true;
             default:
                 return super.onOptionsItemSelected(selectedItem);
 
@@ -141,15 +248,33 @@ public class InputActivity extends JournalActivity {
     }
 
     /**
-     * returns an entry back to the previous activity
-     * @param entry journal entry to send to a different activity
+     * Asks whether to throw away the draft, and if so deletes it and leaves the screen without
+     * saving; otherwise a draft is kept and restored the next time the entry is edited
+     */
+    private void confirmDiscard() {
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.discard_draft_question)
+                .setPositiveButton(R.string.action_discard_draft, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if(draftId != -1) {
+                            drafts.delete(draftId);
+                        }
+                        setResult(RESULT_CANCELED);
+                        finish();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Saves an entry and returns its id back to the previous activity once it has been saved
+     * @param entry journal entry to save
      */
     public void returnJournalEntry(@NonNull JournalEntry entry) {
-        Intent i = getIntent();
         if(!entry.isEmpty()) {
-            i.putExtra(JOURNAL_ENTRY_BUNDLE_KEY, entry);
-            setResult(RESULT_OK, i);
-            finish();
+            saveEntry(entry);
         } else {
             @JournalEntry.Missing int whatIsMissing = entry.getMissingDataType();
             String missingAlertText = "";
@@ -173,6 +298,19 @@ public class InputActivity extends JournalActivity {
 
     }
 
+    /**
+     * Returns the id of the saved entry back to the previous activity
+     * @param id the database id of the saved entry
+     */
+    @Override
+    protected void onEntrySaved(long id) {
+        drafts.delete(draftId);
+        Intent i = getIntent();
+        i.putExtra(ENTRY_ID_KEY, id);
+        setResult(RESULT_OK, i);
+        finish();
+    }
+
     /**
      * Updates entry data based on user inputted data
      * @return updates journalentry
@@ -183,16 +321,30 @@ public class InputActivity extends JournalActivity {
 
         entry.setTitle(title.getText().toString());
         entry.setContent(content.getText().toString());
-        entry.setTimestamp(new Timestamp(System.currentTimeMillis()));
+        entry.setTimestamp(System.currentTimeMillis());
         // mood is set on check
 
     }
 
+    /**
+     * Writes the pending edits of the draft once the user leaves the screen
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        drafts.flush();
+    }
+
+    /**
+     * Keeps the id of the draft being edited; the draft itself is in the {@link DraftStore},
+     * so the Bundle stays small however long the entry is
+     * @param outState bundle to store data in to be reused next time this activity is drawn
+     */
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        if(entry != null) {
-            outState.putSerializable(JOURNAL_ENTRY_BUNDLE_KEY, entry);
+        if(draftId != -1) {
+            outState.putLong(DRAFT_ID_BUNDLE_KEY, draftId);
         }
     }
 }
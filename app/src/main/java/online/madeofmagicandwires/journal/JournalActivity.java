@@ -1,14 +1,15 @@
 package online.madeofmagicandwires.journal;
 
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.design.widget.Snackbar;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.View;
-import android.widget.AdapterView;
 import android.widget.Toast;
 
 
@@ -39,49 +40,35 @@ abstract public class JournalActivity extends AppCompatActivity {
     }
 
     /**
-     * Listener class to be used by the CursorAdapter; Shows the details of or deletes the selected entry.
+     * Listener class to be used by the entries list; Shows the details of or deletes the selected entry.
      */
-    public class CursorAdapterListener implements AdapterView.OnItemClickListener, AdapterView.OnItemLongClickListener {
+    public class EntryListListener implements EntryAdapter.OnEntryClickListener {
 
 
         /**
          * Opens DetailActivity to show the details of the selected entry
          *
-         * @param parent   The AdapterView where the click happened.
-         * @param view     The view within the AdapterView that was clicked (this
-         *                 will be a view provided by the adapter)
-         * @param position The position of the view in the adapter.
-         * @param id       The row id of the item that was clicked.
+         * @param view The row that was clicked
+         * @param id   The database id of the entry shown by the row
          */
         @Override
-        public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-            Log.d("item type", parent.getItemAtPosition(position).toString());
-            if(db != null) {
-                JournalEntry entry =  db.getEntry(id);
-                if(entry != null) {
-                    if(view.getContext() instanceof JournalActivity) {
-                        showEntry((JournalActivity) view.getContext(), entry);
-                    }
-
-                }
+        public void onEntryClick(@NonNull View view, long id) {
+            if(view.getContext() instanceof JournalActivity) {
+                showEntry((JournalActivity) view.getContext(), id);
             }
         }
 
         /**
          * Deletes the selected Journal Entry from the SQLiteDatabase
          *
-         * @param parent   The AbsListView where the click happened
-         * @param view     The view within the AbsListView that was clicked
-         * @param position The position of the view in the list
-         * @param id       The row id of the item that was clicked
+         * @param view The row that was clicked
+         * @param id   The database id of the entry shown by the row
          * @return true if the callback consumed the long click, false otherwise
          */
         @Override
-        public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
-            // TODO: implement this
-            db.delete(id);
-            updateState();
-            return false;
+        public boolean onEntryLongClick(@NonNull View view, long id) {
+            deleteEntries(view, new long[]{id});
+            return true;
         }
     }
 
@@ -104,53 +91,82 @@ abstract public class JournalActivity extends AppCompatActivity {
 
 
 
-    /** the standard key under which to put or retrieve a Journal Entry to or from a Bundle **/
-    public static final String JOURNAL_ENTRY_BUNDLE_KEY = "JournalEntry";
+    /** the key under which the id of an unsaved draft in the {@link DraftStore} is kept in a Bundle **/
+    public static final String DRAFT_ID_BUNDLE_KEY = "DraftId";
+    /** the key under which to pass the database id of a Journal Entry between activities **/
+    public static final String ENTRY_ID_KEY = "EntryId";
     public static final int REQUEST_EDIT_ENTRY = 1;
 
 
     public JournalEntry entry = null;
-    public static EntryDatabase db = null;
+    /** asynchronous access to the journal entries database **/
+    protected EntryRepository repository = null;
 
 
     /**
-     * Retrieves a journal entry from savedInstanceState or Intent if available
+     * Retrieves the EntryRepository shared by all JournalActivities
      * @param savedInstanceState saved data from a suspended state
-     *
      */
-    public void retrieveJournalEntry(Bundle savedInstanceState) {
-        if (savedInstanceState != null && savedInstanceState.containsKey(JOURNAL_ENTRY_BUNDLE_KEY)) {
-            entry = (JournalEntry) savedInstanceState.getSerializable(JOURNAL_ENTRY_BUNDLE_KEY);
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        repository = EntryRepository.getInstance(this);
+    }
+
+    /**
+     * Retrieves the database id of a journal entry from savedInstanceState if available
+     * @param savedInstanceState saved data from a suspended state
+     * @return the database id of the entry, or -1 if there is none
+     */
+    public static long retrieveEntryId(@Nullable Bundle savedInstanceState) {
+        if(savedInstanceState != null) {
+            return savedInstanceState.getLong(ENTRY_ID_KEY, -1);
         }
+        return -1;
     }
 
     /**
-     * Retrieves a journal entry from intent
-     * @param i the intent to retrieve journal entry from
+     * Retrieves the database id of a journal entry from an intent
+     * @param i the intent to retrieve the database id from
+     * @return the database id of the entry, or -1 if there is none
      */
-    public void retrieveJournalEntry(Intent i) {
-        if(i.hasExtra(JOURNAL_ENTRY_BUNDLE_KEY)) {
-            entry = (JournalEntry) i.getSerializableExtra(JOURNAL_ENTRY_BUNDLE_KEY);
+    public static long retrieveEntryId(@Nullable Intent i) {
+        if(i != null) {
+            return i.getLongExtra(ENTRY_ID_KEY, -1);
         }
+        return -1;
+    }
 
+    /**
+     * Loads a journal entry from the database in the background, and updates the views once it has been loaded
+     * @param id the database id of the entry to load
+     */
+    public void loadEntry(long id) {
+        repository.getEntry(id, new EntryRepository.Callback<JournalEntry>() {
+            @Override
+            public void onResult(JournalEntry result) {
+                if(result != null && !isDestroyed()) {
+                    entry = result;
+                    updateState();
+                }
+            }
+        });
     }
 
     /**
-     * Retrieves a journal entry from the result returned by a previous activity
+     * Reloads the shown entry if it was edited in a previous activity; the rest of the views are
+     * updated by {@link #onResume()}, which always follows
      * @param requestCode the code of the type of request
      * @param resultCode the code of the result
-     * @param data  the data of the result
+     * @param data  the data of the result, containing the id of the saved entry
      */
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
-        if(requestCode == REQUEST_EDIT_ENTRY) {
-            if(resultCode == RESULT_OK) {
-                retrieveJournalEntry(data);
-                saveEntry(entry);
+        if(requestCode == REQUEST_EDIT_ENTRY && resultCode == RESULT_OK && entry != null) {
+            long id = retrieveEntryId(data);
+            if(id != -1) {
+                loadEntry(id);
             }
-            updateState();
-        } else {
-            updateState();
         }
 
         super.onActivityResult(requestCode, resultCode, data);
@@ -173,6 +189,54 @@ abstract public class JournalActivity extends AppCompatActivity {
      */
     abstract public void updateState();
 
+    /**
+     * Deletes a set of entries in a single transaction and offers to undo it until their undo window has passed.
+     * Unsaved drafts of the entries are dropped along with them, and aren't brought back by undoing.
+     * @param view the view the entries are shown in, which the undo bar is shown at
+     * @param ids the database ids of the entries
+     */
+    protected void deleteEntries(@NonNull final View view, @NonNull final long[] ids) {
+        repository.delete(ids, new EntryRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer result) {
+                if(result == null || result == 0) {
+                    return;
+                }
+                DraftStore.getInstance(getApplicationContext()).deleteDraftsOf(ids);
+                if(isDestroyed()) {
+                    return;
+                }
+                updateState();
+                // the row may already be gone from the list, in which case its view is detached
+                View anchor = view.isAttachedToWindow() ? view : findViewById(android.R.id.content);
+                Snackbar.make(anchor, getResources().getQuantityString(R.plurals.entries_deleted, result, result),
+                        Snackbar.LENGTH_LONG)
+                        .setAction(R.string.action_undo, new View.OnClickListener() {
+                            @Override
+                            public void onClick(View v) {
+                                restoreEntries(ids);
+                            }
+                        })
+                        .show();
+            }
+        });
+    }
+
+    /**
+     * Brings back the entries deleted by {@link #deleteEntries(View, long[])}
+     * @param ids the database ids of the entries
+     */
+    protected void restoreEntries(@NonNull long[] ids) {
+        repository.restore(ids, new EntryRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer result) {
+                if(result != null && result > 0 && !isDestroyed()) {
+                    updateState();
+                }
+            }
+        });
+    }
+
 
     /**
      * Opens InputActivity to create and a fresh Journal entry to be edited by the user
@@ -182,7 +246,7 @@ abstract public class JournalActivity extends AppCompatActivity {
      */
     public void createEntry(View v) {
         if(v.getContext() instanceof JournalActivity) {
-            editEntry((JournalActivity) v.getContext(), new JournalEntry("", "", JournalEntry.MOOD_UNKNOWN));
+            editEntry((JournalActivity) v.getContext(), -1);
         }
 
     }
@@ -191,19 +255,27 @@ abstract public class JournalActivity extends AppCompatActivity {
      * Starts the InputActivity to create or open a Journal entry to be edited by the user
      *
      * @param activity the Activity from which to start InputActivity
-     * @param entry   a possible entry to pass along to InputActivity, will be ignored if null
+     * @param id   the database id of the entry to edit, or -1 to create a new entry
      * @see InputActivity
      */
-    public void editEntry(@NonNull JournalActivity activity, @Nullable JournalEntry entry) {
-        Intent intent = new Intent(activity, InputActivity.class);
-        // intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP); // always return to launcher activity;
-        if(entry != null) {
-            intent.putExtra(JOURNAL_ENTRY_BUNDLE_KEY, entry);
+    public void editEntry(@NonNull JournalActivity activity, long id) {
+        activity.startActivityForResult(newInputIntent(activity, id), REQUEST_EDIT_ENTRY);
+    }
 
+    /**
+     * Creates the intent starting InputActivity; only the id of the entry is passed along,
+     * InputActivity loads the entry itself
+     * @param context the context to start InputActivity from
+     * @param id the database id of the entry to edit, or -1 to create a new entry
+     * @return an intent starting InputActivity
+     */
+    public static Intent newInputIntent(@NonNull Context context, long id) {
+        Intent intent = new Intent(context, InputActivity.class);
+        // intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP); // always return to launcher activity;
+        if(id != -1) {
+            intent.putExtra(ENTRY_ID_KEY, id);
         }
-
-        activity.startActivityForResult(intent, REQUEST_EDIT_ENTRY);
-
+        return intent;
     }
 
     /**
@@ -211,51 +283,78 @@ abstract public class JournalActivity extends AppCompatActivity {
      * @param entry Journal Entry to be inserted or updated in the database
      */
     public void saveEntry(JournalEntry entry) {
-        long result = -1;
         if(entry != null && !entry.isEmpty()) {
-            EntryDatabase db = EntryDatabase.getInstance(this);
-
-
             // entry is not in database already, insert
-            Log.d("entry has databaseId", String.valueOf(entry.hasDatabaseId()));
-            Log.d("entry database id ", String.valueOf(entry.getDatabaseId()));
-            Log.d("entry data", entry.toString());
-            result = db.insert(entry);
+            if(BuildConfig.DEBUG) {
+                // the id only; the title and content of an entry don't belong in the log
+                Log.d("JournalActivity", "saving entry " + entry.getDatabaseId());
+            }
+            repository.insert(entry, new EntryRepository.Callback<Long>() {
+                @Override
+                public void onResult(Long result) {
+                    if(result <= -1) {
+                        showSaveError();
+                    } else {
+                        onEntrySaved(result);
+                    }
+                }
+            });
+        } else {
+            showSaveError();
         }
 
-        if(result <= -1) {
-            Toast ts = Toast.makeText(
-                    this,
-                    "Something went wrong and the entry was not saved",
-                    Toast.LENGTH_LONG);
-            ts.show();
-        }
+    }
+
+    /**
+     * Called when an entry was saved by {@link #saveEntry(JournalEntry)}
+     * @param id the database id of the saved entry
+     */
+    protected void onEntrySaved(long id) {
+    }
 
+    /**
+     * Notifies the user an entry could not be saved
+     */
+    private void showSaveError() {
+        Toast ts = Toast.makeText(
+                this,
+                "Something went wrong and the entry was not saved",
+                Toast.LENGTH_LONG);
+        ts.show();
     }
 
     /**
      * Shows an entries details in DetailActivity
      * @param activity the activity to start DetailActivity from (will in practice always be MainActivity)
-     * @param entry the JournalEntry object to show
+     * @param id the database id of the entry to show
      */
-    public void showEntry(@NonNull JournalActivity activity, @NonNull JournalEntry entry) {
-        Intent intent = new Intent(activity, DetailActivity.class);
-        intent.putExtra(JOURNAL_ENTRY_BUNDLE_KEY, entry);
-
-        activity.startActivity(intent);
+    public void showEntry(@NonNull JournalActivity activity, long id) {
+        activity.startActivity(newDetailIntent(activity, id));
+    }
 
+    /**
+     * Creates the intent starting DetailActivity; only the id of the entry is passed along,
+     * DetailActivity loads the entry itself
+     * @param context the context to start DetailActivity from
+     * @param id the database id of the entry to show
+     * @return an intent starting DetailActivity
+     */
+    public static Intent newDetailIntent(@NonNull Context context, long id) {
+        Intent intent = new Intent(context, DetailActivity.class);
+        intent.putExtra(ENTRY_ID_KEY, id);
+        return intent;
     }
 
 
     /**
-     * Custom onSaveState that saves a journalentry to be retrieved on create
+     * Custom onSaveState that saves the id of the journal entry to be retrieved on create
      * @param outState bundle to store data in to be reused next time this activity is drawn
      */
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        if(entry != null) {
-            outState.putSerializable(JOURNAL_ENTRY_BUNDLE_KEY, entry);
+        if(entry != null && entry.hasDatabaseId()) {
+            outState.putLong(ENTRY_ID_KEY, entry.getDatabaseId());
         }
     }
 }
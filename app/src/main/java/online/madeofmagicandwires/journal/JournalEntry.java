@@ -1,29 +1,30 @@
 package online.madeofmagicandwires.journal;
 
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.annotation.StringDef;
 
-import java.io.Serializable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.sql.Timestamp;
 import java.util.Date;
 
 /**
  * Class representing the data model of a journal entry
  *
+ * Activities pass each other the database id of an entry rather than the entry itself;
+ * entries are only parcelled to keep an unsaved draft across configuration changes.
  */
-public class JournalEntry implements Serializable {
+public class JournalEntry implements Parcelable {
 
-    /* possible values for the Mood enumerated annotation **/
-    // TODO: allow localization
-    public static final String MOOD_ANGRY = "Angry";
-    public static final String MOOD_BORED = "Bored";
-    public static final String MOOD_HAPPY = "Happy";
-    public static final String MOOD_SAD   = "Sad";
-    public static final String MOOD_UNKNOWN = "Unknown";
+    /* possible values for the Mood enumerated annotation; stored as is in the database, and equal to
+       the moodValue attribute of MoodRadioButton. See MoodRegistry for their names and resources **/
+    public static final int MOOD_ANGRY = 0;
+    public static final int MOOD_BORED = 1;
+    public static final int MOOD_HAPPY = 2;
+    public static final int MOOD_SAD   = 3;
+    public static final int MOOD_UNKNOWN = -1;
 
     /** possible values representing which data is missing from entry **/
     public static final int MISSING_NOTHING = 0;
@@ -46,8 +47,9 @@ public class JournalEntry implements Serializable {
 
 
 
-    /* Defining a String enumerated annotation */
-    @StringDef({MOOD_ANGRY, MOOD_BORED, MOOD_HAPPY, MOOD_SAD, MOOD_UNKNOWN})
+    /* Defining an integer enumerated annotation */
+    @IntDef({MOOD_ANGRY, MOOD_BORED, MOOD_HAPPY, MOOD_SAD, MOOD_UNKNOWN})
+    @Retention(RetentionPolicy.SOURCE)
 
     /**
      * "Enum-like" representation of a mood.
@@ -67,8 +69,9 @@ public class JournalEntry implements Serializable {
     /** represents the text of the journal entry **/
     private String content;
     /** Represents the mood associated with the journal entry **/
-    private @Mood String mood;
-    private Timestamp timestamp;
+    private @Mood int mood;
+    /** represents the time of creation of the journal entry, in milliseconds since the epoch **/
+    private long timestamp;
 
 
     /**
@@ -77,10 +80,10 @@ public class JournalEntry implements Serializable {
      * @param title the title of this entry
      * @param content the body of this entry
      * @param mood the mood associated with this entry
-     * @param timestamp the timestamp of creation of this entry
+     * @param timestamp the timestamp of creation of this entry, in milliseconds since the epoch
      * @param databaseId  the database databaseId of this entry
      */
-    public JournalEntry(String title, String content, @Mood String mood, Timestamp timestamp, long databaseId) {
+    public JournalEntry(String title, String content, @Mood int mood, long timestamp, long databaseId) {
         this.title = title;
         this.content = content;
         this.mood = mood;
@@ -93,9 +96,9 @@ public class JournalEntry implements Serializable {
      * @param title the title of this entry
      * @param content the body of this entry
      * @param mood the mood associated with this entry
-     * @param timestamp the timestamp of creation of this entry
+     * @param timestamp the timestamp of creation of this entry, in milliseconds since the epoch
      */
-    public JournalEntry(String title, String content, @Mood String mood, Timestamp timestamp) {
+    public JournalEntry(String title, String content, @Mood int mood, long timestamp) {
         this(title, content, mood, timestamp, -1);
     }
 
@@ -108,8 +111,60 @@ public class JournalEntry implements Serializable {
      * @param content the body of this entry
      * @param mood the mood associated with this entry
      */
-    public JournalEntry(String title, String content, @Mood String mood) {
-        this(title, content, mood, new Timestamp(new Date().getTime()), -1);
+    public JournalEntry(String title, String content, @Mood int mood) {
+        this(title, content, mood, System.currentTimeMillis(), -1);
+    }
+
+    /**
+     * Copy constructor
+     * @param other the entry to copy
+     */
+    public JournalEntry(@NonNull JournalEntry other) {
+        this(other.title, other.content, other.mood, other.timestamp, other.databaseId);
+    }
+
+    /**
+     * Constructor reading an entry written by {@link #writeToParcel(Parcel, int)}
+     * @param in the parcel to read the entry from
+     */
+    protected JournalEntry(Parcel in) {
+        this.databaseId = in.readLong();
+        this.timestamp = in.readLong();
+        this.title = in.readString();
+        this.content = in.readString();
+        this.mood = in.readInt();
+    }
+
+    /** creates JournalEntries from a Parcel **/
+    public static final Creator<JournalEntry> CREATOR = new Creator<JournalEntry>() {
+        @Override
+        public JournalEntry createFromParcel(Parcel in) {
+            return new JournalEntry(in);
+        }
+
+        @Override
+        public JournalEntry[] newArray(int size) {
+            return new JournalEntry[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Writes this entry to a Parcel, field by field
+     * @param dest the parcel to write the entry to
+     * @param flags additional flags about how the entry should be written
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(databaseId);
+        dest.writeLong(timestamp);
+        dest.writeString(title);
+        dest.writeString(content);
+        dest.writeInt(mood);
     }
 
     /**
@@ -132,15 +187,15 @@ public class JournalEntry implements Serializable {
      * Returns the mood associated with this entry
      * @return a Mood value representing the mood of this entry
      */
-    public @Mood String getMood() {
+    public @Mood int getMood() {
         return this.mood;
     }
 
     /**
      * Returns the timestamp of this entry
-     * @return the timestamp of the entry's creation
+     * @return the timestamp of the entry's creation, in milliseconds since the epoch
      */
-    public Timestamp getTimestamp() {
+    public long getTimestamp() {
         return this.timestamp;
     }
 
@@ -172,15 +227,15 @@ public class JournalEntry implements Serializable {
      * UpTimestamps the mood associated with this entry
      * @param mood the new mood to replace the current one
      */
-    public void setMood(@Mood String mood) {
+    public void setMood(@Mood int mood) {
         this.mood = mood;
     }
 
     /**
      * UpTimestamps the creation timestamp of this entry
-     * @param timestamp the new timestamp to replace the old one
+     * @param timestamp the new timestamp to replace the old one, in milliseconds since the epoch
      */
-    public void setTimestamp(Timestamp timestamp) {
+    public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
 
@@ -200,7 +255,7 @@ public class JournalEntry implements Serializable {
      * @return a Human readable summary of this JournalEntry instance.
      */
     public String toString() {
-        return getTimestamp().toString() + " | " +  getTitle() + ": " + getContent();
+        return new Date(getTimestamp()).toString() + " | " +  getTitle() + ": " + getContent();
     }
 
     public @Missing int getMissingDataType() {
@@ -208,7 +263,7 @@ public class JournalEntry implements Serializable {
             return MISSING_TITLE;
         } else if (content.isEmpty()) {
             return MISSING_CONTENT;
-        } else if (mood.isEmpty() || mood.equals(MOOD_UNKNOWN)) {
+        } else if (!MoodRegistry.isKnown(mood)) {
             return MISSING_MOOD;
         } else {
             return MISSING_NOTHING;
@@ -221,7 +276,7 @@ public class JournalEntry implements Serializable {
      * @return true if this entry lacks a title or content, or if the set mood is unknown
      */
     public boolean isEmpty() {
-        return (title.isEmpty() || content.isEmpty() || mood.isEmpty() || mood.equals(MOOD_UNKNOWN));
+        return (title.isEmpty() || content.isEmpty() || !MoodRegistry.isKnown(mood));
 
     }
 }
@@ -0,0 +1,92 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+
+import java.util.TimeZone;
+
+/**
+ * Version 12: stores the local date every entry was written on, and counts the mood_stats summary
+ * table by it instead of by the UTC day, so the statistics agree with the calendar.
+ *
+ * The time zone entries were saved in before wasn't kept, so existing entries and tombstones get
+ * their date in the current time zone. The summary table is emptied and every entry is counted in
+ * again by the update trigger as its date is filled in.
+ */
+public class LocalDayMigration extends Migration {
+
+    @Override
+    public int getVersion() {
+        return 12;
+    }
+
+    @Override
+    public void onSchema(@NonNull SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE entries ADD COLUMN localDay INTEGER");
+        db.execSQL("ALTER TABLE deleted_entries ADD COLUMN localDay INTEGER");
+        db.execSQL("DROP TRIGGER mood_stats_ai");
+        db.execSQL("DROP TRIGGER mood_stats_ad");
+        db.execSQL("DROP TRIGGER mood_stats_au");
+        db.execSQL("DELETE FROM mood_stats");
+        // rows without a date yet, as all are until migrated, aren't counted in or out
+        String countIn = "INSERT OR IGNORE INTO mood_stats VALUES(new.localDay, new.mood, 0); " +
+                "UPDATE mood_stats SET count = count + 1 WHERE day = new.localDay AND mood = new.mood; ";
+        String countOut = "UPDATE mood_stats SET count = count - 1 WHERE day = old.localDay AND mood = old.mood; " +
+                "DELETE FROM mood_stats WHERE day = old.localDay AND mood = old.mood AND count <= 0; ";
+        db.execSQL("CREATE TRIGGER mood_stats_ai AFTER INSERT ON entries BEGIN " + countIn + "END");
+        db.execSQL("CREATE TRIGGER mood_stats_ad AFTER DELETE ON entries BEGIN " + countOut + "END");
+        db.execSQL("CREATE TRIGGER mood_stats_au AFTER UPDATE OF mood, localDay ON entries BEGIN " +
+                countOut + countIn + "END");
+    }
+
+    @Override
+    public long countRows(@NonNull SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, "entries");
+    }
+
+    @Override
+    public long nextBatchEnd(@NonNull SQLiteDatabase db, long afterKey, int batchSize) {
+        return batchEnd(db, "entries", "_id", afterKey, batchSize);
+    }
+
+    @Override
+    public int migrateRange(@NonNull SQLiteDatabase db, long afterKey, long lastKey) {
+        return fillIn(db, "entries", "_id > ? AND _id <= ?",
+                new String[]{String.valueOf(afterKey), String.valueOf(lastKey)});
+    }
+
+    @Override
+    public void onComplete(@NonNull SQLiteDatabase db) {
+        // only kept for the undo window, so there are few enough to do at once
+        fillIn(db, "deleted_entries", null, null);
+    }
+
+    /**
+     * Stores the local date of the rows of a table, found in the current time zone
+     * @param db the database to migrate
+     * @param table the table to update
+     * @param selection the rows to update, or null for all of them
+     * @param selectionArgs the arguments of the selection
+     * @return the number of updated rows
+     */
+    private static int fillIn(SQLiteDatabase db, String table, String selection, String[] selectionArgs) {
+        TimeZone zone = TimeZone.getDefault();
+        SQLiteStatement update = db.compileStatement("UPDATE " + table + " SET localDay = ? WHERE _id = ?");
+        Cursor c = db.query(table, new String[]{"_id", "entryDate"}, selection, selectionArgs, null, null, null);
+        int migrated = 0;
+        try {
+            while(c.moveToNext()) {
+                update.bindLong(1, MoodStatistics.localDayOf(c.getLong(1), zone));
+                update.bindLong(2, c.getLong(0));
+                migrated += update.executeUpdateDelete();
+            }
+        } finally {
+            c.close();
+            update.close();
+        }
+        return migrated;
+    }
+}
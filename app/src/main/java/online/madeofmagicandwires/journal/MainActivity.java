@@ -1,20 +1,199 @@
 package online.madeofmagicandwires.journal;
 
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
 import android.database.DatabaseUtils;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.StringRes;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.widget.SwipeRefreshLayout;
+import android.support.v7.app.AlertDialog;
+import android.support.v7.view.ActionMode;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
-import android.widget.ListView;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.FileNotFoundException;
+import java.util.List;
 
 public class MainActivity extends JournalActivity {
 
-    private static EntryAdapter adapter = null;
-    private static JournalActivity.CursorAdapterListener listener = null;
+    private EntryAdapter adapter = null;
+    private JournalActivity.EntryListListener listener = null;
+    /** loads the entries into the adapter page by page **/
+    private EntryPager pager = null;
+
+    /** request codes of the documents picked to export to or import from **/
+    private static final int REQUEST_EXPORT_JSON_LINES = 2;
+    private static final int REQUEST_EXPORT_CSV = 3;
+    private static final int REQUEST_IMPORT = 4;
+    private static final int REQUEST_EXPORT_SELECTED_JSON_LINES = 5;
+    private static final int REQUEST_EXPORT_SELECTED_CSV = 6;
+    /** MIME types of the export formats **/
+    private static final String MIME_TYPE_JSON_LINES = "application/x-ndjson";
+    private static final String MIME_TYPE_CSV = "text/csv";
+
+    /** maximum number of search results shown **/
+    private static final int SEARCH_LIMIT = 100;
+    /** the text currently searched for, or null if all entries are shown **/
+    private String searchQuery = null;
+    /** the data version the current search was run at **/
+    private long searchVersion = -1;
+
+    /** keys of the selection and the selected entries waiting for an export document to be picked **/
+    private static final String STATE_SELECTED_IDS = "selectedIds";
+    private static final String STATE_EXPORT_IDS = "exportIds";
+    /** the action mode shown while entries are selected, or null if none are **/
+    private ActionMode selectionMode = null;
+    /** the selected entries to export once the user has picked a document, or null if none are waiting **/
+    private long[] exportIds = null;
+
+    /** signal cancelling the running export or import, or null if none is running **/
+    private CancellationSignal transferSignal = null;
+    /** dialog showing the progress of the running export or import **/
+    private AlertDialog transferDialog = null;
+
+    /**
+     * Listener selecting entries on a long click and, while any are selected, on a click,
+     * and opening or deleting them as usual otherwise
+     */
+    private class SelectionListener extends JournalActivity.EntryListListener {
+
+        @Override
+        public void onEntryClick(@NonNull View view, long id) {
+            if(selectionMode != null) {
+                toggleSelected(id);
+            } else {
+                super.onEntryClick(view, id);
+            }
+        }
+
+        @Override
+        public boolean onEntryLongClick(@NonNull View view, long id) {
+            RecyclerView list = findViewById(R.id.entriesList);
+            if(list.getAdapter() != adapter) {
+                // search results can't be selected
+                return super.onEntryLongClick(view, id);
+            }
+            toggleSelected(id);
+            return true;
+        }
+    }
+
+    /**
+     * Shows the actions on the selected entries in place of the toolbar, and deselects them once closed
+     */
+    private class SelectionModeCallback implements ActionMode.Callback {
+
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            long[] ids = adapter.getSelectedIds();
+            switch (item.getItemId()) {
+                case R.id.action_delete_selected:
+                    deleteEntries(findViewById(R.id.entriesList), ids);
+                    mode.finish();
+                    return true;
+                case R.id.action_change_mood:
+                    pickMood(ids);
+                    return true;
+                case R.id.action_export_selected_json_lines:
+                    exportIds = ids;
+                    pickExportDocument(MIME_TYPE_JSON_LINES, "journal-selection.jsonl",
+                            REQUEST_EXPORT_SELECTED_JSON_LINES);
+                    mode.finish();
+                    return true;
+                case R.id.action_export_selected_csv:
+                    exportIds = ids;
+                    pickExportDocument(MIME_TYPE_CSV, "journal-selection.csv", REQUEST_EXPORT_SELECTED_CSV);
+                    mode.finish();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            selectionMode = null;
+            adapter.clearSelection();
+        }
+    }
+
+    /**
+     * Listener searching the entries as the user types in the toolbar's SearchView,
+     * and showing all entries again once it is closed
+     */
+    private class SearchListener implements SearchView.OnQueryTextListener, MenuItem.OnActionExpandListener {
+
+        @Override
+        public boolean onQueryTextSubmit(String query) {
+            search(query);
+            return true;
+        }
+
+        @Override
+        public boolean onQueryTextChange(String newText) {
+            search(newText);
+            return true;
+        }
+
+        @Override
+        public boolean onMenuItemActionExpand(MenuItem item) {
+            return true;
+        }
+
+        @Override
+        public boolean onMenuItemActionCollapse(MenuItem item) {
+            searchQuery = null;
+            showInList(adapter);
+            return true;
+        }
+    }
+
+    /**
+     * Observer showing the empty state once the entries list has no rows, and hiding it once it has
+     */
+    private class EmptyStateObserver extends RecyclerView.AdapterDataObserver {
+
+        @Override
+        public void onChanged() {
+            updateEmptyState();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            updateEmptyState();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            updateEmptyState();
+        }
+    }
 
 
     /**
@@ -38,48 +217,461 @@ public class MainActivity extends JournalActivity {
         SwipeRefreshLayout refreshLayout = findViewById(R.id.swipe_refresh);
         CursorRefreshListener refreshListener = new CursorRefreshListener(refreshLayout);
 
+        RecyclerView list = findViewById(R.id.entriesList);
+        list.setLayoutManager(new LinearLayoutManager(this));
 
         // retrieve database data and bind it to the listview
         updateState();
+
+        if(savedInstanceState != null) {
+            exportIds = savedInstanceState.getLongArray(STATE_EXPORT_IDS);
+            long[] selected = savedInstanceState.getLongArray(STATE_SELECTED_IDS);
+            if(selected != null && selected.length > 0) {
+                adapter.select(selected);
+                updateSelectionMode();
+            }
+        }
     }
 
     /**
-     * Initiates and links the ListView to the data from the database and required event listeners
+     * Saves the selection and the selected entries waiting to be exported
+     * @param outState the bundle to save them in
      */
     @Override
-    public void updateState(){
-        ListView list = findViewById(R.id.entriesList);
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if(adapter != null) {
+            outState.putLongArray(STATE_SELECTED_IDS, adapter.getSelectedIds());
+        }
+        outState.putLongArray(STATE_EXPORT_IDS, exportIds);
+    }
 
-        // create database and adapter if needed
-        if(db == null) {
-            db = EntryDatabase.getInstance(getApplicationContext());
-            Cursor c = db.selectAll();
-            adapter = new EntryAdapter(
-                    this,
-                    EntryAdapter.DEFAULT_LAYOUT,
-                    c,
-                    EntryAdapter.NO_SELECTION);
+    /**
+     * Selects an entry if it isn't selected or deselects it if it is, and shows the number of
+     * selected entries
+     * @param id the database id of the entry
+     */
+    private void toggleSelected(long id) {
+        adapter.toggleSelected(id);
+        updateSelectionMode();
+    }
 
-        } else { // otherwise, swap cursor
-            Cursor c = db.selectAll();
-            adapter.swapCursor(c);
+    /**
+     * Shows the action mode with the number of selected entries while any are selected, and
+     * closes it once none are
+     */
+    private void updateSelectionMode() {
+        int count = adapter.getSelectedCount();
+        if(count == 0) {
+            if(selectionMode != null) {
+                selectionMode.finish();
+            }
+            return;
+        }
+        if(selectionMode == null) {
+            selectionMode = startSupportActionMode(new SelectionModeCallback());
+        }
+        if(selectionMode != null) {
+            selectionMode.setTitle(getResources().getQuantityString(R.plurals.entries_selected, count, count));
+        }
+    }
+
+    /**
+     * Lets the user pick a mood and gives it to a set of entries in a single transaction
+     * @param ids the database ids of the entries
+     */
+    private void pickMood(@NonNull final long[] ids) {
+        final int[] moods = MoodRegistry.getMoods();
+        CharSequence[] labels = new CharSequence[moods.length];
+        for(int i = 0; i < moods.length; i++) {
+            labels[i] = getString(MoodRegistry.getEmoji(moods[i])) + " " + getString(MoodRegistry.getLabel(moods[i]));
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_change_mood)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if(selectionMode != null) {
+                            selectionMode.finish();
+                        }
+                        repository.updateMoods(ids, moods[which], new EntryRepository.Callback<Integer>() {
+                            @Override
+                            public void onResult(Integer result) {
+                                if(result == null || isDestroyed()) {
+                                    return;
+                                }
+                                Toast.makeText(MainActivity.this, getResources().getQuantityString(
+                                        R.plurals.moods_changed, result, result), Toast.LENGTH_SHORT).show();
+                                updateState();
+                            }
+                        });
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Inflates the menu options, including the search action, into the AppBar
+     * @param menu toolbar menu to which menu options are attached
+     * @return true for the menu to be displayed
+     */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchListener searchListener = new SearchListener();
+        searchItem.setOnActionExpandListener(searchListener);
+        ((SearchView) searchItem.getActionView()).setOnQueryTextListener(searchListener);
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
+        return true;
+    }
+
+    /**
+     * Handles the statistics, export, import and database metrics menu options
+     * @param item the selected menu item
+     * @return true if the item was handled
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_export_json_lines:
+                pickExportDocument(MIME_TYPE_JSON_LINES, "journal.jsonl", REQUEST_EXPORT_JSON_LINES);
+                return true;
+            case R.id.action_export_csv:
+                pickExportDocument(MIME_TYPE_CSV, "journal.csv", REQUEST_EXPORT_CSV);
+                return true;
+            case R.id.action_stats:
+                startActivity(new Intent(this, StatsActivity.class));
+                return true;
+            case R.id.action_metrics:
+                showMetrics();
+                return true;
+            case R.id.action_import:
+                Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType("*/*");
+                intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{MIME_TYPE_JSON_LINES, MIME_TYPE_CSV,
+                        "application/json", "text/plain", "text/comma-separated-values"});
+                startActivityForResult(intent, REQUEST_IMPORT);
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    /**
+     * Shows the counts and latencies of the queries and writes run so far, and how well the entry
+     * cache is doing; only offered in debug builds
+     */
+    private void showMetrics() {
+        final View view = getLayoutInflater().inflate(R.layout.dialog_metrics, null);
+        final TextView text = view.findViewById(R.id.metricsText);
+        text.setText(metricsText());
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.metrics_title)
+                .setView(view)
+                .setNeutralButton(R.string.metrics_reset, null)
+                .setPositiveButton(R.string.metrics_close, null)
+                .show();
+        // keeps the dialog open, so the metrics can be watched from a clean slate
+        dialog.getButton(DialogInterface.BUTTON_NEUTRAL).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                repository.getMetrics().reset();
+                text.setText(metricsText());
+            }
+        });
+    }
+
+    /**
+     * Returns the current database metrics as text
+     * @return a table of the metrics of every operation, followed by the entry cache's statistics
+     *         and what the last compaction did, along with the metrics from before and since it
+     */
+    private String metricsText() {
+        DatabaseMetrics.Snapshot snapshot = repository.getMetrics().snapshot();
+        StringBuilder text = new StringBuilder(tableText(snapshot))
+                .append('\n').append(repository.getDatabase().getCache());
+        EntryCompactor.Report compaction = repository.getLastCompaction();
+        if(compaction != null) {
+            text.append("\n\n").append(getString(R.string.metrics_compaction, compaction))
+                    .append("\n\n").append(getString(R.string.metrics_before_compaction)).append('\n')
+                    .append(tableText(compaction.getMetricsBefore()))
+                    .append('\n').append(getString(R.string.metrics_since_compaction)).append('\n')
+                    .append(tableText(snapshot.since(compaction.getMetricsAfter())));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns a snapshot of the database metrics as text
+     * @param snapshot the metrics
+     * @return a table of the metrics of every operation, or a notice if none were recorded
+     */
+    private String tableText(DatabaseMetrics.Snapshot snapshot) {
+        String table = snapshot.toString();
+        if(table.indexOf('\n') == table.length() - 1) {
+            // only the header
+            table = getString(R.string.metrics_empty) + "\n";
+        }
+        return table;
+    }
+
+    /**
+     * Lets the user pick where to save an export
+     * @param mimeType MIME type of the exported file
+     * @param name suggested name of the exported file
+     * @param requestCode request code the picked document is returned with
+     */
+    private void pickExportDocument(String mimeType, String name, int requestCode) {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(mimeType);
+        intent.putExtra(Intent.EXTRA_TITLE, name);
+        startActivityForResult(intent, requestCode);
+    }
+
+    /**
+     * Exports to or imports from the document picked by the user
+     * @param requestCode the code of the type of request
+     * @param resultCode the code of the result
+     * @param data  the data of the result, holding the uri of the picked document
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        boolean exportSelected = requestCode == REQUEST_EXPORT_SELECTED_JSON_LINES ||
+                requestCode == REQUEST_EXPORT_SELECTED_CSV;
+        if(!exportSelected && requestCode != REQUEST_EXPORT_JSON_LINES && requestCode != REQUEST_EXPORT_CSV &&
+                requestCode != REQUEST_IMPORT) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        long[] ids = exportSelected ? exportIds : null;
+        exportIds = null;
+        if(resultCode != RESULT_OK || data == null || data.getData() == null || (exportSelected && ids == null)) {
+            return;
+        }
+
+        Uri uri = data.getData();
+        try {
+            if(requestCode == REQUEST_IMPORT) {
+                // the format is told from the content, picked documents may have any MIME type
+                ParcelFileDescriptor file = openDocument(uri, "r");
+                EntryExporter.ProgressListener progress = showTransferProgress(R.string.import_running);
+                repository.importFrom(new ParcelFileDescriptor.AutoCloseInputStream(file).getChannel(),
+                        transferSignal, progress, new TransferCallback(transferSignal,
+                                R.string.import_done, R.string.import_failed, R.string.import_canceled));
+            } else {
+                @EntryExporter.Format int format = requestCode == REQUEST_EXPORT_CSV ||
+                        requestCode == REQUEST_EXPORT_SELECTED_CSV ? EntryExporter.FORMAT_CSV : EntryExporter.FORMAT_JSON_LINES;
+                // truncate, in case an existing document was picked
+                ParcelFileDescriptor file = openDocument(uri, "wt");
+                EntryExporter.ProgressListener progress = showTransferProgress(R.string.export_running);
+                repository.export(new ParcelFileDescriptor.AutoCloseOutputStream(file).getChannel(), format,
+                        ids, transferSignal, progress, new TransferCallback(transferSignal,
+                                R.string.export_done, R.string.export_failed, R.string.export_canceled));
+            }
+        } catch (FileNotFoundException e) {
+            Log.w("MainActivity", "could not open " + uri, e);
+            Toast.makeText(this, requestCode == REQUEST_IMPORT ? R.string.import_failed : R.string.export_failed,
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Opens a document picked by the user
+     * @param uri the uri of the document
+     * @param mode the mode to open the document in
+     * @return the opened document
+     * @throws FileNotFoundException if the document could not be opened
+     */
+    @NonNull
+    private ParcelFileDescriptor openDocument(Uri uri, String mode) throws FileNotFoundException {
+        ParcelFileDescriptor file = getContentResolver().openFileDescriptor(uri, mode);
+        if(file == null) {
+            throw new FileNotFoundException("No provider for " + uri);
+        }
+        return file;
+    }
+
+    /**
+     * Shows the progress of an export or import in a dialog that can cancel it
+     * @param title the title of the dialog
+     * @return the listener to report the progress to, from the background thread
+     */
+    @NonNull
+    private EntryExporter.ProgressListener showTransferProgress(@StringRes int title) {
+        transferSignal = new CancellationSignal();
+        View view = getLayoutInflater().inflate(R.layout.dialog_transfer, null);
+        final ProgressBar bar = view.findViewById(R.id.transferProgress);
+        final TextView text = view.findViewById(R.id.transferText);
+        final CancellationSignal signal = transferSignal;
+        transferDialog = new AlertDialog.Builder(this)
+                .setTitle(title)
+                .setView(view)
+                .setCancelable(false)
+                .setNegativeButton(R.string.transfer_cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        signal.cancel();
+                    }
+                })
+                .show();
+        return new EntryExporter.ProgressListener() {
+            @Override
+            public void onProgress(final long done, final long total) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // imports don't know how many entries there are until they're done
+                        bar.setIndeterminate(total < 0);
+                        if(total > 0) {
+                            bar.setProgress((int) (done * bar.getMax() / total));
+                        }
+                        text.setText(total >= 0 ? getString(R.string.transfer_progress, done, total) :
+                                getString(R.string.transfer_progress_unknown, done));
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Closes the progress dialog of the running export or import
+     */
+    private void dismissTransferProgress() {
+        if(transferDialog != null) {
+            transferDialog.dismiss();
+        }
+        transferDialog = null;
+        transferSignal = null;
+    }
+
+    /**
+     * Tells the user how an export or import went, and shows any imported entries
+     */
+    private class TransferCallback implements EntryRepository.Callback<Long> {
+
+        private final CancellationSignal signal;
+        private final @StringRes int done;
+        private final @StringRes int failed;
+        private final @StringRes int canceled;
+
+        TransferCallback(@NonNull CancellationSignal signal, @StringRes int done, @StringRes int failed,
+                         @StringRes int canceled) {
+            this.signal = signal;
+            this.done = done;
+            this.failed = failed;
+            this.canceled = canceled;
+        }
+
+        @Override
+        public void onResult(Long count) {
+            if(isDestroyed()) {
+                return;
+            }
+            if(signal == transferSignal) {
+                dismissTransferProgress();
+            }
+            String message = count >= 0 ? getString(done, count) : getString(signal.isCanceled() ? canceled : failed);
+            Toast.makeText(MainActivity.this, message, Toast.LENGTH_LONG).show();
+            updateState();
+        }
+    }
+
+    /**
+     * Searches the entries in the background and shows the results in the list once they're found.
+     * Results of earlier searches that arrive after a newer search was started are ignored.
+     * @param query the text to search for
+     */
+    private void search(@NonNull final String query) {
+        searchQuery = query;
+        searchVersion = repository.getDataVersion();
+        if(query.trim().isEmpty()) {
+            showInList(adapter);
+            return;
+        }
+
+        repository.search(query, SEARCH_LIMIT, new EntryRepository.Callback<List<SearchResult>>() {
+            @Override
+            public void onResult(List<SearchResult> results) {
+                if(results != null && !isDestroyed() && query.equals(searchQuery)) {
+                    showInList(new SearchResultAdapter(results, listener));
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the entries or search results in the list
+     * @param shown the adapter of the entries or search results
+     */
+    private void showInList(@NonNull RecyclerView.Adapter<?> shown) {
+        RecyclerView list = findViewById(R.id.entriesList);
+        if(list.getAdapter() != shown) {
+            list.setAdapter(shown);
+        }
+        updateEmptyState();
+    }
+
+    /**
+     * Shows the empty state in place of the list while the list has no rows
+     */
+    private void updateEmptyState() {
+        RecyclerView list = findViewById(R.id.entriesList);
+        boolean empty = list.getAdapter() == null || list.getAdapter().getItemCount() == 0;
+        findViewById(R.id.emptyListState).setVisibility(empty ? View.VISIBLE : View.GONE);
+        list.setVisibility(empty ? View.GONE : View.VISIBLE);
+    }
+
+    /**
+     * Stops loading pages and any running export or import, and closes the database when the app
+     * is being left
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if(pager != null) {
+            pager.close();
+        }
+        if(transferSignal != null) {
+            transferSignal.cancel();
+        }
+        dismissTransferProgress();
+        if(isFinishing()) {
+            EntryRepository.shutdown();
+        }
+    }
+
+    /**
+     * Initiates and links the RecyclerView to the data from the database and required event listeners
+     */
+    @Override
+    public void updateState(){
+        RecyclerView list = findViewById(R.id.entriesList);
+
+        // create adapter, pager and listeners if needed; the rows are submitted once the first page has loaded
+        if(adapter == null) {
+            adapter = new EntryAdapter();
+            listener = new SelectionListener();
+            adapter.setOnEntryClickListener(listener);
+            adapter.registerAdapterDataObserver(new EmptyStateObserver());
+            pager = new EntryPager(repository, adapter);
+            list.addOnScrollListener(pager);
         }
 
         // attach adapter if needed
         if(list.getAdapter() == null) {
-            list.setAdapter(adapter);
+            showInList(adapter);
         }
 
-        // attach listeners if needed
-        if(!list.hasOnClickListeners()) {
-            listener = new CursorAdapterListener();
-            list.setOnItemClickListener(listener);
-            list.setOnItemLongClickListener(listener);
-        }
+        // (re)load the first page in the background and hand it to the adapter once it's done,
+        // unless the entries didn't change since it was loaded
+        pager.refresh();
 
-        // attach empty state view if needed
-        if(list.getEmptyView() == null) {
-            list.setEmptyView(findViewById(R.id.emptyListState));
+        // results of an ongoing search may have changed as well
+        if(searchQuery != null && searchVersion != repository.getDataVersion()) {
+            search(searchQuery);
         }
 
     }
@@ -0,0 +1,91 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+/**
+ * A single step of the EntryDatabase schema, upgrading it from the previous version to {@link #getVersion()}.
+ *
+ * A step is run by the {@link MigrationEngine} in three parts, each in its own transaction:
+ * <ol>
+ *     <li>{@link #onSchema(SQLiteDatabase)} makes the schema changes</li>
+ *     <li>{@link #migrateRange(SQLiteDatabase, long, long)} rewrites existing rows, one bounded batch
+ *     of row ids at a time; progress is saved after every batch so the step can be resumed</li>
+ *     <li>{@link #onComplete(SQLiteDatabase)} cleans up once every row has been rewritten</li>
+ * </ol>
+ * Steps that only change the schema can leave the row methods as they are.
+ */
+public abstract class Migration {
+
+    /** returned by {@link #nextBatchEnd(SQLiteDatabase, long, int)} when all rows have been migrated **/
+    public static final long NO_MORE_ROWS = -1;
+
+    /**
+     * Returns the schema version this step upgrades to
+     * @return the database version after this step has been completed
+     */
+    public abstract int getVersion();
+
+    /**
+     * Makes the schema changes of this step
+     * @param db the database to migrate
+     */
+    public abstract void onSchema(@NonNull SQLiteDatabase db);
+
+    /**
+     * Returns the number of rows this step will rewrite; used to report progress
+     * @param db the database to migrate
+     * @return the number of rows to migrate
+     */
+    public long countRows(@NonNull SQLiteDatabase db) {
+        return 0;
+    }
+
+    /**
+     * Returns the key of the last row of the next batch to migrate
+     * @param db the database to migrate
+     * @param afterKey the key of the last row that was migrated, or {@link #NO_MORE_ROWS} if none were
+     * @param batchSize maximum number of rows in the batch
+     * @return the key of the last row in the batch, or {@link #NO_MORE_ROWS} if no rows are left
+     */
+    public long nextBatchEnd(@NonNull SQLiteDatabase db, long afterKey, int batchSize) {
+        return NO_MORE_ROWS;
+    }
+
+    /**
+     * Rewrites the rows with a key larger than afterKey, up to and including lastKey
+     * @param db the database to migrate
+     * @param afterKey the key of the last row that was migrated, or {@link #NO_MORE_ROWS} if none were
+     * @param lastKey the key of the last row to migrate in this batch
+     * @return the number of rows migrated
+     */
+    public int migrateRange(@NonNull SQLiteDatabase db, long afterKey, long lastKey) {
+        return 0;
+    }
+
+    /**
+     * Finishes this step after all rows have been migrated
+     * @param db the database to migrate
+     */
+    public void onComplete(@NonNull SQLiteDatabase db) {
+    }
+
+    /**
+     * Returns the id of the last row of the next batch of a table, ordered by id
+     * @param db the database to query
+     * @param table the table to read ids from
+     * @param idColumn the integer primary key column of the table
+     * @param afterKey the id to start after
+     * @param batchSize maximum number of rows in the batch
+     * @return the id of the last row of the batch, or {@link #NO_MORE_ROWS} if there are no rows after afterKey
+     */
+    protected static long batchEnd(@NonNull SQLiteDatabase db, @NonNull String table, @NonNull String idColumn,
+                                   long afterKey, int batchSize) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(" + idColumn + "), " + NO_MORE_ROWS + ") FROM " +
+                        "(SELECT " + idColumn + " FROM " + table +
+                        " WHERE " + idColumn + " > ? ORDER BY " + idColumn + " LIMIT ?)",
+                new String[]{String.valueOf(afterKey), String.valueOf(batchSize)});
+    }
+}
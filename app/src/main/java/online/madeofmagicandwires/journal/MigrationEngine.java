@@ -0,0 +1,216 @@
+package online.madeofmagicandwires.journal;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the {@link Migration} steps needed to bring an older EntryDatabase up to date.
+ *
+ * SQLiteOpenHelper runs onUpgrade in a single transaction, so instead of migrating there
+ * {@link #schedule(SQLiteDatabase, int, int)} only records which steps are pending.
+ * {@link #run(SQLiteDatabase)} is then called from onOpen and works through the pending steps
+ * in bounded transactions, saving its progress after every batch; if the process is killed halfway
+ * through, the next time the database is opened the migration continues where it left off.
+ */
+public class MigrationEngine {
+
+    /**
+     * Listener receiving the progress of a running migration.
+     * Called on the thread opening the database, after every batch.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called when a batch of rows has been migrated
+         * @param version the version being migrated to
+         * @param migrated the number of rows migrated so far in this step
+         * @param total the total number of rows to migrate in this step
+         */
+        void onProgress(int version, long migrated, long total);
+    }
+
+    /** the default maximum number of rows rewritten per transaction **/
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** Constant members relating to the table keeping track of pending migrations **/
+    public static final String STATE_TABLE_NAME = "migrations";
+    public static final String STATE_COLUMN_VERSION = "version";
+    public static final String STATE_COLUMN_STAGE = "stage";
+    public static final String STATE_COLUMN_LAST_KEY = "lastKey";
+    public static final String STATE_COLUMN_MIGRATED = "migrated";
+    public static final String STATE_COLUMN_TOTAL = "total";
+
+    /** stage of a step whose schema changes have not been made yet **/
+    private static final int STAGE_SCHEMA = 0;
+    /** stage of a step that is rewriting rows **/
+    private static final int STAGE_ROWS = 1;
+
+    private static final String TAG = "MigrationEngine";
+
+    private final List<Migration> steps;
+    private final int batchSize;
+    private ProgressListener listener = null;
+
+
+    /**
+     * Standard constructor
+     * @param batchSize maximum number of rows rewritten per transaction
+     * @param steps the migration steps, in any order
+     */
+    public MigrationEngine(int batchSize, @NonNull Migration... steps) {
+        this.batchSize = batchSize;
+        this.steps = Arrays.asList(steps);
+    }
+
+    /**
+     * Sets the listener to report progress to
+     * @param listener listener receiving progress updates, or null to remove it
+     */
+    public void setProgressListener(@Nullable ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Creates the table keeping track of pending migrations if it doesn't exist yet
+     * @param db the database
+     */
+    public static void createStateTable(@NonNull SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + STATE_TABLE_NAME + "(" +
+                STATE_COLUMN_VERSION + " INTEGER PRIMARY KEY," +
+                STATE_COLUMN_STAGE + " INTEGER NOT NULL," +
+                STATE_COLUMN_LAST_KEY + " INTEGER NOT NULL," +
+                STATE_COLUMN_MIGRATED + " INTEGER NOT NULL," +
+                STATE_COLUMN_TOTAL + " INTEGER NOT NULL)");
+    }
+
+    /**
+     * Marks every step after oldVersion up to and including newVersion as pending
+     * @param db the database being upgraded
+     * @param oldVersion the current version of the database
+     * @param newVersion the version to upgrade to
+     */
+    public void schedule(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
+        createStateTable(db);
+        for(Migration step : steps) {
+            if(step.getVersion() > oldVersion && step.getVersion() <= newVersion) {
+                ContentValues values = new ContentValues();
+                values.put(STATE_COLUMN_VERSION, step.getVersion());
+                values.put(STATE_COLUMN_STAGE, STAGE_SCHEMA);
+                values.put(STATE_COLUMN_LAST_KEY, Migration.NO_MORE_ROWS);
+                values.put(STATE_COLUMN_MIGRATED, 0);
+                values.put(STATE_COLUMN_TOTAL, 0);
+                db.insertWithOnConflict(STATE_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+        }
+    }
+
+    /**
+     * Returns the step upgrading to the given version
+     * @param version the version to upgrade to
+     * @return the Migration upgrading to version
+     * @throws IllegalStateException if there is no such step
+     */
+    private Migration getStep(int version) {
+        for(Migration step : steps) {
+            if(step.getVersion() == version) {
+                return step;
+            }
+        }
+        throw new IllegalStateException("No migration to version " + version);
+    }
+
+    /**
+     * Runs all pending steps, lowest version first
+     * @param db the database to migrate; must not be inside a transaction
+     */
+    public void run(@NonNull SQLiteDatabase db) {
+        createStateTable(db);
+        while(true) {
+            Cursor c = db.query(STATE_TABLE_NAME, null, null, null, null, null,
+                    STATE_COLUMN_VERSION + " ASC", "1");
+            try {
+                if(!c.moveToFirst()) {
+                    return;
+                }
+                runStep(db,
+                        getStep(c.getInt(c.getColumnIndex(STATE_COLUMN_VERSION))),
+                        c.getInt(c.getColumnIndex(STATE_COLUMN_STAGE)),
+                        c.getLong(c.getColumnIndex(STATE_COLUMN_LAST_KEY)),
+                        c.getLong(c.getColumnIndex(STATE_COLUMN_MIGRATED)),
+                        c.getLong(c.getColumnIndex(STATE_COLUMN_TOTAL)));
+            } finally {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Runs (the rest of) a single step
+     * @param db the database to migrate
+     * @param step the step to run
+     * @param stage the stage the step was left at
+     * @param lastKey the key of the last migrated row
+     * @param migrated the number of rows migrated so far
+     * @param total the number of rows to migrate
+     */
+    private void runStep(SQLiteDatabase db, Migration step, int stage, long lastKey, long migrated, long total) {
+        String[] version = new String[]{String.valueOf(step.getVersion())};
+
+        if(stage == STAGE_SCHEMA) {
+            db.beginTransaction();
+            try {
+                step.onSchema(db);
+                total = step.countRows(db);
+                ContentValues values = new ContentValues();
+                values.put(STATE_COLUMN_STAGE, STAGE_ROWS);
+                values.put(STATE_COLUMN_TOTAL, total);
+                db.update(STATE_TABLE_NAME, values, STATE_COLUMN_VERSION + "=?", version);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if(BuildConfig.DEBUG) {
+                Log.d(TAG, "version " + step.getVersion() + ": migrating " + total + " rows");
+            }
+        }
+
+        while(true) {
+            boolean done;
+            db.beginTransaction();
+            try {
+                long batchEnd = step.nextBatchEnd(db, lastKey, batchSize);
+                done = batchEnd == Migration.NO_MORE_ROWS;
+                if(done) {
+                    step.onComplete(db);
+                    db.delete(STATE_TABLE_NAME, STATE_COLUMN_VERSION + "=?", version);
+                } else {
+                    migrated += step.migrateRange(db, lastKey, batchEnd);
+                    lastKey = batchEnd;
+                    ContentValues values = new ContentValues();
+                    values.put(STATE_COLUMN_LAST_KEY, lastKey);
+                    values.put(STATE_COLUMN_MIGRATED, migrated);
+                    db.update(STATE_TABLE_NAME, values, STATE_COLUMN_VERSION + "=?", version);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            if(done) {
+                if(BuildConfig.DEBUG) {
+                    Log.d(TAG, "version " + step.getVersion() + ": done");
+                }
+                return;
+            } else if(listener != null) {
+                listener.onProgress(step.getVersion(), migrated, total);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+/**
+ * Version 6: stores the mood of an entry as an INTEGER code instead of the name TEXT used by
+ * version 5, and indexes it together with entryDate so entries can be listed by mood.
+ */
+public class MoodCodeMigration extends RebuildTableMigration {
+
+    public MoodCodeMigration() {
+        super("entries");
+    }
+
+    @Override
+    public int getVersion() {
+        return 6;
+    }
+
+    @Override
+    protected String getCreateStatement() {
+        return "CREATE TABLE entries(" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT UNIQUE," +
+                "title TEXT NOT NULL," +
+                "content TEXT NOT NULL," +
+                "mood INTEGER NOT NULL DEFAULT -1," +
+                "entryDate INTEGER NOT NULL)";
+    }
+
+    @Override
+    protected String getColumns() {
+        return "_id, title, content, mood, entryDate";
+    }
+
+    @Override
+    protected String getSelection() {
+        // the codes of JournalEntry.Mood as of this version; anything else was an unknown mood
+        return "_id, title, content, " +
+                "CASE mood WHEN 'Angry' THEN 0 WHEN 'Bored' THEN 1 WHEN 'Happy' THEN 2 WHEN 'Sad' THEN 3 ELSE -1 END, " +
+                "entryDate";
+    }
+
+    @Override
+    protected void onCreateIndices(@NonNull SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX entries_entryDate_idx ON entries(entryDate DESC)");
+        db.execSQL("CREATE INDEX entries_mood_idx ON entries(mood, entryDate DESC)");
+        // the triggers of version 5 were dropped along with the old table; the rows kept their ids,
+        // so entries_fts itself is still up to date
+        db.execSQL("CREATE TRIGGER entries_fts_bu BEFORE UPDATE ON entries BEGIN " +
+                "DELETE FROM entries_fts WHERE docid=old._id; END");
+        db.execSQL("CREATE TRIGGER entries_fts_bd BEFORE DELETE ON entries BEGIN " +
+                "DELETE FROM entries_fts WHERE docid=old._id; END");
+        db.execSQL("CREATE TRIGGER entries_fts_au AFTER UPDATE ON entries BEGIN " +
+                "INSERT INTO entries_fts(docid, title, content) VALUES(new._id, new.title, new.content); END");
+        db.execSQL("CREATE TRIGGER entries_fts_ai AFTER INSERT ON entries BEGIN " +
+                "INSERT INTO entries_fts(docid, title, content) VALUES(new._id, new.title, new.content); END");
+    }
+}
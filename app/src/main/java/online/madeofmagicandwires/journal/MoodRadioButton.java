@@ -3,15 +3,11 @@ package online.madeofmagicandwires.journal;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.os.Parcelable;
-import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.widget.Checkable;
 import android.widget.CompoundButton;
 
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-
 /**
  * Custom Checkable View containing a Mood value
  *
@@ -22,20 +18,8 @@ import java.lang.annotation.RetentionPolicy;
  */
 public class MoodRadioButton extends android.support.v7.widget.AppCompatRadioButton implements Checkable {
 
-    private static final int MOOD_ANGRY = 0;
-    private static final int MOOD_BORED = 1;
-    private static final int MOOD_HAPPY = 2;
-    private static final int MOOD_SAD   = 3;
-    private static final int MOOD_UNKNOWN = -1;
-
-    /** mood attr enum-like, defining the possible values allowed for the mood attribute **/
-    @IntDef({MOOD_ANGRY, MOOD_BORED, MOOD_HAPPY, MOOD_SAD, MOOD_UNKNOWN})
-    @Retention(RetentionPolicy.SOURCE)
-    public @interface MoodAttr {}
-
-
     /** represents the mood of this View **/
-    private @JournalEntry.Mood String mood;
+    private @JournalEntry.Mood int mood = JournalEntry.MOOD_UNKNOWN;
 
 
     /**
@@ -58,44 +42,28 @@ public class MoodRadioButton extends android.support.v7.widget.AppCompatRadioBut
 
         // Retrieve custom attributes from AttributeSets
         TypedArray  styledAttrs = context.obtainStyledAttributes(attrs, R.styleable.MoodRadioButton);
-        @MoodAttr int moodAttr = styledAttrs.getInt(R.styleable.MoodRadioButton_moodValue, MOOD_UNKNOWN);
-        setMood(moodAttr);
+        // the values of the moodValue attribute are the mood codes themselves
+        setMood(styledAttrs.getInt(R.styleable.MoodRadioButton_moodValue, JournalEntry.MOOD_UNKNOWN));
 
         styledAttrs.recycle();
 
     }
 
     /**
-     * parses the moodAttr and sets mood to the  corresponding JournalEntry.Mood value
-     * @param moodAttr
-     * @see MoodAttr
+     * Sets the mood value associated with this View
+     * @param mood the mood code
      * @see JournalEntry.Mood
      * @see #mood
      */
-    public void setMood(@MoodAttr int moodAttr) {
-        switch (moodAttr) {
-            case MOOD_ANGRY:
-                this.mood = JournalEntry.MOOD_ANGRY;
-                break;
-            case MOOD_BORED:
-                this.mood = JournalEntry.MOOD_BORED;
-                break;
-            case MOOD_HAPPY:
-                this.mood = JournalEntry.MOOD_HAPPY;
-                break;
-            case MOOD_SAD:
-                this.mood = JournalEntry.MOOD_SAD;
-                break;
-            case MOOD_UNKNOWN:
-                this.mood = JournalEntry.MOOD_UNKNOWN;
-        }
+    public void setMood(@JournalEntry.Mood int mood) {
+        this.mood = mood;
     }
 
     /**
      * Gets the mood value associated with this View
      * @return
      */
-    public @JournalEntry.Mood String getMood() {
+    public @JournalEntry.Mood int getMood() {
         return this.mood;
     }
 
@@ -0,0 +1,123 @@
+package online.madeofmagicandwires.journal;
+
+import android.support.annotation.ColorRes;
+import android.support.annotation.IdRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.StringRes;
+
+import static online.madeofmagicandwires.journal.JournalEntry.MOOD_ANGRY;
+import static online.madeofmagicandwires.journal.JournalEntry.MOOD_BORED;
+import static online.madeofmagicandwires.journal.JournalEntry.MOOD_HAPPY;
+import static online.madeofmagicandwires.journal.JournalEntry.MOOD_SAD;
+import static online.madeofmagicandwires.journal.JournalEntry.MOOD_UNKNOWN;
+
+/**
+ * Single place describing every {@link JournalEntry.Mood}: the name it is exported under,
+ * its emoji, label and color, and the radio button picking it.
+ *
+ * Mood codes are the indices into the tables below, so looking a mood up is an array access
+ * instead of a switch over strings. {@link JournalEntry#MOOD_UNKNOWN} has no entry in the tables;
+ * its resources are 0, as is usual for "no resource" on Android.
+ */
+public final class MoodRegistry {
+
+    /** all known moods, in the order of their codes **/
+    private static final int[] MOODS = new int[]{MOOD_ANGRY, MOOD_BORED, MOOD_HAPPY, MOOD_SAD};
+
+    /** name of each mood as stored by version 5 of the database and written by exports **/
+    private static final String[] NAMES = new String[]{"Angry", "Bored", "Happy", "Sad"};
+    private static final String NAME_UNKNOWN = "Unknown";
+
+    private static final @StringRes int[] EMOJI = new int[]{
+            R.string.emoji_angry, R.string.emoji_bored, R.string.emoji_happy, R.string.emoji_sad};
+    private static final @StringRes int[] LABELS = new int[]{
+            R.string.mood_angry, R.string.mood_bored, R.string.mood_happy, R.string.mood_sad};
+    private static final @ColorRes int[] COLORS = new int[]{
+            R.color.moodAngry, R.color.moodBored, R.color.moodHappy, R.color.moodSad};
+    private static final @IdRes int[] BUTTONS = new int[]{
+            R.id.input_entry_mood_angry, R.id.input_entry_mood_bored,
+            R.id.input_entry_mood_happy, R.id.input_entry_mood_sad};
+
+
+    private MoodRegistry() {
+    }
+
+    /**
+     * Returns all known moods, leaving out {@link JournalEntry#MOOD_UNKNOWN}
+     * @return the mood codes, lowest first
+     */
+    public static int[] getMoods() {
+        return MOODS.clone();
+    }
+
+    /**
+     * Returns whether a code is one of the known moods
+     * @param mood the code to check
+     * @return true for every mood besides {@link JournalEntry#MOOD_UNKNOWN}
+     */
+    public static boolean isKnown(int mood) {
+        return mood >= 0 && mood < MOODS.length;
+    }
+
+    /**
+     * Returns the mood exported or stored under a name
+     * @param name the name of the mood, e.g. "Happy"
+     * @return the mood code, or {@link JournalEntry#MOOD_UNKNOWN} if the name isn't known
+     */
+    public static @JournalEntry.Mood int fromName(@Nullable String name) {
+        for(int mood = 0; mood < NAMES.length; mood++) {
+            if(NAMES[mood].equals(name)) {
+                return mood;
+            }
+        }
+        return MOOD_UNKNOWN;
+    }
+
+    /**
+     * Returns the name a mood is exported under
+     * @param mood the mood code
+     * @return the name of the mood, "Unknown" for unknown moods
+     */
+    @NonNull
+    public static String getName(@JournalEntry.Mood int mood) {
+        return isKnown(mood) ? NAMES[mood] : NAME_UNKNOWN;
+    }
+
+    /**
+     * Returns the emoji representing a mood
+     * @param mood the mood code
+     * @return the string resource of the emoji, or 0 for unknown moods
+     */
+    public static @StringRes int getEmoji(@JournalEntry.Mood int mood) {
+        return isKnown(mood) ? EMOJI[mood] : 0;
+    }
+
+    /**
+     * Returns the label describing a mood to the user
+     * @param mood the mood code
+     * @return the string resource of the label, or 0 for unknown moods
+     */
+    public static @StringRes int getLabel(@JournalEntry.Mood int mood) {
+        return isKnown(mood) ? LABELS[mood] : 0;
+    }
+
+    /**
+     * Returns the color associated with a mood
+     * @param mood the mood code
+     * @return the color resource, or 0 for unknown moods
+     */
+    public static @ColorRes int getColor(@JournalEntry.Mood int mood) {
+        return isKnown(mood) ? COLORS[mood] : 0;
+    }
+
+    /**
+     * Returns the radio button picking a mood in the input form
+     * @param mood the mood code
+     * @return the id of the button, or -1 for unknown moods, which {@link android.widget.RadioGroup#check(int)}
+     *         takes as clearing the selection
+     */
+    public static @IdRes int getButtonId(@JournalEntry.Mood int mood) {
+        return isKnown(mood) ? BUTTONS[mood] : -1;
+    }
+}
@@ -0,0 +1,276 @@
+package online.madeofmagicandwires.journal;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Number of entries per mood, grouped into days, weeks or months, along with the totals and
+ * the streaks of days on which entries were written.
+ *
+ * Built from the rows of the {@link EntryDatabase#STATS_TABLE_NAME} summary table, which holds
+ * a count per day and mood, so building it takes time in the number of days with entries rather
+ * than the number of entries.
+ * Days are the local dates entries were written on, in the time zone they were saved in, as
+ * stored with every entry by {@link EntryDatabase}; so they match the days of an {@link EntryCalendar}
+ * and the triggers keeping the summary table up to date always take an entry out of the bucket it
+ * was counted in, even after the time zone changed. They are counted in days since the epoch as if
+ * the dates were UTC dates, see {@link #localDayOf(long, TimeZone)}.
+ */
+public class MoodStatistics {
+
+    /** possible values for the Period enumerated annotation **/
+    public static final int PERIOD_DAY = 0;
+    public static final int PERIOD_WEEK = 1;
+    public static final int PERIOD_MONTH = 2;
+
+    @IntDef({PERIOD_DAY, PERIOD_WEEK, PERIOD_MONTH})
+    @Retention(RetentionPolicy.SOURCE)
+
+    /**
+     * Enum-like defining how days are grouped into buckets
+     */
+    public @interface Period {}
+
+    /** length of a day, in milliseconds **/
+    public static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /** number of counts per bucket: one per known mood and one for unknown moods **/
+    private static final int SLOTS = MoodRegistry.getMoods().length + 1;
+
+    /**
+     * The number of entries per mood in a single day, week or month
+     */
+    public static class Bucket {
+
+        private final long startDay;
+        private final int[] counts = new int[SLOTS];
+
+        /**
+         * Standard constructor
+         * @param startDay the first day of the bucket, in days since the epoch
+         */
+        Bucket(long startDay) {
+            this.startDay = startDay;
+        }
+
+        /**
+         * Returns the first day of this bucket
+         * @return the first day, in days since the epoch
+         */
+        public long getStartDay() {
+            return startDay;
+        }
+
+        /**
+         * Returns the start of this bucket, to format in UTC
+         * @return midnight UTC of the date of the first day, in milliseconds since the epoch
+         */
+        public long getStart() {
+            return startDay * DAY_MILLIS;
+        }
+
+        /**
+         * Returns the number of entries with a mood in this bucket
+         * @param mood the mood code; every unknown mood is counted together
+         * @return the number of entries
+         */
+        public int getCount(@JournalEntry.Mood int mood) {
+            return counts[slotOf(mood)];
+        }
+
+        /**
+         * Returns the number of entries in this bucket
+         * @return the number of entries of any mood
+         */
+        public int getTotal() {
+            int total = 0;
+            for(int count : counts) {
+                total += count;
+            }
+            return total;
+        }
+    }
+
+    private final @Period int period;
+    private final long today;
+    private final List<Bucket> buckets = new ArrayList<>();
+    private final int[] totals = new int[SLOTS];
+    /**
+     * UTC calendar to find the first day of a month with, only used for {@link #PERIOD_MONTH};
+     * days are local dates counted as UTC dates, so they aren't shifted again
+     **/
+    private final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+    private Bucket current = null;
+    /** day of the last added row, or Long.MAX_VALUE if none were added yet **/
+    private long lastDay = Long.MAX_VALUE;
+    /** days in the run of consecutive days the last added day is part of **/
+    private int run = 0;
+    /** whether the run of the last added day is still going on today **/
+    private boolean runIsCurrent = false;
+    private int currentStreak = 0;
+    private int longestStreak = 0;
+
+
+    /**
+     * Standard constructor
+     * @param period how to group the days into buckets
+     * @param today the current day, in days since the epoch, to find the current streak with
+     */
+    public MoodStatistics(@Period int period, long today) {
+        this.period = period;
+        this.today = today;
+    }
+
+    /**
+     * Returns the day a timestamp falls on
+     * @param timestamp milliseconds since the epoch
+     * @return the UTC day, in days since the epoch
+     */
+    public static long dayOf(long timestamp) {
+        long day = timestamp / DAY_MILLIS;
+        // round towards negative infinity for timestamps before the epoch
+        return timestamp % DAY_MILLIS < 0 ? day - 1 : day;
+    }
+
+    /**
+     * Returns the local date a timestamp falls on in a time zone
+     * @param timestamp milliseconds since the epoch
+     * @param zone the time zone
+     * @return the date, in days since the epoch as if it were a UTC date
+     */
+    public static long localDayOf(long timestamp, @NonNull TimeZone zone) {
+        return dayOf(timestamp + zone.getOffset(timestamp));
+    }
+
+    /**
+     * Returns the index of the count of a mood
+     * @param mood the mood code
+     * @return the index into the counts
+     */
+    private static int slotOf(int mood) {
+        return MoodRegistry.isKnown(mood) ? mood : SLOTS - 1;
+    }
+
+    /**
+     * Returns the first day of the bucket a day falls in
+     * @param day the day, in days since the epoch
+     * @return the first day of its day, week or month, in days since the epoch
+     */
+    long bucketOf(long day) {
+        switch (period) {
+            case PERIOD_WEEK:
+                // the epoch was a Thursday; weeks start on Monday
+                long sinceMonday = (day + 3) % 7;
+                return day - (sinceMonday < 0 ? sinceMonday + 7 : sinceMonday);
+            case PERIOD_MONTH:
+                calendar.setTimeInMillis(day * DAY_MILLIS);
+                return day - (calendar.get(Calendar.DAY_OF_MONTH) - 1);
+            case PERIOD_DAY:
+            default:
+                return day;
+        }
+    }
+
+    /**
+     * Adds a row of the summary table. Rows need to be added latest day first.
+     * @param day the day of the row, in days since the epoch
+     * @param mood the mood of the row
+     * @param count the number of entries of the mood on that day
+     * @throws IllegalArgumentException if the row is for a later day than the previous row
+     */
+    public void add(long day, @JournalEntry.Mood int mood, int count) {
+        if(day > lastDay) {
+            throw new IllegalArgumentException("Rows need to be added latest day first; " + day + " after " + lastDay);
+        }
+        if(count <= 0) {
+            return;
+        }
+
+        if(day != lastDay) {
+            if(day == lastDay - 1) {
+                run++;
+            } else {
+                run = 1;
+                // a streak is still current if an entry was written today or yesterday
+                runIsCurrent = lastDay == Long.MAX_VALUE && day >= today - 1;
+            }
+            if(runIsCurrent) {
+                currentStreak = run;
+            }
+            longestStreak = Math.max(longestStreak, run);
+            lastDay = day;
+        }
+
+        long bucket = bucketOf(day);
+        if(current == null || current.startDay != bucket) {
+            current = new Bucket(bucket);
+            buckets.add(current);
+        }
+        current.counts[slotOf(mood)] += count;
+        totals[slotOf(mood)] += count;
+    }
+
+    /**
+     * Returns how the days are grouped into buckets
+     * @return the period of a single bucket
+     */
+    public @Period int getPeriod() {
+        return period;
+    }
+
+    /**
+     * Returns the buckets holding any entries
+     * @return the buckets, latest first
+     */
+    @NonNull
+    public List<Bucket> getBuckets() {
+        return Collections.unmodifiableList(buckets);
+    }
+
+    /**
+     * Returns the number of entries with a mood
+     * @param mood the mood code; every unknown mood is counted together
+     * @return the number of entries
+     */
+    public int getTotal(@JournalEntry.Mood int mood) {
+        return totals[slotOf(mood)];
+    }
+
+    /**
+     * Returns the number of entries
+     * @return the number of entries of any mood
+     */
+    public int getTotal() {
+        int total = 0;
+        for(int count : totals) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of consecutive days with entries up to today, or up to yesterday if
+     * nothing was written today yet
+     * @return the current streak in days, or 0 if there is none
+     */
+    public int getCurrentStreak() {
+        return currentStreak;
+    }
+
+    /**
+     * Returns the largest number of consecutive days with entries
+     * @return the longest streak in days
+     */
+    public int getLongestStreak() {
+        return longestStreak;
+    }
+}
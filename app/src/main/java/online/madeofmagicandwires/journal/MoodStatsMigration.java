@@ -0,0 +1,79 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+
+/**
+ * Version 7: adds the mood_stats summary table holding the number of entries per UTC day and mood,
+ * kept in sync by triggers, and counts the existing entries in batches.
+ */
+public class MoodStatsMigration extends Migration {
+
+    /** UTC day of an entry as of this version, rounding timestamps before the epoch down **/
+    private static final String DAY = "(entryDate / 86400000 - (entryDate % 86400000 < 0))";
+
+    @Override
+    public int getVersion() {
+        return 7;
+    }
+
+    @Override
+    public void onSchema(@NonNull SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE mood_stats(" +
+                "day INTEGER NOT NULL," +
+                "mood INTEGER NOT NULL," +
+                "count INTEGER NOT NULL," +
+                "PRIMARY KEY(day, mood)) WITHOUT ROWID");
+        String newDay = DAY.replace("entryDate", "new.entryDate");
+        String oldDay = DAY.replace("entryDate", "old.entryDate");
+        String countIn = "INSERT OR IGNORE INTO mood_stats VALUES(" + newDay + ", new.mood, 0); " +
+                "UPDATE mood_stats SET count = count + 1 WHERE day = " + newDay + " AND mood = new.mood; ";
+        String countOut = "UPDATE mood_stats SET count = count - 1 WHERE day = " + oldDay + " AND mood = old.mood; " +
+                "DELETE FROM mood_stats WHERE day = " + oldDay + " AND mood = old.mood AND count <= 0; ";
+        db.execSQL("CREATE TRIGGER mood_stats_ai AFTER INSERT ON entries BEGIN " + countIn + "END");
+        db.execSQL("CREATE TRIGGER mood_stats_ad AFTER DELETE ON entries BEGIN " + countOut + "END");
+        db.execSQL("CREATE TRIGGER mood_stats_au AFTER UPDATE OF mood, entryDate ON entries BEGIN " +
+                countOut + countIn + "END");
+    }
+
+    @Override
+    public long countRows(@NonNull SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, "entries");
+    }
+
+    @Override
+    public long nextBatchEnd(@NonNull SQLiteDatabase db, long afterKey, int batchSize) {
+        return batchEnd(db, "entries", "_id", afterKey, batchSize);
+    }
+
+    @Override
+    public int migrateRange(@NonNull SQLiteDatabase db, long afterKey, long lastKey) {
+        // a day may span several batches, so the counts of a batch are added to what is already there
+        SQLiteStatement create = db.compileStatement("INSERT OR IGNORE INTO mood_stats VALUES(?, ?, 0)");
+        SQLiteStatement add = db.compileStatement("UPDATE mood_stats SET count = count + ? WHERE day = ? AND mood = ?");
+        Cursor c = db.rawQuery("SELECT " + DAY + ", mood, COUNT(*) FROM entries " +
+                        "WHERE _id > ? AND _id <= ? GROUP BY 1, 2",
+                new String[]{String.valueOf(afterKey), String.valueOf(lastKey)});
+        int migrated = 0;
+        try {
+            while(c.moveToNext()) {
+                create.bindLong(1, c.getLong(0));
+                create.bindLong(2, c.getLong(1));
+                create.executeInsert();
+                add.bindLong(1, c.getLong(2));
+                add.bindLong(2, c.getLong(0));
+                add.bindLong(3, c.getLong(1));
+                add.executeUpdateDelete();
+                migrated += c.getInt(2);
+            }
+        } finally {
+            c.close();
+            create.close();
+            add.close();
+        }
+        return migrated;
+    }
+}
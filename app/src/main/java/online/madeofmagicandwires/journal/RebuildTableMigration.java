@@ -0,0 +1,97 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+
+/**
+ * Migration step for changes SQLite can't make with ALTER TABLE, such as changing the type of a column.
+ *
+ * The old table is renamed out of the way, a new table is created in its place and the rows are
+ * copied over in batches of ids, after which the old table is dropped and the indices are recreated.
+ */
+public abstract class RebuildTableMigration extends Migration {
+
+    /** the table to rebuild **/
+    private final String table;
+
+    /**
+     * Standard constructor
+     * @param table name of the table to rebuild
+     */
+    protected RebuildTableMigration(@NonNull String table) {
+        this.table = table;
+    }
+
+    /**
+     * Returns the name the old table is kept under while its rows are copied
+     * @return name of the old table
+     */
+    protected String getOldTable() {
+        return table + "_v" + (getVersion() - 1);
+    }
+
+    /**
+     * Returns the statement creating the rebuilt table as it is in this version;
+     * it should not refer to the current schema as that may change in later versions
+     * @return a CREATE TABLE statement
+     */
+    protected abstract String getCreateStatement();
+
+    /**
+     * Returns the columns of the new table to copy into
+     * @return comma separated column names
+     */
+    protected abstract String getColumns();
+
+    /**
+     * Returns the values to copy into {@link #getColumns()}, selected from the old table
+     * @return comma separated expressions
+     */
+    protected abstract String getSelection();
+
+    /**
+     * Creates the indices (and triggers) of the new table, after the old table has been dropped
+     * @param db the database to migrate
+     */
+    protected void onCreateIndices(@NonNull SQLiteDatabase db) {
+    }
+
+    @Override
+    public void onSchema(@NonNull SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + table + " RENAME TO " + getOldTable());
+        db.execSQL(getCreateStatement());
+    }
+
+    @Override
+    public long countRows(@NonNull SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, getOldTable());
+    }
+
+    @Override
+    public long nextBatchEnd(@NonNull SQLiteDatabase db, long afterKey, int batchSize) {
+        return batchEnd(db, getOldTable(), EntryDatabase.TABLE_COLUMN_ID, afterKey, batchSize);
+    }
+
+    @Override
+    public int migrateRange(@NonNull SQLiteDatabase db, long afterKey, long lastKey) {
+        SQLiteStatement copy = db.compileStatement(
+                "INSERT INTO " + table + "(" + getColumns() + ") " +
+                "SELECT " + getSelection() + " FROM " + getOldTable() +
+                " WHERE " + EntryDatabase.TABLE_COLUMN_ID + " > ? AND " + EntryDatabase.TABLE_COLUMN_ID + " <= ?");
+        try {
+            copy.bindLong(1, afterKey);
+            copy.bindLong(2, lastKey);
+            return copy.executeUpdateDelete();
+        } finally {
+            copy.close();
+        }
+    }
+
+    @Override
+    public void onComplete(@NonNull SQLiteDatabase db) {
+        db.execSQL("DROP TABLE " + getOldTable());
+        onCreateIndices(db);
+    }
+}
@@ -0,0 +1,99 @@
+package online.madeofmagicandwires.journal;
+
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+
+/**
+ * A single entry found by {@link EntryDatabase#search(String, int)}
+ */
+public class SearchResult {
+
+    /** markers placed around the matched terms in a raw snippet **/
+    public static final char MATCH_START = '\u0002';
+    public static final char MATCH_END = '\u0003';
+
+    private final long databaseId;
+    private final String title;
+    private final String snippet;
+    private final @JournalEntry.Mood int mood;
+    private final long timestamp;
+    private final double rank;
+
+    /**
+     * Standard constructor
+     * @param databaseId the database id of the entry
+     * @param title the title of the entry
+     * @param snippet part of the entry around the matched terms, which are surrounded by
+     *                {@link #MATCH_START} and {@link #MATCH_END}
+     * @param mood the mood associated with the entry
+     * @param timestamp the timestamp of the entry, in milliseconds since the epoch
+     * @param rank relevance of the entry to the query; higher is more relevant
+     */
+    public SearchResult(long databaseId, String title, String snippet, @JournalEntry.Mood int mood,
+                        long timestamp, double rank) {
+        this.databaseId = databaseId;
+        this.title = title;
+        this.snippet = snippet;
+        this.mood = mood;
+        this.timestamp = timestamp;
+        this.rank = rank;
+    }
+
+    public long getDatabaseId() {
+        return databaseId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Returns the raw snippet
+     * @return part of the entry with the matched terms surrounded by {@link #MATCH_START} and {@link #MATCH_END}
+     */
+    public String getRawSnippet() {
+        return snippet;
+    }
+
+    /**
+     * Returns the snippet with the matched terms in bold
+     * @return styled part of the entry around the matched terms
+     */
+    public CharSequence getSnippet() {
+        SpannableStringBuilder styled = new SpannableStringBuilder();
+        int start = -1;
+        for(int i = 0; i < snippet.length(); i++) {
+            char c = snippet.charAt(i);
+            if(c == MATCH_START) {
+                start = styled.length();
+            } else if(c == MATCH_END && start >= 0) {
+                styled.setSpan(new StyleSpan(Typeface.BOLD), start, styled.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                start = -1;
+            } else {
+                styled.append(c);
+            }
+        }
+        return styled;
+    }
+
+    public @JournalEntry.Mood int getMood() {
+        return mood;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getRank() {
+        return rank;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getTitle();
+    }
+}
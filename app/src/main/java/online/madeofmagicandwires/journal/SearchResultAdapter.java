@@ -0,0 +1,105 @@
+package online.madeofmagicandwires.journal;
+
+import android.content.Context;
+import android.support.annotation.LayoutRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.List;
+
+/**
+ * Adapter showing the results of a search in the entries list
+ */
+public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapter.ResultViewHolder> {
+
+    /** The default layout to inflate **/
+    public static final @LayoutRes int DEFAULT_LAYOUT = R.layout.search_result_row;
+
+    /**
+     * Holds the views of a result row, so they are only looked up once when the row is created
+     */
+    static class ResultViewHolder extends RecyclerView.ViewHolder {
+        final TextView title;
+        final TextView snippet;
+        final TextView date;
+        final TextView moodEmoji;
+
+        ResultViewHolder(View root) {
+            super(root);
+            title = root.findViewById(R.id.searchResultTitle);
+            snippet = root.findViewById(R.id.searchResultSnippet);
+            date = root.findViewById(R.id.searchResultDate);
+            moodEmoji = root.findViewById(R.id.searchResultMoodEmoji);
+        }
+    }
+
+    private final List<SearchResult> results;
+    private final EntryAdapter.OnEntryClickListener listener;
+
+    /**
+     * Standard constructor
+     * @param results the results to show
+     * @param listener listener receiving clicks on the results the same way as with {@link EntryAdapter};
+     *                 may be null
+     */
+    public SearchResultAdapter(@NonNull List<SearchResult> results, @Nullable EntryAdapter.OnEntryClickListener listener) {
+        this.results = results;
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public int getItemCount() {
+        return results.size();
+    }
+
+    /**
+     * Returns the database id of the entry at the given position
+     * @param position position of the result
+     * @return the database id of the entry
+     */
+    @Override
+    public long getItemId(int position) {
+        return results.get(position).getDatabaseId();
+    }
+
+    @NonNull
+    @Override
+    public ResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View root = LayoutInflater.from(parent.getContext()).inflate(DEFAULT_LAYOUT, parent, false);
+        final ResultViewHolder holder = new ResultViewHolder(root);
+        root.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if(listener != null && position != RecyclerView.NO_POSITION) {
+                    listener.onEntryClick(v, getItemId(position));
+                }
+            }
+        });
+        root.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                int position = holder.getAdapterPosition();
+                return listener != null && position != RecyclerView.NO_POSITION &&
+                        listener.onEntryLongClick(v, getItemId(position));
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ResultViewHolder holder, int position) {
+        SearchResult result = results.get(position);
+        Context context = holder.itemView.getContext();
+        holder.title.setText(result.getTitle());
+        holder.snippet.setText(result.getSnippet());
+        holder.date.setText(DateFormatter.getInstance(context).format(context, result.getTimestamp()));
+        EntryAdapter.setTextOrClear(holder.moodEmoji, MoodRegistry.getEmoji(result.getMood()));
+    }
+}
@@ -0,0 +1,133 @@
+package online.madeofmagicandwires.journal;
+
+import android.os.Bundle;
+import android.support.v7.widget.Toolbar;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.ListView;
+import android.widget.TextView;
+
+/**
+ * Shows the number of entries per mood per day, week or month, the totals and the writing streaks.
+ *
+ * Everything is read from the mood statistics summary table, so showing this screen takes time in
+ * the number of days with entries rather than the number of entries.
+ */
+public class StatsActivity extends JournalActivity {
+
+    /** the key under which the shown period is kept in a Bundle **/
+    private static final String PERIOD_KEY = "StatsPeriod";
+
+    private @MoodStatistics.Period int period = MoodStatistics.PERIOD_WEEK;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        // draw views
+        setContentView(R.layout.activity_stats);
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if(getSupportActionBar() != null) {
+            getSupportActionBar().setHomeButtonEnabled(true);
+        }
+
+        if(savedInstanceState != null) {
+            period = savedInstanceState.getInt(PERIOD_KEY, period);
+        }
+    }
+
+    /**
+     * Inflates the period options into the AppBar
+     * @param menu toolbar menu to which menu options are attached
+     * @return true for the menu to be displayed
+     */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_stats, menu);
+        switch (period) {
+            case MoodStatistics.PERIOD_DAY:
+                menu.findItem(R.id.stats_action_day).setChecked(true);
+                break;
+            case MoodStatistics.PERIOD_MONTH:
+                menu.findItem(R.id.stats_action_month).setChecked(true);
+                break;
+            case MoodStatistics.PERIOD_WEEK:
+            default:
+                menu.findItem(R.id.stats_action_week).setChecked(true);
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Switches between grouping the entries per day, week or month
+     * @param item the selected menu item
+     * @return true if the item was handled
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.stats_action_day:
+                showPeriod(item, MoodStatistics.PERIOD_DAY);
+                return true;
+            case R.id.stats_action_week:
+                showPeriod(item, MoodStatistics.PERIOD_WEEK);
+                return true;
+            case R.id.stats_action_month:
+                showPeriod(item, MoodStatistics.PERIOD_MONTH);
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    /**
+     * Shows the statistics grouped by another period
+     * @param item the menu item of the period
+     * @param period how to group the days
+     */
+    private void showPeriod(MenuItem item, @MoodStatistics.Period int period) {
+        item.setChecked(true);
+        if(this.period != period) {
+            this.period = period;
+            updateState();
+        }
+    }
+
+    /**
+     * Loads the statistics for the current period and shows them
+     */
+    @Override
+    public void updateState() {
+        repository.getMoodStatistics(period, new EntryRepository.Callback<MoodStatistics>() {
+            @Override
+            public void onResult(MoodStatistics stats) {
+                // a later request for another period may still be underway
+                if(isDestroyed() || stats == null || stats.getPeriod() != period) {
+                    return;
+                }
+                TextView total = findViewById(R.id.stats_total);
+                TextView moods = findViewById(R.id.stats_moods);
+                TextView streaks = findViewById(R.id.stats_streaks);
+                ListView buckets = findViewById(R.id.stats_buckets);
+
+                total.setText(getString(R.string.stats_total, stats.getTotal()));
+                int[] known = MoodRegistry.getMoods();
+                int[] counts = new int[known.length];
+                for(int i = 0; i < known.length; i++) {
+                    counts[i] = stats.getTotal(known[i]);
+                }
+                moods.setText(StatsAdapter.formatCounts(StatsActivity.this, counts));
+                streaks.setText(getString(R.string.stats_streaks, stats.getCurrentStreak(), stats.getLongestStreak()));
+                buckets.setAdapter(new StatsAdapter(StatsActivity.this, stats));
+            }
+        });
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(PERIOD_KEY, period);
+    }
+}
@@ -0,0 +1,101 @@
+package online.madeofmagicandwires.journal;
+
+import android.content.Context;
+import android.support.annotation.LayoutRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.TextView;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Adapter showing the number of entries per mood of every day, week or month in the statistics screen
+ */
+public class StatsAdapter extends ArrayAdapter<MoodStatistics.Bucket> {
+
+    /** The default layout to inflate **/
+    public static final @LayoutRes int DEFAULT_LAYOUT = R.layout.stats_row;
+
+    private final @MoodStatistics.Period int period;
+    /**
+     * formats the first day of a bucket; buckets hold local dates counted as UTC dates,
+     * so they are formatted in UTC to keep them from being shifted again
+     **/
+    private final DateFormatCache dates;
+
+    /**
+     * Standard constructor
+     * @param context The context where the ListView associated with this adapter is running
+     * @param stats the statistics to show the buckets of
+     */
+    public StatsAdapter(@NonNull Context context, @NonNull MoodStatistics stats) {
+        this(context, stats.getPeriod(), stats.getBuckets());
+    }
+
+    /**
+     * Constructor taking the buckets to show directly
+     * @param context The context where the ListView associated with this adapter is running
+     * @param period how the days were grouped into the buckets
+     * @param buckets the buckets to show, latest first
+     */
+    public StatsAdapter(@NonNull Context context, @MoodStatistics.Period int period,
+                        @NonNull List<MoodStatistics.Bucket> buckets) {
+        super(context, DEFAULT_LAYOUT, buckets);
+        this.period = period;
+        this.dates = new DateFormatCache(Locale.getDefault(), TimeZone.getTimeZone("UTC"),
+                period == MoodStatistics.PERIOD_MONTH ? "MMMM yyyy" : DateFormatCache.PATTERN_SHORT_ISO);
+    }
+
+    /**
+     * Lists the number of entries per known mood behind their emoji, leaving out moods without entries
+     * @param context context to read the emoji from
+     * @param counts the number of entries of every mood in {@link MoodRegistry#getMoods()}
+     * @return the emoji and counts, separated by spaces
+     */
+    static String formatCounts(@NonNull Context context, @NonNull int[] counts) {
+        StringBuilder text = new StringBuilder();
+        int[] moods = MoodRegistry.getMoods();
+        for(int i = 0; i < moods.length; i++) {
+            if(counts[i] > 0) {
+                if(text.length() > 0) {
+                    text.append("   ");
+                }
+                text.append(context.getString(R.string.stats_mood_count,
+                        context.getString(MoodRegistry.getEmoji(moods[i])), counts[i]));
+            }
+        }
+        return text.toString();
+    }
+
+    @NonNull
+    @Override
+    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+        View root = convertView;
+        if(root == null) {
+            root = LayoutInflater.from(getContext()).inflate(DEFAULT_LAYOUT, parent, false);
+        }
+        MoodStatistics.Bucket bucket = getItem(position);
+        if(bucket != null) {
+            TextView label = root.findViewById(R.id.statsRowPeriod);
+            TextView moods = root.findViewById(R.id.statsRowMoods);
+
+            String start = dates.format(bucket.getStart());
+            label.setText(period == MoodStatistics.PERIOD_WEEK ?
+                    getContext().getString(R.string.stats_week_of, start) : start);
+
+            int[] known = MoodRegistry.getMoods();
+            int[] counts = new int[known.length];
+            for(int i = 0; i < known.length; i++) {
+                counts[i] = bucket.getCount(known[i]);
+            }
+            moods.setText(formatCounts(getContext(), counts));
+        }
+        return root;
+    }
+}
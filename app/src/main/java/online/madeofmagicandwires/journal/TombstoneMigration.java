@@ -0,0 +1,31 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+/**
+ * Version 11: adds the deleted_entries table, which keeps deleted entries until they can no
+ * longer be restored.
+ */
+public class TombstoneMigration extends Migration {
+
+    @Override
+    public int getVersion() {
+        return 11;
+    }
+
+    @Override
+    public void onSchema(@NonNull SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS deleted_entries(" +
+                "_id INTEGER PRIMARY KEY," +
+                "title TEXT NOT NULL," +
+                "content TEXT NOT NULL," +
+                "mood INTEGER NOT NULL DEFAULT -1," +
+                "entryDate INTEGER NOT NULL," +
+                "preview TEXT NOT NULL DEFAULT ''," +
+                "contentLength INTEGER NOT NULL DEFAULT 0," +
+                "compressedContent BLOB," +
+                "deletedAt INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS deleted_entries_deletedAt_idx ON deleted_entries(deletedAt)");
+    }
+}
@@ -0,0 +1,89 @@
+package online.madeofmagicandwires.journal;
+
+import java.util.Random;
+
+/**
+ * Generates prose-like text to test and benchmark with: words of a vocabulary of random words, the
+ * n-th most common of which is used about 1/n times as often as the most common one, in sentences
+ * and paragraphs. Text generated from the same seed is always the same.
+ *
+ * Shared by the unit tests, the instrumented benchmarks and the JMH benchmarks, so it doesn't
+ * depend on the Android framework.
+ */
+class Corpus {
+
+    /** letters of the words that aren't ASCII, which take more than a byte in UTF-8 **/
+    private static final String ACCENTED_LETTERS = "éèëïöüçñå";
+
+    private final Random random;
+    private final String[] vocabulary;
+
+    /**
+     * Constructor for a vocabulary of ASCII words only
+     * @param seed seed of the vocabulary and the generated text
+     * @param vocabularySize number of distinct words
+     */
+    Corpus(long seed, int vocabularySize) {
+        this(seed, vocabularySize, false);
+    }
+
+    /**
+     * Standard constructor
+     * @param seed seed of the vocabulary and the generated text
+     * @param vocabularySize number of distinct words
+     * @param accented whether about 1 in 50 letters isn't ASCII
+     */
+    Corpus(long seed, int vocabularySize, boolean accented) {
+        random = new Random(seed);
+        vocabulary = new String[vocabularySize];
+        for(int i = 0; i < vocabularySize; i++) {
+            StringBuilder word = new StringBuilder();
+            for(int letter = 2 + random.nextInt(8); letter > 0; letter--) {
+                if(accented && random.nextInt(50) == 0) {
+                    word.append(ACCENTED_LETTERS.charAt(random.nextInt(ACCENTED_LETTERS.length())));
+                } else {
+                    word.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            vocabulary[i] = word.toString();
+        }
+    }
+
+    /**
+     * Returns a word of the vocabulary, common words more often than rare ones
+     * @return the word
+     */
+    String word() {
+        return vocabulary[(int) Math.pow(vocabulary.length, random.nextDouble()) - 1];
+    }
+
+    /**
+     * Generates text
+     * @param length minimum number of chars of the text
+     * @return the generated text
+     */
+    String text(int length) {
+        StringBuilder text = new StringBuilder(length + 64);
+        boolean sentenceStart = true;
+        while(text.length() < length) {
+            String word = word();
+            text.append(sentenceStart ? capitalized(word) : word);
+            sentenceStart = random.nextInt(12) == 0;
+            if(sentenceStart) {
+                text.append(random.nextInt(8) == 0 ? ".\n\n" : ". ");
+            } else {
+                text.append(random.nextInt(10) == 0 ? ", " : " ");
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns a word starting with a capital letter
+     * @param word the word
+     * @return the capitalized word
+     */
+    static String capitalized(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
@@ -0,0 +1,166 @@
+package online.madeofmagicandwires.journal;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates journals of made-up entries, to test and benchmark the app against journals of any
+ * size. A generator created with the same seed always generates the same entries.
+ *
+ * The entries look like those of a real journal as far as storing them goes: titles of a few
+ * words, contents of mostly a few paragraphs but now and then of many pages, of words that are
+ * used about as often as in prose and sometimes aren't ASCII, in a mix of moods, written a few
+ * hours apart on average with the oldest entry first. The words and sentences come from a
+ * {@link Corpus}.
+ *
+ * Kept out of the app itself, in the sources shared by the unit tests and the instrumented benchmarks.
+ */
+public class JournalGenerator {
+
+    /** timestamp of the first generated entry: 2019-01-01 00:00:00 UTC **/
+    public static final long DEFAULT_START_TIME = 1546300800000L;
+    /** number of entries generated per call of insertAll by {@link #populate(EntryDatabase, int)} **/
+    public static final int POPULATE_BATCH_SIZE = 10 * EntryDatabase.DEFAULT_INSERT_BATCH_SIZE;
+
+    /** number of distinct words **/
+    private static final int VOCABULARY_SIZE = 5000;
+    /** median number of words of a title, and the spread of the log of that number **/
+    private static final double TITLE_WORDS_MEDIAN = 4;
+    private static final double TITLE_WORDS_SIGMA = 0.5;
+    /** maximum number of words of a title **/
+    private static final int TITLE_WORDS_MAX = 30;
+    /**
+     * median number of characters of a content, and the spread of the log of that number; about 1
+     * in 40 contents is ten times as long as the median and 1 in 15000 a hundred times as long
+     **/
+    private static final double CONTENT_LENGTH_MEDIAN = 600;
+    private static final double CONTENT_LENGTH_SIGMA = 1.2;
+    /** maximum number of characters of a content **/
+    private static final int CONTENT_LENGTH_MAX = 1024 * 1024;
+    /** mean time between two entries, in milliseconds **/
+    private static final double MEAN_INTERVAL = 8 * 60 * 60 * 1000;
+    /** moods of the entries, and how often each is picked relative to the others **/
+    private static final int[] MOODS = new int[]{
+            JournalEntry.MOOD_HAPPY, JournalEntry.MOOD_BORED, JournalEntry.MOOD_SAD,
+            JournalEntry.MOOD_ANGRY, JournalEntry.MOOD_UNKNOWN};
+    private static final int[] MOOD_WEIGHTS = new int[]{35, 30, 20, 10, 5};
+
+    private final Random random;
+    private final Corpus corpus;
+    private final int moodWeightTotal;
+    private long timestamp;
+
+    /**
+     * Constructor starting the journal at {@link #DEFAULT_START_TIME}
+     * @param seed seed of the vocabulary and the generated entries
+     */
+    public JournalGenerator(long seed) {
+        this(seed, DEFAULT_START_TIME);
+    }
+
+    /**
+     * Standard constructor
+     * @param seed seed of the vocabulary and the generated entries
+     * @param startTime timestamp of the first generated entry, in milliseconds since the epoch
+     */
+    public JournalGenerator(long seed, long startTime) {
+        random = new Random(seed);
+        timestamp = startTime;
+        corpus = new Corpus(random.nextLong(), VOCABULARY_SIZE, true);
+        int total = 0;
+        for(int weight : MOOD_WEIGHTS) {
+            total += weight;
+        }
+        moodWeightTotal = total;
+    }
+
+    /**
+     * Generates the next entry of the journal, written some time after the previous one
+     * @return a new entry without a database id
+     */
+    @NonNull
+    public JournalEntry next() {
+        String title = title();
+        String content = content();
+        int mood = mood();
+        JournalEntry entry = new JournalEntry(title, content, mood, timestamp);
+        timestamp += 1 + (long) (-Math.log(1 - random.nextDouble()) * MEAN_INTERVAL);
+        return entry;
+    }
+
+    /**
+     * Generates the next entries of the journal
+     * @param count number of entries to generate
+     * @return the entries, oldest first, without database ids
+     */
+    @NonNull
+    public List<JournalEntry> generate(int count) {
+        List<JournalEntry> entries = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            entries.add(next());
+        }
+        return entries;
+    }
+
+    /**
+     * Adds the next entries of the journal to a database, {@link #POPULATE_BATCH_SIZE} at a time
+     * so only those are held in memory at once
+     * @param db the database to add the entries to
+     * @param count number of entries to add
+     */
+    public void populate(@NonNull EntryDatabase db, int count) {
+        for(int done = 0; done < count; done += POPULATE_BATCH_SIZE) {
+            db.insertAll(generate(Math.min(POPULATE_BATCH_SIZE, count - done)));
+        }
+    }
+
+    /**
+     * Returns a number drawn from a log-normal distribution
+     * @param median the median of the distribution
+     * @param sigma the standard deviation of the log of the distribution
+     * @param max the largest number returned
+     * @return a number between 1 and max
+     */
+    private int logNormal(double median, double sigma, int max) {
+        double value = median * Math.exp(random.nextGaussian() * sigma);
+        return (int) Math.max(1, Math.min(max, value));
+    }
+
+    /**
+     * Generates a title of a few words
+     * @return the title
+     */
+    private String title() {
+        StringBuilder title = new StringBuilder(Corpus.capitalized(corpus.word()));
+        for(int words = logNormal(TITLE_WORDS_MEDIAN, TITLE_WORDS_SIGMA, TITLE_WORDS_MAX); words > 1; words--) {
+            title.append(' ').append(corpus.word());
+        }
+        return title.toString();
+    }
+
+    /**
+     * Generates a content of sentences and paragraphs
+     * @return the content
+     */
+    private String content() {
+        return corpus.text(logNormal(CONTENT_LENGTH_MEDIAN, CONTENT_LENGTH_SIGMA, CONTENT_LENGTH_MAX)).trim();
+    }
+
+    /**
+     * Picks a mood, some more often than others
+     * @return a mood code
+     */
+    private @JournalEntry.Mood int mood() {
+        int pick = random.nextInt(moodWeightTotal);
+        for(int i = 0; i < MOODS.length; i++) {
+            pick -= MOOD_WEIGHTS[i];
+            if(pick < 0) {
+                return MOODS[i];
+            }
+        }
+        return JournalEntry.MOOD_UNKNOWN;
+    }
+}
@@ -0,0 +1,89 @@
+package online.madeofmagicandwires.journal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the counts and percentiles of DatabaseMetrics against known latencies
+ */
+public class DatabaseMetricsTest {
+
+    private static final long MICROS = 1000;
+
+    @Test
+    public void latenciesAreCountedInPowerOfTwoBuckets() {
+        assertEquals(0, DatabaseMetrics.bucketOf(0));
+        assertEquals(0, DatabaseMetrics.bucketOf(999));
+        assertEquals(1, DatabaseMetrics.bucketOf(MICROS));
+        assertEquals(2, DatabaseMetrics.bucketOf(3 * MICROS));
+        assertEquals(11, DatabaseMetrics.bucketOf(1024 * MICROS));
+        assertEquals(DatabaseMetrics.BUCKETS - 1, DatabaseMetrics.bucketOf(Long.MAX_VALUE));
+        for(int bucket = 1; bucket < DatabaseMetrics.BUCKETS - 1; bucket++) {
+            assertEquals(bucket, DatabaseMetrics.bucketOf(DatabaseMetrics.upperBoundOf(bucket) - 1));
+            assertEquals(bucket + 1, DatabaseMetrics.bucketOf(DatabaseMetrics.upperBoundOf(bucket)));
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinTwiceTheExactValue() {
+        DatabaseMetrics metrics = new DatabaseMetrics();
+        // 1, 2, ... 1000 milliseconds
+        for(int i = 1; i <= 1000; i++) {
+            metrics.record(DatabaseMetrics.OP_GET_ENTRY, i * 1000 * MICROS);
+        }
+        metrics.record(DatabaseMetrics.OP_DELETE, 5 * MICROS);
+        DatabaseMetrics.Snapshot snapshot = metrics.snapshot();
+
+        assertEquals(1000, snapshot.getCount(DatabaseMetrics.OP_GET_ENTRY));
+        assertEquals(1000 * 1001 / 2 * 1000 * MICROS, snapshot.getTotalNanos(DatabaseMetrics.OP_GET_ENTRY));
+        assertEquals(1000 * 1000 * MICROS, snapshot.getMaxNanos(DatabaseMetrics.OP_GET_ENTRY));
+        double[] fractions = new double[]{0.5, 0.9, 0.99};
+        for(double fraction : fractions) {
+            long exact = (long) (fraction * 1000) * 1000 * MICROS;
+            long estimate = snapshot.getPercentileNanos(DatabaseMetrics.OP_GET_ENTRY, fraction);
+            assertTrue(fraction + ": " + estimate, estimate >= exact && estimate <= 2 * exact);
+        }
+        // never more than the longest call
+        assertEquals(5 * MICROS, snapshot.getPercentileNanos(DatabaseMetrics.OP_DELETE, 0.99));
+        assertEquals(0, snapshot.getPercentileNanos(DatabaseMetrics.OP_INSERT, 0.5));
+        assertEquals(0, snapshot.getCount(DatabaseMetrics.OP_INSERT));
+    }
+
+    @Test
+    public void snapshotsDontChangeWithLaterCalls() {
+        DatabaseMetrics metrics = new DatabaseMetrics();
+        metrics.record(DatabaseMetrics.OP_SEARCH, 10 * MICROS);
+        DatabaseMetrics.Snapshot before = metrics.snapshot();
+        metrics.record(DatabaseMetrics.OP_SEARCH, 10 * MICROS);
+        metrics.reset();
+
+        assertEquals(1, before.getCount(DatabaseMetrics.OP_SEARCH));
+        assertEquals(0, metrics.snapshot().getCount(DatabaseMetrics.OP_SEARCH));
+        assertTrue(before.toString().contains("search"));
+        assertFalse(before.toString().contains("insert"));
+    }
+
+    @Test
+    public void differenceOfSnapshotsHoldsTheCallsInBetween() {
+        DatabaseMetrics metrics = new DatabaseMetrics();
+        metrics.record(DatabaseMetrics.OP_SEARCH, 500 * MICROS);
+        DatabaseMetrics.Snapshot before = metrics.snapshot();
+        metrics.record(DatabaseMetrics.OP_SEARCH, 10 * MICROS);
+        metrics.record(DatabaseMetrics.OP_SEARCH, 20 * MICROS);
+        metrics.record(DatabaseMetrics.OP_INSERT, 30 * MICROS);
+
+        DatabaseMetrics.Snapshot since = metrics.snapshot().since(before);
+        assertEquals(2, since.getCount(DatabaseMetrics.OP_SEARCH));
+        assertEquals(30 * MICROS, since.getTotalNanos(DatabaseMetrics.OP_SEARCH));
+        // estimated by its bucket rather than the slow call before
+        assertEquals(DatabaseMetrics.upperBoundOf(DatabaseMetrics.bucketOf(20 * MICROS)),
+                since.getMaxNanos(DatabaseMetrics.OP_SEARCH));
+        assertEquals(1, since.getCount(DatabaseMetrics.OP_INSERT));
+
+        // after a reset, every call came after the earlier snapshot
+        metrics.reset();
+        metrics.record(DatabaseMetrics.OP_SEARCH, 10 * MICROS);
+        assertEquals(1, metrics.snapshot().since(before).getCount(DatabaseMetrics.OP_SEARCH));
+    }
+}
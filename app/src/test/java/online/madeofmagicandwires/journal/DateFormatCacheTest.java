@@ -0,0 +1,61 @@
+package online.madeofmagicandwires.journal;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that DateFormatCache formats the same dates as a plain SimpleDateFormat
+ */
+public class DateFormatCacheTest {
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000L;
+    /** 2019-03-30 00:00:00 UTC, the day before daylight saving time starts in Europe **/
+    private static final long BASE_TIME = 1553904000000L;
+
+    /**
+     * Formats a timestamp the way the cache should
+     */
+    private static String expected(long millis, TimeZone timeZone) {
+        SimpleDateFormat format = new SimpleDateFormat(DateFormatCache.PATTERN_SHORT_ISO, Locale.US);
+        format.setTimeZone(timeZone);
+        return format.format(millis);
+    }
+
+    @Test
+    public void matchesSimpleDateFormatAcrossDaysAndDst() {
+        TimeZone amsterdam = TimeZone.getTimeZone("Europe/Amsterdam");
+        DateFormatCache cache = new DateFormatCache(Locale.US, amsterdam, DateFormatCache.PATTERN_SHORT_ISO);
+        // every hour over three days, twice, so the second pass is served from the cache
+        for(int pass = 0; pass < 2; pass++) {
+            for(int hour = 0; hour < 72; hour++) {
+                long millis = BASE_TIME + hour * HOUR_IN_MILLIS;
+                assertEquals(expected(millis, amsterdam), cache.format(millis));
+            }
+        }
+    }
+
+    @Test
+    public void countsDaysBeforeTheEpoch() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        DateFormatCache cache = new DateFormatCache(Locale.US, utc, DateFormatCache.PATTERN_SHORT_ISO);
+        assertEquals("1970-01-01", cache.format(0));
+        assertEquals("1969-12-31", cache.format(-1));
+        assertEquals("1970-01-01", cache.format(0));
+    }
+
+    @Test
+    public void reusesSlotsForDaysFarApart() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        DateFormatCache cache = new DateFormatCache(Locale.US, utc, DateFormatCache.PATTERN_SHORT_ISO);
+        long day = 24 * HOUR_IN_MILLIS;
+        // 1024 days apart, mapping to the same slot
+        assertEquals(expected(BASE_TIME, utc), cache.format(BASE_TIME));
+        assertEquals(expected(BASE_TIME + 1024 * day, utc), cache.format(BASE_TIME + 1024 * day));
+        assertEquals(expected(BASE_TIME, utc), cache.format(BASE_TIME));
+    }
+}
@@ -0,0 +1,263 @@
+package online.madeofmagicandwires.journal;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that DraftStore writes drafts in the background, only writing the latest version of a draft
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DraftStoreTest {
+
+    /** short debounce time, so tests don't have to wait long for drafts to be written **/
+    private static final long DEBOUNCE_MILLIS = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService executor;
+    private RecordingDraftStore drafts;
+
+    /**
+     * DraftStore remembering on which threads it wrote drafts
+     */
+    private static class RecordingDraftStore extends DraftStore {
+
+        final List<Thread> writeThreads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        RecordingDraftStore(File directory, ScheduledExecutorService executor) {
+            super(directory, executor, new Handler(Looper.getMainLooper()), DEBOUNCE_MILLIS);
+        }
+
+        @Override
+        void write(long draftId, @NonNull JournalEntry entry) throws IOException {
+            writeThreads.add(Thread.currentThread());
+            super.write(draftId, entry);
+        }
+    }
+
+    /**
+     * Callback keeping the draft it received
+     */
+    private static class DraftResult implements EntryRepository.Callback<DraftStore.Draft> {
+
+        DraftStore.Draft draft;
+        boolean called = false;
+
+        @Override
+        public void onResult(DraftStore.Draft result) {
+            draft = result;
+            called = true;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        drafts = new RecordingDraftStore(new File(folder.getRoot(), DraftStore.DIRECTORY_NAME), executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Writes the pending drafts, waits for all queued background work and then runs the results
+     * posted to the main looper
+     */
+    private void drain() throws Exception {
+        drafts.flush().get(5, TimeUnit.SECONDS);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+        ShadowLooper.idleMainLooper();
+    }
+
+    /**
+     * Loads a draft and waits for the result
+     * @param draftId the id of the draft
+     * @return the callback that received the draft
+     */
+    private DraftResult load(long draftId) throws Exception {
+        DraftResult result = new DraftResult();
+        drafts.load(draftId, result);
+        drain();
+        assertTrue(result.called);
+        return result;
+    }
+
+    @Test
+    public void typingNeverWritesOnTheMainThread() throws Exception {
+        Thread mainThread = Looper.getMainLooper().getThread();
+        assertSame(mainThread, Thread.currentThread());
+
+        long draftId = drafts.newDraftId();
+        JournalEntry entry = new JournalEntry("title", "", JournalEntry.MOOD_HAPPY);
+        StringBuilder content = new StringBuilder();
+        int edits = 500;
+        for(int i = 0; i < edits; i++) {
+            content.append((char) ('a' + i % 26));
+            entry.setContent(content.toString());
+            drafts.save(draftId, entry);
+        }
+        drain();
+
+        assertFalse(drafts.writeThreads.isEmpty());
+        assertFalse(drafts.writeThreads.contains(mainThread));
+        // edits made in quick succession are coalesced
+        assertTrue(drafts.writeThreads.size() + " writes", drafts.writeThreads.size() < edits / 10);
+
+        DraftResult result = load(draftId);
+        assertNotNull(result.draft);
+        assertEquals(content.toString(), result.draft.entry.getContent());
+        assertEquals("title", result.draft.entry.getTitle());
+        assertEquals(JournalEntry.MOOD_HAPPY, result.draft.entry.getMood());
+    }
+
+    @Test
+    public void writesWhileTypingContinues() throws Exception {
+        long draftId = drafts.newDraftId();
+        JournalEntry entry = new JournalEntry("title", "", JournalEntry.MOOD_SAD);
+        // keep typing for longer than the maximum delay, a little faster than the debounce time
+        long end = System.currentTimeMillis() + DraftStore.MAX_DELAY_MILLIS + 500;
+        while(System.currentTimeMillis() < end) {
+            entry.setContent(entry.getContent() + "a");
+            drafts.save(draftId, entry);
+            Thread.sleep(DEBOUNCE_MILLIS / 2);
+        }
+
+        assertFalse(drafts.writeThreads.isEmpty());
+    }
+
+    @Test
+    public void loadReturnsUnwrittenEdits() throws Exception {
+        long draftId = drafts.newDraftId();
+        drafts.save(draftId, new JournalEntry("first", "content", JournalEntry.MOOD_BORED));
+        drafts.flush().get(5, TimeUnit.SECONDS);
+        JournalEntry entry = new JournalEntry("second", "content", JournalEntry.MOOD_BORED);
+        drafts.save(draftId, entry);
+        // edits made after saving don't change the stored draft
+        entry.setTitle("third");
+
+        DraftResult result = new DraftResult();
+        drafts.load(draftId, result);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+        ShadowLooper.idleMainLooper();
+        assertEquals("second", result.draft.entry.getTitle());
+        assertNull(load(drafts.newDraftId()).draft);
+    }
+
+    @Test
+    public void findLatestReturnsTheNewestDraftOfAnEntry() throws Exception {
+        long older = drafts.newDraftId();
+        long newer = drafts.newDraftId();
+        long other = drafts.newDraftId();
+        long unsaved = drafts.newDraftId();
+        drafts.save(older, new JournalEntry("older", "content", JournalEntry.MOOD_HAPPY, 0, 7));
+        drafts.save(newer, new JournalEntry("newer", "content", JournalEntry.MOOD_HAPPY, 0, 7));
+        drafts.save(other, new JournalEntry("other", "content", JournalEntry.MOOD_HAPPY, 0, 8));
+        drain();
+        drafts.save(unsaved, new JournalEntry("new", "content", JournalEntry.MOOD_HAPPY));
+
+        DraftResult result = new DraftResult();
+        drafts.findLatest(7, result);
+        drain();
+        assertEquals(newer, result.draft.id);
+        assertEquals("newer", result.draft.entry.getTitle());
+
+        result = new DraftResult();
+        drafts.findLatest(-1, result);
+        drain();
+        assertEquals(unsaved, result.draft.id);
+
+        result = new DraftResult();
+        drafts.findLatest(9, result);
+        drain();
+        assertTrue(result.called);
+        assertNull(result.draft);
+    }
+
+    @Test
+    public void deletedDraftsAreGone() throws Exception {
+        long written = drafts.newDraftId();
+        long unwritten = drafts.newDraftId();
+        drafts.save(written, new JournalEntry("title", "content", JournalEntry.MOOD_ANGRY));
+        drain();
+        drafts.save(unwritten, new JournalEntry("title", "content", JournalEntry.MOOD_ANGRY));
+        drafts.delete(written);
+        drafts.delete(unwritten);
+        drain();
+
+        assertNull(load(written).draft);
+        assertNull(load(unwritten).draft);
+    }
+
+    @Test
+    public void draftsOfDeletedEntriesAreGone() throws Exception {
+        long written = drafts.newDraftId();
+        long unwritten = drafts.newDraftId();
+        long kept = drafts.newDraftId();
+        long unsaved = drafts.newDraftId();
+        drafts.save(written, new JournalEntry("written", "content", JournalEntry.MOOD_SAD, 0, 7));
+        drafts.save(kept, new JournalEntry("kept", "content", JournalEntry.MOOD_SAD, 0, 8));
+        drafts.save(unsaved, new JournalEntry("new", "content", JournalEntry.MOOD_SAD));
+        drain();
+        drafts.save(unwritten, new JournalEntry("unwritten", "content", JournalEntry.MOOD_SAD, 0, 9));
+
+        drafts.deleteDraftsOf(new long[]{9, 7});
+        drain();
+        assertNull(load(written).draft);
+        assertNull(load(unwritten).draft);
+        assertEquals("kept", load(kept).draft.entry.getTitle());
+        assertEquals("new", load(unsaved).draft.entry.getTitle());
+    }
+
+    @Test
+    public void longDraftsRoundTrip() throws Exception {
+        long draftId = drafts.newDraftId();
+        // far longer than writeUTF allows, with characters outside of ASCII
+        JournalEntry entry = new JournalGenerator(1).next();
+        StringBuilder content = new StringBuilder();
+        while(content.length() < 200000) {
+            content.append("déjà vu 日記 ");
+        }
+        entry.setContent(content.toString());
+        drafts.save(draftId, entry);
+        drain();
+
+        JournalEntry draft = load(draftId).draft.entry;
+        assertEquals(entry.getTitle(), draft.getTitle());
+        assertEquals(entry.getContent(), draft.getContent());
+        assertEquals(entry.getMood(), draft.getMood());
+        assertEquals(entry.getTimestamp(), draft.getTimestamp());
+        assertEquals(entry.getDatabaseId(), draft.getDatabaseId());
+    }
+}
@@ -0,0 +1,132 @@
+package online.madeofmagicandwires.journal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests deleting, restoring, changing the mood of and exporting sets of entries at once
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EntryBulkOperationsTest {
+
+    private static final String DB_NAME = "EntryBulkOperationsTest.db";
+    /** more than two IN lists' worth, so the last chunk is only partly filled **/
+    private static final int ROWS = 2 * EntryDatabase.IN_LIST_CHUNK_SIZE + 200;
+
+    private EntryDatabase db;
+    private long[] ids;
+
+    @Before
+    public void setUp() {
+        db = new EntryDatabase(RuntimeEnvironment.application, DB_NAME);
+        List<JournalEntry> entries = new ArrayList<>();
+        for(int i = 0; i < ROWS; i++) {
+            entries.add(new JournalEntry("Entry " + i, "content of entry " + i, JournalEntry.MOOD_HAPPY,
+                    i * MoodStatistics.DAY_MILLIS / 4));
+        }
+        ids = db.insertAll(entries);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Returns every other id, latest first, with one of them twice and one that doesn't exist
+     * @return the ids of half of the entries
+     */
+    private long[] everyOther() {
+        long[] selected = new long[ROWS / 2 + 2];
+        for(int i = 0; i < ROWS / 2; i++) {
+            selected[i] = ids[ROWS - 1 - 2 * i];
+        }
+        selected[ROWS / 2] = selected[0];
+        selected[ROWS / 2 + 1] = ids[ROWS - 1] + 1000;
+        return selected;
+    }
+
+    @Test
+    public void distinctIdsAreSortedWithoutDuplicates() {
+        assertArrayEquals(new long[]{1, 3, 7}, EntryDatabase.distinctIds(new long[]{7, 3, 7, 1, 3}));
+        assertEquals(0, EntryDatabase.distinctIds(new long[0]).length);
+        assertEquals("_id IN (?,?,?)", EntryDatabase.inList(EntryDatabase.TABLE_COLUMN_ID, 3));
+    }
+
+    @Test
+    public void bulkDeleteAndRestoreRunAsOneTransactionEach() {
+        long[] selected = everyOther();
+        long version = db.getDataVersion();
+        assertEquals(ROWS / 2, db.delete(selected));
+        assertEquals(version + 1, db.getDataVersion());
+        assertEquals(ROWS / 2, db.countDeleted());
+        assertEquals(ROWS / 2, EntryRow.listOf(db.selectFirstPage(ROWS)).size());
+        assertNull(db.getEntry(ids[ROWS - 1]));
+        assertNotNull(db.getEntry(ids[ROWS - 2]));
+        assertEquals(ROWS / 2, db.search("content", ROWS).size());
+        assertEquals(MoodStatisticsTest.recompute(db.getReadableDatabase()),
+                MoodStatisticsTest.summary(db.getReadableDatabase()));
+        assertEquals(0, db.delete(selected));
+
+        assertEquals(ROWS / 2, db.restore(selected));
+        assertEquals(0, db.countDeleted());
+        assertEquals(ROWS, EntryRow.listOf(db.selectFirstPage(ROWS)).size());
+        assertEquals("content of entry " + (ROWS - 1), db.getEntry(ids[ROWS - 1]).getContent());
+        assertEquals(MoodStatisticsTest.recompute(db.getReadableDatabase()),
+                MoodStatisticsTest.summary(db.getReadableDatabase()));
+
+        DatabaseMetrics.Snapshot snapshot = db.getMetrics().snapshot();
+        assertEquals(2, snapshot.getCount(DatabaseMetrics.OP_DELETE_ALL));
+        assertEquals(1, snapshot.getCount(DatabaseMetrics.OP_RESTORE_ALL));
+        assertEquals(0, snapshot.getCount(DatabaseMetrics.OP_DELETE));
+    }
+
+    @Test
+    public void bulkMoodChangeOnlyTouchesChangedEntries() {
+        long[] selected = everyOther();
+        // cached with its old mood
+        assertEquals(JournalEntry.MOOD_HAPPY, db.getEntry(ids[ROWS - 1]).getMood());
+
+        long version = db.getDataVersion();
+        assertEquals(ROWS / 2, db.updateMoods(selected, JournalEntry.MOOD_SAD));
+        assertEquals(version + 1, db.getDataVersion());
+        assertEquals(JournalEntry.MOOD_SAD, db.getEntry(ids[ROWS - 1]).getMood());
+        assertEquals(JournalEntry.MOOD_HAPPY, db.getEntry(ids[ROWS - 2]).getMood());
+        assertEquals(ROWS / 2, EntryRow.listOf(db.selectByMood(JournalEntry.MOOD_SAD, ROWS)).size());
+        assertEquals(MoodStatisticsTest.recompute(db.getReadableDatabase()),
+                MoodStatisticsTest.summary(db.getReadableDatabase()));
+
+        // those that have the mood already are left alone
+        assertEquals(0, db.updateMoods(selected, JournalEntry.MOOD_SAD));
+        assertEquals(version + 1, db.getDataVersion());
+        assertEquals(2, db.updateMoods(new long[]{ids[0], ids[ROWS - 1], ids[ROWS - 2]}, JournalEntry.MOOD_SAD));
+    }
+
+    @Test
+    public void bulkExportWritesOnlyTheSelection() throws IOException {
+        long[] selected = everyOther();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = new EntryExporter(db.getReadableDatabase()).export(Channels.newChannel(out),
+                EntryExporter.FORMAT_CSV, selected, null, null);
+        assertEquals(ROWS / 2, count);
+
+        String[] lines = new String(out.toByteArray(), EntryExporter.UTF_8).split("\r\n");
+        assertEquals(ROWS / 2 + 1, lines.length);
+        // ordered by id, across the chunks
+        assertTrue(lines[1], lines[1].startsWith(ids[1] + ",Entry 1,"));
+        assertTrue(lines[ROWS / 2], lines[ROWS / 2].startsWith(ids[ROWS - 1] + ",Entry " + (ROWS - 1) + ","));
+    }
+}
@@ -0,0 +1,149 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the cache in front of EntryDatabase.getEntry stays coherent with the database
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EntryCacheTest {
+
+    private static final String DB_NAME = "EntryCacheTest.db";
+    /** small enough that the interleaved edits keep evicting entries **/
+    private static final int CACHE_SIZE = 16 * 1024;
+    private static final int[] MOODS = new int[]{
+            JournalEntry.MOOD_ANGRY, JournalEntry.MOOD_BORED, JournalEntry.MOOD_HAPPY, JournalEntry.MOOD_SAD};
+
+    private EntryDatabase db;
+
+    @Before
+    public void setUp() {
+        db = new EntryDatabase(RuntimeEnvironment.application, DB_NAME, CACHE_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Asserts two entries hold the same data
+     */
+    private static void assertSameEntry(JournalEntry expected, JournalEntry actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getDatabaseId(), actual.getDatabaseId());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getMood(), actual.getMood());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+
+    @Test
+    public void repeatedReadsHitTheCache() {
+        long id = db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_HAPPY));
+        db.getCache().clear();
+
+        assertNotNull(db.getEntry(id));
+        assertEquals(1, db.getCache().missCount());
+        assertNotNull(db.getEntry(id));
+        assertNotNull(db.getEntry(id));
+        assertEquals(1, db.getCache().missCount());
+        assertEquals(2, db.getCache().hitCount());
+    }
+
+    @Test
+    public void editingAReturnedEntryDoesNotChangeTheCache() {
+        long id = db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_HAPPY));
+
+        JournalEntry edited = db.getEntry(id);
+        edited.setTitle("unsaved title");
+        assertEquals("title", db.getEntry(id).getTitle());
+    }
+
+    @Test
+    public void largeEntriesAreWeighedByContent() {
+        StringBuilder content = new StringBuilder();
+        while(content.length() < CACHE_SIZE) {
+            content.append("too long to cache ");
+        }
+        long id = db.insert(new JournalEntry("title", content.toString(), JournalEntry.MOOD_SAD));
+
+        assertEquals(content.toString(), db.getEntry(id).getContent());
+        assertTrue(db.getCache().size() <= db.getCache().maxSize());
+    }
+
+    @Test
+    public void staysCoherentUnderInterleavedEdits() {
+        Random random = new Random(42);
+        Map<Long, JournalEntry> expected = new HashMap<>();
+        List<Long> ids = new ArrayList<>();
+
+        for(int i = 0; i < 2000; i++) {
+            int operation = random.nextInt(10);
+            if(ids.isEmpty() || operation < 3) {
+                JournalEntry entry = new JournalEntry("entry " + i, "content " + i, MOODS[random.nextInt(MOODS.length)]);
+                long id = db.insert(entry);
+                ids.add(id);
+                expected.put(id, new JournalEntry(entry.getTitle(), entry.getContent(), entry.getMood(),
+                        entry.getTimestamp(), id));
+            } else if(operation < 5) {
+                // edit an entry the way InputActivity does: load it, change it and save it again
+                long id = ids.get(random.nextInt(ids.size()));
+                JournalEntry entry = db.getEntry(id);
+                entry.setContent("edited " + i + " " + random.nextInt());
+                entry.setMood(MOODS[random.nextInt(MOODS.length)]);
+                assertEquals(id, db.insert(entry));
+                expected.put(id, new JournalEntry(entry));
+            } else if(operation < 6) {
+                long id = ids.remove(random.nextInt(ids.size()));
+                assertEquals(1, db.delete(id));
+                expected.remove(id);
+                assertNull(db.getEntry(id));
+            } else {
+                long id = ids.get(random.nextInt(ids.size()));
+                assertSameEntry(expected.get(id), db.getEntry(id));
+            }
+        }
+
+        assertTrue(db.getCache().hitCount() > 0);
+        assertTrue(db.getCache().missCount() > 0);
+
+        // every entry as stored in the database, bypassing the cache, matches what was last written
+        db.getCache().clear();
+        for(long id : ids) {
+            assertSameEntry(expected.get(id), db.getEntry(id));
+        }
+    }
+
+    @Test
+    public void discardsLoadsRacingWithAWrite() {
+        long id = db.insert(new JournalEntry("old", "content", JournalEntry.MOOD_HAPPY));
+        db.getCache().clear();
+
+        // a load that read the row before it was overwritten must not be cached
+        long token = db.getCache().beginLoad();
+        JournalEntry stale = new JournalEntry("old", "content", JournalEntry.MOOD_HAPPY, 0, id);
+        SQLiteDatabase sqlite = db.getWritableDatabase();
+        sqlite.execSQL("UPDATE " + EntryDatabase.DB_TABLE_NAME + " SET title='new' WHERE _id=" + id);
+        db.getCache().remove(id);
+        db.getCache().putLoaded(stale, token);
+
+        assertEquals("new", db.getEntry(id).getTitle());
+    }
+}
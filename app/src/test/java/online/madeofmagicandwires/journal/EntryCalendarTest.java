@@ -0,0 +1,162 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the date range and calendar queries and the calendar built from them
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EntryCalendarTest {
+
+    private static final String DB_NAME = "EntryCalendarTest.db";
+    private static final TimeZone AMSTERDAM = TimeZone.getTimeZone("Europe/Amsterdam");
+    /** 2018-03-24 00:00:00 in Amsterdam (CET), the day before daylight saving time started **/
+    private static final long MARCH_24 = 1521846000000L;
+    /** 2018-03-25 00:00:00 in Amsterdam (CET), a day of 23 hours **/
+    private static final long MARCH_25 = MARCH_24 + 24 * 3600000L;
+    /** 2018-03-26 00:00:00 in Amsterdam (CEST) **/
+    private static final long MARCH_26 = MARCH_25 + 23 * 3600000L;
+    private static final long HOUR = 3600000L;
+
+    private EntryDatabase db;
+
+    @Before
+    public void setUp() {
+        db = new EntryDatabase(RuntimeEnvironment.application, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    private long insert(String title, @JournalEntry.Mood int mood, long timestamp) {
+        return db.insert(new JournalEntry(title, "content of " + title, mood, timestamp));
+    }
+
+    /**
+     * Returns the query plan of a statement
+     * @param sql the statement
+     * @param args the values of the ?s in the statement
+     * @return the details of every step of the plan, one per line
+     */
+    private String planOf(String sql, String... args) {
+        Cursor plan = db.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        StringBuilder details = new StringBuilder();
+        while(plan.moveToNext()) {
+            details.append(plan.getString(plan.getColumnIndex("detail"))).append('\n');
+        }
+        plan.close();
+        return details.toString();
+    }
+
+    @Test
+    public void selectBetweenReturnsTheRangeLatestFirst() {
+        List<Long> ids = new ArrayList<>();
+        for(int i = 0; i < 48; i++) {
+            ids.add(insert("Entry " + i, JournalEntry.MOOD_HAPPY, MARCH_24 + i * HOUR));
+        }
+        // a tie with the last entry of the range, to be ordered by id
+        long tie = insert("Tie", JournalEntry.MOOD_SAD, MARCH_24 + 40 * HOUR);
+
+        List<EntryRow> rows = EntryRow.listOf(db.selectBetween(MARCH_24 + 24 * HOUR, MARCH_24 + 41 * HOUR, 100));
+        assertEquals(18, rows.size());
+        assertEquals((long) ids.get(40), rows.get(0).getDatabaseId());
+        assertEquals(tie, rows.get(1).getDatabaseId());
+        assertEquals(JournalEntry.MOOD_SAD, rows.get(1).getMood());
+        assertEquals((long) ids.get(24), rows.get(17).getDatabaseId());
+        assertEquals("Entry 24", rows.get(17).getTitle());
+        assertEquals(MARCH_24 + 24 * HOUR, rows.get(17).getTimestamp());
+
+        assertEquals(5, EntryRow.listOf(db.selectBetween(MARCH_24, MARCH_26, 5)).size());
+        assertTrue(EntryRow.listOf(db.selectBetween(MARCH_26 + 48 * HOUR, MARCH_26 + 72 * HOUR, 5)).isEmpty());
+    }
+
+    @Test
+    public void calendarCountsPerLocalDay() {
+        insert("before", JournalEntry.MOOD_ANGRY, MARCH_24 - 1);
+        insert("first", JournalEntry.MOOD_HAPPY, MARCH_24);
+        insert("late", JournalEntry.MOOD_HAPPY, MARCH_25 - 1);
+        insert("after the change", JournalEntry.MOOD_SAD, MARCH_25 + 22 * HOUR);
+        insert("unknown", JournalEntry.MOOD_UNKNOWN, MARCH_25 + 22 * HOUR + 30 * 60000L);
+        insert("next day", JournalEntry.MOOD_BORED, MARCH_26);
+
+        // starts halfway through the first day, which is counted as a whole
+        EntryCalendar calendar = db.getCalendar(EntryCalendar.UNIT_DAY, MARCH_24 + 12 * HOUR, MARCH_26, AMSTERDAM);
+        assertEquals(2, calendar.size());
+        assertEquals(MARCH_24, calendar.getStart());
+        assertEquals(MARCH_25, calendar.getStart(1));
+        assertEquals(MARCH_26, calendar.getEnd());
+        assertEquals(2, calendar.getCount(0));
+        assertEquals(2, calendar.getCount(0, JournalEntry.MOOD_HAPPY));
+        assertEquals(2, calendar.getCount(1));
+        assertEquals(1, calendar.getCount(1, JournalEntry.MOOD_SAD));
+        assertEquals(1, calendar.getCount(1, JournalEntry.MOOD_UNKNOWN));
+        assertEquals(4, calendar.getTotal());
+        assertEquals(1, calendar.indexOf(MARCH_26 - 1));
+        assertEquals(-1, calendar.indexOf(MARCH_26));
+        assertEquals(-1, calendar.indexOf(MARCH_24 - 1));
+    }
+
+    @Test
+    public void calendarCountsPerLocalMonth() {
+        // 2018-01-01 00:00:00 in Amsterdam
+        long january = 1514761200000L;
+        for(int day = 0; day < 365; day++) {
+            insert("Day " + day, JournalEntry.MOOD_HAPPY, january + day * 24 * HOUR + 12 * HOUR);
+        }
+
+        EntryCalendar calendar = db.getCalendar(EntryCalendar.UNIT_MONTH, MARCH_25, MARCH_25 + 200 * 24 * HOUR,
+                AMSTERDAM);
+        // March up to and including October
+        assertEquals(8, calendar.size());
+        assertEquals(january + (31 + 28) * 24 * HOUR, calendar.getStart());
+        assertEquals(31, calendar.getCount(0));
+        assertEquals(30, calendar.getCount(1));
+        assertEquals(31, calendar.getCount(7));
+        assertEquals(31 + 30 + 31 + 30 + 31 + 31 + 30 + 31, calendar.getTotal());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRangesAreRejected() {
+        db.getCalendar(EntryCalendar.UNIT_DAY, MARCH_25, MARCH_25, AMSTERDAM);
+    }
+
+    @Test
+    public void rangeQueriesOnlyReadTheCalendarIndex() {
+        String range = " FROM " + EntryDatabase.DB_TABLE_NAME + " WHERE " + EntryDatabase.TABLE_COLUMN_TIMESTAMP +
+                " >= ? AND " + EntryDatabase.TABLE_COLUMN_TIMESTAMP + " < ?";
+        String[] args = new String[]{String.valueOf(MARCH_24), String.valueOf(MARCH_26)};
+
+        String entries = planOf("SELECT substr(" + EntryDatabase.TABLE_COLUMN_TITLE + ", 1, " +
+                EntryDatabase.LIST_TITLE_LENGTH + "), " + EntryDatabase.TABLE_COLUMN_MOOD + ", " +
+                EntryDatabase.TABLE_COLUMN_TIMESTAMP + ", " + EntryDatabase.TABLE_COLUMN_ID + range +
+                " ORDER BY " + EntryDatabase.ORDER_LATEST + " LIMIT 100", args);
+        assertTrue(entries, entries.contains("COVERING INDEX " + EntryDatabase.INDEX_CALENDAR));
+        assertFalse(entries, entries.contains("TEMP B-TREE"));
+
+        String counts = planOf("SELECT " + EntryDatabase.TABLE_COLUMN_TIMESTAMP + ", " +
+                EntryDatabase.TABLE_COLUMN_MOOD + range, args);
+        assertTrue(counts, counts.contains("COVERING INDEX " + EntryDatabase.INDEX_CALENDAR));
+
+        // the list is still read in order from the same index
+        String list = planOf("SELECT * FROM " + EntryDatabase.DB_TABLE_NAME + " ORDER BY " +
+                EntryDatabase.ORDER_LATEST + " LIMIT 50");
+        assertTrue(list, list.contains(EntryDatabase.INDEX_CALENDAR));
+        assertFalse(list, list.contains("TEMP B-TREE"));
+    }
+}
@@ -0,0 +1,197 @@
+package online.madeofmagicandwires.journal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests deleting and restoring entries, and purging and vacuuming them away afterwards
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EntryCompactorTest {
+
+    private static final String DB_NAME = "EntryCompactorTest.db";
+    private static final long UNDO_WINDOW_MILLIS = 1000;
+    private static final int BATCH_SIZE = 10;
+
+    private EntryDatabase db;
+    private ScheduledThreadPoolExecutor executor;
+    private EntryCompactor compactor;
+
+    @Before
+    public void setUp() {
+        db = new EntryDatabase(RuntimeEnvironment.application, DB_NAME);
+        executor = new ScheduledThreadPoolExecutor(1);
+        compactor = new EntryCompactor(db, executor, UNDO_WINDOW_MILLIS, BATCH_SIZE,
+                EntryCompactor.DEFAULT_VACUUM_THRESHOLD);
+    }
+
+    @After
+    public void tearDown() {
+        compactor.shutdown();
+        db.close();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Returns a content of random letters
+     * @param random source of the characters
+     * @param length the number of characters
+     * @return random letters
+     */
+    private static String randomContent(Random random, int length) {
+        StringBuilder content = new StringBuilder(length);
+        for(int i = 0; i < length; i++) {
+            content.append((char) ('a' + random.nextInt(26)));
+        }
+        return content.toString();
+    }
+
+    /**
+     * Returns a time after which every entry deleted so far can be purged
+     * @return milliseconds since the epoch
+     */
+    private static long later() {
+        return System.currentTimeMillis() + UNDO_WINDOW_MILLIS + 1;
+    }
+
+    @Test
+    public void deletedEntriesAreHiddenUntilRestored() {
+        long now = System.currentTimeMillis();
+        long today = MoodStatistics.localDayOf(now, db.getTimeZone());
+        long kept = db.insert(new JournalEntry("Kept", "an ordinary day", JournalEntry.MOOD_HAPPY, now));
+        long deleted = db.insert(new JournalEntry("Deleted", "a regrettable day", JournalEntry.MOOD_SAD, now));
+
+        assertEquals(1, db.delete(deleted));
+        assertEquals(1, db.countDeleted());
+        List<EntryRow> rows = EntryRow.listOf(db.selectFirstPage(10));
+        assertEquals(1, rows.size());
+        assertEquals(kept, rows.get(0).getDatabaseId());
+        assertNull(db.getEntry(deleted));
+        assertTrue(db.search("regrettable", 10).isEmpty());
+        assertEquals(1, db.getMoodStatistics(MoodStatistics.PERIOD_DAY, today).getTotal());
+        // deleting it again doesn't touch its tombstone
+        assertEquals(0, db.delete(deleted));
+        assertEquals(1, db.countDeleted());
+
+        assertEquals(1, db.restore(deleted));
+        assertEquals(0, db.countDeleted());
+        assertEquals(2, EntryRow.listOf(db.selectFirstPage(10)).size());
+        JournalEntry restored = db.getEntry(deleted);
+        assertNotNull(restored);
+        assertEquals("a regrettable day", restored.getContent());
+        assertEquals(JournalEntry.MOOD_SAD, restored.getMood());
+        assertEquals(deleted, db.search("regrettable", 10).get(0).getDatabaseId());
+        assertEquals(2, db.getMoodStatistics(MoodStatistics.PERIOD_DAY, today).getTotal());
+        assertEquals(0, db.restore(deleted));
+    }
+
+    @Test
+    public void onlyExpiredTombstonesArePurgedInBatches() {
+        List<Long> ids = new ArrayList<>();
+        for(int i = 0; i < 25; i++) {
+            ids.add(db.insert(new JournalEntry("Entry " + i, "content of entry " + i, JournalEntry.MOOD_BORED)));
+        }
+        for(long id : ids) {
+            db.delete(id);
+        }
+
+        // still within the undo window
+        EntryCompactor.Report early = compactor.compact(System.currentTimeMillis());
+        assertEquals(0, early.getPurged());
+        assertEquals(25, db.countDeleted());
+
+        EntryCompactor.Report report = compactor.compact(later());
+        assertEquals(25, report.getPurged());
+        assertSame(report, compactor.getLastReport());
+        assertEquals(0, db.countDeleted());
+        assertEquals(0, db.restore(ids.get(0)));
+        // one empty batch early, then two full ones and the rest
+        assertEquals(4, db.getMetrics().snapshot().getCount(DatabaseMetrics.OP_PURGE));
+    }
+
+    /**
+     * Inserts entries that don't compress, so every entry takes up about as many bytes as its
+     * content is long
+     * @param count the number of entries
+     * @return the database ids of the entries
+     */
+    private List<Long> insertLarge(int count) {
+        db.setCompressionThreshold(Integer.MAX_VALUE);
+        Random random = new Random(42);
+        List<Long> ids = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            ids.add(db.insert(new JournalEntry("Entry " + i, randomContent(random, 8 * 1024), JournalEntry.MOOD_HAPPY)));
+        }
+        return ids;
+    }
+
+    @Test
+    public void newFilesAreVacuumedIncrementally() {
+        assertTrue(db.getStorage().isIncrementalVacuum());
+        List<Long> ids = insertLarge(200);
+        // too few unused pages to vacuum for
+        db.delete(ids.get(0));
+        EntryCompactor.Report small = compactor.compact(later());
+        assertEquals(1, small.getPurged());
+        assertFalse(small.isVacuumed());
+
+        for(long id : ids.subList(1, 150)) {
+            db.delete(id);
+        }
+        EntryCompactor.Report report = compactor.compact(later());
+        assertEquals(149, report.getPurged());
+        assertTrue(report.isVacuumed());
+        assertTrue(report.getBefore().getFreeRatio() >= EntryCompactor.DEFAULT_VACUUM_THRESHOLD);
+        assertTrue(report.getAfter().getFileSize() < report.getBefore().getFileSize() / 2);
+        assertEquals(0, report.getAfter().getFreePages());
+        assertEquals(50, EntryRow.listOf(db.selectFirstPage(100)).size());
+
+        // the shared metrics are left alone; the report tells the calls before and after apart
+        assertEquals(200, report.getMetricsBefore().getCount(DatabaseMetrics.OP_INSERT));
+        assertEquals(200, db.getMetrics().snapshot().getCount(DatabaseMetrics.OP_INSERT));
+        db.search("Entry", 10);
+        DatabaseMetrics.Snapshot since = db.getMetrics().snapshot().since(report.getMetricsAfter());
+        assertEquals(0, since.getCount(DatabaseMetrics.OP_INSERT));
+        assertEquals(1, since.getCount(DatabaseMetrics.OP_SEARCH));
+    }
+
+    @Test
+    public void upgradedFilesAreRewrittenOnce() {
+        // as created before version 11
+        db.getWritableDatabase().execSQL("PRAGMA auto_vacuum = NONE");
+        db.getWritableDatabase().execSQL("VACUUM");
+        assertFalse(db.getStorage().isIncrementalVacuum());
+        List<Long> ids = insertLarge(200);
+
+        for(long id : ids.subList(0, 150)) {
+            db.delete(id);
+        }
+        EntryCompactor.Report report = compactor.compact(later());
+        assertTrue(report.isVacuumed());
+        assertFalse(report.getBefore().isIncrementalVacuum());
+        assertTrue(report.getAfter().isIncrementalVacuum());
+        assertTrue(report.getAfter().getFileSize() < report.getBefore().getFileSize() / 2);
+        assertEquals(0, report.getAfter().getFreePages());
+
+        // from now on the file is vacuumed a few pages at a time
+        for(long id : ids.subList(150, 190)) {
+            db.delete(id);
+        }
+        EntryCompactor.Report incremental = compactor.compact(later());
+        assertTrue(incremental.isVacuumed());
+        assertTrue(incremental.getAfter().getFileSize() < incremental.getBefore().getFileSize());
+        assertEquals(0, incremental.getAfter().getFreePages());
+        assertEquals(10, EntryRow.listOf(db.selectFirstPage(100)).size());
+    }
+}
@@ -0,0 +1,190 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures how selectAll, getEntry, insert and delete scale with the size of the journal, against
+ * journals generated by a {@link JournalGenerator}, and reports the percentiles of their latencies
+ * and the size of the database file at each size to standard output.
+ *
+ * Only the smallest journal is tested by default, as generating the larger ones takes minutes and
+ * gigabytes of disk; the sizes to test are set with the loadTestScales project property, e.g.
+ * <code>./gradlew testDebugUnitTest --tests '*EntryDatabaseLoadTest' -PloadTestScales=10000,100000,1000000</code>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EntryDatabaseLoadTest {
+
+    private static final String DB_NAME = "EntryDatabaseLoadTest.db";
+    /** system property listing the numbers of entries to test, separated by commas **/
+    private static final String SCALES_PROPERTY = "loadTestScales";
+    private static final String DEFAULT_SCALES = "10000";
+    /** seed of the generated journals, so every run tests the same entries **/
+    private static final long SEED = 42;
+    /** number of timed calls of getEntry, insert and delete **/
+    private static final int ITERATIONS = 500;
+    /** number of timed reads of all rows of selectAll **/
+    private static final int SELECT_ALL_ITERATIONS = 5;
+
+    private EntryDatabase db;
+
+    @Before
+    public void setUp() {
+        db = new EntryDatabase(RuntimeEnvironment.application, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Returns whether a journal size is to be tested
+     * @param entries the number of entries
+     * @return true if the size is listed by the {@link #SCALES_PROPERTY} property
+     */
+    private static boolean isEnabled(int entries) {
+        Set<String> scales = new HashSet<>(Arrays.asList(
+                System.getProperty(SCALES_PROPERTY, DEFAULT_SCALES).split("\\s*,\\s*")));
+        return scales.contains(String.valueOf(entries));
+    }
+
+    /**
+     * Reports the percentiles of a set of samples
+     * @param entries the number of entries in the journal
+     * @param name name of the measured operation
+     * @param nanos durations of the individual calls
+     */
+    private static void report(int entries, String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.US,
+                "%d entries, %s: n=%d p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus",
+                entries,
+                name,
+                sorted.length,
+                percentile(sorted, 0.5) / 1000.0,
+                percentile(sorted, 0.9) / 1000.0,
+                percentile(sorted, 0.99) / 1000.0,
+                sorted[sorted.length - 1] / 1000.0));
+    }
+
+    /**
+     * Returns the sample below which a given fraction of the samples lie
+     * @param sorted the samples in ascending order
+     * @param fraction the fraction, between 0 and 1
+     * @return the sample
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+
+    /**
+     * Returns the size of the database file, once every change in the WAL has been written to it
+     * @return the size in bytes
+     */
+    private long fileSize() {
+        Cursor c = db.getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null);
+        c.moveToFirst();
+        c.close();
+        return RuntimeEnvironment.application.getDatabasePath(DB_NAME).length();
+    }
+
+    /**
+     * Fills the journal with generated entries, then times each operation against it
+     * @param entries the number of entries in the journal
+     */
+    private void measure(int entries) {
+        assumeTrue(isEnabled(entries));
+        JournalGenerator generator = new JournalGenerator(SEED);
+        long start = System.nanoTime();
+        generator.populate(db, entries);
+        long populateNanos = System.nanoTime() - start;
+        assertEquals(entries, DatabaseUtils.queryNumEntries(db.getReadableDatabase(), EntryDatabase.DB_TABLE_NAME));
+        System.out.println(String.format(Locale.US, "%d entries, populate: %.1fs, %.0f rows/s, file size %.1fMB",
+                entries, populateNanos / 1e9, entries / (populateNanos / 1e9), fileSize() / (1024.0 * 1024.0)));
+
+        long[] selectAll = new long[SELECT_ALL_ITERATIONS];
+        for(int i = 0; i < SELECT_ALL_ITERATIONS; i++) {
+            start = System.nanoTime();
+            Cursor c = db.selectAll();
+            int rows = 0;
+            while(c.moveToNext()) {
+                c.getString(0);
+                rows++;
+            }
+            c.close();
+            selectAll[i] = System.nanoTime() - start;
+            assertEquals(entries, rows);
+        }
+        report(entries, "selectAll", selectAll);
+
+        // ids are assigned in the order the entries were generated, starting at 1
+        Random random = new Random(SEED);
+        long[] reads = new long[ITERATIONS];
+        for(int i = 0; i < ITERATIONS; i++) {
+            // measure reading the database rather than the cache
+            db.getCache().clear();
+            long id = 1 + random.nextInt(entries);
+            start = System.nanoTime();
+            JournalEntry entry = db.getEntry(id);
+            reads[i] = System.nanoTime() - start;
+            assertNotNull(entry);
+        }
+        report(entries, "getEntry", reads);
+
+        long[] ids = new long[ITERATIONS];
+        long[] inserts = new long[ITERATIONS];
+        for(int i = 0; i < ITERATIONS; i++) {
+            JournalEntry entry = generator.next();
+            start = System.nanoTime();
+            ids[i] = db.insert(entry);
+            inserts[i] = System.nanoTime() - start;
+            assertTrue(ids[i] > entries);
+        }
+        report(entries, "insert", inserts);
+
+        long[] deletes = new long[ITERATIONS];
+        for(int i = 0; i < ITERATIONS; i++) {
+            start = System.nanoTime();
+            int deleted = db.delete(ids[i]);
+            deletes[i] = System.nanoTime() - start;
+            assertEquals(1, deleted);
+        }
+        report(entries, "delete", deletes);
+        System.out.println(String.format(Locale.US, "%d entries, file size after inserts and deletes: %.1fMB",
+                entries, fileSize() / (1024.0 * 1024.0)));
+    }
+
+    @Test
+    public void tenThousandEntries() {
+        measure(10000);
+    }
+
+    @Test
+    public void hundredThousandEntries() {
+        measure(100000);
+    }
+
+    @Test
+    public void millionEntries() {
+        measure(1000000);
+    }
+}
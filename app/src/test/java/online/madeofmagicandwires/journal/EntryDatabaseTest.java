@@ -0,0 +1,411 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the EntryDatabase write paths
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EntryDatabaseTest {
+
+    private static final String DB_NAME = "EntryDatabaseTest.db";
+
+    private EntryDatabase db;
+
+    @Before
+    public void setUp() {
+        db = new EntryDatabase(RuntimeEnvironment.application, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Generates entries without database ids
+     * @param count number of entries to generate
+     * @return the generated entries
+     */
+    private static List<JournalEntry> generate(int count) {
+        List<JournalEntry> entries = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            entries.add(new JournalEntry("Entry " + i, "content number" + i, JournalEntry.MOOD_HAPPY, i * 1000L));
+        }
+        return entries;
+    }
+
+    @Test
+    public void insertAllReturnsIdsInOrder() {
+        List<JournalEntry> entries = generate(1234);
+        long[] ids = db.insertAll(entries, 100);
+
+        assertEquals(entries.size(), ids.length);
+        assertEquals(entries.size(), DatabaseUtils.queryNumEntries(db.getReadableDatabase(), EntryDatabase.DB_TABLE_NAME));
+        for(int i = 0; i < ids.length; i++) {
+            JournalEntry stored = db.getEntry(ids[i]);
+            assertEquals(entries.get(i).getTitle(), stored.getTitle());
+            assertEquals(entries.get(i).getContent(), stored.getContent());
+            assertEquals(entries.get(i).getTimestamp(), stored.getTimestamp());
+        }
+    }
+
+    @Test
+    public void insertAllReplacesEntriesWithIds() {
+        long id = db.insert(new JournalEntry("before", "content", JournalEntry.MOOD_SAD));
+        // cache the entry as it was before it is replaced
+        assertEquals("before", db.getEntry(id).getTitle());
+
+        JournalEntry replacement = new JournalEntry("after", "content", JournalEntry.MOOD_SAD, 0, id);
+        long[] ids = db.insertAll(Collections.singletonList(replacement));
+
+        assertEquals(id, ids[0]);
+        assertEquals("after", db.getEntry(id).getTitle());
+        assertEquals(1, DatabaseUtils.queryNumEntries(db.getReadableDatabase(), EntryDatabase.DB_TABLE_NAME));
+    }
+
+    @Test
+    public void insertAllDoesNotCacheRolledBackRows() {
+        long id = db.insert(new JournalEntry("before", "content", JournalEntry.MOOD_SAD));
+        assertEquals("before", db.getEntry(id).getTitle());
+        db.getWritableDatabase().execSQL("CREATE TEMP TRIGGER reject_insert BEFORE INSERT ON " +
+                EntryDatabase.DB_TABLE_NAME + " WHEN new." + EntryDatabase.TABLE_COLUMN_TITLE + " = 'rejected' " +
+                "BEGIN SELECT RAISE(ABORT, 'rejected'); END");
+
+        List<JournalEntry> entries = new ArrayList<>();
+        entries.add(new JournalEntry("after", "content", JournalEntry.MOOD_SAD, 0, id));
+        entries.add(new JournalEntry("rejected", "content", JournalEntry.MOOD_SAD, 0));
+        try {
+            db.insertAll(entries, 10);
+            fail("the rejected row should fail the batch");
+        } catch(SQLException expected) {
+            // the replacement was rolled back with the rest of its batch
+        }
+
+        assertEquals("before", db.getEntry(id).getTitle());
+    }
+
+    @Test
+    public void insertAllUpdatesSearchIndex() {
+        db.insertAll(generate(10));
+        List<SearchResult> results = db.search("number7", 10);
+        assertEquals(1, results.size());
+        assertEquals("Entry 7", results.get(0).getTitle());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insertAllRejectsEmptyBatches() {
+        db.insertAll(generate(1), 0);
+    }
+
+    @Test
+    public void selectByMoodPagesThroughOneMood() {
+        List<JournalEntry> entries = new ArrayList<>();
+        int[] moods = MoodRegistry.getMoods();
+        for(int i = 0; i < 1000; i++) {
+            // every timestamp is used twice, so pages have to be split by id as well
+            entries.add(new JournalEntry("Entry " + i, "content", moods[i % moods.length], (i / 2) * 1000L));
+        }
+        db.insertAll(entries);
+
+        List<Long> paged = new ArrayList<>();
+        Cursor c = db.selectByMood(JournalEntry.MOOD_SAD, 30);
+        while(c.getCount() > 0) {
+            long lastTimestamp = 0;
+            long lastId = 0;
+            while(c.moveToNext()) {
+                assertEquals(JournalEntry.MOOD_SAD, c.getInt(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_MOOD)));
+                lastTimestamp = c.getLong(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_TIMESTAMP));
+                lastId = c.getLong(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_ID));
+                paged.add(lastId);
+            }
+            c.close();
+            c = db.selectPageByMood(JournalEntry.MOOD_SAD, lastTimestamp, lastId, 30);
+        }
+        c.close();
+
+        List<Long> expected = new ArrayList<>();
+        c = db.getReadableDatabase().query(EntryDatabase.DB_TABLE_NAME, new String[]{EntryDatabase.TABLE_COLUMN_ID},
+                EntryDatabase.TABLE_COLUMN_MOOD + "=" + JournalEntry.MOOD_SAD, null, null, null,
+                EntryDatabase.ORDER_LATEST);
+        while(c.moveToNext()) {
+            expected.add(c.getLong(0));
+        }
+        c.close();
+        assertEquals(250, expected.size());
+        assertEquals(expected, paged);
+    }
+
+    @Test
+    public void selectByMoodUsesMoodIndex() {
+        Cursor plan = db.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN SELECT * FROM " + EntryDatabase.DB_TABLE_NAME +
+                " WHERE " + EntryDatabase.TABLE_COLUMN_MOOD + " = ? ORDER BY " + EntryDatabase.ORDER_LATEST,
+                new String[]{String.valueOf(JournalEntry.MOOD_HAPPY)});
+        StringBuilder details = new StringBuilder();
+        while(plan.moveToNext()) {
+            details.append(plan.getString(plan.getColumnIndex("detail"))).append('\n');
+        }
+        plan.close();
+        assertTrue(details.toString(), details.toString().contains(EntryDatabase.INDEX_MOOD));
+        assertFalse(details.toString(), details.toString().contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void moodsAreStoredAsCodes() {
+        long id = db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_BORED));
+        assertEquals(JournalEntry.MOOD_BORED, DatabaseUtils.longForQuery(db.getReadableDatabase(),
+                "SELECT " + EntryDatabase.TABLE_COLUMN_MOOD + " FROM " + EntryDatabase.DB_TABLE_NAME +
+                        " WHERE " + EntryDatabase.TABLE_COLUMN_ID + "=" + id, null));
+        db.getCache().clear();
+        assertEquals(JournalEntry.MOOD_BORED, db.getEntry(id).getMood());
+    }
+
+    /**
+     * Generates a content mixing characters of one to four UTF-8 bytes
+     * @param length minimum number of chars of the content
+     * @return the generated content
+     */
+    private static String mixedContent(int length) {
+        String[] parts = {"plain text ", "\u00e9t\u00e9 ", "\u65e5\u8a18 ", "\ud83d\ude00 ", "\n"};
+        Random random = new Random(length);
+        StringBuilder content = new StringBuilder(length + 16);
+        while(content.length() < length) {
+            content.append(parts[random.nextInt(parts.length)]);
+        }
+        return content.toString();
+    }
+
+    @Test
+    public void hugeEntriesAreReadInChunks() {
+        // compressed, the content would be small enough to be read at once
+        db.setCompressionThreshold(Integer.MAX_VALUE);
+        String content = mixedContent(5 * 1024 * 1024);
+        long id = db.insert(new JournalEntry("huge", content, JournalEntry.MOOD_SAD));
+        db.getCache().clear();
+
+        JournalEntry entry = db.getEntry(id);
+        assertNotNull(entry);
+        assertEquals(content, entry.getContent());
+        assertEquals(EntryDatabase.previewOf(content), db.getEntryPreview(id).getContent());
+        assertEquals(content.codePointCount(0, content.length()), DatabaseUtils.longForQuery(db.getReadableDatabase(),
+                "SELECT " + EntryDatabase.TABLE_COLUMN_CONTENT_LENGTH + " FROM " + EntryDatabase.DB_TABLE_NAME +
+                        " WHERE " + EntryDatabase.TABLE_COLUMN_ID + "=" + id, null));
+    }
+
+    @Test
+    public void contentReaderJoinsCharactersSplitBetweenChunks() throws Exception {
+        String content = mixedContent(5000);
+        long id = db.insert(new JournalEntry("split", content, JournalEntry.MOOD_HAPPY));
+
+        db.setCompressionThreshold(Integer.MAX_VALUE);
+        long plainId = db.insert(new JournalEntry("split", content, JournalEntry.MOOD_HAPPY));
+        assertTrue(isCompressed(id));
+        assertFalse(isCompressed(plainId));
+
+        // every chunk size up to the longest character splits characters at other offsets
+        for(long entry : new long[]{id, plainId}) {
+            for(int chunkSize = 4; chunkSize <= 9; chunkSize++) {
+                EntryContentReader reader = new EntryContentReader(db.getReadableDatabase(), entry, chunkSize);
+                StringBuilder read = new StringBuilder();
+                char[] buffer = new char[7];
+                int n;
+                while((n = reader.read(buffer, 0, buffer.length)) != -1) {
+                    read.append(buffer, 0, n);
+                }
+                reader.close();
+                assertEquals("chunk size " + chunkSize, content, read.toString());
+            }
+        }
+        assertEquals(-1, db.openContentReader(plainId + 1).read(new char[8], 0, 8));
+    }
+
+    @Test
+    public void contentReaderCountsHugeContentsInCharacters() {
+        // every character is a surrogate pair, taking two chars of a Java string and four UTF-8 bytes
+        StringBuilder emoji = new StringBuilder();
+        for(int i = 0; i < 1024 * 1024; i++) {
+            emoji.appendCodePoint(0x1f600 + i % 80);
+        }
+        String content = emoji.toString();
+        db.setCompressionThreshold(Integer.MAX_VALUE);
+        long id = db.insert(new JournalEntry("emoji", content, JournalEntry.MOOD_HAPPY));
+        assertFalse(isCompressed(id));
+
+        EntryContentReader reader = db.openContentReader(id);
+        StringBuilder read = new StringBuilder(content.length());
+        char[] buffer = new char[EntryRepository.CONTENT_CHUNK_LENGTH];
+        int n;
+        while((n = reader.read(buffer, 0, buffer.length)) != -1) {
+            read.append(buffer, 0, n);
+        }
+        reader.close();
+        assertEquals(content, read.toString());
+    }
+
+    /**
+     * Returns whether the content of an entry is stored compressed
+     * @param id the database id of the entry
+     * @return true if the compressed content column is set
+     */
+    private boolean isCompressed(long id) {
+        return DatabaseUtils.longForQuery(db.getReadableDatabase(),
+                "SELECT " + EntryDatabase.TABLE_COLUMN_COMPRESSED_CONTENT + " IS NOT NULL FROM " +
+                        EntryDatabase.DB_TABLE_NAME + " WHERE " + EntryDatabase.TABLE_COLUMN_ID + "=" + id, null) == 1;
+    }
+
+    @Test
+    public void longEntriesAreStoredCompressed() {
+        String content = new Corpus(7, 5000).text(20000) + " needle";
+        long id = db.insert(new JournalEntry("compressed", content, JournalEntry.MOOD_HAPPY));
+        long bulkId = db.insertAll(Collections.singletonList(
+                new JournalEntry("bulk", content, JournalEntry.MOOD_SAD, 1000L)), 10)[0];
+        long shortId = db.insert(new JournalEntry("short", "needle in a short entry", JournalEntry.MOOD_BORED));
+        assertTrue(isCompressed(id));
+        assertTrue(isCompressed(bulkId));
+        assertFalse(isCompressed(shortId));
+        assertTrue(DatabaseUtils.longForQuery(db.getReadableDatabase(),
+                "SELECT length(" + EntryDatabase.TABLE_COLUMN_COMPRESSED_CONTENT + ") + length(CAST(" +
+                        EntryDatabase.TABLE_COLUMN_CONTENT + " AS BLOB)) FROM " + EntryDatabase.DB_TABLE_NAME +
+                        " WHERE " + EntryDatabase.TABLE_COLUMN_ID + "=" + id, null) < content.length());
+
+        db.getCache().clear();
+        assertEquals(content, db.getEntry(id).getContent());
+        assertEquals(content, db.getEntry(bulkId).getContent());
+        assertEquals(EntryDatabase.previewOf(content), db.getEntryPreview(id).getContent());
+        assertEquals(3, db.search("needle", 10).size());
+
+        // replacing the entry takes its words out of the index again
+        db.insert(new JournalEntry("compressed", "nothing to find", JournalEntry.MOOD_HAPPY, 0L, id));
+        assertFalse(isCompressed(id));
+        assertEquals(2, db.search("needle", 10).size());
+    }
+
+    @Test
+    public void hugeCompressedEntriesAreReadInChunks() {
+        // compresses to more than can be read at once
+        String content = new Corpus(11, 5000).text(4 * 1024 * 1024);
+        long id = db.insert(new JournalEntry("huge", content, JournalEntry.MOOD_ANGRY));
+        assertTrue(isCompressed(id));
+        assertTrue(DatabaseUtils.longForQuery(db.getReadableDatabase(),
+                "SELECT length(" + EntryDatabase.TABLE_COLUMN_COMPRESSED_CONTENT + ") FROM " + EntryDatabase.DB_TABLE_NAME +
+                        " WHERE " + EntryDatabase.TABLE_COLUMN_ID + "=" + id, null) > EntryDatabase.INLINE_CONTENT_LENGTH);
+        db.getCache().clear();
+        assertEquals(content, db.getEntry(id).getContent());
+    }
+
+    @Test
+    public void incompressibleOrShortEntriesStayPlain() {
+        Random random = new Random(3);
+        StringBuilder noise = new StringBuilder();
+        while(noise.length() < 10000) {
+            noise.appendCodePoint(0x4e00 + random.nextInt(20000));
+        }
+        long noiseId = db.insert(new JournalEntry("noise", noise.toString(), JournalEntry.MOOD_HAPPY));
+        assertFalse(isCompressed(noiseId));
+
+        StringBuilder diary = new StringBuilder();
+        while(diary.length() < EntryDatabase.DEFAULT_COMPRESSION_THRESHOLD - 50) {
+            diary.append("Dear diary, today was a good day. ");
+        }
+        String content = diary.toString();
+        assertFalse(isCompressed(db.insert(new JournalEntry("short", content, JournalEntry.MOOD_HAPPY))));
+        db.setCompressionThreshold(100);
+        assertTrue(isCompressed(db.insert(new JournalEntry("short", content, JournalEntry.MOOD_HAPPY))));
+    }
+}
+
+    @Test
+    public void previewsAreStoredForListRows() {
+        String content = mixedContent(1000);
+        StringBuilder title = new StringBuilder();
+        while(title.length() <= EntryDatabase.LIST_TITLE_LENGTH) {
+            title.append("long title ");
+        }
+        db.insert(new JournalEntry(title.toString(), content, JournalEntry.MOOD_ANGRY, 2000L));
+        db.insertAll(Collections.singletonList(new JournalEntry("short", "short content", JournalEntry.MOOD_BORED, 1000L)), 10);
+
+        Cursor c = db.selectFirstPage(10);
+        assertTrue(c.moveToNext());
+        assertEquals(title.substring(0, EntryDatabase.LIST_TITLE_LENGTH),
+                c.getString(c.getColumnIndexOrThrow(EntryDatabase.TABLE_COLUMN_TITLE)));
+        assertEquals(EntryDatabase.previewOf(content), c.getString(c.getColumnIndexOrThrow(EntryDatabase.TABLE_COLUMN_PREVIEW)));
+        assertEquals(EntryDatabase.PREVIEW_LENGTH, EntryDatabase.previewOf(content).codePointCount(
+                0, EntryDatabase.previewOf(content).length()));
+        assertEquals(-1, c.getColumnIndex(EntryDatabase.TABLE_COLUMN_CONTENT));
+        assertTrue(c.moveToNext());
+        assertEquals("short content", c.getString(c.getColumnIndexOrThrow(EntryDatabase.TABLE_COLUMN_PREVIEW)));
+        c.close();
+    }
+
+    @Test
+    public void operationsAreRecordedInMetrics() {
+        // logs every operation as slow, running its query plan as well
+        db.setSlowQueryThreshold(0);
+        long id = db.insert(new JournalEntry("metrics", "content of the metrics entry", JournalEntry.MOOD_HAPPY));
+        db.insertAll(generate(10));
+        db.getCache().clear();
+        assertNotNull(db.getEntry(id));
+        // served by the cache, so not a query
+        assertNotNull(db.getEntry(id));
+        db.selectFirstPage(5).close();
+        db.selectByMood(JournalEntry.MOOD_HAPPY, 5).close();
+        assertEquals(1, db.search("metrics", 10).size());
+        db.getMoodStatistics(MoodStatistics.PERIOD_DAY, 0);
+        assertEquals(1, db.delete(id));
+
+        DatabaseMetrics.Snapshot snapshot = db.getMetrics().snapshot();
+        assertEquals(1, snapshot.getCount(DatabaseMetrics.OP_INSERT));
+        assertEquals(1, snapshot.getCount(DatabaseMetrics.OP_INSERT_ALL));
+        assertEquals(1, snapshot.getCount(DatabaseMetrics.OP_GET_ENTRY));
+        assertEquals(1, snapshot.getCount(DatabaseMetrics.OP_SELECT_PAGE));
+        assertEquals(1, snapshot.getCount(DatabaseMetrics.OP_SELECT_BY_MOOD));
+        assertEquals(1, snapshot.getCount(DatabaseMetrics.OP_SEARCH));
+        assertEquals(1, snapshot.getCount(DatabaseMetrics.OP_MOOD_STATISTICS));
+        assertEquals(1, snapshot.getCount(DatabaseMetrics.OP_DELETE));
+        assertEquals(0, snapshot.getCount(DatabaseMetrics.OP_SELECT_ALL));
+        assertTrue(snapshot.getTotalNanos(DatabaseMetrics.OP_INSERT_ALL) > 0);
+    }
+
+    @Test
+    public void dataVersionChangesOnEveryWrite() {
+        long version = db.getDataVersion();
+        long id = db.insert(new JournalEntry("version", "content", JournalEntry.MOOD_SAD));
+        assertTrue(db.getDataVersion() > version);
+
+        version = db.getDataVersion();
+        db.insertAll(generate(3));
+        assertTrue(db.getDataVersion() > version);
+
+        // reads don't change it
+        version = db.getDataVersion();
+        db.selectFirstPage(10).close();
+        db.getEntry(id);
+        db.search("version", 10);
+        assertEquals(version, db.getDataVersion());
+
+        assertEquals(1, db.delete(id));
+        assertTrue(db.getDataVersion() > version);
+
+        // nor does deleting an entry that's already gone
+        version = db.getDataVersion();
+        assertEquals(0, db.delete(id));
+        assertEquals(version, db.getDataVersion());
+    }
+}
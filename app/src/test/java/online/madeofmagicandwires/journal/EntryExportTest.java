@@ -0,0 +1,202 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.DatabaseUtils;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trips journals through EntryExporter and EntryImporter
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EntryExportTest {
+
+    private static final String SOURCE_DB_NAME = "EntryExportTest-source.db";
+    private static final String TARGET_DB_NAME = "EntryExportTest-target.db";
+    private static final int ROWS = 2500;
+
+    /** contents that need escaping or quoting in one of the formats **/
+    private static final String[] AWKWARD = new String[]{
+            "plain",
+            "with, a comma",
+            "with \"quotes\" and \\backslashes\\",
+            "first line\nsecond line\r\nthird line",
+            "\"starts with a quote",
+            "tab\tand control \u0001 character",
+            "line\u2028separator",
+            "emoji \uD83D\uDE00 and accents \u00e9\u00e0\u00fc",
+            "",
+    };
+
+    private EntryDatabase source;
+    private EntryDatabase target;
+
+    @Before
+    public void setUp() {
+        source = new EntryDatabase(RuntimeEnvironment.application, SOURCE_DB_NAME);
+        target = new EntryDatabase(RuntimeEnvironment.application, TARGET_DB_NAME);
+
+        List<JournalEntry> entries = new ArrayList<>();
+        for(int i = 0; i < ROWS; i++) {
+            String awkward = AWKWARD[i % AWKWARD.length];
+            entries.add(new JournalEntry("Entry " + i + " " + awkward, "Content " + i + " " + awkward,
+                    JournalEntry.MOOD_BORED, i * 1000L));
+        }
+        source.insertAll(entries);
+        // leave a gap in the ids
+        source.delete(10);
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        target.close();
+        RuntimeEnvironment.application.deleteDatabase(SOURCE_DB_NAME);
+        RuntimeEnvironment.application.deleteDatabase(TARGET_DB_NAME);
+    }
+
+    private byte[] export(EntryDatabase db, @EntryExporter.Format int format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = new EntryExporter(db.getReadableDatabase()).export(Channels.newChannel(out), format, null, null);
+        assertEquals(DatabaseUtils.queryNumEntries(db.getReadableDatabase(), EntryDatabase.DB_TABLE_NAME), count);
+        return out.toByteArray();
+    }
+
+    private long importInto(EntryDatabase db, byte[] data, @EntryExporter.Format int format, boolean keepIds) throws IOException {
+        return new EntryImporter(db, 100).importFrom(Channels.newChannel(new ByteArrayInputStream(data)),
+                format, keepIds, null, null);
+    }
+
+    private void assertRoundTrips(@EntryExporter.Format int format) throws IOException {
+        byte[] exported = export(source, format);
+        assertEquals(ROWS - 1, importInto(target, exported, format, true));
+        assertArrayEquals(exported, export(target, format));
+
+        for(long id : new long[]{1, 9, 11, 1234, ROWS}) {
+            JournalEntry expected = source.getEntry(id);
+            JournalEntry actual = target.getEntry(id);
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getContent(), actual.getContent());
+            assertEquals(expected.getMood(), actual.getMood());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        }
+        assertNull(target.getEntry(10));
+    }
+
+    @Test
+    public void jsonLinesRoundTrip() throws IOException {
+        assertRoundTrips(EntryExporter.FORMAT_JSON_LINES);
+    }
+
+    @Test
+    public void csvRoundTrip() throws IOException {
+        assertRoundTrips(EntryExporter.FORMAT_CSV);
+    }
+
+    @Test
+    public void formatIsToldFromTheContent() throws IOException {
+        for(int format : new int[]{EntryExporter.FORMAT_JSON_LINES, EntryExporter.FORMAT_CSV}) {
+            byte[] exported = export(source, format);
+            assertEquals(format, EntryImporter.detectFormat(new BufferedReader(
+                    new InputStreamReader(new ByteArrayInputStream(exported), "UTF-8"))));
+            assertEquals(ROWS - 1, new EntryImporter(target, 100).importFrom(
+                    Channels.newChannel(new ByteArrayInputStream(exported)), false, null, null));
+        }
+        assertEquals(2 * (ROWS - 1), DatabaseUtils.queryNumEntries(target.getReadableDatabase(),
+                EntryDatabase.DB_TABLE_NAME));
+        assertEquals(EntryExporter.FORMAT_JSON_LINES, EntryImporter.detectFormat(
+                new BufferedReader(new StringReader(""))));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownFormats() throws IOException {
+        new EntryImporter(target, 100).importFrom(Channels.newChannel(new ByteArrayInputStream(
+                "title,content\r\nsome,thing\r\n".getBytes("UTF-8"))), false, null, null);
+    }
+
+    @Test
+    public void importAddsNewEntriesUnlessIdsAreKept() throws IOException {
+        byte[] exported = export(source, EntryExporter.FORMAT_JSON_LINES);
+        importInto(source, exported, EntryExporter.FORMAT_JSON_LINES, false);
+        assertEquals(2 * (ROWS - 1), DatabaseUtils.queryNumEntries(source.getReadableDatabase(), EntryDatabase.DB_TABLE_NAME));
+
+        importInto(source, exported, EntryExporter.FORMAT_JSON_LINES, true);
+        assertEquals(2 * (ROWS - 1), DatabaseUtils.queryNumEntries(source.getReadableDatabase(), EntryDatabase.DB_TABLE_NAME));
+    }
+
+    @Test
+    public void reportsProgress() throws IOException {
+        final List<Long> progress = new ArrayList<>();
+        EntryExporter.ProgressListener listener = new EntryExporter.ProgressListener() {
+            @Override
+            public void onProgress(long done, long total) {
+                progress.add(done);
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new EntryExporter(source.getReadableDatabase()).export(Channels.newChannel(out),
+                EntryExporter.FORMAT_CSV, null, listener);
+
+        assertEquals(ROWS / EntryExporter.PROGRESS_INTERVAL + 1, progress.size());
+        assertEquals(ROWS - 1, (long) progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void exportCanBeCancelled() throws IOException {
+        final CancellationSignal signal = new CancellationSignal();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new EntryExporter(source.getReadableDatabase()).export(Channels.newChannel(out),
+                    EntryExporter.FORMAT_JSON_LINES, signal, new EntryExporter.ProgressListener() {
+                        @Override
+                        public void onProgress(long done, long total) {
+                            signal.cancel();
+                        }
+                    });
+            fail("export should have been cancelled");
+        } catch (OperationCanceledException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void importKeepsCommittedBatchesWhenCancelled() throws IOException {
+        byte[] exported = export(source, EntryExporter.FORMAT_CSV);
+        final CancellationSignal signal = new CancellationSignal();
+        try {
+            new EntryImporter(target, 100).importFrom(Channels.newChannel(new ByteArrayInputStream(exported)),
+                    EntryExporter.FORMAT_CSV, true, signal, new EntryExporter.ProgressListener() {
+                        @Override
+                        public void onProgress(long done, long total) {
+                            signal.cancel();
+                        }
+                    });
+            fail("import should have been cancelled");
+        } catch (OperationCanceledException e) {
+            assertEquals(100, DatabaseUtils.queryNumEntries(target.getReadableDatabase(), EntryDatabase.DB_TABLE_NAME));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedRecords() throws IOException {
+        importInto(target, "{\"title\":\"no content\"}\n".getBytes("UTF-8"), EntryExporter.FORMAT_JSON_LINES, false);
+    }
+}
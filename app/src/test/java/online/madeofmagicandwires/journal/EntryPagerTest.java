@@ -0,0 +1,200 @@
+package online.madeofmagicandwires.journal;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that EntryPager only queries the entries again once they were written to, and that the
+ * adapter only updates the rows of the entries that were written
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EntryPagerTest {
+
+    private static final String DB_NAME = "EntryPagerTest.db";
+
+    private EntryDatabase db;
+    private ExecutorService executor;
+    private EntryRepository repository;
+    private EntryAdapter adapter;
+    private EntryPager pager;
+
+    @Before
+    public void setUp() {
+        db = new EntryDatabase(RuntimeEnvironment.application, DB_NAME);
+        executor = Executors.newSingleThreadExecutor();
+        repository = new EntryRepository(db, executor, new Handler(Looper.getMainLooper()));
+        // compares the versions of the list on the same background thread, so drain() waits for it
+        adapter = new EntryAdapter(EntryAdapter.DEFAULT_LAYOUT, executor);
+        pager = new EntryPager(repository, adapter);
+        db.insertAll(new JournalGenerator(21).generate(120));
+    }
+
+    @After
+    public void tearDown() {
+        pager.close();
+        executor.shutdownNow();
+        db.close();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Waits for all queued background work and then runs the results posted to the main looper,
+     * twice: once for the pages to be loaded and once for the new list to be compared to the previous one
+     */
+    private void drain() throws Exception {
+        for(int i = 0; i < 2; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(5, TimeUnit.SECONDS);
+            ShadowLooper.idleMainLooper();
+        }
+    }
+
+    /**
+     * Observer recording the changes the adapter announces
+     */
+    private static class ChangeRecorder extends RecyclerView.AdapterDataObserver {
+
+        final List<String> changes = new ArrayList<>();
+
+        @Override
+        public void onChanged() {
+            changes.add("all");
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            changes.add("changed " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            changes.add("inserted " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            changes.add("removed " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            changes.add("moved " + fromPosition + "->" + toPosition);
+        }
+    }
+
+    /**
+     * Returns the number of times the first or a following page was queried
+     * @return the number of page queries
+     */
+    private long pageQueries() {
+        return db.getMetrics().snapshot().getCount(DatabaseMetrics.OP_SELECT_PAGE);
+    }
+
+    @Test
+    public void navigatingWithoutWritesQueriesOnce() throws Exception {
+        // MainActivity refreshes in onCreate and again in onResume
+        pager.refresh();
+        pager.refresh();
+        drain();
+        assertEquals(1, pageQueries());
+        assertEquals(EntryPager.PAGE_SIZE, adapter.getItemCount());
+
+        // an entry is viewed in DetailActivity and the user goes back, resuming MainActivity;
+        // then pulls to refresh
+        repository.getEntryPreview(adapter.getItemId(0), new EntryRepository.Callback<JournalEntry>() {
+            @Override
+            public void onResult(JournalEntry result) {
+            }
+        });
+        drain();
+        pager.refresh();
+        pager.refresh();
+        drain();
+        assertEquals(1, pageQueries());
+        assertEquals(EntryPager.PAGE_SIZE, adapter.getItemCount());
+    }
+
+    @Test
+    public void writesCauseOneQuery() throws Exception {
+        pager.refresh();
+        drain();
+        assertEquals(1, pageQueries());
+
+        // an entry is created in InputActivity, MainActivity handles the result and then resumes
+        repository.insert(new JournalEntry("new", "content", JournalEntry.MOOD_HAPPY,
+                System.currentTimeMillis() * 2), null);
+        drain();
+        pager.refresh();
+        pager.refresh();
+        drain();
+        assertEquals(2, pageQueries());
+        assertEquals("new", adapter.getRow(0).getTitle());
+
+        repository.delete(adapter.getItemId(0), null);
+        drain();
+        pager.refresh();
+        drain();
+        assertEquals(3, pageQueries());
+        assertEquals(EntryPager.PAGE_SIZE, adapter.getItemCount());
+    }
+
+    @Test
+    public void writesOnlyUpdateTheirOwnRows() throws Exception {
+        pager.refresh();
+        drain();
+        pager.loadMore();
+        drain();
+        assertEquals(2 * EntryPager.PAGE_SIZE, adapter.getItemCount());
+        ChangeRecorder recorder = new ChangeRecorder();
+        adapter.registerAdapterDataObserver(recorder);
+
+        // editing an entry changes its row only
+        EntryRow edited = adapter.getRow(60);
+        repository.insert(new JournalEntry("edited", "edited content", edited.getMood(),
+                edited.getTimestamp(), edited.getDatabaseId()), null);
+        drain();
+        pager.refresh();
+        drain();
+        assertEquals("[changed 60+1]", recorder.changes.toString());
+        assertEquals("edited", adapter.getRow(60).getTitle());
+
+        // deleting one removes its row without binding any other
+        recorder.changes.clear();
+        repository.delete(adapter.getItemId(10), null);
+        drain();
+        pager.refresh();
+        drain();
+        // as many entries as before are loaded, so the next entry is added at the end
+        assertTrue(recorder.changes.toString(), recorder.changes.contains("removed 10+1"));
+        for(String change : recorder.changes) {
+            assertFalse(recorder.changes.toString(), change.startsWith("changed") || change.equals("all"));
+        }
+        assertEquals(2 * EntryPager.PAGE_SIZE, adapter.getItemCount());
+
+        // and refreshing without writes only updates the dates
+        recorder.changes.clear();
+        pager.refresh();
+        drain();
+        assertEquals("[changed 0+" + adapter.getItemCount() + "]", recorder.changes.toString());
+    }
+}
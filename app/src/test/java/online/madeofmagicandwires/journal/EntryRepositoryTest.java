@@ -0,0 +1,227 @@
+package online.madeofmagicandwires.journal;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that EntryRepository never runs SQLite work on the main thread
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EntryRepositoryTest {
+
+    /** maximum time a repository call may take on the main thread **/
+    private static final long MAX_MAIN_THREAD_MILLIS = 200;
+    private static final String DB_NAME = "EntryRepositoryTest.db";
+
+    private EntryDatabase db;
+    private ExecutorService executor;
+    private EntryRepository repository;
+
+    @Before
+    public void setUp() {
+        db = new EntryDatabase(RuntimeEnvironment.application, DB_NAME);
+        executor = Executors.newSingleThreadExecutor();
+        repository = new EntryRepository(db, executor, new Handler(Looper.getMainLooper()));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        db.close();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Waits for all queued background work and then runs the results posted to the main looper
+     */
+    private void drain() throws Exception {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+        ShadowLooper.idleMainLooper();
+    }
+
+    @Test
+    public void callsReturnWhileDatabaseIsLocked() throws Exception {
+        final long id = db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_HAPPY));
+
+        // hold the only connection from a different thread, any SQLite call will now block
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase sqlite = db.getWritableDatabase();
+                sqlite.beginTransaction();
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sqlite.endTransaction();
+            }
+        });
+        holder.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        final List<Object> results = new ArrayList<>();
+        long start = System.nanoTime();
+        repository.selectFirstPageRows(10, new EntryRepository.Callback<List<EntryRow>>() {
+            @Override
+            public void onResult(List<EntryRow> result) {
+                results.add(result.size());
+            }
+        });
+        repository.getEntry(id, new EntryRepository.Callback<JournalEntry>() {
+            @Override
+            public void onResult(JournalEntry result) {
+                results.add(result.getTitle());
+            }
+        });
+        repository.insert(new JournalEntry("other", "content", JournalEntry.MOOD_SAD), new EntryRepository.Callback<Long>() {
+            @Override
+            public void onResult(Long result) {
+                results.add(result > 0);
+            }
+        });
+        repository.delete(id, new EntryRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer result) {
+                results.add(result);
+            }
+        });
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("main thread was blocked for " + elapsedMillis + "ms", elapsedMillis < MAX_MAIN_THREAD_MILLIS);
+        assertTrue(results.isEmpty());
+
+        release.countDown();
+        holder.join();
+        drain();
+
+        // results arrive in the order the operations were requested
+        assertEquals(4, results.size());
+        assertEquals(1, results.get(0));
+        assertEquals("title", results.get(1));
+        assertEquals(true, results.get(2));
+        assertEquals(1, results.get(3));
+    }
+
+    @Test
+    public void resultsAreDeliveredOnMainThread() throws Exception {
+        final List<Boolean> onMainThread = new ArrayList<>();
+        final List<Boolean> queriedOnMainThread = new ArrayList<>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                queriedOnMainThread.add(Looper.myLooper() == Looper.getMainLooper());
+            }
+        });
+        repository.insert(new JournalEntry("title", "content", JournalEntry.MOOD_BORED), new EntryRepository.Callback<Long>() {
+            @Override
+            public void onResult(Long result) {
+                onMainThread.add(Looper.myLooper() == Looper.getMainLooper());
+            }
+        });
+        drain();
+
+        assertEquals(1, queriedOnMainThread.size());
+        assertFalse(queriedOnMainThread.get(0));
+        assertEquals(1, onMainThread.size());
+        assertTrue(onMainThread.get(0));
+    }
+
+    @Test
+    public void failedOperationsStillCallBack() throws Exception {
+        long id = db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_HAPPY));
+        db.getWritableDatabase().execSQL("CREATE TEMP TRIGGER reject_delete BEFORE DELETE ON " +
+                EntryDatabase.DB_TABLE_NAME + " BEGIN SELECT RAISE(ABORT, 'rejected'); END");
+
+        final List<Integer> results = new ArrayList<>();
+        repository.delete(id, new EntryRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer result) {
+                results.add(result);
+            }
+        });
+        // the background thread keeps running later operations
+        repository.restore(id, new EntryRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer result) {
+                results.add(result);
+            }
+        });
+        drain();
+
+        assertEquals(2, results.size());
+        assertNull(results.get(0));
+        assertEquals(0, (int) results.get(1));
+        assertEquals("title", db.getEntry(id).getTitle());
+    }
+
+    @Test
+    public void importFailingInTheDatabaseReportsFailure() throws Exception {
+        db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_HAPPY));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new EntryExporter(db.getReadableDatabase()).export(Channels.newChannel(out),
+                EntryExporter.FORMAT_JSON_LINES, null, null);
+        db.getWritableDatabase().execSQL("CREATE TEMP TRIGGER reject_insert BEFORE INSERT ON " +
+                EntryDatabase.DB_TABLE_NAME + " BEGIN SELECT RAISE(ABORT, 'rejected'); END");
+
+        final List<Long> results = new ArrayList<>();
+        repository.importFrom(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), null, null,
+                new EntryRepository.Callback<Long>() {
+                    @Override
+                    public void onResult(Long result) {
+                        results.add(result);
+                    }
+                });
+        drain();
+
+        assertEquals(1, results.size());
+        assertEquals(-1L, (long) results.get(0));
+    }
+
+    @Test
+    public void detachedDatabaseIsNotHandedOutAgain() {
+        EntryDatabase closing = EntryDatabase.getInstance(RuntimeEnvironment.application);
+        try {
+            assertTrue(EntryDatabase.detach(closing));
+            assertFalse(EntryDatabase.detach(closing));
+            // reopening right away gets a connection of its own, unaffected by closing the old one
+            EntryDatabase reopened = EntryDatabase.getInstance(RuntimeEnvironment.application);
+            assertNotSame(closing, reopened);
+            long id = reopened.insert(new JournalEntry("title", "content", JournalEntry.MOOD_HAPPY));
+            closing.close();
+            assertEquals("content", reopened.getEntry(id).getContent());
+        } finally {
+            closing.close();
+            EntryDatabase.shutdown();
+            RuntimeEnvironment.application.deleteDatabase(EntryDatabase.DB_NAME);
+        }
+    }
+}
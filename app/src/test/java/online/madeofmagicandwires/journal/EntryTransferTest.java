@@ -0,0 +1,159 @@
+package online.madeofmagicandwires.journal;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.widget.EditText;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests passing large entries between activities by id and keeping them as drafts
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EntryTransferTest {
+
+    private static final String DB_NAME = "EntryTransferTest.db";
+    /** size of the content of the large entry, in characters **/
+    private static final int LARGE_CONTENT_LENGTH = 1024 * 1024;
+    /** the largest an intent passing an entry between activities may get, in bytes **/
+    private static final int MAX_INTENT_SIZE = 1024;
+    /** the largest the saved instance state of the editor may get, in bytes; its views keep no text **/
+    private static final int MAX_BUNDLE_SIZE = 8 * 1024;
+
+    private Context context;
+    private EntryDatabase db;
+    private JournalEntry large;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        db = new EntryDatabase(context, DB_NAME);
+
+        char[] content = new char[LARGE_CONTENT_LENGTH];
+        Arrays.fill(content, 'a');
+        for(int i = 0; i < content.length; i += 80) {
+            content[i] = '\n';
+        }
+        large = new JournalEntry("A long entry", new String(content), JournalEntry.MOOD_SAD);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Returns the size of an intent once it has been parcelled to be sent to another activity
+     * @param intent the intent to measure
+     * @return the size in bytes
+     */
+    private static int parcelledSize(Intent intent) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            intent.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void largeEntryRoundTripsThroughDatabaseById() {
+        long id = db.insert(large);
+        assertTrue(id > 0);
+
+        Intent detail = JournalActivity.newDetailIntent(context, id);
+        Intent input = JournalActivity.newInputIntent(context, id);
+        assertTrue(parcelledSize(detail) < MAX_INTENT_SIZE);
+        assertTrue(parcelledSize(input) < MAX_INTENT_SIZE);
+        assertEquals(id, JournalActivity.retrieveEntryId(detail));
+        assertEquals(id, JournalActivity.retrieveEntryId(input));
+
+        JournalEntry loaded = db.getEntry(JournalActivity.retrieveEntryId(detail));
+        assertNotNull(loaded);
+        assertEquals(id, loaded.getDatabaseId());
+        assertEquals(large.getTitle(), loaded.getTitle());
+        assertEquals(large.getContent(), loaded.getContent());
+        assertEquals(large.getMood(), loaded.getMood());
+        assertEquals(large.getTimestamp(), loaded.getTimestamp());
+    }
+
+    @Test
+    public void newEntryIntentHasNoId() {
+        assertEquals(-1, JournalActivity.retrieveEntryId(JournalActivity.newInputIntent(context, -1)));
+    }
+
+    @Test
+    public void largeDraftRoundTripsThroughDraftStore() throws Exception {
+        ActivityController<InputActivity> controller = Robolectric.buildActivity(InputActivity.class,
+                JournalActivity.newInputIntent(context, -1)).setup();
+        DraftStore drafts = DraftStore.getInstance(context);
+        try {
+            // the activity finds there is no draft left to restore, and starts a new one
+            drafts.flush().get(5, TimeUnit.SECONDS);
+            ShadowLooper.idleMainLooper();
+            EditText content = controller.get().findViewById(R.id.input_entry_content);
+            content.setText(large.getContent());
+
+            Bundle state = new Bundle();
+            controller.saveInstanceState(state);
+            assertTrue(state.containsKey(JournalActivity.DRAFT_ID_BUNDLE_KEY));
+            assertTrue(parcelledSize(state) < MAX_BUNDLE_SIZE);
+
+            final List<DraftStore.Draft> loaded = new ArrayList<>();
+            drafts.flush().get(5, TimeUnit.SECONDS);
+            long draftId = state.getLong(JournalActivity.DRAFT_ID_BUNDLE_KEY);
+            drafts.load(draftId, new EntryRepository.Callback<DraftStore.Draft>() {
+                @Override
+                public void onResult(DraftStore.Draft result) {
+                    loaded.add(result);
+                }
+            });
+            // drafts are loaded on the same thread they're written on
+            drafts.flush().get(5, TimeUnit.SECONDS);
+            ShadowLooper.idleMainLooper();
+
+            assertEquals(1, loaded.size());
+            assertNotNull(loaded.get(0));
+            assertEquals(large.getContent(), loaded.get(0).entry.getContent());
+            assertFalse(loaded.get(0).entry.hasDatabaseId());
+        } finally {
+            controller.pause().stop().destroy();
+            EntryRepository.shutdown();
+            context.deleteDatabase(EntryDatabase.DB_NAME);
+        }
+    }
+
+    /**
+     * Returns the size of a saved instance state once it has been parcelled
+     * @param state the bundle to measure
+     * @return the size in bytes
+     */
+    private static int parcelledSize(Bundle state) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            state.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
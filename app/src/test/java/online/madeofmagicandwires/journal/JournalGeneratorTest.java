@@ -0,0 +1,53 @@
+package online.madeofmagicandwires.journal;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that JournalGenerator generates the same journal from the same seed
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JournalGeneratorTest {
+
+    private static final int COUNT = 2000;
+
+    @Test
+    public void sameSeedGeneratesSameEntries() {
+        List<JournalEntry> first = new JournalGenerator(7).generate(COUNT);
+        List<JournalEntry> second = new JournalGenerator(7).generate(COUNT);
+        for(int i = 0; i < COUNT; i++) {
+            assertEquals(first.get(i).getTitle(), second.get(i).getTitle());
+            assertEquals(first.get(i).getContent(), second.get(i).getContent());
+            assertEquals(first.get(i).getMood(), second.get(i).getMood());
+            assertEquals(first.get(i).getTimestamp(), second.get(i).getTimestamp());
+        }
+        assertNotEquals(first.get(0).getContent(), new JournalGenerator(8).next().getContent());
+    }
+
+    @Test
+    public void entriesAreWrittenInOrder() {
+        List<JournalEntry> entries = new JournalGenerator(7, 0).generate(COUNT);
+        assertEquals(0, entries.get(0).getTimestamp());
+        int longContents = 0;
+        for(int i = 0; i < COUNT; i++) {
+            JournalEntry entry = entries.get(i);
+            assertFalse(entry.hasDatabaseId());
+            assertFalse(entry.getTitle().isEmpty());
+            assertFalse(entry.getContent().isEmpty());
+            if(i > 0) {
+                assertTrue(entry.getTimestamp() > entries.get(i - 1).getTimestamp());
+            }
+            if(entry.getContent().length() > EntryDatabase.DEFAULT_COMPRESSION_THRESHOLD) {
+                longContents++;
+            }
+        }
+        // some contents are long enough to be compressed, most aren't
+        assertTrue(longContents > 0);
+        assertTrue(longContents < COUNT / 10);
+    }
+}
@@ -0,0 +1,275 @@
+package online.madeofmagicandwires.journal;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the EntryDatabase migration steps against generated databases of older versions
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MigrationEngineTest {
+
+    private static final String DB_NAME = "MigrationEngineTest.db";
+    /** number of generated rows; deliberately not a multiple of the batch size **/
+    private static final int ROWS = 2345;
+    /** 2018-06-01 12:00:00 UTC **/
+    private static final long BASE_TIME = 1527854400000L;
+    /** moods as stored by version 5 and older, with a null and a name that isn't known **/
+    private static final String[] MOOD_NAMES = new String[]{"Angry", "Bored", "Happy", "Sad", "Unknown", null, "Elated"};
+    /** codes the moods above should be migrated to **/
+    private static final int[] MOOD_CODES = new int[]{
+            JournalEntry.MOOD_ANGRY, JournalEntry.MOOD_BORED, JournalEntry.MOOD_HAPPY, JournalEntry.MOOD_SAD,
+            JournalEntry.MOOD_UNKNOWN, JournalEntry.MOOD_UNKNOWN, JournalEntry.MOOD_UNKNOWN};
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Returns the creation time of a generated row
+     * @param i the index of the generated row
+     * @return milliseconds since the epoch
+     */
+    private static long timeOfRow(int i) {
+        return BASE_TIME + i * 60000L + i % 1000;
+    }
+
+    /**
+     * Generates a database as created by version 3 of the schema
+     * @param rows number of entries to generate
+     */
+    private void createVersion3Database(int rows) {
+        File path = context.getDatabasePath(DB_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        db.execSQL("CREATE TABLE entries(" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT UNIQUE," +
+                "title TEXT NOT NULL," +
+                "content TEXT NOT NULL," +
+                "mood TEXT," +
+                "entryDate TIMESTAMP)");
+        db.beginTransaction();
+        for(int i = 0; i < rows; i++) {
+            ContentValues values = new ContentValues();
+            values.put("title", "Entry " + i);
+            values.put("content", "Content of entry " + i);
+            values.put("mood", MOOD_NAMES[i % MOOD_NAMES.length]);
+            values.put("entryDate", new Timestamp(timeOfRow(i)).toString());
+            db.insert("entries", null, values);
+        }
+        db.setTransactionSuccessful();
+        db.endTransaction();
+        db.setVersion(3);
+        db.close();
+    }
+
+    /**
+     * Asserts the database contains exactly the generated rows with converted timestamps
+     * @param db the migrated database
+     * @param rows number of generated rows
+     */
+    private void assertMigrated(SQLiteDatabase db, int rows) {
+        assertEquals(rows, DatabaseUtils.queryNumEntries(db, EntryDatabase.DB_TABLE_NAME));
+        Cursor c = db.query(EntryDatabase.DB_TABLE_NAME, null, null, null, null, null,
+                EntryDatabase.TABLE_COLUMN_ID + " ASC");
+        int i = 0;
+        while(c.moveToNext()) {
+            assertEquals(i + 1, c.getLong(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_ID)));
+            assertEquals("Entry " + i, c.getString(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_TITLE)));
+            assertEquals(timeOfRow(i), c.getLong(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_TIMESTAMP)));
+            assertEquals(MOOD_CODES[i % MOOD_CODES.length], c.getInt(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_MOOD)));
+            String content = c.getString(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_CONTENT));
+            assertEquals(EntryDatabase.previewOf(content), c.getString(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_PREVIEW)));
+            assertEquals(content.length(), c.getInt(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_CONTENT_LENGTH)));
+            // the time zone the entries were written in is unknown, so the current one is used
+            assertEquals(MoodStatistics.localDayOf(timeOfRow(i), TimeZone.getDefault()),
+                    c.getLong(c.getColumnIndex(EntryDatabase.TABLE_COLUMN_LOCAL_DAY)));
+            i++;
+        }
+        c.close();
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, MigrationEngine.STATE_TABLE_NAME));
+        assertEquals(0, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE name IN ('entries_v3', 'entries_v5')", null));
+        assertEquals(1, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{EntryDatabase.INDEX_CALENDAR}));
+        // replaced by the calendar index
+        assertEquals(0, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type='index' AND name='entries_entryDate_idx'", null));
+        assertEquals(1, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{EntryDatabase.INDEX_MOOD}));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, EntryDatabase.TOMBSTONE_TABLE_NAME));
+        assertEquals(1, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{EntryDatabase.INDEX_DELETED_AT}));
+        assertEquals(MoodStatisticsTest.recompute(db), MoodStatisticsTest.summary(db));
+        assertEquals(rows, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM " + EntryDatabase.FTS_TABLE_NAME + " WHERE " + EntryDatabase.FTS_TABLE_NAME +
+                        " MATCH 'content'", null));
+    }
+
+    @Test
+    public void epochTimestampMigration() {
+        createVersion3Database(ROWS);
+
+        EntryDatabase db = new EntryDatabase(context, DB_NAME);
+        assertMigrated(db.getReadableDatabase(), ROWS);
+        assertEquals(EntryDatabase.DB_VERSION, db.getReadableDatabase().getVersion());
+        db.close();
+    }
+
+    @Test
+    public void reportsProgressPerBatch() {
+        createVersion3Database(ROWS);
+        final List<long[]> progress = new ArrayList<>();
+
+        EntryDatabase db = new EntryDatabase(context, DB_NAME);
+        db.setMigrationProgressListener(new MigrationEngine.ProgressListener() {
+            @Override
+            public void onProgress(int version, long migrated, long total) {
+                progress.add(new long[]{version, migrated, total});
+            }
+        });
+        db.getWritableDatabase();
+        db.close();
+
+        // every step rewriting rows migrates all of them, one step after the other;
+        // the ones that only change the schema don't report progress
+        int[] versions = new int[]{4, 5, 6, 7, 8, 9, 12};
+        int batches = (ROWS + MigrationEngine.DEFAULT_BATCH_SIZE - 1) / MigrationEngine.DEFAULT_BATCH_SIZE;
+        assertEquals(batches * versions.length, progress.size());
+        for(int step = 0; step < versions.length; step++) {
+            long previous = 0;
+            for(long[] update : progress.subList(step * batches, (step + 1) * batches)) {
+                assertEquals(versions[step], update[0]);
+                assertEquals(ROWS, update[2]);
+                assertTrue(update[1] > previous);
+                assertTrue(update[1] - previous <= MigrationEngine.DEFAULT_BATCH_SIZE);
+                previous = update[1];
+            }
+            assertEquals(ROWS, previous);
+        }
+    }
+
+    @Test
+    public void resumesAfterInterruption() {
+        createVersion3Database(ROWS);
+
+        // simulate the process being killed after the first batch was committed
+        EntryDatabase interrupted = new EntryDatabase(context, DB_NAME);
+        interrupted.setMigrationProgressListener(new MigrationEngine.ProgressListener() {
+            @Override
+            public void onProgress(int version, long migrated, long total) {
+                throw new IllegalStateException("killed");
+            }
+        });
+        try {
+            interrupted.getWritableDatabase();
+            fail("migration should have been interrupted");
+        } catch (IllegalStateException e) {
+            assertEquals("killed", e.getMessage());
+        }
+        interrupted.close();
+
+        SQLiteDatabase partial = SQLiteDatabase.openDatabase(
+                context.getDatabasePath(DB_NAME).getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        assertEquals(EntryDatabase.DB_VERSION, partial.getVersion());
+        assertEquals(MigrationEngine.DEFAULT_BATCH_SIZE,
+                DatabaseUtils.queryNumEntries(partial, EntryDatabase.DB_TABLE_NAME));
+        // the interrupted step and the ones after it are still pending
+        assertEquals(EntryDatabase.DB_VERSION - 3, DatabaseUtils.queryNumEntries(partial, MigrationEngine.STATE_TABLE_NAME));
+        partial.close();
+
+        EntryDatabase resumed = new EntryDatabase(context, DB_NAME);
+        assertMigrated(resumed.getReadableDatabase(), ROWS);
+        resumed.close();
+    }
+
+    @Test
+    public void migratedSchemaMatchesNewSchema() {
+        createVersion3Database(ROWS);
+        EntryDatabase migrated = new EntryDatabase(context, DB_NAME);
+        EntryDatabase created = new EntryDatabase(context, "MigrationEngineTestNew.db");
+        try {
+            assertEquals(schemaOf(created.getReadableDatabase()), schemaOf(migrated.getReadableDatabase()));
+        } finally {
+            migrated.close();
+            created.close();
+            context.deleteDatabase("MigrationEngineTestNew.db");
+        }
+    }
+
+    @Test
+    public void compressesLongContents() {
+        createVersion3Database(ROWS);
+        StringBuilder content = new StringBuilder();
+        for(int i = 0; content.length() <= 20000; i++) {
+            content.append("A long day, number ").append(i % 50).append(", somewhere far away.\n");
+        }
+        SQLiteDatabase old = SQLiteDatabase.openDatabase(context.getDatabasePath(DB_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        old.execSQL("UPDATE entries SET content = ? WHERE _id % 100 = 0", new Object[]{content.toString()});
+        old.close();
+
+        EntryDatabase db = new EntryDatabase(context, DB_NAME);
+        SQLiteDatabase sqlite = db.getReadableDatabase();
+        assertEquals(ROWS / 100, DatabaseUtils.longForQuery(sqlite, "SELECT COUNT(*) FROM " + EntryDatabase.DB_TABLE_NAME +
+                " WHERE " + EntryDatabase.TABLE_COLUMN_COMPRESSED_CONTENT + " IS NOT NULL", null));
+        assertEquals(content.toString(), db.getEntry(100).getContent());
+        assertEquals(content.toString(), db.getEntry(ROWS / 100 * 100).getContent());
+        assertEquals("Content of entry 98", db.getEntry(99).getContent());
+        assertEquals(ROWS / 100, db.search("somewhere", ROWS).size());
+        db.close();
+    }
+
+    /**
+     * Lists the tables, indices and triggers of a database, along with the columns of the tables
+     * @param db the database to describe
+     * @return the type and name of every schema object, sorted by name
+     */
+    private static List<String> schemaOf(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor c = db.rawQuery("SELECT type, name FROM sqlite_master ORDER BY name", null);
+        while(c.moveToNext()) {
+            schema.add(c.getString(0) + " " + c.getString(1));
+            if("table".equals(c.getString(0))) {
+                Cursor columns = db.rawQuery("PRAGMA table_info(\"" + c.getString(1) + "\")", null);
+                while(columns.moveToNext()) {
+                    schema.add("  " + columns.getString(columns.getColumnIndex("name")));
+                }
+                columns.close();
+            }
+        }
+        c.close();
+        return schema;
+    }
+}
@@ -0,0 +1,226 @@
+package online.madeofmagicandwires.journal;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the mood statistics summary table and the statistics built from it
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MoodStatisticsTest {
+
+    private static final String DB_NAME = "MoodStatisticsTest.db";
+    /** 2018-06-01 12:00:00 UTC, a Friday **/
+    private static final long BASE_TIME = 1527854400000L;
+    private static final int[] MOODS = new int[]{
+            JournalEntry.MOOD_ANGRY, JournalEntry.MOOD_BORED, JournalEntry.MOOD_HAPPY, JournalEntry.MOOD_SAD,
+            JournalEntry.MOOD_UNKNOWN};
+
+    private EntryDatabase db;
+
+    @Before
+    public void setUp() {
+        db = new EntryDatabase(RuntimeEnvironment.application, DB_NAME);
+        // so local days are UTC days, whatever the time zone of the machine running the tests
+        db.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * Returns the rows of the summary table as "day mood count" strings
+     * @param db the database to read
+     * @return the rows, ordered by day and mood
+     */
+    static List<String> summary(SQLiteDatabase db) {
+        return rows(db, "SELECT " + EntryDatabase.STATS_COLUMN_DAY + ", " + EntryDatabase.STATS_COLUMN_MOOD + ", " +
+                EntryDatabase.STATS_COLUMN_COUNT + " FROM " + EntryDatabase.STATS_TABLE_NAME + " ORDER BY 1, 2");
+    }
+
+    /**
+     * Counts the entries per stored local day and mood from scratch
+     * @param db the database to read
+     * @return the rows the summary table should have, in the same form as {@link #summary(SQLiteDatabase)}
+     */
+    static List<String> recompute(SQLiteDatabase db) {
+        return rows(db, "SELECT " + EntryDatabase.TABLE_COLUMN_LOCAL_DAY + ", " +
+                EntryDatabase.TABLE_COLUMN_MOOD + ", COUNT(*) FROM " + EntryDatabase.DB_TABLE_NAME +
+                " GROUP BY 1, 2 ORDER BY 1, 2");
+    }
+
+    private static List<String> rows(SQLiteDatabase db, String sql) {
+        List<String> rows = new ArrayList<>();
+        Cursor c = db.rawQuery(sql, null);
+        while(c.moveToNext()) {
+            rows.add(c.getLong(0) + " " + c.getInt(1) + " " + c.getInt(2));
+        }
+        c.close();
+        return rows;
+    }
+
+    @Test
+    public void summaryEqualsRecomputationAfterRandomEdits() {
+        Random random = new Random(14);
+        List<Long> ids = new ArrayList<>();
+        for(int i = 0; i < 3000; i++) {
+            int mood = MOODS[random.nextInt(MOODS.length)];
+            // spread over 40 days either side of the epoch, so negative days are covered as well
+            long timestamp = (random.nextInt(80) - 40) * MoodStatistics.DAY_MILLIS + random.nextInt(86400000);
+            int operation = ids.isEmpty() ? 0 : random.nextInt(5);
+            switch (operation) {
+                case 0:
+                    ids.add(db.insert(new JournalEntry("title", "content", mood, timestamp)));
+                    break;
+                case 1:
+                    // the edit path: replaces the row, possibly moving it to another mood and day
+                    long id = ids.get(random.nextInt(ids.size()));
+                    db.insert(new JournalEntry("edited", "content", mood, timestamp, id));
+                    break;
+                case 2:
+                    db.delete(ids.remove(random.nextInt(ids.size())));
+                    break;
+                case 3:
+                    ContentValues values = new ContentValues();
+                    values.put(EntryDatabase.TABLE_COLUMN_MOOD, mood);
+                    db.getWritableDatabase().update(EntryDatabase.DB_TABLE_NAME, values,
+                            EntryDatabase.TABLE_COLUMN_ID + "=?",
+                            new String[]{String.valueOf(ids.get(random.nextInt(ids.size())))});
+                    break;
+                default:
+                    List<JournalEntry> batch = new ArrayList<>();
+                    for(int j = 0; j < 10; j++) {
+                        batch.add(new JournalEntry("bulk", "content", MOODS[random.nextInt(MOODS.length)],
+                                timestamp + j * 3600000L));
+                    }
+                    for(long inserted : db.insertAll(batch)) {
+                        ids.add(inserted);
+                    }
+                    break;
+            }
+            if(i % 100 == 0) {
+                assertEquals(recompute(db.getReadableDatabase()), summary(db.getReadableDatabase()));
+            }
+        }
+        assertEquals(recompute(db.getReadableDatabase()), summary(db.getReadableDatabase()));
+    }
+
+    @Test
+    public void editMovesEntryBetweenBuckets() {
+        long id = db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_HAPPY, BASE_TIME));
+        long day = MoodStatistics.dayOf(BASE_TIME);
+        assertEquals(Collections.singletonList(day + " " + JournalEntry.MOOD_HAPPY + " 1"),
+                summary(db.getReadableDatabase()));
+
+        db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_SAD,
+                BASE_TIME + 3 * MoodStatistics.DAY_MILLIS, id));
+        assertEquals(Collections.singletonList((day + 3) + " " + JournalEntry.MOOD_SAD + " 1"),
+                summary(db.getReadableDatabase()));
+
+        db.delete(id);
+        assertTrue(summary(db.getReadableDatabase()).isEmpty());
+    }
+
+    @Test
+    public void dayOfRoundsDown() {
+        long[] timestamps = new long[]{0, 1, MoodStatistics.DAY_MILLIS - 1, MoodStatistics.DAY_MILLIS,
+                -1, -MoodStatistics.DAY_MILLIS, -MoodStatistics.DAY_MILLIS - 1, BASE_TIME};
+        for(long timestamp : timestamps) {
+            assertEquals(Math.floor(timestamp / (double) MoodStatistics.DAY_MILLIS), MoodStatistics.dayOf(timestamp), 0);
+        }
+    }
+
+    @Test
+    public void entriesAreCountedOnTheLocalDayTheyWereSavedOn() {
+        long day = MoodStatistics.dayOf(BASE_TIME);
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        TimeZone tokyo = TimeZone.getTimeZone("Asia/Tokyo");
+        // 23:00 in New York is already the next day in UTC and Tokyo
+        long evening = BASE_TIME + 15 * 60 * 60 * 1000L;
+        assertEquals(day, MoodStatistics.localDayOf(evening, newYork));
+        assertEquals(day + 1, MoodStatistics.localDayOf(evening, tokyo));
+
+        db.setTimeZone(newYork);
+        long id = db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_HAPPY, evening));
+        db.setTimeZone(tokyo);
+        db.insertAll(Collections.singletonList(new JournalEntry("title", "content", JournalEntry.MOOD_SAD, evening)));
+        List<String> expected = new ArrayList<>();
+        expected.add(day + " " + JournalEntry.MOOD_HAPPY + " 1");
+        expected.add((day + 1) + " " + JournalEntry.MOOD_SAD + " 1");
+        assertEquals(expected, summary(db.getReadableDatabase()));
+
+        // the day is kept as saved when the time zone changes, so the entry is taken out of the right bucket
+        ContentValues values = new ContentValues();
+        values.put(EntryDatabase.TABLE_COLUMN_MOOD, JournalEntry.MOOD_BORED);
+        db.getWritableDatabase().update(EntryDatabase.DB_TABLE_NAME, values,
+                EntryDatabase.TABLE_COLUMN_ID + "=?", new String[]{String.valueOf(id)});
+        assertEquals(day + " " + JournalEntry.MOOD_BORED + " 1", summary(db.getReadableDatabase()).get(0));
+        db.delete(id);
+        assertEquals(Collections.singletonList((day + 1) + " " + JournalEntry.MOOD_SAD + " 1"),
+                summary(db.getReadableDatabase()));
+        assertEquals(recompute(db.getReadableDatabase()), summary(db.getReadableDatabase()));
+    }
+
+    @Test
+    public void groupsIntoBucketsAndStreaks() {
+        long today = MoodStatistics.dayOf(BASE_TIME);
+        // a streak of 3 days up to yesterday, and an older streak of 5 days
+        int[] daysAgo = new int[]{1, 2, 3, 6, 7, 8, 9, 10, 40};
+        for(int ago : daysAgo) {
+            db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_HAPPY,
+                    BASE_TIME - ago * MoodStatistics.DAY_MILLIS));
+        }
+        db.insert(new JournalEntry("title", "content", JournalEntry.MOOD_SAD, BASE_TIME - MoodStatistics.DAY_MILLIS));
+
+        MoodStatistics days = db.getMoodStatistics(MoodStatistics.PERIOD_DAY, today);
+        assertEquals(daysAgo.length + 1, days.getTotal());
+        assertEquals(daysAgo.length, days.getTotal(JournalEntry.MOOD_HAPPY));
+        assertEquals(1, days.getTotal(JournalEntry.MOOD_SAD));
+        assertEquals(3, days.getCurrentStreak());
+        assertEquals(5, days.getLongestStreak());
+        assertEquals(daysAgo.length, days.getBuckets().size());
+        assertEquals(today - 1, days.getBuckets().get(0).getStartDay());
+        assertEquals(2, days.getBuckets().get(0).getTotal());
+
+        // no entry today or yesterday breaks the current streak
+        assertEquals(0, db.getMoodStatistics(MoodStatistics.PERIOD_DAY, today + 2).getCurrentStreak());
+
+        MoodStatistics weeks = db.getMoodStatistics(MoodStatistics.PERIOD_WEEK, today);
+        int total = 0;
+        long previous = Long.MAX_VALUE;
+        for(MoodStatistics.Bucket bucket : weeks.getBuckets()) {
+            // every week starts on a Monday; the epoch was a Thursday
+            assertEquals(0, (bucket.getStartDay() + 3) % 7);
+            assertTrue(bucket.getStartDay() < previous);
+            previous = bucket.getStartDay();
+            total += bucket.getTotal();
+        }
+        assertEquals(weeks.getTotal(), total);
+
+        MoodStatistics months = db.getMoodStatistics(MoodStatistics.PERIOD_MONTH, today);
+        // 2018-05-01 and 2018-04-01
+        assertEquals(2, months.getBuckets().size());
+        assertEquals(17652, months.getBuckets().get(0).getStartDay());
+        assertEquals(17622, months.getBuckets().get(1).getStartDay());
+        assertEquals(1, months.getBuckets().get(1).getTotal());
+    }
+}
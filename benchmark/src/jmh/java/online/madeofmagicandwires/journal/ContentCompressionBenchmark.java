@@ -0,0 +1,64 @@
+package online.madeofmagicandwires.journal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken to compress and decompress the content of an entry, and to find the
+ * words that are indexed in place of a compressed content, against only encoding it as UTF-8 as
+ * storing it uncompressed does.
+ *
+ * Run with <code>./gradlew :benchmark:jmh</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentCompressionBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** length of the content in characters **/
+    @Param({"1000", "8000", "64000", "512000"})
+    public int length;
+
+    private String content;
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() {
+        content = new Corpus(42, 10000).text(length);
+        compressed = ContentCompression.compress(content);
+    }
+
+    /**
+     * What storing the content uncompressed costs besides writing it
+     */
+    @Benchmark
+    public byte[] encode() {
+        return content.getBytes(UTF_8);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return ContentCompression.compress(content);
+    }
+
+    @Benchmark
+    public String decompress() {
+        return ContentCompression.decompress(compressed);
+    }
+
+    @Benchmark
+    public String searchTerms() {
+        return ContentCompression.searchTermsOf(content);
+    }
+}
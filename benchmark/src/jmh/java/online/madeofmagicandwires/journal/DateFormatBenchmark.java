@@ -0,0 +1,104 @@
+package online.madeofmagicandwires.journal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken to format the absolute dates of a list of entries,
+ * comparing {@link DateFormatCache} against creating a formatter per row as EntryAdapter used to.
+ *
+ * Run with <code>./gradlew :benchmark:jmh</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DateFormatBenchmark {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    /** 2019-01-01 00:00:00 UTC **/
+    private static final long BASE_TIME = 1546300800000L;
+
+    /** number of formatted rows **/
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    /** number of days the entries were written over **/
+    @Param({"30", "730"})
+    public int days;
+
+    private long[] timestamps;
+    private Locale locale;
+    private TimeZone timeZone;
+    private DateFormatCache cache;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        timestamps = new long[rows];
+        for(int i = 0; i < rows; i++) {
+            timestamps[i] = BASE_TIME + (long) (random.nextDouble() * days * DAY_IN_MILLIS);
+        }
+        locale = Locale.US;
+        timeZone = TimeZone.getTimeZone("Europe/Amsterdam");
+        cache = new DateFormatCache(locale, timeZone, DateFormatCache.PATTERN_SHORT_ISO);
+    }
+
+    /**
+     * The previous formatDate, creating a new SimpleDateFormat for every row
+     */
+    @Benchmark
+    public void formatterPerRow(Blackhole blackhole) {
+        for(long timestamp : timestamps) {
+            SimpleDateFormat format = new SimpleDateFormat(DateFormatCache.PATTERN_SHORT_ISO, locale);
+            format.setTimeZone(timeZone);
+            blackhole.consume(format.format(timestamp));
+        }
+    }
+
+    /**
+     * A single shared SimpleDateFormat, formatting every row
+     */
+    @Benchmark
+    public void sharedFormatter(Blackhole blackhole) {
+        SimpleDateFormat format = new SimpleDateFormat(DateFormatCache.PATTERN_SHORT_ISO, locale);
+        format.setTimeZone(timeZone);
+        for(long timestamp : timestamps) {
+            blackhole.consume(format.format(timestamp));
+        }
+    }
+
+    /**
+     * The DateFormatCache used by the list, starting out empty
+     */
+    @Benchmark
+    public void cacheCold(Blackhole blackhole) {
+        DateFormatCache cold = new DateFormatCache(locale, timeZone, DateFormatCache.PATTERN_SHORT_ISO);
+        for(long timestamp : timestamps) {
+            blackhole.consume(cold.format(timestamp));
+        }
+    }
+
+    /**
+     * The DateFormatCache used by the list, after the rows have been formatted before,
+     * as when the list is scrolled back over
+     */
+    @Benchmark
+    public void cacheWarm(Blackhole blackhole) {
+        for(long timestamp : timestamps) {
+            blackhole.consume(cache.format(timestamp));
+        }
+    }
+}
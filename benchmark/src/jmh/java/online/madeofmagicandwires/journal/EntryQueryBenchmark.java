@@ -0,0 +1,429 @@
+package online.madeofmagicandwires.journal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the queries EntryDatabase issues against journals of different sizes, run through
+ * SQLite JDBC on the JVM instead of the SQLite of the Android framework.
+ *
+ * The schema and queries are copies of those of EntryDatabase as of schema version 11, without the
+ * Android classes around them; keep them in sync when those change. Absolute times differ from
+ * those on a device, but how they grow with the size of the journal and between runs does not.
+ * EntryDatabaseBenchmark measures the same paths on a device.
+ *
+ * Run with <code>./gradlew :benchmark:jmh</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EntryQueryBenchmark {
+
+    /** number of entries per page of the list, as EntryPager.PAGE_SIZE **/
+    private static final int PAGE_SIZE = 50;
+    /** number of words per generated entry **/
+    private static final int WORDS_PER_ENTRY = 120;
+    /** 2019-01-01 00:00:00 UTC **/
+    private static final long BASE_TIME = 1546300800000L;
+    private static final int MOOD_HAPPY = 2;
+    private static final long DAY_MILLIS = 24 * 3600000L;
+    /** number of days of a month and a year of the calendar **/
+    private static final int MONTH_DAYS = 31;
+    private static final int YEAR_DAYS = 365;
+    /** number of counts per day: one per known mood and one for unknown moods **/
+    private static final int MOOD_SLOTS = 5;
+
+    private static final String LIST_COLUMNS =
+            "substr(title, 1, 100) AS title, preview, mood, entryDate, _id";
+    private static final String ORDER_LATEST = "entryDate DESC, _id ASC";
+    private static final String CALENDAR_COLUMNS = "substr(title, 1, 100) AS title, mood, entryDate, _id";
+
+    /** number of entries in the journal **/
+    @Param({"1000", "10000", "100000"})
+    public int entries;
+
+    private File file;
+    private Connection connection;
+    private Corpus corpus;
+    private Random random;
+
+    private PreparedStatement firstPage;
+    private PreparedStatement page;
+    private PreparedStatement moodPage;
+    private PreparedStatement between;
+    private PreparedStatement calendar;
+    private PreparedStatement entry;
+    private PreparedStatement search;
+    private PreparedStatement statistics;
+    private PreparedStatement insert;
+    private PreparedStatement lastId;
+    private PreparedStatement tombstone;
+    private PreparedStatement delete;
+    private PreparedStatement purge;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        file = File.createTempFile("EntryQueryBenchmark", ".db");
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        corpus = new Corpus(42, 10000);
+        random = new Random(42);
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA recursive_triggers = ON");
+            createSchema(statement);
+        } finally {
+            statement.close();
+        }
+        populate();
+
+        firstPage = connection.prepareStatement("SELECT " + LIST_COLUMNS + " FROM entries ORDER BY " + ORDER_LATEST +
+                " LIMIT " + PAGE_SIZE);
+        page = connection.prepareStatement("SELECT " + LIST_COLUMNS + " FROM entries " +
+                "WHERE entryDate <= ? AND (entryDate < ? OR _id > ?) ORDER BY " + ORDER_LATEST + " LIMIT " + PAGE_SIZE);
+        moodPage = connection.prepareStatement("SELECT " + LIST_COLUMNS + " FROM entries " +
+                "WHERE mood = ? AND entryDate <= ? AND (entryDate < ? OR _id > ?) ORDER BY " + ORDER_LATEST +
+                " LIMIT " + PAGE_SIZE);
+        between = connection.prepareStatement("SELECT " + CALENDAR_COLUMNS + " FROM entries " +
+                "WHERE entryDate >= ? AND entryDate < ? ORDER BY " + ORDER_LATEST + " LIMIT ?");
+        calendar = connection.prepareStatement("SELECT entryDate, mood FROM entries " +
+                "WHERE entryDate >= ? AND entryDate < ?");
+        entry = connection.prepareStatement("SELECT _id, title, mood, entryDate, contentLength, " +
+                "CASE WHEN compressedContent IS NULL AND contentLength <= 262144 THEN content END AS content, " +
+                "CASE WHEN length(compressedContent) <= 262144 THEN compressedContent END " +
+                "FROM entries WHERE _id = ?");
+        search = connection.prepareStatement("SELECT docid, matchinfo(entries_fts, 'pcx') FROM entries_fts " +
+                "WHERE entries_fts MATCH ?");
+        statistics = connection.prepareStatement("SELECT day, mood, count FROM mood_stats ORDER BY day DESC");
+        insert = connection.prepareStatement("INSERT OR REPLACE INTO entries" +
+                "(_id, title, content, mood, entryDate, preview, contentLength, compressedContent, localDay) " +
+                "VALUES (?,?,?,?,?,?,?,?,?)");
+        lastId = connection.prepareStatement("SELECT last_insert_rowid()");
+        tombstone = connection.prepareStatement("INSERT OR REPLACE INTO deleted_entries" +
+                "(_id, title, content, mood, entryDate, preview, contentLength, compressedContent, localDay, deletedAt) " +
+                "SELECT _id, title, content, mood, entryDate, preview, contentLength, compressedContent, localDay, ? " +
+                "FROM entries WHERE _id = ?");
+        delete = connection.prepareStatement("DELETE FROM entries WHERE _id = ?");
+        purge = connection.prepareStatement("DELETE FROM deleted_entries WHERE _id IN " +
+                "(SELECT _id FROM deleted_entries WHERE deletedAt <= ? LIMIT 100)");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+        file.delete();
+    }
+
+    /**
+     * Creates the tables, indices and triggers of EntryDatabase.onCreate
+     * @param statement statement to run the SQL with
+     */
+    private static void createSchema(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE entries(" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT UNIQUE," +
+                "title TEXT NOT NULL," +
+                "content TEXT NOT NULL," +
+                "mood INTEGER NOT NULL DEFAULT -1," +
+                "entryDate INTEGER NOT NULL," +
+                "preview TEXT NOT NULL DEFAULT ''," +
+                "contentLength INTEGER NOT NULL DEFAULT 0," +
+                "compressedContent BLOB," +
+                "localDay INTEGER)");
+        statement.execute("CREATE INDEX entries_calendar_idx ON entries(entryDate DESC, _id, mood, title)");
+        statement.execute("CREATE INDEX entries_mood_idx ON entries(mood, entryDate DESC)");
+
+        statement.execute("CREATE VIRTUAL TABLE entries_fts USING fts4(content=\"entries\", title, content)");
+        statement.execute("CREATE TRIGGER entries_fts_bu BEFORE UPDATE OF title, content ON entries BEGIN " +
+                "DELETE FROM entries_fts WHERE docid=old._id; END");
+        statement.execute("CREATE TRIGGER entries_fts_bd BEFORE DELETE ON entries BEGIN " +
+                "DELETE FROM entries_fts WHERE docid=old._id; END");
+        String index = "INSERT INTO entries_fts(docid, title, content) VALUES(new._id, new.title, new.content); END";
+        statement.execute("CREATE TRIGGER entries_fts_au AFTER UPDATE OF title, content ON entries BEGIN " + index);
+        statement.execute("CREATE TRIGGER entries_fts_ai AFTER INSERT ON entries BEGIN " + index);
+
+        statement.execute("CREATE TABLE mood_stats(" +
+                "day INTEGER NOT NULL," +
+                "mood INTEGER NOT NULL," +
+                "count INTEGER NOT NULL," +
+                "PRIMARY KEY(day, mood)) WITHOUT ROWID");
+        String newDay = "new.localDay";
+        String oldDay = "old.localDay";
+        String countIn = "INSERT OR IGNORE INTO mood_stats VALUES(" + newDay + ", new.mood, 0); " +
+                "UPDATE mood_stats SET count = count + 1 WHERE day = " + newDay + " AND mood = new.mood; ";
+        String countOut = "UPDATE mood_stats SET count = count - 1 WHERE day = " + oldDay + " AND mood = old.mood; " +
+                "DELETE FROM mood_stats WHERE day = " + oldDay + " AND mood = old.mood AND count <= 0; ";
+        statement.execute("CREATE TRIGGER mood_stats_ai AFTER INSERT ON entries BEGIN " + countIn + "END");
+        statement.execute("CREATE TRIGGER mood_stats_ad AFTER DELETE ON entries BEGIN " + countOut + "END");
+        statement.execute("CREATE TRIGGER mood_stats_au AFTER UPDATE OF mood, localDay ON entries BEGIN " +
+                countOut + countIn + "END");
+
+        statement.execute("CREATE TABLE deleted_entries(" +
+                "_id INTEGER PRIMARY KEY," +
+                "title TEXT NOT NULL," +
+                "content TEXT NOT NULL," +
+                "mood INTEGER NOT NULL DEFAULT -1," +
+                "entryDate INTEGER NOT NULL," +
+                "preview TEXT NOT NULL DEFAULT ''," +
+                "contentLength INTEGER NOT NULL DEFAULT 0," +
+                "compressedContent BLOB," +
+                "deletedAt INTEGER NOT NULL," +
+                "localDay INTEGER)");
+        statement.execute("CREATE INDEX deleted_entries_deletedAt_idx ON deleted_entries(deletedAt)");
+    }
+
+    /**
+     * Binds the values of a generated entry to the insert statement
+     * @param id the id of the entry, or 0 to let SQLite assign one
+     * @param i the index of the generated entry
+     */
+    private void bindEntry(long id, int i) throws SQLException {
+        StringBuilder content = new StringBuilder();
+        for(int word = 0; word < WORDS_PER_ENTRY; word++) {
+            content.append(corpus.word()).append(' ');
+        }
+        if(id > 0) {
+            insert.setLong(1, id);
+        } else {
+            insert.setNull(1, Types.INTEGER);
+        }
+        insert.setString(2, "Entry " + i);
+        insert.setString(3, content.toString());
+        insert.setInt(4, i % 4);
+        insert.setLong(5, timeOf(i));
+        insert.setString(6, content.substring(0, Math.min(200, content.length())));
+        insert.setInt(7, content.length());
+        insert.setNull(8, Types.BLOB);
+        insert.setLong(9, localDayOf(timeOf(i)));
+    }
+
+    /**
+     * Fills the journal with generated entries, an hour apart, in a single transaction
+     */
+    private void populate() throws SQLException {
+        insert = connection.prepareStatement("INSERT INTO entries" +
+                "(_id, title, content, mood, entryDate, preview, contentLength, compressedContent, localDay) " +
+                "VALUES (?,?,?,?,?,?,?,?,?)");
+        connection.setAutoCommit(false);
+        try {
+            for(int i = 0; i < entries; i++) {
+                bindEntry(0, i);
+                insert.executeUpdate();
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+            insert.close();
+        }
+    }
+
+    /**
+     * Reads every column of every row of a query, as a cursor filling its window would
+     * @param statement the query to run
+     * @param blackhole consumes the values read
+     */
+    private static void consume(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        ResultSet results = statement.executeQuery();
+        try {
+            int columns = results.getMetaData().getColumnCount();
+            while(results.next()) {
+                for(int column = 1; column <= columns; column++) {
+                    blackhole.consume(results.getObject(column));
+                }
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    /**
+     * Returns the timestamp of a generated entry
+     * @param i the index of the entry
+     * @return milliseconds since the epoch
+     */
+    private static long timeOf(int i) {
+        return BASE_TIME + i * 3600000L;
+    }
+
+    /**
+     * Returns the local date of a timestamp as EntryDatabase stores it, see MoodStatistics.localDayOf
+     * @param time milliseconds since the epoch, after it
+     * @return the date in the default time zone, in days since the epoch
+     */
+    private static long localDayOf(long time) {
+        return (time + TimeZone.getDefault().getOffset(time)) / 86400000L;
+    }
+
+    @Benchmark
+    public void firstPage(Blackhole blackhole) throws SQLException {
+        consume(firstPage, blackhole);
+    }
+
+    /**
+     * A page near the end of the list, which keyset pagination reads as quickly as the first
+     */
+    @Benchmark
+    public void pageNearEnd(Blackhole blackhole) throws SQLException {
+        int after = Math.min(PAGE_SIZE * 2, entries - 1);
+        page.setLong(1, timeOf(after));
+        page.setLong(2, timeOf(after));
+        page.setLong(3, after + 1);
+        consume(page, blackhole);
+    }
+
+    @Benchmark
+    public void moodPage(Blackhole blackhole) throws SQLException {
+        int after = entries / 2;
+        moodPage.setInt(1, MOOD_HAPPY);
+        moodPage.setLong(2, timeOf(after));
+        moodPage.setLong(3, timeOf(after));
+        moodPage.setLong(4, after + 1);
+        consume(moodPage, blackhole);
+    }
+
+    /**
+     * The entries of the first month of the journal, which is years back in the largest journal,
+     * as a calendar shows them when jumping to that month
+     */
+    @Benchmark
+    public void monthEntries(Blackhole blackhole) throws SQLException {
+        between.setLong(1, BASE_TIME);
+        between.setLong(2, BASE_TIME + MONTH_DAYS * DAY_MILLIS);
+        between.setInt(3, MONTH_DAYS * 24);
+        consume(between, blackhole);
+    }
+
+    /**
+     * Counts the entries per day of the first month of the journal, as EntryDatabase.getCalendar does
+     */
+    @Benchmark
+    public int[][] monthCalendar() throws SQLException {
+        return countPerDay(MONTH_DAYS);
+    }
+
+    /**
+     * Counts the entries per day of the first year of the journal, which is all of the smaller journals
+     */
+    @Benchmark
+    public int[][] yearCalendar() throws SQLException {
+        return countPerDay(YEAR_DAYS);
+    }
+
+    /**
+     * Counts the entries per mood on each of the first days of the journal, reading only the
+     * timestamp and mood of the entries of those days from the calendar index
+     * @param days the number of days to count
+     * @return the number of entries per day and mood; unknown moods are counted in the last slot
+     */
+    private int[][] countPerDay(int days) throws SQLException {
+        int[][] counts = new int[days][MOOD_SLOTS];
+        calendar.setLong(1, BASE_TIME);
+        calendar.setLong(2, BASE_TIME + days * DAY_MILLIS);
+        ResultSet results = calendar.executeQuery();
+        try {
+            while(results.next()) {
+                int day = (int) ((results.getLong(1) - BASE_TIME) / DAY_MILLIS);
+                int mood = results.getInt(2);
+                counts[day][mood >= 0 && mood < MOOD_SLOTS - 1 ? mood : MOOD_SLOTS - 1]++;
+            }
+        } finally {
+            results.close();
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public void getEntry(Blackhole blackhole) throws SQLException {
+        entry.setLong(1, 1 + random.nextInt(entries));
+        consume(entry, blackhole);
+    }
+
+    /**
+     * The first step of EntryDatabase.search, reading the match info of every entry matching two
+     * word prefixes to rank them by
+     */
+    @Benchmark
+    public void search(Blackhole blackhole) throws SQLException {
+        search.setString(1, corpus.word() + "* " + corpus.word() + "*");
+        ResultSet results = search.executeQuery();
+        try {
+            while(results.next()) {
+                blackhole.consume(results.getLong(1));
+                blackhole.consume(results.getBytes(2));
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    @Benchmark
+    public void statistics(Blackhole blackhole) throws SQLException {
+        consume(statistics, blackhole);
+    }
+
+    /**
+     * Saves an edit of an existing entry, as InputActivity does, with the triggers of the
+     * full-text index and statistics running for it
+     */
+    @Benchmark
+    public void replaceEntry() throws SQLException {
+        int i = random.nextInt(entries);
+        bindEntry(i + 1, i);
+        insert.executeUpdate();
+    }
+
+    /**
+     * Writes a new entry, deletes it again by moving it to the tombstones and purges it, so the
+     * journal keeps its size
+     */
+    @Benchmark
+    public void insertAndDelete() throws SQLException {
+        bindEntry(0, entries);
+        insert.executeUpdate();
+        long id;
+        ResultSet key = lastId.executeQuery();
+        try {
+            key.next();
+            id = key.getLong(1);
+        } finally {
+            key.close();
+        }
+        long now = System.currentTimeMillis();
+        connection.setAutoCommit(false);
+        try {
+            tombstone.setLong(1, now);
+            tombstone.setLong(2, id);
+            tombstone.executeUpdate();
+            delete.setLong(1, id);
+            delete.executeUpdate();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        purge.setLong(1, now);
+        purge.executeUpdate();
+    }
+}